@@ -0,0 +1,336 @@
+package ca.on.oicr.pde.benchmarks;
+
+import ca.on.oicr.gsi.provenance.DefaultProvenanceClient;
+import ca.on.oicr.gsi.provenance.ExtendedProvenanceClient;
+import ca.on.oicr.gsi.provenance.SeqwareMetadataAnalysisProvenanceProvider;
+import ca.on.oicr.gsi.provenance.SeqwareMetadataLimsMetadataProvenanceProvider;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import ca.on.oicr.pde.client.MetadataBackedSeqwareClient;
+import ca.on.oicr.pde.client.MetadataBackedSeqwareLimsClient;
+import ca.on.oicr.pde.client.SeqwareClient;
+import ca.on.oicr.pde.client.SeqwareLimsClient;
+import ca.on.oicr.pde.testing.metadata.RegressionTestStudy.LibraryType;
+import com.google.common.collect.Sets;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.metadata.MetadataInMemory;
+import net.sourceforge.seqware.common.model.Experiment;
+import net.sourceforge.seqware.common.model.IUS;
+import net.sourceforge.seqware.common.model.Lane;
+import net.sourceforge.seqware.common.model.Sample;
+import net.sourceforge.seqware.common.model.SequencerRun;
+import net.sourceforge.seqware.common.model.Study;
+import net.sourceforge.seqware.common.model.Workflow;
+import net.sourceforge.seqware.common.module.FileMetadata;
+
+/**
+ * Generates a synthetic LIMS and analysis data set in {@link MetadataInMemory} and provides an in-process provenance client for it.
+ * <p>
+ * Each study has donors, each donor has libraries (with tissue and template type attributes plus "attributeDensity" extra
+ * attributes) that are sequenced on lanes of sequencer runs, and each library has "filesPerLibrary" files produced by an upstream
+ * workflow, so the file provenance report has studies * donorsPerStudy * librariesPerDonor * filesPerLibrary records.
+ * <p>
+ * Populating MetadataInMemory is practical up to about a million records. Larger reports are produced with
+ * {@link #tile(java.util.List, long)}, which repeats a generated report with unique file, IUS and workflow run SWIDs and sample names.
+ */
+public class SyntheticProvenance {
+
+    private static final String[] TISSUE_ORIGINS = {"Pa", "Ly", "Br", "Lv"};
+    private static final String[] TISSUE_TYPES = {"P", "R", "X", "M"};
+    private static final String[] TEMPLATE_TYPES = {"WG", "EX", "TS", "WT"};
+
+    private int studies = 2;
+    private int donorsPerStudy = 50;
+    private int librariesPerDonor = 4;
+    private int filesPerLibrary = 25;
+    private int lanesPerRun = 8;
+    private int librariesPerLane = 12;
+    private int attributeDensity = 4;
+    private long seed = 1;
+
+    private MetadataInMemory metadata;
+    private ExtendedProvenanceClient provenanceClient;
+    private Workflow upstreamWorkflow;
+    private Workflow downstreamWorkflow;
+
+    /**
+     * Create a generator with the default shape and the number of files per library chosen for a report of about the given size.
+     *
+     * @param records the approximate number of file provenance records
+     *
+     * @return the generator
+     */
+    public static SyntheticProvenance ofRecordCount(long records) {
+        SyntheticProvenance sp = new SyntheticProvenance();
+        long libraries = (long) sp.studies * sp.donorsPerStudy * sp.librariesPerDonor;
+        sp.filesPerLibrary = (int) Math.max(1, records / libraries);
+        return sp;
+    }
+
+    public SyntheticProvenance studies(int studies) {
+        this.studies = studies;
+        return this;
+    }
+
+    public SyntheticProvenance donorsPerStudy(int donorsPerStudy) {
+        this.donorsPerStudy = donorsPerStudy;
+        return this;
+    }
+
+    public SyntheticProvenance librariesPerDonor(int librariesPerDonor) {
+        this.librariesPerDonor = librariesPerDonor;
+        return this;
+    }
+
+    public SyntheticProvenance filesPerLibrary(int filesPerLibrary) {
+        this.filesPerLibrary = filesPerLibrary;
+        return this;
+    }
+
+    public SyntheticProvenance lanesPerRun(int lanesPerRun) {
+        this.lanesPerRun = lanesPerRun;
+        return this;
+    }
+
+    public SyntheticProvenance librariesPerLane(int librariesPerLane) {
+        this.librariesPerLane = librariesPerLane;
+        return this;
+    }
+
+    /**
+     * @param attributeDensity the number of extra attributes on each library
+     *
+     * @return this generator
+     */
+    public SyntheticProvenance attributeDensity(int attributeDensity) {
+        this.attributeDensity = attributeDensity;
+        return this;
+    }
+
+    public SyntheticProvenance seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public long getRecordCount() {
+        return (long) studies * donorsPerStudy * librariesPerDonor * filesPerLibrary;
+    }
+
+    /**
+     * Clear MetadataInMemory (which is static) and populate it with the data set.
+     *
+     * @return this generator
+     */
+    public SyntheticProvenance generate() {
+        clearMetadataInMemory();
+        metadata = new MetadataInMemory();
+        Map<String, String> config = new HashMap<>();
+        config.put("SW_METADATA_METHOD", "inmemory");
+        SeqwareLimsClient lims = new MetadataBackedSeqwareLimsClient(metadata, config);
+        SeqwareClient seqware = new MetadataBackedSeqwareClient(metadata, config);
+
+        SeqwareMetadataLimsMetadataProvenanceProvider limsProvider = new SeqwareMetadataLimsMetadataProvenanceProvider(metadata);
+        DefaultProvenanceClient dpc = new DefaultProvenanceClient();
+        dpc.registerAnalysisProvenanceProvider("seqware", new SeqwareMetadataAnalysisProvenanceProvider(metadata));
+        dpc.registerSampleProvenanceProvider("seqware", limsProvider);
+        dpc.registerLaneProvenanceProvider("seqware", limsProvider);
+        provenanceClient = dpc;
+
+        Random random = new Random(seed);
+        List<Lane> lanes = new ArrayList<>();
+        List<IUS> libraryIus = new ArrayList<>();
+        List<String> libraryNames = new ArrayList<>();
+        SequencerRun run = null;
+        int libraryCount = 0;
+        for (int s = 0; s < studies; s++) {
+            String studyName = String.format("BENCH%02d", s);
+            Study study = lims.createStudy(Integer.toString(s), "OICR", studyName, null, "11", studyName);
+            Experiment experiment = lims.createExperiment(null, "20", study, studyName + "_ILLUMINA");
+            for (int d = 0; d < donorsPerStudy; d++) {
+                String donorName = String.format("%s_%05d", studyName, d);
+                Sample donor = lims.createSample(null, experiment, "34", donorName, null);
+                for (int l = 0; l < librariesPerDonor; l++) {
+                    String tissueOrigin = TISSUE_ORIGINS[random.nextInt(TISSUE_ORIGINS.length)];
+                    String tissueType = TISSUE_TYPES[l % TISSUE_TYPES.length];
+                    String templateType = TEMPLATE_TYPES[random.nextInt(TEMPLATE_TYPES.length)];
+                    String librarySize = Integer.toString(200 + random.nextInt(400));
+                    Sample tissue = lims.createSample(null, experiment, "34", donorName + "_" + tissueOrigin + "_" + tissueType, donor);
+                    String libraryName = String.format("%s_%s_%s_PE_%s_%s_%d", donorName, tissueOrigin, tissueType, librarySize, templateType, l);
+                    Sample library = lims.createSample(null, experiment, "34", libraryName, tissue);
+                    lims.annotate(library, "geo_tissue_origin", tissueOrigin);
+                    lims.annotate(library, "geo_tissue_type", tissueType);
+                    lims.annotate(library, "geo_library_size_code", librarySize);
+                    lims.annotate(library, "geo_library_source_template_type", templateType);
+                    for (int a = 0; a < attributeDensity; a++) {
+                        lims.annotate(library, "benchmark_attribute_" + a, Integer.toString(random.nextInt(1000)));
+                    }
+
+                    //libraries are assigned to lanes in order, with a new sequencer run every "lanesPerRun" lanes
+                    int laneIndex = libraryCount / librariesPerLane;
+                    if (laneIndex == lanes.size()) {
+                        if (laneIndex % lanesPerRun == 0) {
+                            String runName = String.format("BENCH_RUN_%04d", laneIndex / lanesPerRun);
+                            run = lims.createSequencerRun(null, "/tmp/" + runName + "/", runName, true, "20", false);
+                        }
+                        lanes.add(lims.createLane(null, null, Integer.toString(laneIndex % lanesPerRun + 1), LibraryType.PE.getId(), "5", "14",
+                                null, run, false, "11"));
+                    }
+                    String barcode = String.format("%06X", libraryCount % librariesPerLane);
+                    libraryIus.add(lims.createIus(barcode, null, lanes.get(laneIndex), null, library, false));
+                    libraryNames.add(libraryName);
+                    libraryCount++;
+                }
+            }
+        }
+
+        //link the upstream workflow runs to the LIMS provenance records of the libraries
+        Map<String, SampleProvenance> sampleProvenanceByName = new HashMap<>();
+        for (SampleProvenance sp : provenanceClient.getSampleProvenance()) {
+            sampleProvenanceByName.put(sp.getSampleName(), sp);
+        }
+        upstreamWorkflow = seqware.createWorkflow("BenchmarkUpstreamWorkflow", "1.0", "synthetic upstream workflow");
+        downstreamWorkflow = seqware.createWorkflow("BenchmarkDownstreamWorkflow", "1.0", "synthetic downstream workflow");
+        for (String libraryName : libraryNames) {
+            SampleProvenance sp = sampleProvenanceByName.get(libraryName);
+            if (sp == null) {
+                throw new IllegalStateException("No sample provenance for library [" + libraryName + "]");
+            }
+            IUS limsKey = seqware.addLims("seqware", sp.getSampleProvenanceId(), sp.getVersion(), sp.getLastModified());
+            for (int f = 0; f < filesPerLibrary; f++) {
+                FileMetadata file = new FileMetadata();
+                file.setDescription("synthetic file");
+                file.setMd5sum("md5sum");
+                file.setFilePath("/tmp/benchmark/" + libraryName + "_" + f + ".bam");
+                file.setMetaType("application/bam");
+                file.setType("bam");
+                file.setSize(1L);
+                seqware.createWorkflowRun(upstreamWorkflow, Sets.newHashSet(limsKey), Collections.emptyList(),
+                        Collections.singletonList(file));
+            }
+        }
+        return this;
+    }
+
+    public MetadataInMemory getMetadata() {
+        return metadata;
+    }
+
+    public ExtendedProvenanceClient getProvenanceClient() {
+        return provenanceClient;
+    }
+
+    /**
+     * @return the workflow that produced the files
+     */
+    public Workflow getUpstreamWorkflow() {
+        return upstreamWorkflow;
+    }
+
+    /**
+     * @return a workflow without runs, to be used as the decider workflow
+     */
+    public Workflow getDownstreamWorkflow() {
+        return downstreamWorkflow;
+    }
+
+    /**
+     * Repeat file provenance report records until there are "records" records. Copies of the records have offset file, IUS and workflow
+     * run SWIDs and suffixed sample, root sample, sequencer run and file path values, so that they are distinct files of distinct
+     * libraries, donors and lanes. The records are created as the stream is consumed.
+     *
+     * @param report  the report records (header title to value maps)
+     * @param records the number of records to produce
+     *
+     * @return the records, each of which is a new mutable map
+     */
+    public static Stream<Map<String, String>> tile(List<Map<String, String>> report, long records) {
+        if (report.isEmpty()) {
+            throw new IllegalArgumentException("Report is empty");
+        }
+        long stride = 1;
+        for (Map<String, String> record : report) {
+            for (Header swidHeader : new Header[]{Header.FILE_SWA, Header.IUS_SWA, Header.WORKFLOW_RUN_SWA}) {
+                stride = Math.max(stride, maxSwid(record.get(swidHeader.getTitle())) + 1);
+            }
+        }
+        long copies = (records + report.size() - 1) / report.size();
+        if (stride * copies > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many copies of the report for unique SWIDs: " + copies);
+        }
+        long swidStride = stride;
+        Function<Long, Map<String, String>> recordAt = i -> {
+            long copy = i / report.size();
+            Map<String, String> record = new HashMap<>(report.get((int) (i % report.size())));
+            if (copy > 0) {
+                String suffix = "_c" + copy;
+                for (Header swidHeader : new Header[]{Header.FILE_SWA, Header.IUS_SWA, Header.WORKFLOW_RUN_SWA}) {
+                    record.computeIfPresent(swidHeader.getTitle(), (k, v) -> offsetSwids(v, copy * swidStride));
+                }
+                for (Header nameHeader : new Header[]{Header.SAMPLE_NAME, Header.ROOT_SAMPLE_NAME, Header.PARENT_SAMPLE_NAME,
+                    Header.SEQUENCER_RUN_NAME, Header.FILE_PATH}) {
+                    record.computeIfPresent(nameHeader.getTitle(), (k, v) -> v.isEmpty() ? v : v + suffix);
+                }
+            }
+            return record;
+        };
+        return StreamSupport.stream(Spliterators.spliterator(new java.util.Iterator<Map<String, String>>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < records;
+            }
+
+            @Override
+            public Map<String, String> next() {
+                return recordAt.apply(next++);
+            }
+        }, records, Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL), false);
+    }
+
+    private static long maxSwid(String swids) {
+        long max = 0;
+        if (swids != null && !swids.isEmpty()) {
+            for (String swid : swids.split(";")) {
+                max = Math.max(max, Long.parseLong(swid));
+            }
+        }
+        return max;
+    }
+
+    private static String offsetSwids(String swids, long offset) {
+        if (swids.isEmpty()) {
+            return swids;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String swid : swids.split(";")) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(Long.parseLong(swid) + offset);
+        }
+        return sb.toString();
+    }
+
+    private static void clearMetadataInMemory() {
+        try {
+            Field store = MetadataInMemory.class.getDeclaredField("STORE");
+            store.setAccessible(true);
+            ((com.google.common.collect.Table<?, ?, ?>) store.get(null)).clear();
+        } catch (ReflectiveOperationException ex) {
+            throw new RuntimeException("Unable to clear MetadataInMemory", ex);
+        }
+    }
+
+}
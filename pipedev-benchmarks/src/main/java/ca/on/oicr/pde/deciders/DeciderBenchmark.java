@@ -0,0 +1,175 @@
+package ca.on.oicr.pde.deciders;
+
+import ca.on.oicr.pde.benchmarks.SyntheticProvenance;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.model.FileProvenanceParam;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the decider stages that follow the file provenance report: conversion of report records to ReturnValues,
+ * {@link BasicDecider#separateFiles(java.util.List, java.lang.String)}, {@link FileAttributes} construction and
+ * {@link MergingDecider} grouping.
+ * <p>
+ * A 10k record report is generated from a synthetic {@link net.sourceforge.seqware.common.metadata.MetadataInMemory} data set and
+ * tiled to the "records" count (see {@link SyntheticProvenance#tile(java.util.List, long)}). Each benchmark only materializes the
+ * input it needs (report records or ReturnValues). The default record counts fit the 8g heap of the fork, 10M record runs need about
+ * 32g and are only run when requested with "-p records=10000000" and a larger heap (the command line "-jvmArgsAppend" replaces the
+ * default).
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn package -pl pipedev-benchmarks -am -DskipTests
+ * java -jar pipedev-benchmarks/target/benchmarks.jar DeciderBenchmark -p records=10000,1000000 -prof gc
+ * java -jar pipedev-benchmarks/target/benchmarks.jar DeciderBenchmark -p records=10000000 -jvmArgsAppend -Xmx32g
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class DeciderBenchmark {
+
+    private static final int BASE_RECORDS = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Deciders {
+
+        // 10000000 does not fit the default heap, see the class documentation
+        @Param({"10000", "1000000"})
+        public long records;
+
+        OicrDecider decider;
+        BenchmarkMergingDecider mergingDecider;
+        List<Map<String, String>> baseReport;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            SyntheticProvenance syntheticProvenance = SyntheticProvenance.ofRecordCount(BASE_RECORDS).generate();
+            decider = init(new OicrDecider(syntheticProvenance.getProvenanceClient()), syntheticProvenance);
+            mergingDecider = init(new BenchmarkMergingDecider(), syntheticProvenance);
+            decider.setHeadersToGroupBy(Arrays.asList(Header.SAMPLE_NAME));
+            baseReport = decider.getFileProvenanceReport(new EnumMap<>(FileProvenanceParam.class));
+        }
+
+        private static <T extends OicrDecider> T init(T decider, SyntheticProvenance syntheticProvenance) {
+            Map<String, String> config = new HashMap<>();
+            config.put("SW_METADATA_METHOD", "inmemory");
+            decider.setProvenanceClient(syntheticProvenance.getProvenanceClient());
+            decider.setWorkflowAccession(syntheticProvenance.getDownstreamWorkflow().getSwAccession().toString());
+            decider.setMetadata(syntheticProvenance.getMetadata());
+            decider.setConfig(config);
+            decider.setParams(Arrays.asList("--all", "--parent-wf-accessions",
+                    syntheticProvenance.getUpstreamWorkflow().getSwAccession().toString()));
+            if (decider.parse_parameters().getReturnValue() != 0) {
+                throw new IllegalStateException("Unable to parse decider parameters");
+            }
+            decider.init();
+            return decider;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReportRecords {
+
+        List<Map<String, String>> records;
+
+        @Setup(Level.Trial)
+        public void setup(Deciders deciders) {
+            records = SyntheticProvenance.tile(deciders.baseReport, deciders.records).collect(Collectors.toList());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReturnValues {
+
+        List<ReturnValue> returnValues;
+
+        @Setup(Level.Trial)
+        public void setup(Deciders deciders) {
+            returnValues = SyntheticProvenance.tile(deciders.baseReport, deciders.records)
+                    .map(deciders.decider::convertFileProvenanceRecord)
+                    .collect(Collectors.toList());
+        }
+
+        @Setup(Level.Invocation)
+        public void reset(Deciders deciders) {
+            deciders.mergingDecider.fileSwaToFile.clear();
+            deciders.mergingDecider.fileSwaToGroupName.clear();
+        }
+    }
+
+    @Benchmark
+    public List<ReturnValue> convertFileProvenanceReport(Deciders deciders, ReportRecords reportRecords) {
+        List<ReturnValue> returnValues = new ArrayList<>(reportRecords.records.size());
+        for (Map<String, String> record : reportRecords.records) {
+            returnValues.add(deciders.decider.convertFileProvenanceRecord(record));
+        }
+        return returnValues;
+    }
+
+    @Benchmark
+    public Map<String, List<ReturnValue>> separateFiles(Deciders deciders, ReturnValues returnValues) {
+        return deciders.decider.separateFiles(returnValues.returnValues, Header.SAMPLE_NAME.getTitle());
+    }
+
+    @Benchmark
+    public void fileAttributes(ReturnValues returnValues, Blackhole blackhole) {
+        for (ReturnValue returnValue : returnValues.returnValues) {
+            blackhole.consume(new FileAttributes(returnValue, returnValue.getFiles().get(0)));
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<ReturnValue>> mergingDeciderSeparateFiles(Deciders deciders, ReturnValues returnValues) {
+        return deciders.mergingDecider.separateFiles(returnValues.returnValues, Header.FILE_SWA.getTitle());
+    }
+
+    /**
+     * A merging decider that groups all files with the default grouping.
+     */
+    public static class BenchmarkMergingDecider extends MergingDecider {
+
+        public BenchmarkMergingDecider() {
+            super(LogManager.getLogger(BenchmarkMergingDecider.class));
+        }
+
+        @Override
+        protected boolean checkFilePassesFilterBeforeGrouping(FileAttributes fileAttributes) {
+            return true;
+        }
+
+        @Override
+        protected boolean checkFilePassesFilterAfterGrouping(FileAttributes fileAttributes) {
+            return true;
+        }
+
+        @Override
+        protected ReturnValue customizeWorkflowRun(WorkflowRun run) {
+            return new ReturnValue();
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package ca.on.oicr.pde.deciders;
+
+import ca.on.oicr.pde.benchmarks.SyntheticProvenance;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.seqware.common.model.FileProvenanceParam;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link OicrDecider#getFileProvenanceReport(java.util.Map)} end to end: the provenance client join of analysis, sample and
+ * lane provenance from a synthetic {@link net.sourceforge.seqware.common.metadata.MetadataInMemory} data set, filtering and conversion
+ * to report records.
+ * <p>
+ * The data set is generated in MetadataInMemory, so this benchmark is limited to record counts that fit in the in-memory store (see
+ * {@link DeciderBenchmark} for the 10M record stages).
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn package -pl pipedev-benchmarks -am -DskipTests
+ * java -Xmx8g -jar pipedev-benchmarks/target/benchmarks.jar FileProvenanceReportBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class FileProvenanceReportBenchmark {
+
+    @Param({"10000", "1000000"})
+    public long records;
+
+    private SyntheticProvenance syntheticProvenance;
+    private OicrDecider decider;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        syntheticProvenance = SyntheticProvenance.ofRecordCount(records).generate();
+
+        Map<String, String> config = new HashMap<>();
+        config.put("SW_METADATA_METHOD", "inmemory");
+        decider = new OicrDecider(syntheticProvenance.getProvenanceClient());
+        decider.setWorkflowAccession(syntheticProvenance.getDownstreamWorkflow().getSwAccession().toString());
+        decider.setMetadata(syntheticProvenance.getMetadata());
+        decider.setConfig(config);
+        decider.setParams(Arrays.asList("--all", "--parent-wf-accessions",
+                syntheticProvenance.getUpstreamWorkflow().getSwAccession().toString()));
+        if (decider.parse_parameters().getReturnValue() != 0) {
+            throw new IllegalStateException("Unable to parse decider parameters");
+        }
+        decider.init();
+    }
+
+    @Benchmark
+    public List<Map<String, String>> getFileProvenanceReport() {
+        return decider.getFileProvenanceReport(new EnumMap<>(FileProvenanceParam.class));
+    }
+
+}
@@ -4,7 +4,6 @@ import java.util.function.Function;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.stream.Collectors;
 
 /**
  *
@@ -14,17 +13,42 @@ public class MapStringifier {
 
 	public static <K, V, T extends Set<V>> String transform(Function<K, String> keyTransformer,
 			Function<V, String> valueTransformer, Map<K, T> map) {
-		return map.entrySet().stream()
-				.map(entry -> keyTransformer.apply(entry.getKey()) + "="
-						+ entry.getValue().stream().map(valueTransformer).collect(Collectors.joining("&")))
-				.collect(Collectors.joining(";"));
+		return appendTo(new StringBuilder(), keyTransformer, valueTransformer, map).toString();
 	}
 	public static <K, V, T extends Set<V>> String transform(Function<K, String> keyTransformer,
 			Function<V, String> valueTransformer, SortedMap<K, T> map) {
-		return map.entrySet().stream()
-				.map(entry -> keyTransformer.apply(entry.getKey()) + "="
-						+ entry.getValue().stream().map(valueTransformer).collect(Collectors.joining("&")))
-				.collect(Collectors.joining(";"));
+		return appendTo(new StringBuilder(), keyTransformer, valueTransformer, map).toString();
+	}
+
+	/**
+	 * Append the "key1=value1&value2;key2=value3" form of the map to a StringBuilder, without intermediate strings.
+	 *
+	 * @param sb               the StringBuilder to append to
+	 * @param keyTransformer   transformation applied to each key
+	 * @param valueTransformer transformation applied to each value
+	 * @param map              the map to append
+	 *
+	 * @return the StringBuilder
+	 */
+	public static <K, V, T extends Set<V>> StringBuilder appendTo(StringBuilder sb, Function<K, String> keyTransformer,
+			Function<V, String> valueTransformer, Map<K, T> map) {
+		boolean firstEntry = true;
+		for (Map.Entry<K, T> entry : map.entrySet()) {
+			if (!firstEntry) {
+				sb.append(';');
+			}
+			firstEntry = false;
+			sb.append(keyTransformer.apply(entry.getKey())).append('=');
+			boolean firstValue = true;
+			for (V value : entry.getValue()) {
+				if (!firstValue) {
+					sb.append('&');
+				}
+				firstValue = false;
+				sb.append(valueTransformer.apply(value));
+			}
+		}
+		return sb;
 	}
 
 }
@@ -24,9 +24,27 @@ public class StringSanitizerBuilder {
         replacementList.add(replacementString);
     }
 
+    /**
+     * Build a sanitizer that replaces all search strings with their replacement strings, with the same result as
+     * {@link StringUtils#replaceEach(String, String[], String[])}.
+     * <p>
+     * If all search strings are single characters, the sanitizer uses a character lookup table and replaces in a single pass,
+     * returning the input string when there is nothing to replace.
+     *
+     * @return the sanitizer function
+     */
     public Function<String, String> build() {
         final String[] searchArr = searchList.toArray(new String[0]);
         final String[] replacementArr = replacementList.toArray(new String[0]);
+        final String[] lookupTable = buildLookupTable(searchArr, replacementArr);
+        if (lookupTable != null) {
+            return new Function<String, String>() {
+                @Override
+                public String apply(String s) {
+                    return replaceChars(s, lookupTable);
+                }
+            };
+        }
         return new Function<String, String>() {
             @Override
             public String apply(String s) {
@@ -34,5 +52,63 @@ public class StringSanitizerBuilder {
             }
         };
     }
+
+    /**
+     * @return the replacement indexed by search character, or null if a search string is not a single character
+     */
+    private static String[] buildLookupTable(String[] searchArr, String[] replacementArr) {
+        char max = 0;
+        for (int i = 0; i < searchArr.length; i++) {
+            //replaceEach ignores empty search strings and null replacements
+            if (StringUtils.isEmpty(searchArr[i]) || replacementArr[i] == null) {
+                continue;
+            }
+            if (searchArr[i].length() != 1) {
+                return null;
+            }
+            max = (char) Math.max(max, searchArr[i].charAt(0));
+        }
+        String[] lookupTable = new String[max + 1];
+        for (int i = 0; i < searchArr.length; i++) {
+            if (StringUtils.isEmpty(searchArr[i]) || replacementArr[i] == null) {
+                continue;
+            }
+            //replaceEach uses the first matching search string
+            char c = searchArr[i].charAt(0);
+            if (lookupTable[c] == null) {
+                lookupTable[c] = replacementArr[i];
+            }
+        }
+        return lookupTable;
+    }
+
+    private static String replaceChars(String s, String[] lookupTable) {
+        if (s == null) {
+            return null;
+        }
+        int length = s.length();
+        int i = 0;
+        while (i < length && !isReplaced(s.charAt(i), lookupTable)) {
+            i++;
+        }
+        if (i == length) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(length + 16);
+        sb.append(s, 0, i);
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (isReplaced(c, lookupTable)) {
+                sb.append(lookupTable[c]);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isReplaced(char c, String[] lookupTable) {
+        return c < lookupTable.length && lookupTable[c] != null;
+    }
     
 }
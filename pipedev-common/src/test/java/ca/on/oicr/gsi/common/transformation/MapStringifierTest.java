@@ -0,0 +1,42 @@
+package ca.on.oicr.gsi.common.transformation;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class MapStringifierTest {
+
+    private static final SortedMap<String, SortedSet<String>> MAP = ImmutableSortedMap.<String, SortedSet<String>>of(
+            "geo_tissue_type", ImmutableSortedSet.of("P"),
+            "geo_library_source_template_type", ImmutableSortedSet.of("WG", "EX"),
+            "empty", ImmutableSortedSet.<String>of());
+
+    private static String streamTransform(Function<String, String> f, Map<String, SortedSet<String>> map) {
+        return map.entrySet().stream()
+                .map(entry -> f.apply(entry.getKey()) + "=" + entry.getValue().stream().map(f).collect(Collectors.joining("&")))
+                .collect(Collectors.joining(";"));
+    }
+
+    @Test
+    public void transformTest() {
+        Function<String, String> f = s -> s.toUpperCase();
+        assertEquals(MapStringifier.transform(f, f, MAP), streamTransform(f, MAP));
+        assertEquals(MapStringifier.transform(f, f, MAP), "EMPTY=;GEO_LIBRARY_SOURCE_TEMPLATE_TYPE=EX&WG;GEO_TISSUE_TYPE=P");
+        assertEquals(MapStringifier.transform(f, f, Collections.<String, SortedSet<String>>emptyMap()), "");
+    }
+
+    @Test
+    public void appendToTest() {
+        StringBuilder sb = new StringBuilder("prefix:");
+        assertSame(MapStringifier.appendTo(sb, Function.identity(), Function.identity(), MAP), sb);
+        assertEquals(sb.toString(), "prefix:" + streamTransform(Function.identity(), MAP));
+    }
+
+}
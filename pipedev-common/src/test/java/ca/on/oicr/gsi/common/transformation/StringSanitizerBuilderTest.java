@@ -0,0 +1,60 @@
+package ca.on.oicr.gsi.common.transformation;
+
+import com.google.common.base.Function;
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class StringSanitizerBuilderTest {
+
+    private static final String[] SEARCH = new String[]{"\t", ";", "=", "&", " "};
+    private static final String[] REPLACEMENT = new String[]{"⌀", "⌀", "⌀", "⌀", "_"};
+
+    private static Function<String, String> build(String[] search, String[] replacement) {
+        StringSanitizerBuilder ssb = new StringSanitizerBuilder();
+        for (int i = 0; i < search.length; i++) {
+            ssb.add(search[i], replacement[i]);
+        }
+        return ssb.build();
+    }
+
+    @Test
+    public void replaceEachEquivalenceTest() {
+        Function<String, String> sanitizer = build(SEARCH, REPLACEMENT);
+        Random random = new Random(42);
+        String alphabet = "ab\t;=& _⌀é";
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            assertEquals(sanitizer.apply(s), StringUtils.replaceEach(s, SEARCH, REPLACEMENT), s);
+        }
+        assertNull(sanitizer.apply(null));
+        assertEquals(sanitizer.apply(""), "");
+    }
+
+    @Test
+    public void unchangedStringTest() {
+        String s = "TEST_0001_Pa_P";
+        assertSame(build(SEARCH, REPLACEMENT).apply(s), s);
+    }
+
+    @Test
+    public void firstReplacementWinsTest() {
+        String[] search = new String[]{";", "", ";", "a"};
+        String[] replacement = new String[]{"1", "x", "2", null};
+        assertEquals(build(search, replacement).apply("a;b;"), StringUtils.replaceEach("a;b;", search, replacement));
+        assertEquals(build(search, replacement).apply("a;b;"), "a1b1");
+    }
+
+    @Test
+    public void multipleCharacterSearchTest() {
+        String[] search = new String[]{"ab", ";"};
+        String[] replacement = new String[]{"c", "_"};
+        assertEquals(build(search, replacement).apply("xab;ab"), "xc_c");
+    }
+
+}
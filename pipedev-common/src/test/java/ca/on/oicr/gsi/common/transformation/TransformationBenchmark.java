@@ -0,0 +1,104 @@
+package ca.on.oicr.gsi.common.transformation;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the sanitizer and map stringifier with the previous replaceEach and stream based implementations, using values shaped
+ * like file provenance report attributes.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main TransformationBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformationBenchmark {
+
+    private static final String[] SEARCH = new String[]{"\t", ";", "=", "&"};
+    private static final String[] REPLACEMENT = new String[]{" ", "⌀", "⌀", "⌀"};
+
+    private String[] values;
+    private SortedMap<String, SortedSet<String>> attributes;
+    private Function<String, String> sanitizer;
+    private final StringBuilder sb = new StringBuilder();
+
+    @Setup
+    public void setup() {
+        StringSanitizerBuilder ssb = new StringSanitizerBuilder();
+        for (int i = 0; i < SEARCH.length; i++) {
+            ssb.add(SEARCH[i], REPLACEMENT[i]);
+        }
+        sanitizer = ssb.build()::apply;
+
+        values = new String[]{"geo_tissue_type", "P", "geo_library_source_template_type", "WG",
+            "/oicr/data/archive/seqware/seqware_analysis_12/hsqwprod/results/TEST_0001_Pa_P_PE_300_WG.bam", "a=b;c"};
+        attributes = new TreeMap<>();
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            SortedSet<String> set = new TreeSet<>();
+            set.add(values[i + 1]);
+            attributes.put(values[i], set);
+        }
+    }
+
+    @Benchmark
+    public int sanitizeReplaceEach() {
+        int length = 0;
+        for (String value : values) {
+            length += StringUtils.replaceEach(value, SEARCH, REPLACEMENT).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int sanitizeLookupTable() {
+        int length = 0;
+        for (String value : values) {
+            length += sanitizer.apply(value).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public String stringifyStreams() {
+        return attributes.entrySet().stream()
+                .map(entry -> sanitizer.apply(entry.getKey()) + "="
+                + entry.getValue().stream().map(sanitizer).collect(Collectors.joining("&")))
+                .collect(Collectors.joining(";"));
+    }
+
+    @Benchmark
+    public String stringifyTransform() {
+        return MapStringifier.transform(sanitizer, sanitizer, (Map<String, SortedSet<String>>) attributes);
+    }
+
+    @Benchmark
+    public int stringifyAppendTo() {
+        sb.setLength(0);
+        return MapStringifier.appendTo(sb, sanitizer, sanitizer, attributes).length();
+    }
+
+}
@@ -16,10 +16,11 @@
  */
 package ca.on.oicr.pde.deciders;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.seqware.common.model.ProcessingStatus;
 import io.seqware.common.model.WorkflowRunStatus;
 import io.seqware.pipeline.plugins.WorkflowScheduler;
@@ -28,27 +29,40 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.MissingResourceException;
+import java.util.Objects;
 import java.util.PropertyResourceBundle;
 import java.util.Random;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import joptsimple.NonOptionArgumentSpec;
 import joptsimple.OptionSpec;
 import joptsimple.OptionSpecBuilder;
@@ -80,6 +94,7 @@ import org.kohsuke.MetaInfServices;
 @MetaInfServices(PluginInterface.class)
 public class BasicDecider extends Plugin implements DeciderInterface {
     private static final Logger LOGGER = LogManager.getLogger(BasicDecider.class);
+    private static final Duration SCHEDULING_RETRY_BACKOFF = Duration.ofSeconds(1);
 
     private List<Header> header = Lists.newArrayList(Header.FILE_SWA);
     private Set<String> parentWorkflowAccessions = new TreeSet<>();
@@ -97,9 +112,20 @@ public class BasicDecider extends Plugin implements DeciderInterface {
     private List<String> workflowRuns;
     private Set<String> studyReporterOutput;
     private ArrayList<String> iniFiles;
+    //the command of the workflow run that do_summary() reports while a scheduled workflow run's callback runs
+    private List<String> summaryRunArgs;
     private Boolean skipStuff = null;
     private int launchMax = Integer.MAX_VALUE, launched = 0;
     private int rerunMax = 5;
+    private int workflowRunLookupBatchSize;
+    private int groupEvaluationThreads;
+    private int schedulingThreads;
+    private int schedulingRetries;
+    private final ThreadLocal<GroupContext> evaluatingGroup = new ThreadLocal<>();
+    private InputFileWorkflowRunIndex workflowRunIndex;
+    private IncrementalDeciderState incrementalState;
+    private final DeciderMetrics metrics = new DeciderMetrics(getClass().getSimpleName());
+    private final Map<Integer, String> filePathCache = new ConcurrentHashMap<>();
     private String host = null;
     protected Set<String> workflowRunAttributeTagFilters = new HashSet<>(Arrays.asList("skip","deleted"));
 
@@ -108,6 +134,13 @@ public class BasicDecider extends Plugin implements DeciderInterface {
     protected final OptionSpecBuilder forceRunAllSpec;
     protected final OptionSpec<String> workflowRunAttributeTagFiltersOpt;
     protected final OptionSpec<Boolean> dryRunOpt;
+    protected final OptionSpec<Integer> workflowRunLookupBatchSizeOpt;
+    protected final OptionSpec<Integer> groupEvaluationThreadsOpt;
+    protected final OptionSpec<String> incrementalStateFileOpt;
+    protected final OptionSpec<Integer> schedulingThreadsOpt;
+    protected final OptionSpec<Integer> schedulingRetriesOpt;
+    protected final OptionSpec<String> metricsJsonFileOpt;
+    protected final OptionSpec<String> metricsPrometheusFileOpt;
 
     private boolean isValidWorkflowRun;
 
@@ -159,6 +192,47 @@ public class BasicDecider extends Plugin implements DeciderInterface {
                 .withRequiredArg()
                 .ofType(String.class)
                 .defaultsTo(workflowRunAttributeTagFilters.stream().toArray(String[]::new));
+        workflowRunLookupBatchSizeOpt = parser.accepts("workflow-run-lookup-batch-size",
+                "The number of file SWIDs per request when retrieving the previous workflow runs of all candidate files before "
+                + "evaluating groups. Set to 0 to retrieve previous workflow runs separately for each group.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1000);
+        groupEvaluationThreadsOpt = parser.accepts("group-evaluation-threads",
+                "The number of threads used to select files and check previous workflow runs for groups. Workflow runs are still "
+                + "finalized and scheduled one group at a time, in group order. Only enable for deciders that do not keep per-group "
+                + "state in checkFileDetails().")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1);
+        incrementalStateFileOpt = parser.accepts("incremental-state-file",
+                "Optional: the file used to keep the group decisions between decider runs. Groups that were not runnable or were "
+                + "processed by a completed workflow run are only evaluated again if their files or the completed workflow run changed "
+                + "since the previous run. The file is not written in dry run mode. Only enable for deciders that make decisions from "
+                + "file provenance alone.")
+                .withRequiredArg()
+                .ofType(String.class);
+        schedulingThreadsOpt = parser.accepts("scheduling-threads",
+                "The number of workflow runs that are scheduled concurrently. With more than one thread, groups continue to be "
+                + "evaluated while workflow runs are being scheduled and scheduling results are reported in group order.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1);
+        schedulingRetriesOpt = parser.accepts("scheduling-retries",
+                "The number of times to retry scheduling a workflow run after a failure (e.g. a webservice timeout), with exponential "
+                + "backoff starting at " + SCHEDULING_RETRY_BACKOFF.getSeconds() + " second(s). Only enable if the scheduler fails "
+                + "before creating the workflow run, otherwise a retry may schedule a duplicate workflow run.")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(0);
+        metricsJsonFileOpt = parser.accepts("metrics-json-file",
+                "Optional: write the decider phase timings and event counts to this file as JSON.")
+                .withRequiredArg()
+                .ofType(String.class);
+        metricsPrometheusFileOpt = parser.accepts("metrics-prometheus-file",
+                "Optional: write the decider phase timings and event counts to this file in the Prometheus text format.")
+                .withRequiredArg()
+                .ofType(String.class);
         this.nonOptionSpec = parser.nonOptions(WorkflowScheduler.OVERRIDE_INI_DESC);
     }
 
@@ -176,6 +250,7 @@ public class BasicDecider extends Plugin implements DeciderInterface {
      * method.
      */
     public ReturnValue init() {
+        long initStart = System.nanoTime();
         ReturnValue ret = new ReturnValue();
         
         //initialize collections
@@ -341,6 +416,31 @@ public class BasicDecider extends Plugin implements DeciderInterface {
             workflowRunAttributeTagFilters = new HashSet<>(options.valuesOf(workflowRunAttributeTagFiltersOpt));
         }
 
+        workflowRunLookupBatchSize = options.valueOf(workflowRunLookupBatchSizeOpt);
+        if (workflowRunLookupBatchSize < 0) {
+            LOGGER.error("The workflow-run-lookup-batch-size parameter must be zero or greater.");
+            ret.setExitStatus(ReturnValue.INVALIDPARAMETERS);
+        }
+
+        groupEvaluationThreads = options.valueOf(groupEvaluationThreadsOpt);
+        if (groupEvaluationThreads < 1) {
+            LOGGER.error("The group-evaluation-threads parameter must be one or greater.");
+            ret.setExitStatus(ReturnValue.INVALIDPARAMETERS);
+        }
+
+        schedulingThreads = options.valueOf(schedulingThreadsOpt);
+        if (schedulingThreads < 1) {
+            LOGGER.error("The scheduling-threads parameter must be one or greater.");
+            ret.setExitStatus(ReturnValue.INVALIDPARAMETERS);
+        }
+
+        schedulingRetries = options.valueOf(schedulingRetriesOpt);
+        if (schedulingRetries < 0) {
+            LOGGER.error("The scheduling-retries parameter must be zero or greater.");
+            ret.setExitStatus(ReturnValue.INVALIDPARAMETERS);
+        }
+
+        metrics.record("init", System.nanoTime() - initStart);
         return ret;
     }
 
@@ -351,18 +451,149 @@ public class BasicDecider extends Plugin implements DeciderInterface {
 
     @Override
     public ReturnValue do_run() {
+        try (DeciderMetrics.Timing timing = metrics.time("run")) {
+            return runDecider();
+        } finally {
+            LOGGER.info("Decider metrics: " + metrics.getSummary());
+            writeMetrics();
+        }
+    }
+
+    private ReturnValue runDecider() {
         if (!metadata.checkClientServerMatchingVersion()) {
             LOGGER.warn("Client version does not match webservice version");
         }
-        List<ReturnValue> vals = createListOfRelevantFilePaths();
+        List<ReturnValue> vals;
+        // includes the nested convertFileProvenanceReport phase, as records are converted while the report is streamed
+        try (DeciderMetrics.Timing timing = metrics.time("getFileProvenanceReport")) {
+            vals = createListOfRelevantFilePaths();
+        }
+        metrics.increment("records", vals.size());
 
         //get(0) is for backwards compatiblity for decider that override and expect one header
         //BasicDecider impl of separateFiles uses the header list
-        Map<String, List<ReturnValue>> mappedFiles = separateFiles(vals, header.get(0).getTitle());
+        Map<String, List<ReturnValue>> mappedFiles;
+        try (DeciderMetrics.Timing timing = metrics.time("separateFiles")) {
+            mappedFiles = separateFiles(vals, header.get(0).getTitle());
+        }
+        metrics.increment("groups", mappedFiles == null ? 0 : mappedFiles.size());
 
-        return launchWorkflows(mappedFiles);
+        if (!options.has(incrementalStateFileOpt)) {
+            return launchWorkflows(mappedFiles);
+        }
+
+        Path statePath = Paths.get(options.valueOf(incrementalStateFileOpt));
+        incrementalState = IncrementalDeciderState.read(statePath, IncrementalDeciderState.getKey(getIncrementalStateSettings()));
+        vals.forEach(incrementalState::observe);
+        if (mappedFiles != null) {
+            // groups that were blocked by a completed workflow run are checked against the current state of the blocking workflow run
+            List<Entry<String, List<ReturnValue>>> previouslyRunGroups = new ArrayList<>();
+            for (Entry<String, List<ReturnValue>> e : mappedFiles.entrySet()) {
+                if (incrementalState.getPreviousDecision(e.getKey()) == IncrementalDeciderState.Decision.PREVIOUSLY_RUN) {
+                    previouslyRunGroups.add(e);
+                }
+            }
+            try (DeciderMetrics.Timing timing = metrics.time("prefetchPreviousWorkflowRuns")) {
+                prefetchPreviousWorkflowRuns(previouslyRunGroups);
+            }
+
+            Map<String, List<ReturnValue>> changedGroups = new LinkedHashMap<>();
+            for (Entry<String, List<ReturnValue>> e : mappedFiles.entrySet()) {
+                if (!incrementalState.isUnchanged(e.getKey(), e.getValue(),
+                        fileSwids -> produceAccessionListWithFileList(new ArrayList<>(fileSwids)))) {
+                    changedGroups.put(e.getKey(), e.getValue());
+                }
+            }
+            LOGGER.info("Incremental mode: [{}] of [{}] groups changed since the previous run", changedGroups.size(), mappedFiles.size());
+            metrics.increment("groupsUnchanged", mappedFiles.size() - changedGroups.size());
+            mappedFiles = changedGroups;
+        }
+
+        ReturnValue ret = launchWorkflows(mappedFiles);
+        if (Boolean.TRUE.equals(isDryRunMode)) {
+            // a dry run does not schedule workflow runs, so its decisions must not be used by the next run
+            LOGGER.info("Dry run mode - not writing incremental state file [{}]", statePath);
+            return ret;
+        }
+        try {
+            incrementalState.write(statePath);
+        } catch (IOException ex) {
+            LOGGER.error("Unable to write incremental state file [" + statePath + "]", ex);
+        }
+        return ret;
     }
-    
+
+    private void writeMetrics() {
+        try {
+            if (options.has(metricsJsonFileOpt)) {
+                metrics.writeJson(Paths.get(options.valueOf(metricsJsonFileOpt)));
+            }
+            if (options.has(metricsPrometheusFileOpt)) {
+                metrics.writePrometheus(Paths.get(options.valueOf(metricsPrometheusFileOpt)));
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Unable to write decider metrics", ex);
+        }
+    }
+
+    /**
+     * Get the phase timings and event counts of this decider run.
+     * <p>
+     * BasicDecider times the "init", "run", "getFileProvenanceReport", "convertFileProvenanceReport", "separateFiles",
+     * "prefetchPreviousWorkflowRuns", "rerunWorkflowRun", "getSwidsToLinkWorkflowRunTo" and "scheduling" phases. Subclasses may add
+     * their own phases and counters.
+     * <p>
+     * Phases are nested, so phase times do not add up: "run" includes all phases after "init", "getFileProvenanceReport" includes
+     * "convertFileProvenanceReport" and "scheduling" runs concurrently with the other phases when "scheduling-threads" is greater
+     * than one.
+     *
+     * @return the decider metrics
+     */
+    public DeciderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The values that identify the decider configuration of an incremental run - the previous decisions are discarded if any of these
+     * change.
+     *
+     * @return the decider class, workflow accessions, file filters and the values of the {@link #getIncrementalStateArguments()}
+     */
+    private List<String> getIncrementalStateSettings() {
+        List<String> settings = new ArrayList<>();
+        settings.add(getClass().getName());
+        settings.add(workflowAccession);
+        settings.add(Objects.toString(metaTypes));
+        settings.add(parentWorkflowAccessions.toString());
+        settings.add(workflowAccessionsToCheck.toString());
+        for (String argument : new TreeSet<>(getIncrementalStateArguments())) {
+            if (options.has(argument)) {
+                settings.add(argument + "=" + options.valuesOf(argument));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * The arguments that select the files or groups of a run, or change the decision for a group. The previous decisions of an
+     * incremental run (see "incremental-state-file") are discarded if any of their values change. Arguments that only change how the
+     * decider runs (e.g. "launch-max", "dry-run" or the thread counts) are not included.
+     * <p>
+     * Deciders that select files or make decisions using their own arguments must add them.
+     *
+     * @return the argument names
+     */
+    protected Set<String> getIncrementalStateArguments() {
+        Set<String> arguments = new HashSet<>();
+        for (ProvenanceUtility.HumanProvenanceFilters filter : ProvenanceUtility.HumanProvenanceFilters.values()) {
+            arguments.add(filter.toString());
+        }
+        arguments.addAll(Arrays.asList(ProvenanceUtility.ALL, "wf-accession", "group-by", "parent-wf-accessions", "meta-types",
+                "check-wf-accessions", "ignore-previous-runs", "force-run-all", "ignore-skip-flag", "check-file-exists",
+                "workflow-run-annotation-tag-filters"));
+        return arguments;
+    }
+
     public List<String> getWorkflowRuns() {
         return Collections.unmodifiableList(workflowRuns);
     }
@@ -375,78 +606,95 @@ public class BasicDecider extends Plugin implements DeciderInterface {
             entryList.addAll(mappedFiles.entrySet());
             Collections.sort(entryList, new ReturnValueProcessingTimeComparator());
 
-            for (Entry<String, List<ReturnValue>> entry : entryList) {
-                LOGGER.debug("Considering key:" + entry.getKey());
-                for (ReturnValue r : entry.getValue()) {
-                    LOGGER.debug("Group contains: " + r.getAttribute(FindAllTheFiles.FILE_SWA));
-                }
-
-                parentAccessionsToRun = new HashSet<>();
-                filesToRun = new HashSet<>();
-                workflowParentAccessionsToRun = new HashSet<>();
-                fileSWIDsToRun = new HashSet<>();
-                studyReporterOutput = new HashSet<>();
-
-                // for each grouping (e.g. sample), iterate through the files
-                List<ReturnValue> files = entry.getValue();
-                LOGGER.debug("key:" + entry.getKey() + " consists of " + files.size() + " files");
-
-                for (ReturnValue file : files) {
-                    String wfAcc = file.getAttribute(Header.WORKFLOW_SWA.getTitle());
-                    LOGGER.debug(Header.WORKFLOW_SWA.getTitle() + ": WF accession is " + wfAcc);
-
-                    // if there is no parent accessions, or if the parent accession is correct
-                    // this makes an assumption that if the wfAcc is null then the parentWorkflowAccessions will be empty
-                    // and thus we are able to find files of a particular metatype with no wfAcc
-
-                    // check for each file if the metatype is correct (if it exists),
-                    // or just add it
-                    for (FileMetadata fm : file.getFiles()) {
-                        if (metaTypes != null) {
-                            if (metaTypes.contains(fm.getMetaType())) {
-                                addFileToSets(file, fm, workflowParentAccessionsToRun, parentAccessionsToRun, filesToRun, fileSWIDsToRun);
-                            }
-                        } else {
-                            addFileToSets(file, fm, workflowParentAccessionsToRun, parentAccessionsToRun, filesToRun, fileSWIDsToRun);
-                        }
-                    }
-
-                }// end iterate through files
+            try (DeciderMetrics.Timing timing = metrics.time("prefetchPreviousWorkflowRuns")) {
+                prefetchPreviousWorkflowRuns(entryList);
+            }
 
-                if (!parentAccessionsToRun.isEmpty() && !filesToRun.isEmpty() && !workflowParentAccessionsToRun.isEmpty()) {
-                    final String parentAccessionString = commaSeparateMy(parentAccessionsToRun);
-                    final String fileString = commaSeparateMy(filesToRun);
-                    LOGGER.debug("FileString: " + fileString);
-                    // SEQWARE-1773 short-circuit this with forceRunAll to ensure that sample fingerprinting workflow launches
-                    if (ignorePreviousRuns) {
-                        LOGGER.debug("Ignoring previous runs because --ignore-previous-runs was enabled");
+            // the input files of the workflow runs scheduled by this run of the decider
+            Set<Integer> scheduledFileSwids = new HashSet<>();
+            try (WorkflowRunScheduler workflowRunScheduler = new WorkflowRunScheduler(schedulingThreads, schedulingRetries,
+                    SCHEDULING_RETRY_BACKOFF, this::createPluginRunner, metrics);
+                    GroupEvaluator groupEvaluator = new GroupEvaluator(entryList, groupEvaluationThreads)) {
+                while (groupEvaluator.hasNext()) {
+                    GroupContext group = groupEvaluator.next();
+                    if (group.rerun && !ignorePreviousRuns && !Collections.disjoint(scheduledFileSwids, group.fileSWIDsToRun)) {
+                        // the group was evaluated before a workflow run sharing some of its files was scheduled - check again once
+                        // the workflow run is in the metadata
+                        workflowRunScheduler.awaitScheduled();
+                        reevaluateRerun(group);
                     }
-                    boolean rerun = ignorePreviousRuns || rerunWorkflowRun(filesToRun, fileSWIDsToRun);
-
-                    // SEQWARE-1728 - move creation of ini to launches (and dry run launches) to conserve disk space
-                    iniFiles = new ArrayList<>();
-
-                    ReturnValue newRet = this.doFinalCheck(fileString, parentAccessionString);
-                    if (newRet.getExitStatus() != ReturnValue.SUCCESS) {
-                        LOGGER.warn("Final check failed, aborting run. Return value was: " + newRet.getExitStatus());
-                        rerun = false;
+                    if (incrementalState != null) {
+                        recordIncrementalDecision(group);
                     }
+                    parentAccessionsToRun = group.parentAccessionsToRun;
+                    filesToRun = group.filesToRun;
+                    workflowParentAccessionsToRun = group.workflowParentAccessionsToRun;
+                    fileSWIDsToRun = group.fileSWIDsToRun;
+                    studyReporterOutput = group.studyReporterOutput;
+
+                    if (group.isRunnable()) {
+                        final String parentAccessionString = commaSeparateMy(parentAccessionsToRun);
+                        final String fileString = commaSeparateMy(filesToRun);
+                        LOGGER.debug("FileString: " + fileString);
+                        boolean rerun = group.rerun;
+
+                        // SEQWARE-1728 - move creation of ini to launches (and dry run launches) to conserve disk space
+                        iniFiles = new ArrayList<>();
+
+                        ReturnValue newRet = this.doFinalCheck(fileString, parentAccessionString);
+                        if (newRet.getExitStatus() != ReturnValue.SUCCESS) {
+                            LOGGER.warn("Final check failed, aborting run. Return value was: " + newRet.getExitStatus());
+                            rerun = false;
+                        }
 
-                    // need to reset back to valid, client/subclass may not have reset
-                    isValidWorkflowRun = true;
-
-                    // if we're in dry run mode or we don't want to rerun and we don't want to force the re-processing
-                    if (isDryRunMode || !rerun) {
-                        //TODO: we need to simplify the logic and make it more readable
-                        if (rerun) {
+                        // need to reset back to valid, client/subclass may not have reset
+                        isValidWorkflowRun = true;
+
+                        // if we're in dry run mode or we don't want to rerun and we don't want to force the re-processing
+                        if (isDryRunMode || !rerun) {
+                            //TODO: we need to simplify the logic and make it more readable
+                            if (rerun) {
+                                try {
+                                    workflowParentAccessionsToRun = timedGetSwidsToLinkWorkflowRunTo(workflowParentAccessionsToRun);
+                                } catch (Exception e) {
+                                    LOGGER.error("Error while scheduling workflow run in dry run mode - getSwidsToLinkWorkflowRunTo() failed. "
+                                            + "workflowParentAccessionsToRun = " + workflowParentAccessionsToRun.toString(), e);
+                                    continue;
+                                }
+
+                                iniFiles.add(createIniFile(fileString, parentAccessionString));
+
+                                if (!isValidWorkflowRun) {
+                                    LOGGER.error("Not a valid workflow run - not scheduling.");
+                                    continue;
+                                }
+
+                                LOGGER.info(studyReporterOutput.stream().collect(Collectors.joining("\n\n", "Input file records:\n", "")));
+                                LOGGER.debug("NOT RUNNING (but would have ran). dryRunMode=" + isDryRunMode + " or !rerun=" + !rerun);
+                                reportLaunch();
+
+                                //keep track of workflow runs to be scheduled
+                                workflowRuns.addAll(iniFiles);
+
+                                // SEQWARE-1642 - output to debug only whether a decider would launch
+                                ret = do_summary();
+                                launched++;
+                                metrics.increment("launches");
+                            } else {
+                                for (String line : studyReporterOutput) {
+                                    LOGGER.debug(line);
+                                }
+                                LOGGER.debug("NOT RUNNING (and would not have ran). dryRunMode=" + isDryRunMode + " or !rerun=" + !rerun);
+                            }
+                        } else if (awaitLaunchCapacity(workflowRunScheduler)) {
                             try {
-                                workflowParentAccessionsToRun = getSwidsToLinkWorkflowRunTo(new HashSet<>(workflowParentAccessionsToRun));
+                                workflowParentAccessionsToRun = timedGetSwidsToLinkWorkflowRunTo(workflowParentAccessionsToRun);
                             } catch (Exception e) {
-                                LOGGER.error("Error while scheduling workflow run in dry run mode - getSwidsToLinkWorkflowRunTo() failed. "
+                                LOGGER.error("Error while scheduling workflow run - getSwidsToLinkWorkflowRunTo() failed. "
                                         + "workflowParentAccessionsToRun = " + workflowParentAccessionsToRun.toString(), e);
                                 continue;
                             }
-
+                        
                             iniFiles.add(createIniFile(fileString, parentAccessionString));
 
                             if (!isValidWorkflowRun) {
@@ -454,71 +702,49 @@ public class BasicDecider extends Plugin implements DeciderInterface {
                                 continue;
                             }
 
-                            LOGGER.info(studyReporterOutput.stream().collect(Collectors.joining("\n\n", "Input file records:\n", "")));
-                            LOGGER.debug("NOT RUNNING (but would have ran). dryRunMode=" + isDryRunMode + " or !rerun=" + !rerun);
-                            reportLaunch();
-
-                            //keep track of workflow runs to be scheduled
-                            workflowRuns.addAll(iniFiles);
-
-                            // SEQWARE-1642 - output to debug only whether a decider would launch
-                            ret = do_summary();
-                            launched++;
-                        } else {
+                            // construct the INI and run it
                             for (String line : studyReporterOutput) {
                                 LOGGER.debug(line);
                             }
-                            LOGGER.debug("NOT RUNNING (and would not have ran). dryRunMode=" + isDryRunMode + " or !rerun=" + !rerun);
-                        }
-                    } else if (launched < launchMax) {
-                        try {
-                            workflowParentAccessionsToRun = getSwidsToLinkWorkflowRunTo(new HashSet<>(workflowParentAccessionsToRun));
-                        } catch (Exception e) {
-                            LOGGER.error("Error while scheduling workflow run - getSwidsToLinkWorkflowRunTo() failed. "
-                                    + "workflowParentAccessionsToRun = " + workflowParentAccessionsToRun.toString(), e);
-                            continue;
-                        }
-                        
-                        iniFiles.add(createIniFile(fileString, parentAccessionString));
 
-                        if (!isValidWorkflowRun) {
-                            LOGGER.error("Not a valid workflow run - not scheduling.");
-                            continue;
-                        }
+                            LOGGER.debug("Scheduling");
+                            // construct the INI and run it - the command is constructed now as it depends on the current group, the
+                            // workflow run is counted and reported once it has been scheduled
+                            ArrayList<String> runArgs = constructCommand();
+                            List<String> scheduledIniFiles = iniFiles;
+                            workflowRunScheduler.submit(runArgs, commaSeparateMy(scheduledIniFiles), () -> {
+                                launched++;
+                                metrics.increment("launches");
+                                //keep track of scheduled workflow runs
+                                workflowRuns.addAll(scheduledIniFiles);
+                                //do_summary may be overridden, it summarizes the scheduled command rather than the current group's
+                                summaryRunArgs = runArgs;
+                                try {
+                                    do_summary();
+                                } finally {
+                                    summaryRunArgs = null;
+                                }
+                            });
+                            scheduledFileSwids.addAll(fileSWIDsToRun);
+                            if (workflowRunIndex != null) {
+                                workflowRunIndex.invalidate(fileSWIDsToRun);
+                            }
 
-                        launched++;
-                        // construct the INI and run it
-                        for (String line : studyReporterOutput) {
-                            LOGGER.debug(line);
                         }
-                        
-                        //keep track of workflow runs to be scheduled
-                        workflowRuns.addAll(iniFiles);
-                        
-                        LOGGER.debug("Scheduling");
-                        // construct the INI and run it
-                        ArrayList<String> runArgs = constructCommand();
-                        PluginRunner pluginRunner = new PluginRunner();
-                        pluginRunner.setConfig(config);
-                        pluginRunner.run(runArgs.toArray(new String[runArgs.size()]));
-                        
-                        LOGGER.debug("Scheduling.");
-                        do_summary();
-
-                    }
-                    // separate this out so that it is reachable when in dry run mode
-                    if (launched >= launchMax) {
-                        LOGGER.info("The maximum number of jobs has been scheduled"
-                                + ". The next jobs will be launched when the decider runs again.");
-                        ret.setExitStatus(ReturnValue.QUEUED);
-                        // SEQWARE-1666 - short-circuit and exit when the maximum number of jobs have been launched
-                        return ret;
+                        // separate this out so that it is reachable when in dry run mode
+                        if (!awaitLaunchCapacity(workflowRunScheduler)) {
+                            LOGGER.info("The maximum number of jobs has been scheduled"
+                                    + ". The next jobs will be launched when the decider runs again.");
+                            ret.setExitStatus(ReturnValue.QUEUED);
+                            // SEQWARE-1666 - short-circuit and exit when the maximum number of jobs have been launched
+                            return ret;
+                        }
+                    } else {
+                        LOGGER.debug("Cannot run: parentAccessions: " + parentAccessionsToRun.size() + " filesToRun: " + filesToRun.size()
+                                + " workflowParentAccessions: " + workflowParentAccessionsToRun.size());
                     }
-                } else {
-                    LOGGER.debug("Cannot run: parentAccessions: " + parentAccessionsToRun.size() + " filesToRun: " + filesToRun.size()
-                            + " workflowParentAccessions: " + workflowParentAccessionsToRun.size());
-                }
 
+                }
             }
         } else {
             LOGGER.debug("There are no files");
@@ -526,6 +752,126 @@ public class BasicDecider extends Plugin implements DeciderInterface {
         return ret;
     }
     
+    /**
+     * Select the files of a group and determine if the group should be (re)run.
+     * <p>
+     * This may be called concurrently for different groups (see "group-evaluation-threads"), so it must only modify the group context.
+     *
+     * @param entry the group key and the group's files
+     *
+     * @return the group context with the selected files and rerun decision
+     */
+    private GroupContext evaluateGroup(Entry<String, List<ReturnValue>> entry) {
+        GroupContext group = new GroupContext(entry.getKey(), entry.getValue());
+        evaluatingGroup.set(group);
+        try {
+            LOGGER.debug("Considering key:" + entry.getKey());
+            for (ReturnValue r : entry.getValue()) {
+                LOGGER.debug("Group contains: " + FileProvenanceRecord.of(r).getFileSwid());
+            }
+
+            // for each grouping (e.g. sample), iterate through the files
+            List<ReturnValue> files = entry.getValue();
+            LOGGER.debug("key:" + entry.getKey() + " consists of " + files.size() + " files");
+
+            for (ReturnValue file : files) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(Header.WORKFLOW_SWA.getTitle() + ": WF accession is " + file.getAttribute(Header.WORKFLOW_SWA.getTitle()));
+                }
+
+                // if there is no parent accessions, or if the parent accession is correct
+                // this makes an assumption that if the wfAcc is null then the parentWorkflowAccessions will be empty
+                // and thus we are able to find files of a particular metatype with no wfAcc
+
+                // check for each file if the metatype is correct (if it exists),
+                // or just add it
+                for (FileMetadata fm : file.getFiles()) {
+                    if (metaTypes == null || metaTypes.contains(fm.getMetaType())) {
+                        addFileToSets(file, fm, group.workflowParentAccessionsToRun, group.parentAccessionsToRun, group.filesToRun,
+                                group.fileSWIDsToRun);
+                    }
+                }
+
+            }// end iterate through files
+
+            if (group.isRunnable()) {
+                // SEQWARE-1773 short-circuit this with forceRunAll to ensure that sample fingerprinting workflow launches
+                if (ignorePreviousRuns) {
+                    LOGGER.debug("Ignoring previous runs because --ignore-previous-runs was enabled");
+                }
+                metrics.increment("groupsRunnable");
+                if (ignorePreviousRuns) {
+                    group.rerun = true;
+                } else {
+                    try (DeciderMetrics.Timing timing = metrics.time("rerunWorkflowRun")) {
+                        group.rerun = rerunWorkflowRun(group.filesToRun, group.fileSWIDsToRun);
+                    }
+                }
+                if (!group.rerun) {
+                    metrics.increment("groupsBlocked");
+                }
+            }
+        } finally {
+            evaluatingGroup.remove();
+        }
+        return group;
+    }
+
+    private void reevaluateRerun(GroupContext group) {
+        evaluatingGroup.set(group);
+        try (DeciderMetrics.Timing timing = metrics.time("rerunWorkflowRun")) {
+            group.blockedByCompletedRun = false;
+            group.blockingWorkflowRun = null;
+            group.rerun = rerunWorkflowRun(group.filesToRun, group.fileSWIDsToRun);
+        } finally {
+            evaluatingGroup.remove();
+        }
+        if (!group.rerun) {
+            metrics.increment("groupsBlocked");
+        }
+    }
+
+    /**
+     * Wait for in-flight workflow runs until launch-max can not be exceeded - workflow runs are only counted once they have been
+     * scheduled.
+     *
+     * @param workflowRunScheduler the scheduler
+     *
+     * @return true if another workflow run can be launched
+     */
+    private boolean awaitLaunchCapacity(WorkflowRunScheduler workflowRunScheduler) {
+        while (workflowRunScheduler.getInFlight() > 0 && launched + workflowRunScheduler.getInFlight() >= launchMax) {
+            workflowRunScheduler.awaitNext();
+        }
+        return launched < launchMax;
+    }
+
+    /**
+     * @return a PluginRunner configured to schedule a workflow run
+     */
+    protected PluginRunner createPluginRunner() {
+        PluginRunner pluginRunner = new PluginRunner();
+        pluginRunner.setConfig(config);
+        return pluginRunner;
+    }
+
+    private void recordIncrementalDecision(GroupContext group) {
+        if (!group.isRunnable()) {
+            // the file existence check depends on the file system rather than file provenance
+            if (!options.has("check-file-exists")) {
+                incrementalState.recordNotRunnable(group.key, group.files);
+            }
+        } else if (!group.rerun && group.blockedByCompletedRun) {
+            incrementalState.recordPreviouslyRun(group.key, group.files, group.blockingWorkflowRun);
+        }
+    }
+
+    private Set<String> timedGetSwidsToLinkWorkflowRunTo(Collection<String> swids) throws Exception {
+        try (DeciderMetrics.Timing timing = metrics.time("getSwidsToLinkWorkflowRunTo")) {
+            return getSwidsToLinkWorkflowRunTo(new LinkedHashSet<>(swids));
+        }
+    }
+
     protected Set<String> getSwidsToLinkWorkflowRunTo(Set<String> swids) throws Exception {
         return swids;
     }
@@ -665,32 +1011,33 @@ public class BasicDecider extends Plugin implements DeciderInterface {
     private void addFileToSets(ReturnValue file, FileMetadata fm, Collection<String> workflowParentAccessionsToRun,
             Collection<String> parentAccessionsToRun, Collection<String> filesToRun, Collection<Integer> fileToRunSWIDs) {
         if (checkFileDetails(file, fm)) {
-            if (skipStuff) {
-                for (String key : file.getAttributes().keySet()) {
-                    if (key.contains("skip")) {
-                        LOGGER.warn("File SWID:" + fm.getDescription() + " path " + fm.getFilePath() + " is skipped: " + key + ">"
-                                + file.getAttribute(key));
-                        return;
-                    }
-                }
+            FileProvenanceRecord record = FileProvenanceRecord.of(file);
+            if (record.getFileSwid() == FileProvenanceRecord.NO_SWID) {
+                LOGGER.warn("File " + fm.getFilePath() + " is skipped: it does not have a file SWID");
+                return;
+            }
+            if (skipStuff && record.getSkipAttributeKey() != null) {
+                String key = record.getSkipAttributeKey();
+                LOGGER.warn("File SWID:" + fm.getDescription() + " path " + fm.getFilePath() + " is skipped: " + key + ">"
+                        + file.getAttribute(key));
+                return;
             }
             if (isDryRunMode) {
                 printFileMetadata(file, fm);
             }
 
             filesToRun.add(fm.getFilePath());
-            String fileSWID = file.getAttribute(Header.FILE_SWA.getTitle());
-            fileToRunSWIDs.add(Integer.valueOf(fileSWID));
-            parentAccessionsToRun.add(file.getAttribute(Header.PROCESSING_SWID.getTitle()));
-
-            String swidString = file.getAttribute(Header.IUS_SWA.getTitle());
-            Set<String> swids = Sets.newHashSet(swidString.split(";"));
-            if (swids == null || swids.isEmpty()) {
-                swidString = file.getAttribute(Header.LANE_SWA.getTitle());
-                swids = Sets.newHashSet(swidString.split(";"));
+            fileToRunSWIDs.add(record.getFileSwid());
+            parentAccessionsToRun.add(Integer.toString(record.getProcessingSwid()));
+
+            // link to the IUS SWIDs, or to the lane SWIDs if the file has no IUS SWIDs. Before the typed record, an empty IUS SWID
+            // string was split into a single empty SWID (so the lane SWIDs were never used) and a missing one was an error
+            Set<String> swids = record.getIusSwids();
+            if (swids.isEmpty()) {
+                swids = record.getLaneSwids();
             }
             // seqware-2002 it is possible that both are null if the path goes through sample_processing
-            if (swids == null || swids.isEmpty()) {
+            if (swids.isEmpty()) {
                 return;
             }
             workflowParentAccessionsToRun.addAll(swids);
@@ -701,7 +1048,8 @@ public class BasicDecider extends Plugin implements DeciderInterface {
         try {
             StringWriter writer = new StringWriter();
             FindAllTheFiles.print(writer, file, true, fm);
-            studyReporterOutput.add(writer.getBuffer().toString().trim());
+            GroupContext group = evaluatingGroup.get();
+            (group != null ? group.studyReporterOutput : studyReporterOutput).add(writer.getBuffer().toString().trim());
         } catch (IOException ex) {
             LOGGER.error("Error printing file metadata", ex);
         }
@@ -809,26 +1157,22 @@ public class BasicDecider extends Plugin implements DeciderInterface {
 
     // protected
     public Map<String, List<ReturnValue>> separateFiles(List<ReturnValue> vals, List<Header> groupBy) {
-        Map<String, List<ReturnValue>> map = new HashMap<>();
-        for (ReturnValue r : vals) {
-            //iterate through ordered list of headers to group by
-            StringBuilder keyBuilder = new StringBuilder();
-            for (Header h : groupBy) {
-                String subKey = r.getAttributes().get(h.getTitle());
-                if (subKey != null) {
-                    subKey = handleGroupByAttribute(subKey);
-                }
-                keyBuilder.append(String.format("[%s=%s] ", h.getTitle(), subKey));
-            }
-            String key = keyBuilder.toString();
-            List<ReturnValue> vs = map.get(key);
-            if (vs == null) {
-                vs = new ArrayList<>();
-            }
-            vs.add(r);
-            map.put(key, vs);
-        }
-        return map;
+        return getGroupingSpecification(groupBy).group(vals);
+    }
+
+    /**
+     * Get the grouping specification used by {@link #separateFiles(java.util.List, java.util.List) } to partition the file set.
+     * <p>
+     * By default, files are grouped by the header values (transformed by {@link #handleGroupByAttribute(java.lang.String) }) and
+     * group names have the form "[header title=value] " for each header. Override this method to group by Lims attributes, derived
+     * values or nested groups.
+     *
+     * @param groupBy the ordered list of headers to group by
+     *
+     * @return the grouping specification
+     */
+    protected GroupingSpecification getGroupingSpecification(List<Header> groupBy) {
+        return GroupingSpecification.of(groupBy, this::handleGroupByAttribute);
     }
 
     @Override
@@ -1068,16 +1412,61 @@ public class BasicDecider extends Plugin implements DeciderInterface {
     private final Predicate<WorkflowRun> workflowRunAttributeFilter = wr -> wr.getAnnotations().stream()
             .noneMatch(attr -> workflowRunAttributeTagFilters.contains(attr.getTag()));
 
-    private List<WorkflowRun> produceAccessionListWithFileList(List<Integer> fileSWIDs) {
+    private List<Integer> getRelevantWorkflows() {
         // grab only the workflows in which we are interested
         List<Integer> relevantWorkflows = new ArrayList<>();
         relevantWorkflows.add(Integer.valueOf(this.workflowAccession));
         for (String accession : this.workflowAccessionsToCheck) {
             relevantWorkflows.add(Integer.valueOf(accession));
         }
+        return relevantWorkflows;
+    }
+
+    /**
+     * Retrieve the previous workflow runs of all candidate files in batches and index them by input file SWID, so that groups are
+     * checked against the index rather than with one metadata call per group.
+     *
+     * @param groups the candidate groups of files
+     */
+    private void prefetchPreviousWorkflowRuns(List<Entry<String, List<ReturnValue>>> groups) {
+        workflowRunIndex = null;
+        filePathCache.clear();
+        if (ignorePreviousRuns || workflowRunLookupBatchSize == 0) {
+            return;
+        }
+
+        Set<Integer> fileSwids = new HashSet<>();
+        for (Entry<String, List<ReturnValue>> group : groups) {
+            for (ReturnValue rv : group.getValue()) {
+                FileProvenanceRecord record = FileProvenanceRecord.of(rv);
+                if (record.getFileSwid() == FileProvenanceRecord.NO_SWID) {
+                    continue;
+                }
+                fileSwids.add(record.getFileSwid());
+                // the paths of candidate files are already known, so they do not need to be retrieved when comparing with previous runs
+                for (FileMetadata fm : rv.getFiles()) {
+                    if (fm.getFilePath() != null) {
+                        filePathCache.putIfAbsent(record.getFileSwid(), fm.getFilePath());
+                    }
+                }
+            }
+        }
+        if (fileSwids.isEmpty()) {
+            return;
+        }
+        workflowRunIndex = InputFileWorkflowRunIndex.build(metadata, fileSwids, getRelevantWorkflows(), workflowRunLookupBatchSize);
+    }
+
+    private List<WorkflowRun> produceAccessionListWithFileList(List<Integer> fileSWIDs) {
         // find relevant workflow runs for this group of files
-        List<WorkflowRun> wrFiles1 = this.metadata.getWorkflowRunsAssociatedWithInputFiles(fileSWIDs, relevantWorkflows);
-        LOGGER.debug("Found " + wrFiles1.size() + " workflow runs via direct search");
+        List<WorkflowRun> wrFiles1;
+        if (workflowRunIndex != null && workflowRunIndex.containsAll(fileSWIDs)) {
+            wrFiles1 = workflowRunIndex.getWorkflowRunsAssociatedWithInputFiles(fileSWIDs);
+            LOGGER.debug("Found " + wrFiles1.size() + " workflow runs via prefetched index");
+        } else {
+            wrFiles1 = this.metadata.getWorkflowRunsAssociatedWithInputFiles(fileSWIDs, getRelevantWorkflows());
+            LOGGER.debug("Found " + wrFiles1.size() + " workflow runs via direct search");
+        }
 
         //select workflowRuns that do not have workflow run attribute tags
         List<WorkflowRun> filteredWorkflowRuns = wrFiles1.stream().filter(workflowRunAttributeFilter).collect(Collectors.toList());
@@ -1117,6 +1506,11 @@ public class BasicDecider extends Plugin implements DeciderInterface {
                     failures.add(true);
                 }
                 if (!doRerun) {
+                    GroupContext group = evaluatingGroup.get();
+                    if (group != null && previousStatus == PREVIOUS_RUN_STATUS.COMPLETED) {
+                        group.blockedByCompletedRun = true;
+                        group.blockingWorkflowRun = previousWorkflowRun;
+                    }
                     LOGGER.info("Workflow run " + previousWorkflowRun.getSwAccession() + " blocking re-run with a status of: "
                             + previousStatus + "  file status of: " + fileStatus);
                     LOGGER.info("The blocking run was workflow_run " + count + "/" + previousWorkflowRuns.size() + " out of "
@@ -1146,18 +1540,30 @@ public class BasicDecider extends Plugin implements DeciderInterface {
     private Set<String> determineFilePaths(Set<Integer> fileSWIDs) {
         Set<String> results = new HashSet<>();
         for (Integer fileSWID : fileSWIDs) {
-            net.sourceforge.seqware.common.model.File file = metadata.getFile(fileSWID);
-            results.add(file.getFilePath());
+            // the path is retrieved outside of the cache so that the metadata call does not block other groups' cache updates
+            String path = filePathCache.get(fileSWID);
+            if (path == null) {
+                path = metadata.getFile(fileSWID).getFilePath();
+                String cached = filePathCache.putIfAbsent(fileSWID, path);
+                if (cached != null) {
+                    path = cached;
+                }
+            }
+            results.add(path);
         }
         return results;
     }
 
     private String do_summary_command() {
+        return getSummaryCommand(summaryRunArgs == null ? constructCommand() : summaryRunArgs);
+    }
+
+    private String getSummaryCommand(List<String> runArgs) {
         StringBuilder command = new StringBuilder();
         // SEQWARE-1612 Change test command to actual jar name
         String seqwareVersion = this.metadata.getClass().getPackage().getImplementationVersion();
         command.append("\njava -jar seqware-distribution-").append(seqwareVersion).append("-full.jar ");
-        command.append(spaceSeparateMy(constructCommand()));
+        command.append(spaceSeparateMy(runArgs));
         command.append("\n");
         return command.toString();
     }
@@ -1166,15 +1572,27 @@ public class BasicDecider extends Plugin implements DeciderInterface {
         LOGGER.error("Cannot return file provenance report from BasicDecider.getFileProvenanceReport");
         return Collections.emptyList();
     }
-    
+
+    /**
+     * Get the file provenance report as a lazily evaluated stream of records.
+     *
+     * The records are converted to {@link ReturnValue} objects as they are consumed, so implementations that can produce records
+     * incrementally (see {@link OicrDecider}) avoid holding the full report in memory in addition to the converted ReturnValues. The
+     * default implementation streams the list returned by {@link #getFileProvenanceReport(java.util.Map)}.
+     *
+     * @param params the file provenance filters
+     *
+     * @return stream of file provenance records (header title to value maps)
+     */
+    protected Stream<Map<String, String>> getFileProvenanceReportStream(Map<FileProvenanceParam, List<String>> params) {
+        return getFileProvenanceReport(params).stream();
+    }
+
     protected Map<FileProvenanceParam, List<String>> parseOptions(){
         return ProvenanceUtility.convertOptionsToMap(options, metadata);
     }
 
     private List<ReturnValue> createListOfRelevantFilePaths() {
-
-        List<ReturnValue> vals;
-        List<Map<String, String>> fileProvenanceReport;
         Map<FileProvenanceParam, List<String>> map = parseOptions();
         if (skipStuff) {
             map.put(FileProvenanceParam.skip, new ImmutableList.Builder<String>().add("false").build());
@@ -1186,46 +1604,56 @@ public class BasicDecider extends Plugin implements DeciderInterface {
             map.put(FileProvenanceParam.workflow, new ImmutableList.Builder<String>().addAll(this.parentWorkflowAccessions).build());
         }
 
-        fileProvenanceReport = getFileProvenanceReport(map);
-        // convert to list of ReturnValues for backwards compatibility
-        vals = convertFileProvenanceReport(fileProvenanceReport);
-        // consider memory use and GC here
+        // convert to list of ReturnValues for backwards compatibility - records are converted one at a time as they are streamed
+        // from the provenance report, so the report itself is never fully materialized. The ReturnValues are collected because
+        // separateFiles needs all of them to group the files.
+        List<ReturnValue> vals = new ArrayList<>();
+        long convertNanos = 0;
+        try (Stream<Map<String, String>> fileProvenanceReport = getFileProvenanceReportStream(map)) {
+            Iterator<Map<String, String>> records = fileProvenanceReport.iterator();
+            while (records.hasNext()) {
+                Map<String, String> record = records.next();
+                // the conversion time is accumulated here and recorded once, rather than once per record
+                long start = System.nanoTime();
+                vals.add(convertFileProvenanceRecord(record));
+                convertNanos += System.nanoTime() - start;
+            }
+        }
+        metrics.record("convertFileProvenanceReport", convertNanos);
         return vals;
     }
 
-    private List<ReturnValue> convertFileProvenanceReport(List<Map<String, String>> fileProvenanceReport) {
-        List<ReturnValue> list = new ArrayList<>();
-        for (Map<String, String> map : fileProvenanceReport) {
-            ReturnValue row = new ReturnValue();
-            row.setAttributes(map);
-            list.add(row);
-            
-            if (map.get(Header.FILE_PATH.getTitle()) != null) {
-                // mutate additional rows into a nested FileMetadata object
-                FileMetadata fm = new FileMetadata();
-                fm.setFilePath(map.get(Header.FILE_PATH.getTitle()));
-                fm.setMetaType(map.get(Header.FILE_META_TYPE.getTitle()));
-                fm.setDescription(map.get(Header.FILE_DESCRIPTION.getTitle()));
-                fm.setMd5sum(map.get(Header.FILE_MD5SUM.getTitle()));
-                if (map.containsKey(Header.FILE_SIZE.getTitle())) {
-                    if (!map.get(Header.FILE_SIZE.getTitle()).isEmpty()) {
-                        fm.setSize(Long.valueOf(map.get(Header.FILE_SIZE.getTitle())));
-                    }
+    ReturnValue convertFileProvenanceRecord(Map<String, String> map) {
+        FileProvenanceRecord.ReturnValueAdapter row = new FileProvenanceRecord.ReturnValueAdapter();
+        row.setAttributes(map);
+
+        if (map.get(Header.FILE_PATH.getTitle()) != null) {
+            // mutate additional rows into a nested FileMetadata object
+            FileMetadata fm = new FileMetadata();
+            fm.setFilePath(map.get(Header.FILE_PATH.getTitle()));
+            fm.setMetaType(map.get(Header.FILE_META_TYPE.getTitle()));
+            fm.setDescription(map.get(Header.FILE_DESCRIPTION.getTitle()));
+            fm.setMd5sum(map.get(Header.FILE_MD5SUM.getTitle()));
+            if (map.containsKey(Header.FILE_SIZE.getTitle())) {
+                if (!map.get(Header.FILE_SIZE.getTitle()).isEmpty()) {
+                    fm.setSize(Long.valueOf(map.get(Header.FILE_SIZE.getTitle())));
                 }
-                row.setFiles(new ArrayList<>(new ImmutableList.Builder<FileMetadata>().add(fm).build()));
             }
-            
-            handleAttributes(map, row, Header.STUDY_ATTRIBUTES, Header.STUDY_TAG_PREFIX);
-            handleAttributes(map, row, Header.EXPERIMENT_ATTRIBUTES, Header.EXPERIMENT_TAG_PREFIX);
-            handleAttributes(map, row, Header.PARENT_SAMPLE_ATTRIBUTES, Header.PARENT_SAMPLE_TAG_PREFIX);
-            handleAttributes(map, row, Header.SAMPLE_ATTRIBUTES, Header.SAMPLE_TAG_PREFIX);
-            handleAttributes(map, row, Header.IUS_ATTRIBUTES, Header.IUS_TAG_PREFIX);
-            handleAttributes(map, row, Header.LANE_ATTRIBUTES, Header.LANE_TAG_PREFIX);
-            handleAttributes(map, row, Header.SEQUENCER_RUN_ATTRIBUTES, Header.SEQUENCER_RUN_TAG_PREFIX);
-            handleAttributes(map, row, Header.PROCESSING_ATTRIBUTES, Header.PROCESSING_TAG_PREFIX);
-            handleAttributes(map, row, Header.FILE_ATTRIBUTES, Header.FILE_TAG_PREFIX);
+            row.setFiles(new ArrayList<>(new ImmutableList.Builder<FileMetadata>().add(fm).build()));
         }
-        return list;
+
+        handleAttributes(map, row, Header.STUDY_ATTRIBUTES, Header.STUDY_TAG_PREFIX);
+        handleAttributes(map, row, Header.EXPERIMENT_ATTRIBUTES, Header.EXPERIMENT_TAG_PREFIX);
+        handleAttributes(map, row, Header.PARENT_SAMPLE_ATTRIBUTES, Header.PARENT_SAMPLE_TAG_PREFIX);
+        handleAttributes(map, row, Header.SAMPLE_ATTRIBUTES, Header.SAMPLE_TAG_PREFIX);
+        handleAttributes(map, row, Header.IUS_ATTRIBUTES, Header.IUS_TAG_PREFIX);
+        handleAttributes(map, row, Header.LANE_ATTRIBUTES, Header.LANE_TAG_PREFIX);
+        handleAttributes(map, row, Header.SEQUENCER_RUN_ATTRIBUTES, Header.SEQUENCER_RUN_TAG_PREFIX);
+        handleAttributes(map, row, Header.PROCESSING_ATTRIBUTES, Header.PROCESSING_TAG_PREFIX);
+        handleAttributes(map, row, Header.FILE_ATTRIBUTES, Header.FILE_TAG_PREFIX);
+
+        // parse the typed record once, all further decider checks operate on the record
+        return row.bind();
     }
 
     private void handleAttributes(Map<String, String> map, ReturnValue row, Header headerType, Header headerPrefix) {
@@ -1271,26 +1699,115 @@ public class BasicDecider extends Plugin implements DeciderInterface {
         FAILED, OTHER, COMPLETED
     }
 
+    /**
+     * The files selected for a group and whether the group should be (re)run.
+     */
+    private static class GroupContext {
+
+        private final String key;
+        private final List<ReturnValue> files;
+        private final Collection<String> parentAccessionsToRun = new HashSet<>();
+        private final Collection<String> filesToRun = new HashSet<>();
+        private final Collection<String> workflowParentAccessionsToRun = new LinkedHashSet<>();
+        private final Collection<Integer> fileSWIDsToRun = new HashSet<>();
+        private final Set<String> studyReporterOutput = new HashSet<>();
+        private boolean rerun = false;
+        private boolean blockedByCompletedRun = false;
+        private WorkflowRun blockingWorkflowRun = null;
+
+        private GroupContext(String key, List<ReturnValue> files) {
+            this.key = key;
+            this.files = files;
+        }
+
+        private boolean isRunnable() {
+            return !parentAccessionsToRun.isEmpty() && !filesToRun.isEmpty() && !workflowParentAccessionsToRun.isEmpty();
+        }
+    }
+
+    /**
+     * Evaluates groups in order - either on the calling thread or ahead of the caller on a bounded thread pool.
+     * <p>
+     * When running on a thread pool, at most two groups per thread are evaluated ahead of the group being scheduled so that little work
+     * is wasted when "launch-max" is reached.
+     */
+    private class GroupEvaluator implements Iterator<GroupContext>, AutoCloseable {
+
+        private final Iterator<Entry<String, List<ReturnValue>>> groups;
+        private final ExecutorService executorService;
+        private final Deque<Future<GroupContext>> evaluations = new ArrayDeque<>();
+        private final int maxEvaluationsAhead;
+
+        private GroupEvaluator(List<Entry<String, List<ReturnValue>>> groups, int threads) {
+            this.groups = groups.iterator();
+            if (threads > 1) {
+                executorService = Executors.newFixedThreadPool(threads,
+                        new ThreadFactoryBuilder().setNameFormat("group-evaluation-%d").setDaemon(true).build());
+                maxEvaluationsAhead = threads * 2;
+            } else {
+                executorService = null;
+                maxEvaluationsAhead = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !evaluations.isEmpty() || groups.hasNext();
+        }
+
+        @Override
+        public GroupContext next() {
+            if (executorService == null) {
+                return evaluateGroup(groups.next());
+            }
+            while (evaluations.size() < maxEvaluationsAhead && groups.hasNext()) {
+                Entry<String, List<ReturnValue>> group = groups.next();
+                evaluations.add(executorService.submit(() -> evaluateGroup(group)));
+            }
+            Future<GroupContext> evaluation = evaluations.remove();
+            try {
+                return evaluation.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                Throwables.throwIfUnchecked(ex.getCause());
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+
+        @Override
+        public void close() {
+            if (executorService != null) {
+                for (Future<GroupContext> evaluation : evaluations) {
+                    evaluation.cancel(true);
+                }
+                executorService.shutdownNow();
+            }
+        }
+    }
+
     private class ReturnValueProcessingTimeComparator implements Comparator<Entry<String, List<ReturnValue>>> {
 
+        // the latest SWID of each group is computed once rather than on every comparison
+        private final Map<String, Integer> latestSwids = new HashMap<>();
+
         @Override
         public int compare(Entry<String, List<ReturnValue>> t0, Entry<String, List<ReturnValue>> t1) {
-            DateFormat formatter = new SimpleDateFormat();
-            Integer t0date = latestSWID(t0, formatter);
-            Integer t1date = latestSWID(t1, formatter);
-            return t1date.compareTo(t0date);
+            return Integer.compare(latestSWID(t1), latestSWID(t0));
         }
 
-        private Integer latestSWID(Entry<String, List<ReturnValue>> t0, DateFormat formatter) {
+        private int latestSWID(Entry<String, List<ReturnValue>> t0) {
+            Integer cached = latestSwids.get(t0.getKey());
+            if (cached != null) {
+                return cached;
+            }
             // grab the latest date in each group
-            Integer latestSWID = Integer.MIN_VALUE;
+            int latestSWID = Integer.MIN_VALUE;
             for (ReturnValue t0i : t0.getValue()) {
-                Integer currInt = Integer.valueOf(t0i.getAttribute(FindAllTheFiles.FILE_SWA));
-
-                if (currInt != null && currInt > latestSWID) {
-                    latestSWID = currInt;
-                }
+                latestSWID = Math.max(latestSWID, FileProvenanceRecord.of(t0i).getFileSwid());
             }
+            latestSwids.put(t0.getKey(), latestSWID);
             return latestSWID;
         }
 
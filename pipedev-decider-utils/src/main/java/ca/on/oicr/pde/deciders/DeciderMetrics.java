@@ -0,0 +1,248 @@
+package ca.on.oicr.pde.deciders;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Phase timings and event counts of a decider run.
+ * <p>
+ * Phases (e.g. "separateFiles", "rerunWorkflowRun") are timed with {@link #time(java.lang.String)} and events (e.g. "records",
+ * "launches") are counted with {@link #increment(java.lang.String, long)}. Both may be called concurrently. The summary can be written
+ * as JSON or in the Prometheus text exposition format (e.g. for the node exporter textfile collector).
+ * <p>
+ * Phases may be nested or overlap (e.g. a phase that includes another phase, or a phase timed on several threads), so phase times
+ * are reported per phase and are not summed.
+ */
+public class DeciderMetrics {
+
+    private final String decider;
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param decider the decider name, used as the "decider" label of the Prometheus metrics
+     */
+    public DeciderMetrics(String decider) {
+        this.decider = decider;
+    }
+
+    /**
+     * Start timing a phase, the phase time is recorded when the returned timing is closed.
+     *
+     * @param phase the phase name
+     *
+     * @return the timing, to be used with try-with-resources
+     */
+    public Timing time(String phase) {
+        return new Timing(getPhase(phase), System.nanoTime());
+    }
+
+    /**
+     * Record the time of a phase that was timed by the caller.
+     *
+     * @param phase the phase name
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public void record(String phase, long nanos) {
+        getPhase(phase).record(nanos);
+    }
+
+    public void increment(String counter) {
+        increment(counter, 1);
+    }
+
+    public void increment(String counter, long value) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(value);
+    }
+
+    /**
+     * @param phase the phase name
+     *
+     * @return the total time of the phase in nanoseconds
+     */
+    public long getPhaseNanos(String phase) {
+        Phase p = phases.get(phase);
+        return p == null ? 0 : p.totalNanos.sum();
+    }
+
+    /**
+     * @param counter the counter name
+     *
+     * @return the counter value
+     */
+    public long getCount(String counter) {
+        LongAdder c = counters.get(counter);
+        return c == null ? 0 : c.sum();
+    }
+
+    private Phase getPhase(String phase) {
+        return phases.computeIfAbsent(phase, k -> new Phase());
+    }
+
+    /**
+     * @return a one line summary of the phase times (in seconds) and counters
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Phase> e : sorted(phases).entrySet()) {
+            sb.append(e.getKey()).append('=').append(String.format(Locale.ROOT, "%.3f", seconds(e.getValue().totalNanos.sum()))).append("s ");
+        }
+        for (Map.Entry<String, LongAdder> e : sorted(counters).entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue().sum()).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Write the metrics as a JSON document. The file is replaced atomically.
+     *
+     * @param path the output file
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void writeJson(Path path) throws IOException {
+        Path tmpPath = createTempFile(path);
+        try {
+            try (JsonGenerator json = new JsonFactory().createGenerator(Files.newOutputStream(tmpPath), JsonEncoding.UTF8)) {
+                json.useDefaultPrettyPrinter();
+                json.writeStartObject();
+                json.writeStringField("decider", decider);
+                json.writeObjectFieldStart("phases");
+                for (Map.Entry<String, Phase> e : sorted(phases).entrySet()) {
+                    json.writeObjectFieldStart(e.getKey());
+                    json.writeNumberField("count", e.getValue().count.sum());
+                    json.writeNumberField("totalSeconds", seconds(e.getValue().totalNanos.sum()));
+                    json.writeNumberField("maxSeconds", seconds(e.getValue().maxNanos.get()));
+                    json.writeEndObject();
+                }
+                json.writeEndObject();
+                json.writeObjectFieldStart("counters");
+                for (Map.Entry<String, LongAdder> e : sorted(counters).entrySet()) {
+                    json.writeNumberField(e.getKey(), e.getValue().sum());
+                }
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format. The file is replaced atomically.
+     *
+     * @param path the output file
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void writePrometheus(Path path) throws IOException {
+        Path tmpPath = createTempFile(path);
+        try {
+            try (Writer w = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+                SortedMap<String, Phase> sortedPhases = sorted(phases);
+                w.write("# HELP decider_phase_seconds_total Total time spent in a decider phase.\n");
+                w.write("# TYPE decider_phase_seconds_total counter\n");
+                for (Map.Entry<String, Phase> e : sortedPhases.entrySet()) {
+                    writeSample(w, "decider_phase_seconds_total", "phase", e.getKey(), Double.toString(seconds(e.getValue().totalNanos.sum())));
+                }
+                w.write("# HELP decider_phase_max_seconds Longest single execution of a decider phase.\n");
+                w.write("# TYPE decider_phase_max_seconds gauge\n");
+                for (Map.Entry<String, Phase> e : sortedPhases.entrySet()) {
+                    writeSample(w, "decider_phase_max_seconds", "phase", e.getKey(), Double.toString(seconds(e.getValue().maxNanos.get())));
+                }
+                w.write("# HELP decider_phase_count_total Number of executions of a decider phase.\n");
+                w.write("# TYPE decider_phase_count_total counter\n");
+                for (Map.Entry<String, Phase> e : sortedPhases.entrySet()) {
+                    writeSample(w, "decider_phase_count_total", "phase", e.getKey(), Long.toString(e.getValue().count.sum()));
+                }
+                w.write("# HELP decider_events_total Number of decider events (records, groups, launches, etc.).\n");
+                w.write("# TYPE decider_events_total counter\n");
+                for (Map.Entry<String, LongAdder> e : sorted(counters).entrySet()) {
+                    writeSample(w, "decider_events_total", "event", e.getKey(), Long.toString(e.getValue().sum()));
+                }
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    private void writeSample(Writer w, String name, String labelName, String labelValue, String value) throws IOException {
+        w.write(name);
+        w.write("{decider=\"");
+        w.write(escapeLabelValue(decider));
+        w.write("\",");
+        w.write(labelName);
+        w.write("=\"");
+        w.write(escapeLabelValue(labelValue));
+        w.write("\"} ");
+        w.write(value);
+        w.write('\n');
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static Path createTempFile(Path path) throws IOException {
+        Path absolutePath = path.toAbsolutePath();
+        Files.createDirectories(absolutePath.getParent());
+        return Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+    }
+
+    private static <T> SortedMap<String, T> sorted(Map<String, T> map) {
+        return new TreeMap<>(map);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static class Phase {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+
+    /**
+     * A running phase timing.
+     */
+    public static class Timing implements AutoCloseable {
+
+        private final Phase phase;
+        private final long start;
+
+        private Timing(Phase phase, long start) {
+            this.phase = phase;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            phase.record(System.nanoTime() - start);
+        }
+    }
+
+}
@@ -242,29 +242,18 @@ public class FileAttributes implements Iterable<String>{
         fileSize = fm.getSize();
 
         Map<String, String> atts = returnValue.getAttributes();
-
-        study = assignString(atts, Header.STUDY_TITLE);
-        experiment = assignString(atts, Header.EXPERIMENT_NAME);
-        librarySample = assignString(atts, Header.SAMPLE_NAME);
-        donor = assignLastInString(atts, Header.PARENT_SAMPLE_NAME, ":");
-        lane = assignInt(atts, Header.LANE_NUM);
-        sequencerRun = assignString(atts, Header.SEQUENCER_RUN_NAME);
-        barcode = assignString(atts, Header.IUS_TAG);
+        FileProvenanceRecord record = FileProvenanceRecord.of(returnValue);
+
+        study = record.getStudy();
+        experiment = record.getExperiment();
+        librarySample = record.getSampleName();
+        donor = record.getDonor();
+        lane = assignInt(record.getLaneNumber());
+        sequencerRun = record.getSequencerRun();
+        barcode = record.getBarcode();
         sampleAttributes = new EnumMap<>(Lims.class);
+        sampleAttributes.putAll(record.getLimsAttributes());
 
-        for (Lims limsAtt : Lims.values()) {
-            for (String geoString : atts.keySet()) {
-                String value = extractAttribute(geoString, limsAtt.getAttributeTitle(), atts.get(geoString));
-                String oldVal = sampleAttributes.get(limsAtt);
-                if (value != null) {
-                    if (oldVal == null) {
-                        sampleAttributes.put(limsAtt, value.trim());
-                    } else if (!oldVal.contains(value)) {
-                        sampleAttributes.put(limsAtt, oldVal + "," + value.trim());
-                    }
-                }
-            }
-        }
         otherAttributes = atts;
         otherAttributes.put("metatype", metatype);
         otherAttributes.put("file_path", path);
@@ -272,15 +261,24 @@ public class FileAttributes implements Iterable<String>{
         otherAttributes.put("fileSize", fileSize == null ? null : fileSize.toString());
     }
 
+    /**
+     * Get the trimmed value of an attribute if its key holds the given Lims attribute title.
+     *
+     * @param key   the attribute key
+     * @param title the Lims attribute title
+     * @param value the attribute value
+     *
+     * @return the trimmed value, or null if the key does not hold the title
+     *
+     * @deprecated the Lims attributes are classified by {@link FileProvenanceRecord}, which no longer calls this method, so overriding
+     * it does not change the sample attributes. Use {@link #getLimsValue(Lims)} instead.
+     */
+    @Deprecated
     protected String extractAttribute(String key, String title, String value) {
-        String toRet = null;
-        if (key.matches(".*" + title + "[^_]*")) {
-            toRet = value;
-        }
-        if (toRet != null) {
-            toRet = toRet.trim();
+        if (value == null || !LimsAttributeClassifier.matches(key, title)) {
+            return null;
         }
-        return toRet;
+        return value.trim();
     }
 
     static String assignLastInString(Map<String, String> atts, Header header, String delimiter) {
@@ -305,17 +303,8 @@ public class FileAttributes implements Iterable<String>{
         return last;
     }
 
-    private String assignString(Map<String, String> atts, Header header) {
-        String variable = atts.get(header.getTitle());
-        if (variable != null) {
-            variable = variable.trim();
-        }
-        return variable;
-    }
-
-    private Integer assignInt(Map<String, String> atts, Header header) {
+    private Integer assignInt(String intSt) {
         Integer variable = null;
-        String intSt = atts.get(header.getTitle());
         if (intSt != null && !intSt.isEmpty()) {
             variable = Integer.parseInt(intSt);
         }
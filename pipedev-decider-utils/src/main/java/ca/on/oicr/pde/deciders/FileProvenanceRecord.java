@@ -0,0 +1,407 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.primitives.Ints;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.FileMetadata;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A typed, pre-parsed view of a single file provenance report record.
+ * <p>
+ * The decider hot paths (file selection, grouping and workflow run construction) previously looked up every value by header title
+ * string and re-parsed the same values for every check. This record parses the values once, stores SWIDs as primitives and interns
+ * the low cardinality strings (study, sample, sequencer run, workflow and status values) so that they are shared across records.
+ * <p>
+ * ReturnValue remains the type exposed to decider plugins - records created by {@link BasicDecider} are carried by a ReturnValue
+ * adapter and can be retrieved with {@link #of(ReturnValue)}. Plugins are free to modify the ReturnValue, so the carried record
+ * is re-parsed when the attributes or files of the ReturnValue have changed since the record was parsed. The attributes of a bound
+ * adapter track their own modifications, so this check does not rehash the attributes on every lookup.
+ */
+public final class FileProvenanceRecord {
+
+    /**
+     * SWID value used when the record does not have the SWID (or the SWID is not a number).
+     */
+    public static final int NO_SWID = -1;
+
+    private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+    private final int fileSwid;
+    private final int processingSwid;
+    private final int workflowSwid;
+    private final String workflowName;
+    private final String workflowRunStatus;
+    private final String processingDate;
+    private final String lastModified;
+    private final String status;
+    private final boolean skip;
+    private final String skipAttributeKey;
+    private final String study;
+    private final String experiment;
+    private final String sampleName;
+    private final String donor;
+    private final String laneNumber;
+    private final String sequencerRun;
+    private final String barcode;
+    private final Set<String> iusSwids;
+    private final Set<String> laneSwids;
+    private final Map<Lims, String> limsAttributes;
+
+    //the state of the ReturnValue the record was parsed from
+    private final Map<String, String> sourceAttributes;
+    private final long sourceAttributesState;
+    private final FileMetadata sourceFile;
+
+    private FileProvenanceRecord(Map<String, String> atts, FileMetadata fm) {
+        sourceAttributes = atts;
+        sourceAttributesState = getState(atts);
+        sourceFile = fm;
+
+        fileSwid = parseSwid(atts, Header.FILE_SWA);
+        processingSwid = parseSwid(atts, Header.PROCESSING_SWID);
+        workflowSwid = parseSwid(atts, Header.WORKFLOW_SWA);
+        workflowName = intern(atts.get(Header.WORKFLOW_NAME.getTitle()));
+        workflowRunStatus = intern(atts.get(Header.WORKFLOW_RUN_STATUS.getTitle()));
+        processingDate = atts.get(Header.PROCESSING_DATE.getTitle());
+        lastModified = atts.get("Last Modified");
+        status = intern(atts.get("Status"));
+        skip = Boolean.parseBoolean(atts.get("Skip"));
+
+        study = intern(StringUtils.trim(atts.get(Header.STUDY_TITLE.getTitle())));
+        experiment = intern(StringUtils.trim(atts.get(Header.EXPERIMENT_NAME.getTitle())));
+        sampleName = intern(StringUtils.trim(atts.get(Header.SAMPLE_NAME.getTitle())));
+        donor = intern(FileAttributes.assignLastInString(atts, Header.PARENT_SAMPLE_NAME, ":"));
+        laneNumber = atts.get(Header.LANE_NUM.getTitle());
+        sequencerRun = intern(StringUtils.trim(atts.get(Header.SEQUENCER_RUN_NAME.getTitle())));
+        barcode = intern(StringUtils.trim(atts.get(Header.IUS_TAG.getTitle())));
+        iusSwids = splitSwids(atts.get(Header.IUS_SWA.getTitle()));
+        laneSwids = splitSwids(atts.get(Header.LANE_SWA.getTitle()));
+
+        String firstSkipKey = null;
+        Map<Lims, String> lims = new EnumMap<>(Lims.class);
+        for (Map.Entry<String, String> e : atts.entrySet()) {
+            String key = e.getKey();
+            if (firstSkipKey == null && key.contains("skip")) {
+                firstSkipKey = key;
+            }
+            for (Lims limsAtt : LimsAttributeClassifier.classify(key)) {
+                String value = e.getValue() == null ? null : e.getValue().trim();
+                if (value != null) {
+                    String oldVal = lims.get(limsAtt);
+                    if (oldVal == null) {
+                        lims.put(limsAtt, intern(value));
+                    } else if (!oldVal.contains(value)) {
+                        lims.put(limsAtt, oldVal + "," + value);
+                    }
+                }
+            }
+        }
+        skipAttributeKey = firstSkipKey;
+        limsAttributes = Collections.unmodifiableMap(lims);
+    }
+
+    /**
+     * Get the typed record for a ReturnValue.
+     * <p>
+     * If the ReturnValue was created by the decider from the file provenance report, the record that was parsed during conversion is
+     * returned (or re-parsed and cached again if the ReturnValue has been modified since), otherwise a new record is parsed from the
+     * ReturnValue's attributes.
+     *
+     * @param rv the ReturnValue (with zero or one FileMetadata)
+     *
+     * @return the typed file provenance record
+     */
+    public static FileProvenanceRecord of(ReturnValue rv) {
+        if (rv instanceof ReturnValueAdapter) {
+            return ((ReturnValueAdapter) rv).record();
+        }
+        return from(rv);
+    }
+
+    private static FileProvenanceRecord from(ReturnValue rv) {
+        return new FileProvenanceRecord(rv.getAttributes(), getFile(rv));
+    }
+
+    private static FileMetadata getFile(ReturnValue rv) {
+        return (rv.getFiles() == null || rv.getFiles().isEmpty()) ? null : rv.getFiles().get(0);
+    }
+
+    private boolean isParsedFrom(ReturnValue rv) {
+        Map<String, String> atts = rv.getAttributes();
+        return atts == sourceAttributes && getFile(rv) == sourceFile && getState(atts) == sourceAttributesState;
+    }
+
+    private static long getState(Map<String, String> atts) {
+        if (atts instanceof TrackedAttributes) {
+            return ((TrackedAttributes) atts).getState();
+        }
+        // attributes that were replaced after the adapter was bound are not tracked
+        return atts.hashCode();
+    }
+
+    public int getFileSwid() {
+        return fileSwid;
+    }
+
+    public int getProcessingSwid() {
+        return processingSwid;
+    }
+
+    public int getWorkflowSwid() {
+        return workflowSwid;
+    }
+
+    public String getWorkflowName() {
+        return workflowName;
+    }
+
+    public String getWorkflowRunStatus() {
+        return workflowRunStatus;
+    }
+
+    /**
+     * @return the unparsed processing date string
+     */
+    public String getProcessingDate() {
+        return processingDate;
+    }
+
+    /**
+     * @return the unparsed file provenance last modified string (empty or null if the report did not provide it)
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the file provenance status (e.g. OKAY, STALE, ERROR) or null if the report did not provide a status
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public boolean isSkip() {
+        return skip;
+    }
+
+    /**
+     * @return the first attribute key that contains "skip", or null if there are no skip attributes
+     */
+    public String getSkipAttributeKey() {
+        return skipAttributeKey;
+    }
+
+    public String getStudy() {
+        return study;
+    }
+
+    public String getExperiment() {
+        return experiment;
+    }
+
+    public String getSampleName() {
+        return sampleName;
+    }
+
+    public String getDonor() {
+        return donor;
+    }
+
+    /**
+     * @return the unparsed lane number string
+     */
+    public String getLaneNumber() {
+        return laneNumber;
+    }
+
+    public String getSequencerRun() {
+        return sequencerRun;
+    }
+
+    public String getBarcode() {
+        return barcode;
+    }
+
+    /**
+     * @return the IUS SWIDs of the record, or an empty set if the report did not provide any
+     */
+    public Set<String> getIusSwids() {
+        return iusSwids;
+    }
+
+    /**
+     * @return the lane SWIDs of the record, or an empty set if the report did not provide any
+     */
+    public Set<String> getLaneSwids() {
+        return laneSwids;
+    }
+
+    /**
+     * @return the Lims attributes of the record, multiple values for the same Lims key are comma-separated
+     */
+    public Map<Lims, String> getLimsAttributes() {
+        return limsAttributes;
+    }
+
+    private static int parseSwid(Map<String, String> atts, Header header) {
+        String value = atts.get(header.getTitle());
+        if (value == null) {
+            return NO_SWID;
+        }
+        Integer swid = Ints.tryParse(value);
+        return swid == null ? NO_SWID : swid;
+    }
+
+    private static Set<String> splitSwids(String swids) {
+        if (swids == null || swids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return ImmutableSet.copyOf(StringUtils.split(swids, ';'));
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : INTERNER.intern(value);
+    }
+
+    /**
+     * Attributes that count their modifications, so that a bound record can check whether it is still current without rehashing the
+     * attributes. Removals through the key, value and entry views change the size, values changed through {@link Map.Entry#setValue}
+     * are not detected.
+     */
+    private static final class TrackedAttributes extends HashMap<String, String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private int modifications;
+
+        private TrackedAttributes(Map<String, String> attributes) {
+            super(attributes);
+        }
+
+        private long getState() {
+            return ((long) modifications << 32) | size();
+        }
+
+        @Override
+        public String put(String key, String value) {
+            modifications++;
+            return super.put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> m) {
+            modifications++;
+            super.putAll(m);
+        }
+
+        @Override
+        public String remove(Object key) {
+            modifications++;
+            return super.remove(key);
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            modifications++;
+            return super.remove(key, value);
+        }
+
+        @Override
+        public void clear() {
+            modifications++;
+            super.clear();
+        }
+
+        @Override
+        public String putIfAbsent(String key, String value) {
+            modifications++;
+            return super.putIfAbsent(key, value);
+        }
+
+        @Override
+        public String replace(String key, String value) {
+            modifications++;
+            return super.replace(key, value);
+        }
+
+        @Override
+        public boolean replace(String key, String oldValue, String newValue) {
+            modifications++;
+            return super.replace(key, oldValue, newValue);
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super String, ? super String, ? extends String> function) {
+            modifications++;
+            super.replaceAll(function);
+        }
+
+        @Override
+        public String computeIfAbsent(String key, Function<? super String, ? extends String> mappingFunction) {
+            modifications++;
+            return super.computeIfAbsent(key, mappingFunction);
+        }
+
+        @Override
+        public String computeIfPresent(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+            modifications++;
+            return super.computeIfPresent(key, remappingFunction);
+        }
+
+        @Override
+        public String compute(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+            modifications++;
+            return super.compute(key, remappingFunction);
+        }
+
+        @Override
+        public String merge(String key, String value, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+            modifications++;
+            return super.merge(key, value, remappingFunction);
+        }
+    }
+
+    /**
+     * ReturnValue that carries the typed record of the file provenance report row it was converted from.
+     */
+    static final class ReturnValueAdapter extends ReturnValue {
+
+        private transient FileProvenanceRecord record;
+
+        /**
+         * Parse the attributes and files that have been set on this ReturnValue into the typed record. The attributes are replaced by
+         * a copy that tracks its modifications, so later lookups of the record do not rehash them.
+         *
+         * @return this ReturnValue
+         */
+        ReturnValueAdapter bind() {
+            setAttributes(new TrackedAttributes(getAttributes()));
+            record = from(this);
+            return this;
+        }
+
+        /**
+         * Get the bound record, re-parsing it if the attributes or files have been changed since it was parsed.
+         *
+         * @return the typed record of the current attributes and files
+         */
+        FileProvenanceRecord record() {
+            if (record == null || !record.isParsedFrom(this)) {
+                record = from(this);
+            }
+            return record;
+        }
+    }
+
+}
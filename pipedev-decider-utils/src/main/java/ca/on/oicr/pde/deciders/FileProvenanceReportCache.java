@@ -0,0 +1,511 @@
+package ca.on.oicr.pde.deciders;
+
+import ca.on.oicr.gsi.provenance.model.IusLimsKey;
+import ca.on.oicr.gsi.provenance.model.LimsKey;
+import com.google.common.collect.Iterators;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * On-disk snapshot cache of file provenance report records.
+ * <p>
+ * A snapshot contains the converted report records (and the IUS LimsKeys of each record) for one provenance configuration and filter
+ * set. Snapshots are gzipped and dictionary-encoded: each distinct short string (attribute keys, study names, statuses, etc.) is
+ * written once and then referenced by index. Snapshots are written to a temporary file and atomically moved into place once all
+ * records have been written, so concurrent deciders never read a partial snapshot.
+ * <p>
+ * Snapshots are not refreshed incrementally: the provenance provider APIs do not support last modified filters, so a snapshot is
+ * refreshed by re-downloading the full report once it is older than the configured maximum age.
+ */
+public class FileProvenanceReportCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(FileProvenanceReportCache.class);
+
+    private static final int MAGIC = 0x46505243; // "FPRC"
+    private static final int VERSION = 1;
+    private static final int MAX_DICTIONARY_STRING_LENGTH = 128;
+
+    //string reference codes, dictionary indexes are offset by FIRST_INDEX
+    private static final int NULL_STRING = 0;
+    private static final int LITERAL_STRING = 1;
+    private static final int NEW_DICTIONARY_STRING = 2;
+    private static final int FIRST_INDEX = 3;
+
+    private final Path directory;
+    private final Duration maxAge;
+
+    public FileProvenanceReportCache(Path directory, Duration maxAge) {
+        this.directory = directory;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Calculate the snapshot key for a provenance configuration and filter set.
+     *
+     * @param settings       values that identify the provenance sources (e.g. provider settings, urls)
+     * @param includeFilters the include filters
+     * @param excludeFilters the exclude filters
+     *
+     * @return the snapshot key
+     */
+    public static String getKey(List<String> settings, Map<? extends Enum<?>, ? extends Collection<String>> includeFilters,
+            Map<? extends Enum<?>, ? extends Collection<String>> excludeFilters) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String setting : settings) {
+            hasher.putString(Objects.toString(setting), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        putFilters(hasher.putString("include", StandardCharsets.UTF_8), includeFilters);
+        putFilters(hasher.putString("exclude", StandardCharsets.UTF_8), excludeFilters);
+        return hasher.hash().toString();
+    }
+
+    private static void putFilters(Hasher hasher, Map<? extends Enum<?>, ? extends Collection<String>> filters) {
+        Map<String, List<String>> sorted = new TreeMap<>();
+        for (Entry<? extends Enum<?>, ? extends Collection<String>> e : filters.entrySet()) {
+            List<String> values = new ArrayList<>(e.getValue());
+            Collections.sort(values);
+            sorted.put(e.getKey().name(), values);
+        }
+        for (Entry<String, List<String>> e : sorted.entrySet()) {
+            hasher.putString(e.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+            for (String value : e.getValue()) {
+                hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+            }
+            hasher.putByte((byte) 1);
+        }
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve("file-provenance-" + key + ".snapshot.gz");
+    }
+
+    /**
+     * Open a stream over the records of a snapshot.
+     *
+     * @param key the snapshot key
+     *
+     * @return the stream of records (which must be closed), or null if there is no snapshot or the snapshot is too old
+     */
+    public Stream<Record> read(String key) {
+        Path path = getPath(key);
+        if (!Files.isReadable(path)) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 65536)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                LOGGER.warn("Ignoring incompatible file provenance snapshot [{}]", path);
+                in.close();
+                return null;
+            }
+            Instant created = Instant.ofEpochMilli(in.readLong());
+            if (created.plus(maxAge).isBefore(Instant.now())) {
+                LOGGER.info("File provenance snapshot [{}] created at [{}] is older than [{}] - refreshing", path, created, maxAge);
+                in.close();
+                return null;
+            }
+            LOGGER.info("Loading file provenance snapshot [{}] created at [{}]", path, created);
+            SnapshotReader reader = new SnapshotReader(in);
+            DataInputStream input = in;
+            return StreamSupport.stream(reader, false).onClose(() -> {
+                try {
+                    input.close();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to read file provenance snapshot [" + path + "]", ex);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException closeEx) {
+                    ex.addSuppressed(closeEx);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Open a stream over the records of a snapshot, or over the records of the source if there is no snapshot or the snapshot is too
+     * old.
+     * <p>
+     * Source items are converted to report records as the stream is consumed and each item is released once it has been converted. The
+     * converted records are written to a new snapshot, which replaces the current snapshot if the stream was fully consumed before it
+     * was closed.
+     *
+     * @param <T>         the source item type
+     * @param key         the snapshot key
+     * @param source      supplies the source items, only called if there is no fresh snapshot
+     * @param converter   converts a source item to a report record
+     * @param iusLimsKeys gets the IUS LimsKeys of a source item
+     *
+     * @return the stream of records (which must be closed)
+     */
+    public <T> Stream<Record> read(String key, Supplier<? extends Collection<? extends T>> source,
+            Function<? super T, Map<String, String>> converter, Function<? super T, ? extends Collection<? extends IusLimsKey>> iusLimsKeys) {
+        Stream<Record> snapshot = read(key);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        Collection<? extends T> items = source.get();
+        Writer writer;
+        try {
+            writer = newWriter(key, items.size());
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to create file provenance snapshot for key [" + key + "]", ex);
+            writer = null;
+        }
+
+        // drain the items so each one can be garbage collected once it has been converted
+        Iterator<T> iterator = Iterators.consumingIterator(new ArrayDeque<T>(items).iterator());
+        Writer snapshotWriter = writer;
+        Stream<Record> records = StreamSupport
+                .stream(Spliterators.spliterator(iterator, items.size(), Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .map(item -> {
+                    Map<String, String> reportRecord = converter.apply(item);
+                    Collection<? extends IusLimsKey> keys = iusLimsKeys.apply(item);
+                    if (snapshotWriter != null) {
+                        snapshotWriter.write(reportRecord, keys);
+                    }
+                    return new Record(reportRecord, toMap(keys));
+                });
+        return snapshotWriter == null ? records : records.onClose(snapshotWriter::close);
+    }
+
+    private static Map<Integer, LimsKey> toMap(Collection<? extends IusLimsKey> iusLimsKeys) {
+        if (iusLimsKeys == null || iusLimsKeys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, LimsKey> keys = new HashMap<>();
+        for (IusLimsKey k : iusLimsKeys) {
+            if (k.getIusSWID() != null && k.getLimsKey() != null) {
+                keys.putIfAbsent(k.getIusSWID(), k.getLimsKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Create a writer for a new snapshot. The snapshot replaces the current snapshot only if all expected records were written before
+     * the writer was closed.
+     *
+     * @param key             the snapshot key
+     * @param expectedRecords the number of records that will be written
+     *
+     * @return the snapshot writer
+     *
+     * @throws IOException if the snapshot file could not be created
+     */
+    public Writer newWriter(String key, int expectedRecords) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(key, expectedRecords);
+    }
+
+    /**
+     * A file provenance report record and the IUS LimsKeys of the record.
+     */
+    public static class Record {
+
+        private final Map<String, String> reportRecord;
+        private final Map<Integer, LimsKey> iusLimsKeys;
+
+        private Record(Map<String, String> reportRecord, Map<Integer, LimsKey> iusLimsKeys) {
+            this.reportRecord = reportRecord;
+            this.iusLimsKeys = iusLimsKeys;
+        }
+
+        /**
+         * @return a mutable copy of the report record, so callers that modify it (e.g. BasicDecider while converting it to a
+         * ReturnValue) do not change the record
+         */
+        public Map<String, String> getReportRecord() {
+            return new LinkedHashMap<>(reportRecord);
+        }
+
+        public Map<Integer, LimsKey> getIusLimsKeys() {
+            return iusLimsKeys;
+        }
+    }
+
+    /**
+     * Writes records to a temporary file which is moved into place on close.
+     */
+    public class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final Path tmpPath;
+        private final int expectedRecords;
+        private final DataOutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private int recordCount = 0;
+        private boolean failed = false;
+
+        private Writer(String key, int expectedRecords) throws IOException {
+            this.path = getPath(key);
+            this.tmpPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            this.expectedRecords = expectedRecords;
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpPath), 65536)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        /**
+         * Append a record to the snapshot. Write errors are logged and cause the snapshot to be discarded on close.
+         *
+         * @param reportRecord the report record
+         * @param iusLimsKeys  the IUS LimsKeys of the record (may be null)
+         */
+        public void write(Map<String, String> reportRecord, Collection<? extends IusLimsKey> iusLimsKeys) {
+            if (failed) {
+                return;
+            }
+            try {
+                out.writeByte(1);
+                List<IusLimsKey> keys = new ArrayList<>();
+                if (iusLimsKeys != null) {
+                    for (IusLimsKey k : iusLimsKeys) {
+                        if (k.getIusSWID() != null && k.getLimsKey() != null) {
+                            keys.add(k);
+                        }
+                    }
+                }
+                writeVarInt(keys.size());
+                for (IusLimsKey k : keys) {
+                    writeVarInt(k.getIusSWID());
+                    writeString(k.getLimsKey().getProvider());
+                    writeString(k.getLimsKey().getId());
+                    writeString(k.getLimsKey().getVersion());
+                    writeString(Objects.toString(k.getLimsKey().getLastModified(), null));
+                }
+                writeVarInt(reportRecord.size());
+                for (Entry<String, String> e : reportRecord.entrySet()) {
+                    writeString(e.getKey());
+                    writeString(e.getValue());
+                }
+                recordCount++;
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to write file provenance snapshot [" + tmpPath + "]", ex);
+                failed = true;
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(NULL_STRING);
+            } else if (s.length() > MAX_DICTIONARY_STRING_LENGTH) {
+                //long strings (e.g. file paths) are rarely repeated
+                writeVarInt(LITERAL_STRING);
+                writeBytes(s);
+            } else {
+                Integer index = dictionary.get(s);
+                if (index == null) {
+                    dictionary.put(s, dictionary.size());
+                    writeVarInt(NEW_DICTIONARY_STRING);
+                    writeBytes(s);
+                } else {
+                    writeVarInt(FIRST_INDEX + index);
+                }
+            }
+        }
+
+        private void writeBytes(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (!failed) {
+                    out.writeByte(0);
+                    out.writeInt(recordCount);
+                }
+                out.close();
+                if (!failed && recordCount == expectedRecords) {
+                    Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    LOGGER.info("Wrote file provenance snapshot [{}] with {} records", path, recordCount);
+                } else {
+                    LOGGER.debug("Discarding incomplete file provenance snapshot [{}] ({} of {} records)", tmpPath, recordCount, expectedRecords);
+                }
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to write file provenance snapshot [" + path + "]", ex);
+            } finally {
+                try {
+                    Files.deleteIfExists(tmpPath);
+                } catch (IOException ex) {
+                    LOGGER.warn("Unable to delete temporary file [" + tmpPath + "]", ex);
+                }
+            }
+        }
+    }
+
+    private static class SnapshotReader extends Spliterators.AbstractSpliterator<Record> {
+
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private int recordCount = 0;
+
+        private SnapshotReader(DataInputStream in) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.in = in;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Record> action) {
+            try {
+                if (in.readByte() == 0) {
+                    if (in.readInt() != recordCount) {
+                        throw new IOException("Snapshot record count does not match");
+                    }
+                    return false;
+                }
+                int keyCount = readVarInt();
+                Map<Integer, LimsKey> iusLimsKeys = keyCount == 0 ? Collections.emptyMap() : new HashMap<>();
+                for (int i = 0; i < keyCount; i++) {
+                    int iusSwid = readVarInt();
+                    String provider = readString();
+                    String id = readString();
+                    String version = readString();
+                    String lastModified = readString();
+                    iusLimsKeys.put(iusSwid, new CachedLimsKey(provider, id, version,
+                            lastModified == null ? null : ZonedDateTime.parse(lastModified)));
+                }
+                int size = readVarInt();
+                Map<String, String> reportRecord = new LinkedHashMap<>((int) (size / 0.75f) + 1);
+                for (int i = 0; i < size; i++) {
+                    reportRecord.put(readString(), readString());
+                }
+                recordCount++;
+                action.accept(new Record(reportRecord, iusLimsKeys));
+                return true;
+            } catch (EOFException ex) {
+                throw new UncheckedIOException("Truncated file provenance snapshot", ex);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private String readString() throws IOException {
+            int code = readVarInt();
+            switch (code) {
+                case NULL_STRING:
+                    return null;
+                case LITERAL_STRING:
+                    return readBytes();
+                case NEW_DICTIONARY_STRING:
+                    String s = readBytes();
+                    dictionary.add(s);
+                    return s;
+                default:
+                    return dictionary.get(code - FIRST_INDEX);
+            }
+        }
+
+        private String readBytes() throws IOException {
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    private static class CachedLimsKey implements LimsKey {
+
+        private final String provider;
+        private final String id;
+        private final String version;
+        private final ZonedDateTime lastModified;
+
+        private CachedLimsKey(String provider, String id, String version, ZonedDateTime lastModified) {
+            this.provider = provider;
+            this.id = id;
+            this.version = version;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public String getProvider() {
+            return provider;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getVersion() {
+            return version;
+        }
+
+        @Override
+        public ZonedDateTime getLastModified() {
+            return lastModified;
+        }
+    }
+
+}
@@ -2,15 +2,21 @@ package ca.on.oicr.pde.deciders;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import net.sourceforge.seqware.common.hibernate.FindAllTheFiles;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import net.sourceforge.seqware.common.module.ReturnValue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class GroupableFileFactory {
 
-    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S");
+    //SimpleDateFormat is not thread-safe, each thread that builds groupable files gets its own
+    private static final ThreadLocal<SimpleDateFormat> FORMAT = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S"));
     private final Logger log = LogManager.getLogger(GroupableFileFactory.class);
 
     private boolean groupByAligner = true;
@@ -33,57 +39,123 @@ public class GroupableFileFactory {
     }
 
     public GroupableFile getGroupableFile(ReturnValue rv) {
-        return new GroupableFile(rv);
+        return new GroupableFile(rv, new FileAttributes(rv, rv.getFiles().get(0)));
+    }
+
+    /**
+     * @param rv the file's ReturnValue
+     * @param fa the FileAttributes already built from the ReturnValue
+     *
+     * @return the groupable file
+     */
+    public GroupableFile getGroupableFile(ReturnValue rv, FileAttributes fa) {
+        return new GroupableFile(rv, fa);
+    }
+
+    /**
+     * @return the names of the grouping attributes, in group key order
+     */
+    public List<String> getGroupKeyNames() {
+        List<String> names = new ArrayList<>();
+        names.add("Donor");
+        names.add(Lims.TISSUE_ORIGIN.getAttributeTitle());
+        names.add(Lims.LIBRARY_TEMPLATE_TYPE.getAttributeTitle());
+        if (groupByAligner) {
+            names.add("Workflow Name");
+        }
+        names.add(Lims.TISSUE_TYPE.getAttributeTitle());
+        if (groupByTissuePrep) {
+            names.add(Lims.TISSUE_PREP.getAttributeTitle());
+        }
+        if (groupByTissueRegion) {
+            names.add(Lims.TISSUE_REGION.getAttributeTitle());
+        }
+        names.add(Lims.GROUP_ID.getAttributeTitle());
+        names.add(Lims.TARGETED_RESEQUENCING.getAttributeTitle());
+        return names;
+    }
+
+    /**
+     * Get the specification that groups files by their group key and names groups with {@link GroupableFile#getGroupByAttribute()}.
+     *
+     * @param files the function to get the groupable file of a file, the groupable files must have been built by this factory
+     *
+     * @return the grouping specification
+     */
+    public GroupingSpecification getGroupingSpecification(Function<ReturnValue, GroupableFile> files) {
+        GroupingSpecification.Builder builder = GroupingSpecification.builder();
+        List<String> names = getGroupKeyNames();
+        for (int i = 0; i < names.size(); i++) {
+            int index = i;
+            builder.field(names.get(i), rv -> files.apply(rv).getGroupKey().get(index));
+        }
+        return builder.formatter(GroupableFileFactory::formatGroupKey).build();
+    }
+
+    /**
+     * Format a group key as a group name.
+     *
+     * @param groupKey the group key of a file
+     *
+     * @return the donor, tissue origin and library template type followed by the other grouping attributes that are set, separated by
+     *         ':'
+     */
+    static String formatGroupKey(List<String> groupKey) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(groupKey.get(0)).append(':').append(groupKey.get(1)).append(':').append(groupKey.get(2));
+        for (String value : groupKey.subList(3, groupKey.size())) {
+            if (null != value) {
+                sb.append(':').append(value);
+            }
+        }
+        return sb.toString();
     }
 
     public class GroupableFile {
 
+        private final ReturnValue returnValue;
         private Date date = null;
+        private final List<Object> iusKey;
         private String iusDetails = null;
         private String parentWf = "";
+        private final List<String> groupKey;
         private String groupByAttribute = null;
         private String path = null;
 
-        private GroupableFile(ReturnValue rv) {
-            FileAttributes fa = new FileAttributes(rv, rv.getFiles().get(0));
+        private GroupableFile(ReturnValue rv, FileAttributes fa) {
+            FileProvenanceRecord record = FileProvenanceRecord.of(rv);
+            returnValue = rv;
 
             try {
-                date = format.parse(rv.getAttribute(FindAllTheFiles.Header.PROCESSING_DATE.getTitle()));
+                date = FORMAT.get().parse(record.getProcessingDate());
             } catch (ParseException ex) {
                 log.error("Bad date!", ex);
             }
 
-            iusDetails = fa.getLibrarySample() + fa.getSequencerRun() + fa.getLane() + fa.getBarcode();
-
-            groupByAttribute = fa.getDonor() + ":" + fa.getLimsValue(Lims.TISSUE_ORIGIN) + ":" + fa.getLimsValue(Lims.LIBRARY_TEMPLATE_TYPE);
+            iusKey = Arrays.asList(fa.getLibrarySample(), fa.getSequencerRun(), fa.getLane(), fa.getBarcode());
 
-            String wfName = rv.getAttribute(FindAllTheFiles.Header.WORKFLOW_NAME.getTitle());
+            String wfName = record.getWorkflowName();
             this.parentWf = wfName;
-            if (groupByAligner && null != wfName && !wfName.isEmpty()) {
-                //Grouping by workflow name (we don't care about version)
 
-                groupByAttribute = groupByAttribute.concat(":" + this.parentWf);
-            }
-
-            if (null != fa.getLimsValue(Lims.TISSUE_TYPE)) {
-                groupByAttribute = groupByAttribute.concat(":" + fa.getLimsValue(Lims.TISSUE_TYPE));
-            }
-
-            if (groupByTissuePrep && null != fa.getLimsValue(Lims.TISSUE_PREP)) {
-                groupByAttribute = groupByAttribute.concat(":" + fa.getLimsValue(Lims.TISSUE_PREP));
-            }
-
-            if (groupByTissueRegion && null != fa.getLimsValue(Lims.TISSUE_REGION)) {
-                groupByAttribute = groupByAttribute.concat(":" + fa.getLimsValue(Lims.TISSUE_REGION));
+            //each grouping attribute has a fixed position, so a missing value can not be mistaken for the value of another attribute
+            List<String> key = new ArrayList<>();
+            key.add(fa.getDonor());
+            key.add(fa.getLimsValue(Lims.TISSUE_ORIGIN));
+            key.add(fa.getLimsValue(Lims.LIBRARY_TEMPLATE_TYPE));
+            if (groupByAligner) {
+                //Grouping by workflow name (we don't care about version)
+                key.add(null == wfName || wfName.isEmpty() ? null : wfName);
             }
-
-            if (null != fa.getLimsValue(Lims.GROUP_ID)) {
-                groupByAttribute = groupByAttribute.concat(":" + fa.getLimsValue(Lims.GROUP_ID));
+            key.add(fa.getLimsValue(Lims.TISSUE_TYPE));
+            if (groupByTissuePrep) {
+                key.add(fa.getLimsValue(Lims.TISSUE_PREP));
             }
-
-            if (null != fa.getLimsValue(Lims.TARGETED_RESEQUENCING)) {
-                groupByAttribute = groupByAttribute.concat(":" + fa.getLimsValue(Lims.TARGETED_RESEQUENCING));
+            if (groupByTissueRegion) {
+                key.add(fa.getLimsValue(Lims.TISSUE_REGION));
             }
+            key.add(fa.getLimsValue(Lims.GROUP_ID));
+            key.add(fa.getLimsValue(Lims.TARGETED_RESEQUENCING));
+            groupKey = Collections.unmodifiableList(key);
 
             path = rv.getFiles().get(0).getFilePath() + "";
         }
@@ -92,14 +164,38 @@ public class GroupableFileFactory {
             return date;
         }
 
+        /**
+         * @return the group name, the donor, tissue origin and library template type followed by the other grouping attributes that
+         *         are set, separated by ':'
+         */
         public String getGroupByAttribute() {
+            if (groupByAttribute == null) {
+                groupByAttribute = formatGroupKey(groupKey);
+            }
             return groupByAttribute;
         }
 
+        /**
+         * @return the grouping attributes of the file as a composite key, attributes that are not set are null
+         */
+        List<String> getGroupKey() {
+            return groupKey;
+        }
+
         public String getIusDetails() {
+            if (iusDetails == null) {
+                iusDetails = iusKey.stream().map(String::valueOf).collect(Collectors.joining());
+            }
             return iusDetails;
         }
 
+        /**
+         * @return the library sample, sequencer run, lane and barcode of the file as a composite key
+         */
+        List<Object> getIusKey() {
+            return iusKey;
+        }
+
         public String getPath() {
             return path;
         }
@@ -107,6 +203,10 @@ public class GroupableFileFactory {
         public String getParentWf() {
             return parentWf;
         }
+
+        ReturnValue getReturnValue() {
+            return returnValue;
+        }
     }
 
 }
@@ -0,0 +1,242 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.ReturnValue;
+
+/**
+ * A declarative specification of how to partition files into groups.
+ * <p>
+ * A specification is an ordered list of fields (report headers, Lims attributes or derived values such as the donor) and a group
+ * name formatter. Each file is keyed by the composite of its field values, so no string is built per file - the group name is only
+ * formatted once per group. An optional nested specification partitions each group further.
+ * <p>
+ * Example:
+ * <pre>
+ * GroupingSpecification spec = GroupingSpecification.builder()
+ *         .donor()
+ *         .lims(Lims.LIBRARY_TEMPLATE_TYPE)
+ *         .header(Header.SAMPLE_NAME)
+ *         .build();
+ * Map&lt;String, List&lt;ReturnValue&gt;&gt; groups = spec.group(files);
+ * </pre>
+ */
+public final class GroupingSpecification {
+
+    private final List<String> names;
+    private final List<Function<ReturnValue, String>> extractors;
+    private final Function<List<String>, String> formatter;
+    private final GroupingSpecification nested;
+    private final String nestedSeparator;
+
+    private GroupingSpecification(Builder builder) {
+        this.names = ImmutableList.copyOf(builder.names);
+        this.extractors = ImmutableList.copyOf(builder.extractors);
+        this.formatter = builder.formatter == null ? this::formatDefault : builder.formatter;
+        this.nested = builder.nested;
+        this.nestedSeparator = builder.nestedSeparator;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the specification used by {@link BasicDecider#separateFiles(java.util.List, java.util.List)}.
+     * <p>
+     * Group names have the form "[header title=value] " for each header.
+     *
+     * @param headers          the ordered headers to group by
+     * @param valueTransformer applied to each non-null header value before grouping
+     *
+     * @return the grouping specification
+     */
+    public static GroupingSpecification of(List<Header> headers, UnaryOperator<String> valueTransformer) {
+        Builder builder = builder();
+        for (Header h : headers) {
+            String title = h.getTitle();
+            builder.field(title, rv -> {
+                String value = rv.getAttributes().get(title);
+                return value == null ? null : valueTransformer.apply(value);
+            });
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the field names, in grouping order
+     */
+    public List<String> getFieldNames() {
+        return names;
+    }
+
+    /**
+     * Partition files into groups.
+     * <p>
+     * Files are grouped by their field values, so files with different field values are never in the same group. If the formatter gives
+     * a group the same name as an earlier group, the group's field values in the default format are appended to its name.
+     *
+     * @param vals the files to group
+     *
+     * @return map of group name to the files in the group (in input order), groups are ordered by first appearance
+     */
+    public Map<String, List<ReturnValue>> group(List<ReturnValue> vals) {
+        Map<String, List<ReturnValue>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ReturnValue>> e : partition(vals).entrySet()) {
+            if (nested == null) {
+                groups.put(e.getKey(), e.getValue());
+            } else {
+                for (Map.Entry<String, List<ReturnValue>> n : nested.group(e.getValue()).entrySet()) {
+                    groups.computeIfAbsent(e.getKey() + nestedSeparator + n.getKey(), k -> new ArrayList<>()).addAll(n.getValue());
+                }
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Partition files into groups and then partition each group with the nested specification.
+     *
+     * @param vals the files to group
+     *
+     * @return map of group name to the nested groups, if there is no nested specification each group has a single nested group
+     *         named ""
+     */
+    public Map<String, Map<String, List<ReturnValue>>> groupNested(List<ReturnValue> vals) {
+        Map<String, Map<String, List<ReturnValue>>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ReturnValue>> e : partition(vals).entrySet()) {
+            groups.put(e.getKey(), nested == null ? Collections.singletonMap("", e.getValue()) : nested.group(e.getValue()));
+        }
+        return groups;
+    }
+
+    /**
+     * @return map of unique group name to the files in the group
+     */
+    private Map<String, List<ReturnValue>> partition(List<ReturnValue> vals) {
+        Map<List<String>, List<ReturnValue>> partitions = new LinkedHashMap<>();
+        for (ReturnValue rv : vals) {
+            String[] key = new String[extractors.size()];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = extractors.get(i).apply(rv);
+            }
+            partitions.computeIfAbsent(Arrays.asList(key), k -> new ArrayList<>()).add(rv);
+        }
+
+        //group names are formatted once per group
+        Map<String, List<ReturnValue>> groups = new LinkedHashMap<>();
+        for (Map.Entry<List<String>, List<ReturnValue>> e : partitions.entrySet()) {
+            String name = formatter.apply(e.getKey());
+            if (groups.containsKey(name)) {
+                name = name + formatDefault(e.getKey()).trim();
+            }
+            groups.put(name, e.getValue());
+        }
+        return groups;
+    }
+
+    private String formatDefault(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            sb.append('[').append(names.get(i)).append('=').append(values.get(i)).append("] ");
+        }
+        return sb.toString();
+    }
+
+    public static class Builder {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<Function<ReturnValue, String>> extractors = new ArrayList<>();
+        private Function<List<String>, String> formatter;
+        private GroupingSpecification nested;
+        private String nestedSeparator = "";
+
+        private Builder() {
+        }
+
+        /**
+         * Group by a file provenance report column.
+         *
+         * @param header the column header
+         *
+         * @return this builder
+         */
+        public Builder header(Header header) {
+            String title = header.getTitle();
+            return field(title, rv -> rv.getAttributes().get(title));
+        }
+
+        /**
+         * Group by a Lims attribute, multiple values are comma-separated (see {@link FileProvenanceRecord#getLimsAttributes()}).
+         *
+         * @param lims the Lims attribute
+         *
+         * @return this builder
+         */
+        public Builder lims(Lims lims) {
+            return field(lims.getAttributeTitle(), rv -> FileProvenanceRecord.of(rv).getLimsAttributes().get(lims));
+        }
+
+        /**
+         * Group by the donor (the last parent sample name).
+         *
+         * @return this builder
+         */
+        public Builder donor() {
+            return field("Donor", rv -> FileProvenanceRecord.of(rv).getDonor());
+        }
+
+        /**
+         * Group by a derived value.
+         *
+         * @param name      the field name used by the default group name formatter
+         * @param extractor the function to get the field value from a file, the value may be null
+         *
+         * @return this builder
+         */
+        public Builder field(String name, Function<ReturnValue, String> extractor) {
+            names.add(name);
+            extractors.add(extractor);
+            return this;
+        }
+
+        /**
+         * Set the group name formatter, by default group names have the form "[field name=value] " for each field.
+         *
+         * @param formatter the function to get the group name from the field values (in field order), it is called once per group
+         *
+         * @return this builder
+         */
+        public Builder formatter(Function<List<String>, String> formatter) {
+            this.formatter = formatter;
+            return this;
+        }
+
+        /**
+         * Partition each group further.
+         *
+         * @param nested    the nested specification
+         * @param separator the separator between the group name and the nested group name in {@link GroupingSpecification#group(java.util.List)}
+         *
+         * @return this builder
+         */
+        public Builder thenBy(GroupingSpecification nested, String separator) {
+            this.nested = nested;
+            this.nestedSeparator = separator;
+            return this;
+        }
+
+        public GroupingSpecification build() {
+            return new GroupingSpecification(this);
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import net.sourceforge.seqware.common.model.WorkflowRun;
+import net.sourceforge.seqware.common.model.WorkflowRunAttribute;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The state of the previous decider run, used to only evaluate groups that changed since the previous run (see
+ * "incremental-state-file").
+ * <p>
+ * The state contains the settings key of the run, the last modified watermark (the newest file provenance "Last Modified" value seen
+ * by the run) and, for each group with a terminal decision, the group key, the sorted member file SWIDs and the decision. A group is
+ * unchanged if it has the same member files as in the previous run and none of its files were modified after the watermark (minus
+ * {@link #WATERMARK_OVERLAP}, which covers daylight saving time changes and provenance records that become visible late). Groups that
+ * were blocked by a completed workflow run are only unchanged if the blocking workflow run still has the same status, input files and
+ * annotations. Unchanged groups keep their previous decision and are not evaluated again.
+ * <p>
+ * Only decisions that can not change without a file provenance or blocking workflow run change are terminal. Groups that are
+ * scheduled, blocked by a running or failed workflow run or not reached because of "launch-max" are always evaluated again.
+ */
+public class IncrementalDeciderState {
+
+    private static final Logger LOGGER = LogManager.getLogger(IncrementalDeciderState.class);
+
+    private static final int MAGIC = 0x46504453; // "FPDS"
+    private static final int VERSION = 2;
+    private static final DateTimeFormatter LAST_MODIFIED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    /**
+     * Files modified within this duration before the previous watermark are treated as modified.
+     */
+    public static final Duration WATERMARK_OVERLAP = Duration.ofHours(1);
+
+    /**
+     * Group decisions that only change if the files of the group change.
+     */
+    public enum Decision {
+        /**
+         * The group did not have the files required to run the workflow.
+         */
+        NOT_RUNNABLE,
+        /**
+         * A completed workflow run already processed the files of the group, the group is evaluated again if the workflow run changes.
+         */
+        PREVIOUSLY_RUN
+    }
+
+    private final String settingsKey;
+    private final LocalDateTime previousWatermark;
+    private final Map<String, GroupState> previousGroups;
+    private final Map<String, GroupState> groups = new HashMap<>();
+    private LocalDateTime watermark;
+
+    private IncrementalDeciderState(String settingsKey, LocalDateTime previousWatermark, Map<String, GroupState> previousGroups) {
+        this.settingsKey = settingsKey;
+        this.previousWatermark = previousWatermark;
+        this.previousGroups = previousGroups;
+    }
+
+    /**
+     * Calculate the settings key of a decider run - the previous state is only used if the settings key is the same.
+     *
+     * @param settings values that affect the decisions of the decider (e.g. command line arguments)
+     *
+     * @return the settings key
+     */
+    public static String getKey(List<String> settings) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String setting : settings) {
+            hasher.putString(Objects.toString(setting), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Read the state of the previous run.
+     *
+     * @param path        the state file
+     * @param settingsKey the settings key of the current run
+     *
+     * @return the state, which has no previous groups if the file does not exist, can not be read or was written with other settings
+     */
+    public static IncrementalDeciderState read(Path path, String settingsKey) {
+        if (!Files.isReadable(path)) {
+            LOGGER.info("No incremental state file [{}] - evaluating all groups", path);
+            return new IncrementalDeciderState(settingsKey, null, new HashMap<>());
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 65536)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !settingsKey.equals(in.readUTF())) {
+                LOGGER.warn("Ignoring incremental state file [{}] from a different decider version or configuration", path);
+                return new IncrementalDeciderState(settingsKey, null, new HashMap<>());
+            }
+            LocalDateTime watermark = parseLastModified(in.readUTF());
+            int groupCount = in.readInt();
+            Map<String, GroupState> groups = new HashMap<>((int) (groupCount / 0.75f) + 1);
+            for (int i = 0; i < groupCount; i++) {
+                String key = readString(in);
+                Decision decision = Decision.values()[in.readByte()];
+                int[] fileSwids = new int[in.readInt()];
+                for (int j = 0; j < fileSwids.length; j++) {
+                    fileSwids[j] = in.readInt();
+                }
+                int blockingWorkflowRunSwid = in.readInt();
+                String blockingWorkflowRunFingerprint = readString(in);
+                groups.put(key, new GroupState(fileSwids, decision, blockingWorkflowRunSwid, blockingWorkflowRunFingerprint));
+            }
+            LOGGER.info("Loaded incremental state file [{}] with watermark [{}] and [{}] groups", path, watermark, groupCount);
+            return new IncrementalDeciderState(settingsKey, watermark, groups);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Unable to read incremental state file [" + path + "] - evaluating all groups", ex);
+            return new IncrementalDeciderState(settingsKey, null, new HashMap<>());
+        }
+    }
+
+    /**
+     * Advance the watermark of the current run to include a file provenance record.
+     *
+     * @param rv the file provenance record
+     */
+    public void observe(ReturnValue rv) {
+        LocalDateTime lastModified = parseLastModified(FileProvenanceRecord.of(rv).getLastModified());
+        if (lastModified != null && (watermark == null || lastModified.isAfter(watermark))) {
+            watermark = lastModified;
+        }
+    }
+
+    /**
+     * @param key the group key
+     *
+     * @return the decision of the group in the previous run, or null if the group did not have a terminal decision
+     */
+    public Decision getPreviousDecision(String key) {
+        GroupState previous = previousWatermark == null ? null : previousGroups.get(key);
+        return previous == null ? null : previous.decision;
+    }
+
+    /**
+     * Check if a group is unchanged since the previous run. Unchanged groups keep their previous decision in the current state.
+     *
+     * @param key          the group key
+     * @param files        the files of the group
+     * @param workflowRuns the function to get the current workflow runs that have any of the file SWIDs as input, it is only called
+     *                     for groups that were blocked by a completed workflow run
+     *
+     * @return true if the group has a terminal decision from the previous run and its files and blocking workflow run have not changed
+     */
+    public boolean isUnchanged(String key, List<ReturnValue> files, Function<Collection<Integer>, List<WorkflowRun>> workflowRuns) {
+        GroupState previous = previousGroups.get(key);
+        if (previous == null || previousWatermark == null || !Arrays.equals(previous.fileSwids, getFileSwids(files))) {
+            return false;
+        }
+        LocalDateTime modifiedAfter = previousWatermark.minus(WATERMARK_OVERLAP);
+        for (ReturnValue rv : files) {
+            LocalDateTime lastModified = parseLastModified(FileProvenanceRecord.of(rv).getLastModified());
+            if (lastModified == null || lastModified.isAfter(modifiedAfter)) {
+                return false;
+            }
+        }
+        if (previous.decision == Decision.PREVIOUSLY_RUN) {
+            WorkflowRun blockingWorkflowRun = null;
+            for (WorkflowRun wr : workflowRuns.apply(Ints.asList(previous.fileSwids))) {
+                if (wr.getSwAccession() != null && wr.getSwAccession() == previous.blockingWorkflowRunSwid) {
+                    blockingWorkflowRun = wr;
+                }
+            }
+            if (blockingWorkflowRun == null || !previous.blockingWorkflowRunFingerprint.equals(getFingerprint(blockingWorkflowRun))) {
+                return false;
+            }
+        }
+        groups.put(key, previous);
+        return true;
+    }
+
+    /**
+     * Record that an evaluated group did not have the files required to run the workflow.
+     *
+     * @param key   the group key
+     * @param files the files of the group
+     */
+    public void recordNotRunnable(String key, List<ReturnValue> files) {
+        groups.put(key, new GroupState(getFileSwids(files), Decision.NOT_RUNNABLE, 0, ""));
+    }
+
+    /**
+     * Record that an evaluated group was blocked by a completed workflow run.
+     *
+     * @param key                 the group key
+     * @param files               the files of the group
+     * @param blockingWorkflowRun the completed workflow run that processed the files of the group
+     */
+    public void recordPreviouslyRun(String key, List<ReturnValue> files, WorkflowRun blockingWorkflowRun) {
+        groups.put(key, new GroupState(getFileSwids(files), Decision.PREVIOUSLY_RUN, blockingWorkflowRun.getSwAccession(),
+                getFingerprint(blockingWorkflowRun)));
+    }
+
+    /**
+     * @return the values of a workflow run that decide whether it blocks a group: its status, input files and annotations
+     */
+    private static String getFingerprint(WorkflowRun wr) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(Objects.toString(wr.getStatus()), StandardCharsets.UTF_8).putByte((byte) 0);
+        Set<Integer> inputFiles = wr.getInputFileAccessions() == null ? Collections.emptySet() : new TreeSet<>(wr.getInputFileAccessions());
+        for (Integer inputFile : inputFiles) {
+            hasher.putInt(inputFile);
+        }
+        hasher.putByte((byte) 0);
+        Set<String> annotations = new TreeSet<>();
+        if (wr.getAnnotations() != null) {
+            for (WorkflowRunAttribute annotation : wr.getAnnotations()) {
+                annotations.add(annotation.getTag() + "=" + annotation.getValue());
+            }
+        }
+        for (String annotation : annotations) {
+            hasher.putString(annotation, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Write the current state. The file is replaced atomically so that an interrupted write leaves the previous state in place.
+     *
+     * @param path the state file
+     *
+     * @throws IOException if the state could not be written
+     */
+    public void write(Path path) throws IOException {
+        Path absolutePath = path.toAbsolutePath();
+        Files.createDirectories(absolutePath.getParent());
+        Path tmpPath = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpPath),
+                    65536)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(settingsKey);
+                //keep the previous watermark if no records had a last modified value
+                LocalDateTime w = watermark != null ? watermark : previousWatermark;
+                out.writeUTF(w == null ? "" : w.format(LAST_MODIFIED_FORMAT));
+                out.writeInt(groups.size());
+                for (Map.Entry<String, GroupState> e : groups.entrySet()) {
+                    writeString(out, e.getKey());
+                    out.writeByte(e.getValue().decision.ordinal());
+                    out.writeInt(e.getValue().fileSwids.length);
+                    for (int swid : e.getValue().fileSwids) {
+                        out.writeInt(swid);
+                    }
+                    out.writeInt(e.getValue().blockingWorkflowRunSwid);
+                    writeString(out, e.getValue().blockingWorkflowRunFingerprint);
+                }
+            }
+            Files.move(tmpPath, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.info("Wrote incremental state file [{}] with [{}] groups", path, groups.size());
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    private static int[] getFileSwids(List<ReturnValue> files) {
+        int[] swids = new int[files.size()];
+        for (int i = 0; i < swids.length; i++) {
+            swids[i] = FileProvenanceRecord.of(files.get(i)).getFileSwid();
+        }
+        Arrays.sort(swids);
+        return swids;
+    }
+
+    private static LocalDateTime parseLastModified(String lastModified) {
+        if (lastModified == null || lastModified.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(lastModified, LAST_MODIFIED_FORMAT);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class GroupState {
+
+        private final int[] fileSwids;
+        private final Decision decision;
+        private final int blockingWorkflowRunSwid;
+        private final String blockingWorkflowRunFingerprint;
+
+        private GroupState(int[] fileSwids, Decision decision, int blockingWorkflowRunSwid, String blockingWorkflowRunFingerprint) {
+            this.fileSwids = fileSwids;
+            this.decision = decision;
+            this.blockingWorkflowRunSwid = blockingWorkflowRunSwid;
+            this.blockingWorkflowRunFingerprint = blockingWorkflowRunFingerprint;
+        }
+    }
+
+}
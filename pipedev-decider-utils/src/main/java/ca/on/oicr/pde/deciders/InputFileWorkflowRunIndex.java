@@ -0,0 +1,121 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sourceforge.seqware.common.metadata.Metadata;
+import net.sourceforge.seqware.common.model.WorkflowRun;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An in-memory inverted index of input file SWID to the workflow runs that used the file as input.
+ * <p>
+ * The index is built with a small number of batched {@link Metadata#getWorkflowRunsAssociatedWithInputFiles(List, List)} calls
+ * covering all candidate files, rather than one webservice call per candidate group of files.
+ * <p>
+ * The index is a snapshot of the workflow runs when it was built. Files that are used as input by a workflow run scheduled after the
+ * index was built must be {@link #invalidate(Collection) invalidated} so that they are looked up with the metadata backend again.
+ */
+class InputFileWorkflowRunIndex {
+
+    private static final Logger LOGGER = LogManager.getLogger(InputFileWorkflowRunIndex.class);
+
+    private final Set<Integer> indexedFileSwids;
+    private final ListMultimap<Integer, WorkflowRun> fileSwidToWorkflowRuns;
+
+    private InputFileWorkflowRunIndex(Set<Integer> indexedFileSwids, ListMultimap<Integer, WorkflowRun> fileSwidToWorkflowRuns) {
+        this.indexedFileSwids = ConcurrentHashMap.newKeySet();
+        this.indexedFileSwids.addAll(indexedFileSwids);
+        this.fileSwidToWorkflowRuns = fileSwidToWorkflowRuns;
+    }
+
+    /**
+     * Build the index by retrieving the workflow runs associated with the file SWIDs in batches.
+     *
+     * @param metadata          the metadata backend to query
+     * @param fileSwids         all input file SWIDs that will be queried
+     * @param relevantWorkflows the workflow SWIDs to retrieve workflow runs for
+     * @param batchSize         the maximum number of file SWIDs per metadata call
+     *
+     * @return the index
+     */
+    static InputFileWorkflowRunIndex build(Metadata metadata, Collection<Integer> fileSwids, List<Integer> relevantWorkflows, int batchSize) {
+        Set<Integer> indexed = new HashSet<>(fileSwids);
+        Map<Integer, WorkflowRun> workflowRunsBySwid = new TreeMap<>();
+        int calls = 0;
+        for (List<Integer> batch : Iterables.partition(indexed, batchSize)) {
+            for (WorkflowRun wr : metadata.getWorkflowRunsAssociatedWithInputFiles(new ArrayList<>(batch), relevantWorkflows)) {
+                workflowRunsBySwid.putIfAbsent(wr.getSwAccession(), wr);
+            }
+            calls++;
+        }
+
+        //workflow runs are indexed in SWID order so lookups are independent of batch boundaries
+        ImmutableListMultimap.Builder<Integer, WorkflowRun> b = ImmutableListMultimap.builder();
+        for (WorkflowRun wr : workflowRunsBySwid.values()) {
+            Set<Integer> inputFiles = wr.getInputFileAccessions();
+            if (inputFiles == null) {
+                continue;
+            }
+            for (Integer inputFile : inputFiles) {
+                if (indexed.contains(inputFile)) {
+                    b.put(inputFile, wr);
+                }
+            }
+        }
+
+        LOGGER.debug("Indexed {} workflow runs for {} input files using {} metadata calls", workflowRunsBySwid.size(), indexed.size(), calls);
+        return new InputFileWorkflowRunIndex(indexed, b.build());
+    }
+
+    /**
+     * Check whether all file SWIDs were included when the index was built.
+     *
+     * @param fileSwids the file SWIDs
+     *
+     * @return true if the index can answer a query for the file SWIDs
+     */
+    boolean containsAll(Collection<Integer> fileSwids) {
+        return indexedFileSwids.containsAll(fileSwids);
+    }
+
+    /**
+     * Remove file SWIDs from the index, queries for the file SWIDs are no longer answered by the index.
+     *
+     * @param fileSwids the file SWIDs whose workflow runs have changed since the index was built
+     */
+    void invalidate(Collection<Integer> fileSwids) {
+        indexedFileSwids.removeAll(fileSwids);
+    }
+
+    /**
+     * Get the distinct workflow runs that have any of the file SWIDs as input, ordered by workflow run SWID.
+     *
+     * @param fileSwids the input file SWIDs
+     *
+     * @return the workflow runs
+     */
+    List<WorkflowRun> getWorkflowRunsAssociatedWithInputFiles(Collection<Integer> fileSwids) {
+        Map<Integer, WorkflowRun> workflowRuns = new HashMap<>();
+        for (Integer fileSwid : fileSwids) {
+            for (WorkflowRun wr : fileSwidToWorkflowRuns.get(fileSwid)) {
+                workflowRuns.putIfAbsent(wr.getSwAccession(), wr);
+            }
+        }
+        List<WorkflowRun> results = new ArrayList<>(workflowRuns.values());
+        results.sort(Comparator.comparing(WorkflowRun::getSwAccession));
+        return results;
+    }
+
+}
@@ -0,0 +1,78 @@
+package ca.on.oicr.pde.deciders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classifies file provenance attribute keys into the {@link Lims} attributes they hold.
+ * <p>
+ * A key holds a Lims attribute if it matches ".*" + title + "[^_]*", that is, the key contains the Lims attribute title and there is
+ * no "_" after the last occurrence of the title (e.g. "sample.geo_tissue_type" and "parent_sample.geo_tissue_type.1" hold
+ * TISSUE_TYPE but "sample.geo_tissue_type_other" does not). The match is done without regular expressions and, because the key
+ * vocabulary of a report is small, the classification of each key is cached.
+ */
+final class LimsAttributeClassifier {
+
+    private static final Lims[] NONE = new Lims[0];
+    private static final Lims[] VALUES = Lims.values();
+
+    //bound the cache in case keys are not from a small vocabulary
+    private static final int MAX_CACHE_SIZE = 100_000;
+    private static final Map<String, Lims[]> CACHE = new ConcurrentHashMap<>();
+
+    private LimsAttributeClassifier() {
+    }
+
+    /**
+     * @param key the attribute key
+     *
+     * @return the Lims attributes held by the key, in Lims declaration order. The returned array must not be modified.
+     */
+    static Lims[] classify(String key) {
+        Lims[] lims = CACHE.get(key);
+        if (lims == null) {
+            lims = compute(key);
+            if (CACHE.size() < MAX_CACHE_SIZE) {
+                CACHE.putIfAbsent(key, lims);
+            }
+        }
+        return lims;
+    }
+
+    /**
+     * @param key  the attribute key
+     * @param lims the Lims attribute
+     *
+     * @return true if the key holds the Lims attribute
+     */
+    static boolean matches(String key, Lims lims) {
+        return matches(key, lims.getAttributeTitle());
+    }
+
+    /**
+     * @param key   the attribute key
+     * @param title the Lims attribute title
+     *
+     * @return true if the key holds the Lims attribute title
+     */
+    static boolean matches(String key, String title) {
+        int i = key.lastIndexOf(title);
+        return i >= 0 && key.indexOf('_', i + title.length()) < 0;
+    }
+
+    private static Lims[] compute(String key) {
+        List<Lims> matches = null;
+        for (Lims lims : VALUES) {
+            if (matches(key, lims)) {
+                if (matches == null) {
+                    matches = new ArrayList<>(1);
+                }
+                matches.add(lims);
+            }
+        }
+        return matches == null ? NONE : matches.toArray(NONE);
+    }
+
+}
@@ -3,19 +3,23 @@ package ca.on.oicr.pde.deciders;
 import ca.on.oicr.gsi.provenance.ExtendedProvenanceClient;
 import ca.on.oicr.pde.deciders.GroupableFileFactory.GroupableFile;
 import com.google.common.base.Joiner;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimaps;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import net.sourceforge.seqware.common.hibernate.FindAllTheFiles;
 import net.sourceforge.seqware.common.module.FileMetadata;
 import net.sourceforge.seqware.common.module.ReturnValue;
@@ -41,6 +45,7 @@ public abstract class MergingDecider extends OicrDecider {
     public MergingDecider(Logger logger) {
         this.log = logger;
         this.groupableFileFactory = new GroupableFileFactory();
+        defineArgument("grouping-threads", "Optional: The number of threads used to prepare files for grouping (default: 1).", false);
     }
 
     public MergingDecider(Logger logger, ExtendedProvenanceClient provenanceClient) {
@@ -68,68 +73,35 @@ public abstract class MergingDecider extends OicrDecider {
      */
     @Override
     public Map<String, List<ReturnValue>> separateFiles(List<ReturnValue> vals, String groupBy) {
-        Map<String, ReturnValue> iusDeetsToRV = new HashMap<>();
+        Map<ReturnValue, GroupableFile> rvToFile = new IdentityHashMap<>();
 
-        //Iterate through the potential files
-        for (ReturnValue currentRV : vals) {
-
-            FileAttributes fileAttributes = new FileAttributes(currentRV, Iterables.getOnlyElement(currentRV.getFiles()));
-            if (!checkFilePassesFilterBeforeGrouping(fileAttributes)) {
+        //the dedup and group keys are computed once per file, optionally in parallel, and then files are deduplicated in input order
+        List<GroupableFile> groupableFiles = new ArrayList<>();
+        for (GroupableFile currentFile : getGroupableFiles(vals)) {
+            if (currentFile == null) {
                 continue;
             }
-
-            GroupableFile currentFile = groupableFileFactory.getGroupableFile(currentRV);
-            fileSwaToFile.put(currentRV.getAttribute(FindAllTheFiles.Header.FILE_SWA.getTitle()), currentFile);
-
-            //make sure you only have the most recent single file for each
-            //sequencer run + lane + barcode + meta-type
-            String fileDeets = currentFile.getIusDetails();
-            Date currentDate = currentFile.getDate();
-
-            //if there is no entry yet, add it
-            if (iusDeetsToRV.get(fileDeets) == null) {
-                log.debug("Adding file " + fileDeets + " -> \n\t" + currentFile.getPath());
-                iusDeetsToRV.put(fileDeets, currentRV);
-            } //if there is an entry, compare the current value to the 'old' one in
-            //the groupedFiles. if the current date is newer than the 'old' date, replace
-            //it in the groupedFiles
-            else {
-                ReturnValue oldRV = iusDeetsToRV.get(fileDeets);
-                GroupableFile oldFile = fileSwaToFile.get(oldRV.getAttribute(FindAllTheFiles.Header.FILE_SWA.getTitle()));
-                Date oldDate = oldFile.getDate();
-                if (currentDate.after(oldDate)) {
-                    log.debug("Adding file " + fileDeets + " -> \n\t" + currentFile.getDate()
-                            + "\n\t instead of file "
-                            + "\n\t" + oldFile.getDate());
-                    iusDeetsToRV.put(fileDeets, currentRV);
-                } else {
-                    log.debug("Disregarding file " + fileDeets + " -> \n\t" + currentFile.getDate()
-                            + "\n\tas older than duplicate sequencer run/lane/barcode in favour of "
-                            + "\n\t" + oldFile.getDate());
-                    log.debug(currentDate + " is before " + oldDate);
-                }
-            }
+            ReturnValue currentRV = currentFile.getReturnValue();
+            fileSwaToFile.put(Integer.toString(FileProvenanceRecord.of(currentRV).getFileSwid()), currentFile);
+            rvToFile.put(currentRV, currentFile);
+            groupableFiles.add(currentFile);
         }
+        List<ReturnValue> mostRecentFiles = getMostRecentFiles(groupableFiles);
 
-        //only use those files that entered into the iusDeetsToRV
-        //since it's a map, only the most recent values
+        //only use the most recent files
         Map<String, List<ReturnValue>> groupedFiles;
         if (options.hasArgument("group-by") && getHeadersToGroupBy() != null) {
-            groupedFiles = super.separateFiles(new ArrayList<>(iusDeetsToRV.values()), getHeadersToGroupBy());
+            groupedFiles = super.separateFiles(mostRecentFiles, getHeadersToGroupBy());
         } else {
             //use the default grouping
-            ListMultimap<String, ReturnValue> hm = ArrayListMultimap.create();
-            for (ReturnValue rv : iusDeetsToRV.values()) {
-                hm.put(fileSwaToFile.get(rv.getAttribute(FindAllTheFiles.Header.FILE_SWA.getTitle())).getGroupByAttribute(), rv);
-            }
-            groupedFiles = Multimaps.asMap(hm);
+            groupedFiles = groupableFileFactory.getGroupingSpecification(rvToFile::get).group(mostRecentFiles);
         }
 
         //create a map of file swid to group name
         for (Entry<String, List<ReturnValue>> e : groupedFiles.entrySet()) {
             String groupName = e.getKey();
             for (ReturnValue rv : e.getValue()) {
-                String fileSwa = rv.getAttribute(FindAllTheFiles.Header.FILE_SWA.getTitle());
+                String fileSwa = Integer.toString(FileProvenanceRecord.of(rv).getFileSwid());
                 String previousGroupName = fileSwaToGroupName.put(fileSwa, groupName);
                 if (previousGroupName != null && !previousGroupName.equals(groupName)) {
                     throw new UnsupportedOperationException(
@@ -149,7 +121,7 @@ public abstract class MergingDecider extends OicrDecider {
                 List<String> fileInfos = new ArrayList<>();
                 for (ReturnValue rv : e.getValue()) {
                     StringBuilder fileInfo = new StringBuilder();
-                    fileInfo.append(fileSwaToFile.get(rv.getAttribute(FindAllTheFiles.Header.FILE_SWA.getTitle())).getGroupByAttribute());
+                    fileInfo.append(rvToFile.get(rv).getGroupByAttribute());
                     fileInfo.append(" -> ");
                     fileInfo.append(Iterables.getOnlyElement(rv.getFiles()).getFilePath());
                     fileInfos.add(fileInfo.toString());
@@ -170,6 +142,78 @@ public abstract class MergingDecider extends OicrDecider {
         return groupedFiles;
     }
 
+    /**
+     * Keep only the most recent file for each sequencer run + lane + barcode.
+     *
+     * @param files the groupable files, in input order
+     *
+     * @return the most recent files, ordered by the first appearance of their sequencer run + lane + barcode
+     */
+    List<ReturnValue> getMostRecentFiles(List<GroupableFile> files) {
+        Map<List<Object>, GroupableFile> iusDeetsToFile = new LinkedHashMap<>();
+        for (GroupableFile currentFile : files) {
+            //make sure you only have the most recent single file for each
+            //sequencer run + lane + barcode + meta-type
+            List<Object> fileDeets = currentFile.getIusKey();
+            Date currentDate = currentFile.getDate();
+
+            //if there is no entry yet, add it
+            GroupableFile oldFile = iusDeetsToFile.putIfAbsent(fileDeets, currentFile);
+            if (oldFile == null) {
+                log.debug("Adding file {} -> \n\t{}", currentFile.getIusDetails(), currentFile.getPath());
+            } //if there is an entry, compare the current value to the 'old' one in
+            //the groupedFiles. if the current date is newer than the 'old' date, replace
+            //it in the groupedFiles
+            else {
+                Date oldDate = oldFile.getDate();
+                if (currentDate.after(oldDate)) {
+                    log.debug("Adding file {} -> \n\t{}\n\t instead of file \n\t{}", currentFile.getIusDetails(), currentFile.getDate(), oldFile.getDate());
+                    iusDeetsToFile.put(fileDeets, currentFile);
+                } else {
+                    log.debug("Disregarding file {} -> \n\t{}\n\tas older than duplicate sequencer run/lane/barcode in favour of \n\t{}",
+                            currentFile.getIusDetails(), currentFile.getDate(), oldFile.getDate());
+                    log.debug("{} is before {}", currentDate, oldDate);
+                }
+            }
+        }
+        return iusDeetsToFile.values().stream().map(GroupableFile::getReturnValue).collect(Collectors.toList());
+    }
+
+    /**
+     * Filter the files with {@link #checkFilePassesFilterBeforeGrouping(FileAttributes)} and build their groupable files.
+     * <p>
+     * If "grouping-threads" is greater than 1, files are processed in parallel and checkFilePassesFilterBeforeGrouping must be
+     * thread-safe.
+     *
+     * @param vals the files
+     *
+     * @return the groupable file for each file, in the same order as vals, or null if the file was excluded
+     */
+    private List<GroupableFile> getGroupableFiles(List<ReturnValue> vals) {
+        Function<ReturnValue, GroupableFile> toGroupableFile = rv -> {
+            FileAttributes fileAttributes = new FileAttributes(rv, Iterables.getOnlyElement(rv.getFiles()));
+            return checkFilePassesFilterBeforeGrouping(fileAttributes) ? groupableFileFactory.getGroupableFile(rv, fileAttributes) : null;
+        };
+
+        int threads = options.has("grouping-threads") ? Integer.parseInt(getArgument("grouping-threads")) : 1;
+        if (threads <= 1) {
+            return vals.stream().map(toGroupableFile).collect(Collectors.toList());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> vals.parallelStream().map(toGroupableFile).collect(Collectors.toList())).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * After grouping files, check if files within the group are valid.
      * <p>
@@ -103,29 +103,24 @@ public class NestedGroupingDecider extends BasicDecider {
 
     @Override
     public Map<String, List<ReturnValue>> separateFiles(List<ReturnValue> vals, String groupBy) {
-        //get files from study
-        Map<String, List<ReturnValue>> map = new HashMap<>();
-
-        //group files according to the designated header (e.g. sample SWID)
-        for (ReturnValue r : vals) {
-            String currVal = r.getAttributes().get(groupBy);
-            String template = r.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_library_source_template_type");
-            String group_id = r.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_group_id");
-
-            currVal = handleGroupByAttribute(currVal, template, group_id);
-
-            List<ReturnValue> vs = map.get(currVal);
-            if (vs == null) {
-                vs = new ArrayList<>();
-            }
-            vs.add(r);
-	    map.put(currVal, vs);
-
+        //group files according to the designated header (e.g. sample SWID), template type and group id - the group name is built once per group
+        GroupingSpecification spec = GroupingSpecification.builder()
+                .field(groupBy, r -> r.getAttributes().get(groupBy))
+                .field("template", r -> r.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_library_source_template_type"))
+                .field("group_id", r -> r.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_group_id"))
+                .build();
+        Map<String, List<ReturnValue>> map = new LinkedHashMap<>();
+        for (List<ReturnValue> files : spec.group(vals).values()) {
+            //handleGroupByAttribute only keeps the last parent name, so groups that get the same name are merged
+            ReturnValue r = files.get(0);
+            String groupName = handleGroupByAttribute(r.getAttributes().get(groupBy),
+                    r.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_library_source_template_type"),
+                    r.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_group_id"));
+            map.computeIfAbsent(groupName, k -> new ArrayList<>()).addAll(files);
         }
-     return map;
+        return map;
     }
 
-
     @Override
     protected Map<String, String> modifyIniFile(String commaSeparatedFilePaths, String commaSeparatedParentAccessions) {
         logger.debug("INI FILE:" + commaSeparatedFilePaths);
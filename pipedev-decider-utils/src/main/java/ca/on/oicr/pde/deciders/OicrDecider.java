@@ -2,9 +2,13 @@ package ca.on.oicr.pde.deciders;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -16,6 +20,7 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -23,9 +28,13 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -35,27 +44,26 @@ import org.apache.logging.log4j.core.config.Configurator;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 
 import ca.on.oicr.gsi.common.transformation.MapStringifier;
 import ca.on.oicr.gsi.common.transformation.StringSanitizerBuilder;
-import ca.on.oicr.gsi.provenance.AnalysisProvenanceProvider;
+import ca.on.oicr.gsi.provenance.ConcurrentProvenanceProviders;
 import ca.on.oicr.gsi.provenance.DefaultProvenanceClient;
 import ca.on.oicr.gsi.provenance.ExtendedProvenanceClient;
 import ca.on.oicr.gsi.provenance.FileProvenanceFilter;
-import ca.on.oicr.gsi.provenance.LaneProvenanceProvider;
 import ca.on.oicr.gsi.provenance.MultiThreadedDefaultProvenanceClient;
 import ca.on.oicr.gsi.provenance.PineryProvenanceProvider;
 import ca.on.oicr.gsi.provenance.ProviderLoader;
-import ca.on.oicr.gsi.provenance.SampleProvenanceProvider;
 import ca.on.oicr.gsi.provenance.SeqwareMetadataAnalysisProvenanceProvider;
 import ca.on.oicr.gsi.provenance.model.FileProvenance;
 import ca.on.oicr.gsi.provenance.model.FileProvenanceFromAnalysisProvenance;
+import ca.on.oicr.gsi.provenance.model.IusLimsKey;
 import ca.on.oicr.pde.deciders.configuration.StudyToOutputPathConfig;
 import ca.on.oicr.pinery.client.PineryClient;
 import java.time.ZonedDateTime;
@@ -97,6 +105,11 @@ import net.sourceforge.seqware.common.module.ReturnValue;
  * the workflow run. By default, we do not include files from failed workflow
  * runs. This flag turns that checking off. This flag has no effect on sequencer
  * runs, lanes, IUSes or any downstream products marked with a 'skip' flag.
+ * <li>--provenance-cache-dir : Optional: the directory to keep file provenance
+ * snapshots in. A snapshot that is younger than --provenance-cache-max-age is
+ * read instead of retrieving the file provenance from the provenance providers.
+ * <li>--provenance-cache-max-age : Optional: the maximum age of a file
+ * provenance snapshot in minutes (default 60).
  * </ul>
  *
  * <h1>Extending OicrDecider</h1>
@@ -198,6 +211,7 @@ public class OicrDecider extends BasicDecider {
 	private WorkflowRun run;
 	private boolean isFailed = false;
 	protected ExtendedProvenanceClient provenanceClient;
+	private ConcurrentProvenanceProviders concurrentProvenanceProviders;
 	private final Function<String, String> stringSanitizer;
 	private final Function<String, String> ssForAttributes;
 	protected StudyToOutputPathConfig studyToOutputPathConfig = null;
@@ -206,6 +220,9 @@ public class OicrDecider extends BasicDecider {
 	private final EnumMap<FileProvenanceFilter, OptionSpec<String>> includeFilterOpts;
 	private final EnumMap<FileProvenanceFilter, OptionSpec<String>> excludeFilterOpts;
 	protected WorkflowRun currentWorkflowRun;
+	private final Map<Integer, ComparableLimsKey> iusSwidToLimsKey = new ConcurrentHashMap<>();
+	private FileProvenanceReportCache provenanceReportCache;
+	private static final long DEFAULT_PROVENANCE_CACHE_MAX_AGE_MINUTES = 60;
 
 	/**
 	 * <p>
@@ -253,7 +270,14 @@ public class OicrDecider extends BasicDecider {
 		defineArgument("pinery-url",
 				"The Pinery URL that should be used to get SampleProvenance LIMS metadata (eg, http://localhost:8080).",
 				false);
-		defineArgument("provenance-settings", "Path to provenance settings file.", false);
+		defineArgument("provenance-settings", "Path to provenance settings file. Only the requests to providers with a \"timeoutSeconds\" "
+				+ "setting run concurrently (with that timeout), the other providers are requested on the calling thread.", false);
+		defineArgument("provenance-cache-dir",
+				"Optional: The directory to keep file provenance snapshots in. A snapshot younger than \"provenance-cache-max-age\" is used instead of retrieving file provenance.",
+				false);
+		defineArgument("provenance-cache-max-age",
+				"Optional: The maximum age of a file provenance snapshot in minutes (default " + DEFAULT_PROVENANCE_CACHE_MAX_AGE_MINUTES + ").",
+				false);
 		format = new SimpleDateFormat("yyyy-MM-dd");
 
 		// functions used for converting file provenance objects to map data structure
@@ -286,6 +310,24 @@ public class OicrDecider extends BasicDecider {
 		return FileProvenanceFilter.values();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * OicrDecider adds the date and status filters and the include and exclude file provenance filters.
+	 */
+	@Override
+	protected Set<String> getIncrementalStateArguments() {
+		Set<String> arguments = super.getIncrementalStateArguments();
+		arguments.addAll(Arrays.asList("after-date", "before-date", "skip-status-check"));
+		for (OptionSpec<String> spec : includeFilterOpts.values()) {
+			arguments.addAll(spec.options());
+		}
+		for (OptionSpec<String> spec : excludeFilterOpts.values()) {
+			arguments.addAll(spec.options());
+		}
+		return arguments;
+	}
+
 	public OicrDecider(ExtendedProvenanceClient provenanceClient) {
 		this();
 		this.provenanceClient = provenanceClient;
@@ -376,23 +418,17 @@ public class OicrDecider extends BasicDecider {
 				throw new RuntimeException(ex);
 			}
 
+			// requests to providers with a "timeoutSeconds" setting run on the executor with that timeout, the LIMS indexes are
+			// prefetched once the file provenance is requested
+			concurrentProvenanceProviders = new ConcurrentProvenanceProviders(providerLoader);
 			MultiThreadedDefaultProvenanceClient provenanceClientImpl = new MultiThreadedDefaultProvenanceClient();
-			for (Entry<String, AnalysisProvenanceProvider> e : providerLoader.getAnalysisProvenanceProviders()
-					.entrySet()) {
-				provenanceClientImpl.registerAnalysisProvenanceProvider(e.getKey(), e.getValue());
-			}
-			for (Entry<String, LaneProvenanceProvider> e : providerLoader.getLaneProvenanceProviders().entrySet()) {
-				provenanceClientImpl.registerLaneProvenanceProvider(e.getKey(), e.getValue());
-			}
-			for (Entry<String, SampleProvenanceProvider> e : providerLoader.getSampleProvenanceProviders().entrySet()) {
-				provenanceClientImpl.registerSampleProvenanceProvider(e.getKey(), e.getValue());
-			}
+			concurrentProvenanceProviders.registerWith(provenanceClientImpl);
 
 			provenanceClient = provenanceClientImpl;
 		}
 
 		// initialize collections
-		files = new HashMap<>();
+		files = Collections.synchronizedMap(new HashMap<>());
 
 		if (options.has("help")) {
 			System.err.println(get_syntax());
@@ -437,6 +473,24 @@ public class OicrDecider extends BasicDecider {
 			provenanceClient = dpc;
 		}
 
+		provenanceReportCache = null;
+		if (options.has("provenance-cache-dir")) {
+			Duration maxAge = Duration.ofMinutes(DEFAULT_PROVENANCE_CACHE_MAX_AGE_MINUTES);
+			if (options.has("provenance-cache-max-age")) {
+				try {
+					long minutes = Long.parseLong(getArgument("provenance-cache-max-age"));
+					if (minutes < 0) {
+						throw new NumberFormatException("Negative age");
+					}
+					maxAge = Duration.ofMinutes(minutes);
+				} catch (NumberFormatException e) {
+					logger.error("\"provenance-cache-max-age\" should be a number of minutes", e);
+					ret.setExitStatus(ReturnValue.INVALIDPARAMETERS);
+				}
+			}
+			provenanceReportCache = new FileProvenanceReportCache(Paths.get(getArgument("provenance-cache-dir")), maxAge);
+		}
+
 		if (options.has("study-to-output-path-csv")) {
 			if (options.has("output-path")) {
 				logger.error("Use \"study-to-output-path-csv\" or \"output-path\" - not both");
@@ -500,28 +554,29 @@ public class OicrDecider extends BasicDecider {
 
 		// SEQWARE-1809, PDE-474 ensure that deciders only use input from completed
 		// workflow runs
-		FileAttributes attributes = new FileAttributes(returnValue, fm);
-		String workflowRunStatus = returnValue.getAttribute(FindAllTheFiles.WORKFLOW_RUN_STATUS);
+		FileProvenanceRecord record = FileProvenanceRecord.of(returnValue);
+		String workflowRunStatus = record.getWorkflowRunStatus();
 		if (workflowRunStatus == null || !workflowRunStatus.equals("completed")) {
 			return false;
 		}
 
 		// check if record should be skipped
-		boolean skip = Boolean.parseBoolean(returnValue.getAttribute("Skip"));
-		if (skip) {
+		if (record.isSkip()) {
 			logger.debug("Ignoring file because the file provenance record is skip status is set to true "
 					+ fm.getFilePath());
 			return false;
 		}
 
 		// check if record's provenance status is okay
-		FileProvenance.Status provenanceStatus = FileProvenance.Status.valueOf(returnValue.getAttribute("Status"));
+		FileProvenance.Status provenanceStatus = FileProvenance.Status.valueOf(record.getStatus());
 		if (!FileProvenance.Status.OKAY.equals(provenanceStatus)) {
 			logger.warn("Ignoring file because the file provenance record status is [" + provenanceStatus.toString() + "] "
 					+ fm.getFilePath());
 			return false;
 		}
 
+		FileAttributes attributes = new FileAttributes(returnValue, fm);
+
 		if (!options.has("skip-status-check")) {
 			for (String attribute : attributes) {
 				if (attribute.contains("Status")) {
@@ -532,7 +587,7 @@ public class OicrDecider extends BasicDecider {
 				}
 			}
 		}
-		String dateString = attributes.getOtherAttribute(FindAllTheFiles.Header.PROCESSING_DATE);
+		String dateString = record.getProcessingDate();
 		if (options.has("after-date") && !isAfterDate(dateString, afterDate)) {
 			logger.debug(
 					"File was processed before the after-date " + afterDate.toString() + " : " + attributes.getPath());
@@ -563,7 +618,7 @@ public class OicrDecider extends BasicDecider {
 	public boolean isAfterDate(String dateString, Date afterDate) {
 
 		try {
-			Date fileDate = format.parse(dateString);
+			Date fileDate = parseFileDate(dateString);
 			if (fileDate.after(afterDate)) {
 				return true;
 			}
@@ -586,7 +641,7 @@ public class OicrDecider extends BasicDecider {
 	public boolean isBeforeDate(String dateString, Date beforeDate) {
 
 		try {
-			Date fileDate = format.parse(dateString);
+			Date fileDate = parseFileDate(dateString);
 			if (fileDate.before(beforeDate)) {
 				return true;
 			}
@@ -596,6 +651,13 @@ public class OicrDecider extends BasicDecider {
 		return false;
 	}
 
+	private Date parseFileDate(String dateString) throws ParseException {
+		// SimpleDateFormat is not thread-safe and files may be checked by concurrent group evaluations
+		synchronized (format) {
+			return format.parse(dateString);
+		}
+	}
+
 	protected boolean checkFileDetails(FileAttributes attributes) {
 		return true;
 	}
@@ -695,22 +757,22 @@ public class OicrDecider extends BasicDecider {
 		Set<String> outputIusLimsKeys;
 
 		if (getMetadataWriteback()) {
-			// TODO: each file provenance record already has its associated IusLimsKey(s)
-			// refactor this implementation to use file provenance rather than getting the
-			// LimsKey(s) again from seqware
-			// refactor this implementation to clone all LimsKeys in one seqware
-			// call/transaction
-
-			// Get all the LimsKey(s) info from seqware
-			SetMultimap<ComparableLimsKey, String> limsKeyToIusMap = HashMultimap.create();
-			Set<ComparableLimsKey> limsKeys = new HashSet<>();
+			// Get all the LimsKey(s) from the file provenance records, only IUS SWIDs that were not part of the file provenance
+			// records are retrieved from seqware
+			// note: seqware does not provide a bulk LimsKey/IUS create operation, so each distinct LimsKey is still cloned with
+			// addLimsKey + addIUS
+			SetMultimap<ComparableLimsKey, String> limsKeyToIusMap = LinkedHashMultimap.create();
+			Set<ComparableLimsKey> limsKeys = new LinkedHashSet<>();
 			for (String swid : iusLimsKeySwids) {
-				LimsKey limsKey = metadata.getLimsKeyFrom(Integer.parseInt(swid));
-				if (limsKey == null) {
-					throw new Exception("No LimsKey found for SWID = [" + swid + "]");
+				ComparableLimsKey comparableLimsKey = iusSwidToLimsKey.get(Integer.parseInt(swid));
+				if (comparableLimsKey == null) {
+					LimsKey limsKey = metadata.getLimsKeyFrom(Integer.parseInt(swid));
+					if (limsKey == null) {
+						throw new Exception("No LimsKey found for SWID = [" + swid + "]");
+					}
+					//create a new LimsKey object that only uses provider+id+version+lastModified for equality
+					comparableLimsKey = new ComparableLimsKey(limsKey);
 				}
-                                //create a new LimsKey object that only uses provider+id+version+lastModified for equality
-                                ComparableLimsKey comparableLimsKey = new ComparableLimsKey(limsKey);
 				limsKeys.add(comparableLimsKey);
 				limsKeyToIusMap.put(comparableLimsKey, swid);
 			}
@@ -725,12 +787,13 @@ public class OicrDecider extends BasicDecider {
 				// dry run mode enabled - do nothing
 				outputIusLimsKeys = Collections.emptySet();
 			} else {
-				Set<String> newIusSwids = new HashSet<>();
+				Set<String> newIusSwids = new LinkedHashSet<>();
 				for (ComparableLimsKey limsKey : limsKeys) {
 					// Create a LimsKey -> create IUS -> link LimsKey to IUS
 					Integer newLimsKeySwid = metadata.addLimsKey(limsKey.getProvider(), limsKey.getId(),
 							limsKey.getVersion(), limsKey.getLastModified());
 					Integer newIusSwid = metadata.addIUS(newLimsKeySwid, false);
+					getMetrics().increment("limsKeysCloned");
 					newIusSwids.add(newIusSwid.toString());
 
 					// map all input iuses to the new ius
@@ -1205,164 +1268,261 @@ public class OicrDecider extends BasicDecider {
 	@Override
 	protected List<Map<String, String>> getFileProvenanceReport(Map<FileProvenanceParam, List<String>> params) {
 		if (provenanceClient != null) {
-
-			// convert all BasicDecider file provenance params to GSI file provenance
-			// filters
-			// BasicDecider opts are only include filters, so add them only to the include
-			// list
-			for (Entry<FileProvenanceParam, List<String>> e : params.entrySet()) {
-				FileProvenanceFilter filter = FileProvenanceFilter.valueOf(e.getKey().name());
-				List<String> values = e.getValue();
-				List<String> valuesSplit = new ArrayList<>();
-				for (String s : values) {
-					valuesSplit.addAll(Splitter.on(",").splitToList(s));
-				}
-				if (includeFilters.containsKey(filter)) {
-					includeFilters.get(filter).addAll(valuesSplit);
-				} else {
-					includeFilters.put(filter, Sets.newHashSet(valuesSplit));
-				}
+			try (Stream<Map<String, String>> fileProvenanceReport = getFileProvenanceReportStream(params)) {
+				return fileProvenanceReport.collect(Collectors.toList());
 			}
+		} else {
+			return super.getFileProvenanceReport(params);
+		}
+	}
 
-			// we're only interested in processing analysis that successfully completed
-			includeFilters.put(FileProvenanceFilter.processing_status, Sets.newHashSet("success"));
-			includeFilters.put(FileProvenanceFilter.workflow_run_status, Sets.newHashSet("completed"));
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>
+	 * FileProvenance records are converted to report records as the stream is
+	 * consumed, so the converted report is never fully held in memory. The
+	 * FileProvenance collection returned by the provider is held until the
+	 * stream is closed.
+	 * </p>
+	 */
+	@Override
+	protected Stream<Map<String, String>> getFileProvenanceReportStream(Map<FileProvenanceParam, List<String>> params) {
+		if (provenanceClient == null) {
+			return super.getFileProvenanceReportStream(params);
+		}
 
-			// only get the analysis with the metatype of interest
-			if (getMetaType() != null && !getMetaType().isEmpty()) {
-				includeFilters.put(FileProvenanceFilter.file_meta_type, Sets.newHashSet(getMetaType()));
+		// convert all BasicDecider file provenance params to GSI file provenance
+		// filters
+		// BasicDecider opts are only include filters, so add them only to the include
+		// list
+		for (Entry<FileProvenanceParam, List<String>> e : params.entrySet()) {
+			FileProvenanceFilter filter = FileProvenanceFilter.valueOf(e.getKey().name());
+			List<String> values = e.getValue();
+			List<String> valuesSplit = new ArrayList<>();
+			for (String s : values) {
+				valuesSplit.addAll(Splitter.on(",").splitToList(s));
+			}
+			if (includeFilters.containsKey(filter)) {
+				includeFilters.get(filter).addAll(valuesSplit);
+			} else {
+				includeFilters.put(filter, Sets.newHashSet(valuesSplit));
 			}
+		}
+
+		// we're only interested in processing analysis that successfully completed
+		includeFilters.put(FileProvenanceFilter.processing_status, Sets.newHashSet("success"));
+		includeFilters.put(FileProvenanceFilter.workflow_run_status, Sets.newHashSet("completed"));
+
+		// only get the analysis with the metatype of interest
+		if (getMetaType() != null && !getMetaType().isEmpty()) {
+			includeFilters.put(FileProvenanceFilter.file_meta_type, Sets.newHashSet(getMetaType()));
+		}
+
+		if (options.has("verbose")) {
+			MapUtils.verbosePrint(System.out, "include filters", includeFilters);
+			MapUtils.verbosePrint(System.out, "exclude filters", excludeFilters);
+		}
+
+		iusSwidToLimsKey.clear();
+		if (provenanceReportCache != null) {
+			String key = FileProvenanceReportCache.getKey(getProvenanceCacheSettings(), includeFilters, excludeFilters);
+			return provenanceReportCache
+					.read(key, this::retrieveFileProvenance, this::convertToFileProvenanceReportRecord,
+							FileProvenance::getIusLimsKeys)
+					.map(record -> {
+						// snapshot records are not converted, so their IusLimsKeys are recorded here
+						for (Entry<Integer, ca.on.oicr.gsi.provenance.model.LimsKey> e : record.getIusLimsKeys().entrySet()) {
+							iusSwidToLimsKey.putIfAbsent(e.getKey(), new ComparableLimsKey(e.getValue()));
+						}
+						return record.getReportRecord();
+					});
+		}
+
+		// the provider returns a collection, so the records are converted one at a time as they are iterated rather than
+		// copied into a report first
+		return retrieveFileProvenance().stream().map(this::convertToFileProvenanceReportRecord);
+	}
 
-			if (options.has("verbose")) {
-				MapUtils.verbosePrint(System.out, "include filters", includeFilters);
-				MapUtils.verbosePrint(System.out, "exclude filters", excludeFilters);
+	private Collection<? extends FileProvenance> retrieveFileProvenance() {
+		// only called when the provenance is requested (e.g. not when the provenance snapshot is fresh), so the LIMS indexes are not
+		// loaded for nothing
+		CompletableFuture<Void> provenancePrefetch = concurrentProvenanceProviders == null ? null
+				: concurrentProvenanceProviders.prefetch();
+		Collection<? extends FileProvenance> fps = provenanceClient.getFileProvenance(includeFilters, excludeFilters);
+		if (concurrentProvenanceProviders != null) {
+			logger.info("Provenance provider latencies: {}", concurrentProvenanceProviders.getLatencySummary());
+		}
+		if (provenancePrefetch != null) {
+			// the file provenance request loaded the provenance again if the prefetch failed
+			try {
+				provenancePrefetch.join();
+			} catch (CompletionException ex) {
+				logger.warn("Provenance prefetch failed", ex.getCause());
 			}
+		}
+		return fps;
+	}
 
-			Joiner joiner = Joiner.on(";").skipNulls();
-			final String EMPTY_STRING = "";
-
-			String studyTagPrefix = Header.STUDY_TAG_PREFIX.getTitle();
-			String parentSampleTagPrefix = Header.PARENT_SAMPLE_TAG_PREFIX.getTitle();
-			String sampleTagPrefix = Header.SAMPLE_TAG_PREFIX.getTitle();
-			String sequencerRunTagPrefix = Header.SEQUENCER_RUN_TAG_PREFIX.getTitle();
-			String laneTagPrefix = Header.LANE_TAG_PREFIX.getTitle();
-			String workflowTagPrefix = "workflow.";
-			String workflowRunTagPrefix = "workflow_run.";
-			String fileTagPrefix = "file.";
-			String iusTagPrefix = "ius.";
-			String processingTagPrefix = "processing.";
-
-			List<Map<String, String>> fpList = new ArrayList<>();
-			Collection<? extends FileProvenance> fps = provenanceClient.getFileProvenance(includeFilters, excludeFilters);
-			for (FileProvenance fp : fps) {
-				Map<String, String> f = new HashMap<>();
-				f.put("Last Modified", StringUtils.defaultString(fp.getLastModified() == null ? null : fp.getLastModified()
-						.withZoneSameInstant(ZoneId.of("America/Toronto")).format(DateTimeFormatter.ofPattern("YYYY-MM-dd HH:mm:ss.SSS"))));
-				f.put("Study Title", StringUtils.defaultString(join(fp.getStudyTitles())));
-				f.put("Study Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(studyTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getStudyAttributes())));
-				f.put("Experiment Name", EMPTY_STRING);
-				f.put("Experiment Attributes", EMPTY_STRING);
-				f.put("Root Sample Name", StringUtils.defaultString(join(fp.getRootSampleNames())));
-				f.put("Parent Sample Name", StringUtils.defaultString(join(fp.getParentSampleNames())));
-				f.put("Parent Sample Organism IDs",
-						StringUtils.defaultString(joiner.join(fp.getParentSampleOrganismIDs())));
-				f.put("Parent Sample Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(parentSampleTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getParentSampleAttributes())));
-				f.put("Sample Name", StringUtils.defaultString(join(fp.getSampleNames())));
-				f.put("Sample Organism ID", StringUtils.defaultString(join(fp.getSampleOrganismIDs())));
-				f.put("Sample Organism Code", StringUtils.defaultString(join(fp.getSampleOrganismCodes())));
-				f.put("Sample Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(sampleTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getSampleAttributes())));
-				f.put("Sequencer Run Name", StringUtils.defaultString(join(fp.getSequencerRunNames())));
-				f.put("Sequencer Run Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(sequencerRunTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getSequencerRunAttributes())));
-				f.put("Sequencer Run Platform ID", StringUtils.defaultString(join(fp.getSequencerRunPlatformIDs())));
-				f.put("Sequencer Run Platform Name",
-						StringUtils.defaultString(joiner.join(fp.getSequencerRunPlatformNames())));
-				f.put("Lane Name", StringUtils.defaultString(join(fp.getLaneNames())));
-				f.put("Lane Number", StringUtils.defaultString(join(fp.getLaneNumbers())));
-				f.put("Lane Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(laneTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getLaneAttributes())));
-				f.put("IUS Tag", StringUtils.defaultString(join(fp.getIusTags())));
-
-				f.put("Workflow Name", StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowName())));
-				f.put("Workflow Version", StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowVersion())));
-				f.put("Workflow SWID", StringUtils.defaultString(fp.getWorkflowSWID().toString()));
-				f.put("Workflow Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(workflowTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getWorkflowAttributes())));
-				f.put("Workflow Run Name", StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowRunName())));
-				f.put("Workflow Run Status",
-						StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowRunStatus())));
-				f.put("Workflow Run SWID", StringUtils.defaultString(fp.getWorkflowRunSWID().toString()));
-				f.put("Workflow Run Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(workflowRunTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getWorkflowRunAttributes())));
-				f.put("Workflow Run Input File SWAs",
-						StringUtils.defaultString(joiner.join(fp.getWorkflowRunInputFileSWIDs())));
-				f.put("Processing Algorithm",
-						StringUtils.defaultString(stringSanitizer.apply(fp.getProcessingAlgorithm())));
-				f.put("Processing SWID", StringUtils.defaultString(fp.getProcessingSWID().toString()));
-				f.put("Processing Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(processingTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getProcessingAttributes())));
-				f.put("Processing Status", StringUtils.defaultString(stringSanitizer.apply(fp.getProcessingStatus())));
-				f.put("File Meta-Type", StringUtils.defaultString(stringSanitizer.apply(fp.getFileMetaType())));
-				f.put("File SWID", StringUtils.defaultString(fp.getFileSWID().toString()));
-				f.put("File Attributes",
-						StringUtils.defaultString(
-								MapStringifier.transform(prefixMapKeys(fileTagPrefix).andThen(ssForAttributes),
-										ssForAttributes, fp.getFileAttributes())));
-				f.put("File Path", StringUtils.defaultString(stringSanitizer.apply(fp.getFilePath())));
-				f.put("File Md5sum", StringUtils.defaultString(stringSanitizer.apply(fp.getFileMd5sum())));
-				f.put("File Size", StringUtils.defaultString(stringSanitizer.apply(fp.getFileSize())));
-				f.put("File Description", StringUtils.defaultString(stringSanitizer.apply(fp.getFileDescription())));
-				f.put("Path Skip", StringUtils.defaultString(stringSanitizer.apply(fp.getSkip())));
-				f.put("Skip", StringUtils.defaultString(stringSanitizer.apply(fp.getSkip())));
-
-				f.put("IUS Attributes", StringUtils.defaultString(MapStringifier.transform(
-						prefixMapKeys(iusTagPrefix).andThen(ssForAttributes), ssForAttributes, fp.getIusAttributes())));
-
-				// return ALL associated Ius LimsKeys (as OicrDecider will only create links to
-				// LimsKeys that are returned here)
-				if (fp instanceof FileProvenanceFromAnalysisProvenance) {
-					// This is a workaround until file provenace is not split by sample or lane
-					// provenance record and is returned as one
-					// object with all associated lims metadata combined.
-					f.put("IUS SWID", StringUtils
-							.defaultString(join(((FileProvenanceFromAnalysisProvenance) fp).getReleatedIusSWIDs())));
-				} else {
-					throw new UnsupportedOperationException(fp.getClass().getCanonicalName()
-							+ " implementation is not support by OicrDecider."
-							+ "If the implementation guarantees getIusSWIDs() returns all associated Ius LimsKey links, support can be added.");
-					// f.put("IUS SWID",
-					// StringUtils.defaultString(joiner.join(Iterables.transform(((FileProvenanceFromAnalysisProvenance)
-					// fp).getIusSWIDs(), stringSanitizer))));
-				}
+	/**
+	 * Shut down the provider request executor that was created for the "provenance-settings" providers.
+	 */
+	@Override
+	public ReturnValue clean_up() {
+		if (concurrentProvenanceProviders != null) {
+			concurrentProvenanceProviders.close();
+			concurrentProvenanceProviders = null;
+		}
+		return super.clean_up();
+	}
 
-				f.put("Status", fp.getStatus().toString());
-				f.put("Status Reason", fp.getStatusReason());
+	/**
+	 * The values that identify the provenance sources of the file provenance
+	 * report, used with the filters as the file provenance snapshot key.
+	 */
+	private List<String> getProvenanceCacheSettings() {
+		List<String> settings = new ArrayList<>();
+		settings.add(provenanceClient.getClass().getName());
+		if (options.has("provenance-settings")) {
+			try {
+				settings.add(new String(Files.readAllBytes(Paths.get(getArgument("provenance-settings"))),
+						StandardCharsets.UTF_8));
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+		settings.add(getArgument("pinery-url"));
+		settings.add(config == null ? null : config.get("SW_REST_URL"));
+		return settings;
+	}
+
+	private Map<String, String> convertToFileProvenanceReportRecord(FileProvenance fp) {
+		Joiner joiner = Joiner.on(";").skipNulls();
+		final String EMPTY_STRING = "";
 
-				fpList.add(f);
+		// keep the record's IusLimsKeys so that getSwidsToLinkWorkflowRunTo() does not need to retrieve them from seqware
+		if (fp.getIusLimsKeys() != null) {
+			for (IusLimsKey iusLimsKey : fp.getIusLimsKeys()) {
+				if (iusLimsKey.getIusSWID() != null && iusLimsKey.getLimsKey() != null) {
+					iusSwidToLimsKey.putIfAbsent(iusLimsKey.getIusSWID(), new ComparableLimsKey(iusLimsKey.getLimsKey()));
+				}
 			}
-			return fpList;
+		}
+
+		String studyTagPrefix = Header.STUDY_TAG_PREFIX.getTitle();
+		String parentSampleTagPrefix = Header.PARENT_SAMPLE_TAG_PREFIX.getTitle();
+		String sampleTagPrefix = Header.SAMPLE_TAG_PREFIX.getTitle();
+		String sequencerRunTagPrefix = Header.SEQUENCER_RUN_TAG_PREFIX.getTitle();
+		String laneTagPrefix = Header.LANE_TAG_PREFIX.getTitle();
+		String workflowTagPrefix = "workflow.";
+		String workflowRunTagPrefix = "workflow_run.";
+		String fileTagPrefix = "file.";
+		String iusTagPrefix = "ius.";
+		String processingTagPrefix = "processing.";
+
+		Map<String, String> f = new HashMap<>();
+		f.put("Last Modified", StringUtils.defaultString(fp.getLastModified() == null ? null : fp.getLastModified()
+				.withZoneSameInstant(ZoneId.of("America/Toronto")).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS"))));
+		f.put("Study Title", StringUtils.defaultString(join(fp.getStudyTitles())));
+		f.put("Study Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(studyTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getStudyAttributes())));
+		f.put("Experiment Name", EMPTY_STRING);
+		f.put("Experiment Attributes", EMPTY_STRING);
+		f.put("Root Sample Name", StringUtils.defaultString(join(fp.getRootSampleNames())));
+		f.put("Parent Sample Name", StringUtils.defaultString(join(fp.getParentSampleNames())));
+		f.put("Parent Sample Organism IDs",
+				StringUtils.defaultString(joiner.join(fp.getParentSampleOrganismIDs())));
+		f.put("Parent Sample Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(parentSampleTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getParentSampleAttributes())));
+		f.put("Sample Name", StringUtils.defaultString(join(fp.getSampleNames())));
+		f.put("Sample Organism ID", StringUtils.defaultString(join(fp.getSampleOrganismIDs())));
+		f.put("Sample Organism Code", StringUtils.defaultString(join(fp.getSampleOrganismCodes())));
+		f.put("Sample Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(sampleTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getSampleAttributes())));
+		f.put("Sequencer Run Name", StringUtils.defaultString(join(fp.getSequencerRunNames())));
+		f.put("Sequencer Run Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(sequencerRunTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getSequencerRunAttributes())));
+		f.put("Sequencer Run Platform ID", StringUtils.defaultString(join(fp.getSequencerRunPlatformIDs())));
+		f.put("Sequencer Run Platform Name",
+				StringUtils.defaultString(joiner.join(fp.getSequencerRunPlatformNames())));
+		f.put("Lane Name", StringUtils.defaultString(join(fp.getLaneNames())));
+		f.put("Lane Number", StringUtils.defaultString(join(fp.getLaneNumbers())));
+		f.put("Lane Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(laneTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getLaneAttributes())));
+		f.put("IUS Tag", StringUtils.defaultString(join(fp.getIusTags())));
+
+		f.put("Workflow Name", StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowName())));
+		f.put("Workflow Version", StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowVersion())));
+		f.put("Workflow SWID", StringUtils.defaultString(fp.getWorkflowSWID().toString()));
+		f.put("Workflow Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(workflowTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getWorkflowAttributes())));
+		f.put("Workflow Run Name", StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowRunName())));
+		f.put("Workflow Run Status",
+				StringUtils.defaultString(stringSanitizer.apply(fp.getWorkflowRunStatus())));
+		f.put("Workflow Run SWID", StringUtils.defaultString(fp.getWorkflowRunSWID().toString()));
+		f.put("Workflow Run Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(workflowRunTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getWorkflowRunAttributes())));
+		f.put("Workflow Run Input File SWAs",
+				StringUtils.defaultString(joiner.join(fp.getWorkflowRunInputFileSWIDs())));
+		f.put("Processing Algorithm",
+				StringUtils.defaultString(stringSanitizer.apply(fp.getProcessingAlgorithm())));
+		f.put("Processing SWID", StringUtils.defaultString(fp.getProcessingSWID().toString()));
+		f.put("Processing Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(processingTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getProcessingAttributes())));
+		f.put("Processing Status", StringUtils.defaultString(stringSanitizer.apply(fp.getProcessingStatus())));
+		f.put("File Meta-Type", StringUtils.defaultString(stringSanitizer.apply(fp.getFileMetaType())));
+		f.put("File SWID", StringUtils.defaultString(fp.getFileSWID().toString()));
+		f.put("File Attributes",
+				StringUtils.defaultString(
+						MapStringifier.transform(prefixMapKeys(fileTagPrefix).andThen(ssForAttributes),
+								ssForAttributes, fp.getFileAttributes())));
+		f.put("File Path", StringUtils.defaultString(stringSanitizer.apply(fp.getFilePath())));
+		f.put("File Md5sum", StringUtils.defaultString(stringSanitizer.apply(fp.getFileMd5sum())));
+		f.put("File Size", StringUtils.defaultString(stringSanitizer.apply(fp.getFileSize())));
+		f.put("File Description", StringUtils.defaultString(stringSanitizer.apply(fp.getFileDescription())));
+		f.put("Path Skip", StringUtils.defaultString(stringSanitizer.apply(fp.getSkip())));
+		f.put("Skip", StringUtils.defaultString(stringSanitizer.apply(fp.getSkip())));
+
+		f.put("IUS Attributes", StringUtils.defaultString(MapStringifier.transform(
+				prefixMapKeys(iusTagPrefix).andThen(ssForAttributes), ssForAttributes, fp.getIusAttributes())));
+
+		// return ALL associated Ius LimsKeys (as OicrDecider will only create links to
+		// LimsKeys that are returned here)
+		if (fp instanceof FileProvenanceFromAnalysisProvenance) {
+			// This is a workaround until file provenace is not split by sample or lane
+			// provenance record and is returned as one
+			// object with all associated lims metadata combined.
+			f.put("IUS SWID", StringUtils
+					.defaultString(join(((FileProvenanceFromAnalysisProvenance) fp).getReleatedIusSWIDs())));
 		} else {
-                    return super.getFileProvenanceReport(params);
-                }
+			throw new UnsupportedOperationException(fp.getClass().getCanonicalName()
+					+ " implementation is not support by OicrDecider."
+					+ "If the implementation guarantees getIusSWIDs() returns all associated Ius LimsKey links, support can be added.");
+			// f.put("IUS SWID",
+			// StringUtils.defaultString(joiner.join(Iterables.transform(((FileProvenanceFromAnalysisProvenance)
+			// fp).getIusSWIDs(), stringSanitizer))));
+		}
+
+		f.put("Status", fp.getStatus().toString());
+		f.put("Status Reason", fp.getStatusReason());
+
+		return f;
 	}
 
 	private Function<String, String> prefixMapKeys(String prefix) {
@@ -1414,6 +1574,13 @@ public class OicrDecider extends BasicDecider {
             this.lastModified = limsKey.getLastModified();
         }
 
+        public ComparableLimsKey(ca.on.oicr.gsi.provenance.model.LimsKey limsKey) {
+            this.provider = limsKey.getProvider();
+            this.id = limsKey.getId();
+            this.version = limsKey.getVersion();
+            this.lastModified = limsKey.getLastModified();
+        }
+
         @Override
         public String getProvider() {
             return provider;
@@ -0,0 +1,191 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import net.sourceforge.seqware.pipeline.runner.PluginRunner;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Schedules workflow runs with the PluginRunner - either on the calling thread or on a bounded thread pool (see "scheduling-threads").
+ * <p>
+ * Results are collected on the calling thread in submission order. The callback of a workflow run is only called once it has been
+ * scheduled successfully, so the caller can count and report scheduled workflow runs from the callbacks. A workflow run that fails to
+ * schedule after all retries is rethrown when its result is collected.
+ */
+class WorkflowRunScheduler implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(WorkflowRunScheduler.class);
+
+    private final Supplier<PluginRunner> pluginRunners;
+    private final int retries;
+    private final Duration backoff;
+    private final DeciderMetrics metrics;
+    private final ExecutorService executorService;
+    private final Deque<SubmittedWorkflowRun> scheduling = new ArrayDeque<>();
+    private final int maxInFlight;
+
+    /**
+     * @param threads       the number of workflow runs that are scheduled concurrently, 1 to schedule on the calling thread
+     * @param retries       the number of times to retry a failed workflow run
+     * @param backoff       the delay before the first retry, doubled for each following retry
+     * @param pluginRunners supplies a configured PluginRunner for each scheduling attempt
+     * @param metrics       the decider metrics
+     */
+    WorkflowRunScheduler(int threads, int retries, Duration backoff, Supplier<PluginRunner> pluginRunners, DeciderMetrics metrics) {
+        this.pluginRunners = pluginRunners;
+        this.retries = retries;
+        this.backoff = backoff;
+        this.metrics = metrics;
+        if (threads > 1) {
+            executorService = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("workflow-run-scheduling-%d").setDaemon(true).build());
+            maxInFlight = threads;
+        } else {
+            executorService = null;
+            maxInFlight = 0;
+        }
+    }
+
+    /**
+     * Schedule a workflow run. If all threads are busy, the oldest workflow run is collected first.
+     *
+     * @param runArgs     the PluginRunner arguments
+     * @param description the workflow run description for logging (the INI files)
+     * @param onScheduled called on the calling thread, in submission order, once the workflow run has been scheduled
+     */
+    void submit(List<String> runArgs, String description, Runnable onScheduled) {
+        if (executorService == null) {
+            schedule(runArgs, description);
+            LOGGER.debug("Scheduled workflow run [{}]", description);
+            onScheduled.run();
+            return;
+        }
+        while (scheduling.size() >= maxInFlight) {
+            awaitNext();
+        }
+        scheduling.add(new SubmittedWorkflowRun(description, onScheduled, executorService.submit(() -> schedule(runArgs, description))));
+    }
+
+    /**
+     * @return the number of submitted workflow runs that have not been collected
+     */
+    int getInFlight() {
+        return scheduling.size();
+    }
+
+    /**
+     * Wait until the oldest submitted workflow run has been scheduled and call its callback.
+     *
+     * @throws RuntimeException if the workflow run could not be scheduled
+     */
+    void awaitNext() {
+        SubmittedWorkflowRun next = scheduling.remove();
+        try {
+            next.result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            LOGGER.error("Scheduling workflow run [{}] failed", next.description);
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+        }
+        LOGGER.debug("Scheduled workflow run [{}]", next.description);
+        next.onScheduled.run();
+    }
+
+    /**
+     * Wait until all submitted workflow runs have been scheduled.
+     */
+    void awaitScheduled() {
+        while (!scheduling.isEmpty()) {
+            awaitNext();
+        }
+    }
+
+    private void schedule(List<String> runArgs, String description) {
+        for (int attempt = 0;; attempt++) {
+            try (DeciderMetrics.Timing timing = metrics.time("scheduling")) {
+                pluginRunners.get().run(runArgs.toArray(new String[runArgs.size()]));
+                return;
+            } catch (Exception ex) {
+                if (attempt >= retries) {
+                    metrics.increment("schedulingFailures");
+                    Throwables.throwIfUnchecked(ex);
+                    throw new RuntimeException(ex);
+                }
+                metrics.increment("schedulingRetries");
+                Duration delay = backoff.multipliedBy(1L << Math.min(attempt, 10));
+                LOGGER.warn("Scheduling workflow run [" + description + "] failed (attempt " + (attempt + 1) + " of "
+                        + (retries + 1) + "), retrying in " + delay, ex);
+                try {
+                    Thread.sleep(delay.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    RuntimeException failure = new RuntimeException(ex);
+                    failure.addSuppressed(ie);
+                    throw failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect all in-flight workflow runs, even if one of them failed, so that the callbacks of the workflow runs that were scheduled
+     * are called.
+     *
+     * @throws RuntimeException the first failure, with later failures suppressed
+     */
+    @Override
+    public void close() {
+        if (executorService == null) {
+            return;
+        }
+        RuntimeException failure = null;
+        while (!scheduling.isEmpty()) {
+            try {
+                awaitNext();
+            } catch (RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class SubmittedWorkflowRun {
+
+        private final String description;
+        private final Runnable onScheduled;
+        private final Future<?> result;
+
+        private SubmittedWorkflowRun(String description, Runnable onScheduled, Future<?> result) {
+            this.description = description;
+            this.onScheduled = onScheduled;
+            this.result = result;
+        }
+    }
+
+}
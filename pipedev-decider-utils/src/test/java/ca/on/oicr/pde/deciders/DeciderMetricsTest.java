@@ -0,0 +1,75 @@
+package ca.on.oicr.pde.deciders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class DeciderMetricsTest {
+
+    private static DeciderMetrics getMetrics() {
+        DeciderMetrics metrics = new DeciderMetrics("TestDecider");
+        metrics.record("separateFiles", 2_000_000_000L);
+        metrics.record("rerunWorkflowRun", 1_000_000_000L);
+        metrics.record("rerunWorkflowRun", 3_000_000_000L);
+        try (DeciderMetrics.Timing timing = metrics.time("scheduling")) {
+            metrics.increment("launches");
+        }
+        metrics.increment("records", 10);
+        return metrics;
+    }
+
+    @Test
+    public void countTest() {
+        DeciderMetrics metrics = getMetrics();
+        assertEquals(metrics.getPhaseNanos("rerunWorkflowRun"), 4_000_000_000L);
+        assertEquals(metrics.getPhaseNanos("missing"), 0L);
+        assertEquals(metrics.getCount("records"), 10L);
+        assertEquals(metrics.getCount("launches"), 1L);
+        assertTrue(metrics.getSummary().startsWith("rerunWorkflowRun=4.000s scheduling="));
+        assertTrue(metrics.getSummary().endsWith("launches=1 records=10"));
+    }
+
+    @Test
+    public void summaryLocaleTest() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            // the summary is parsed by log processing, so it must not use the decimal separator of the default locale
+            Locale.setDefault(Locale.GERMANY);
+            assertTrue(getMetrics().getSummary().startsWith("rerunWorkflowRun=4.000s scheduling="));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void writeTest() throws IOException {
+        Path dir = Files.createTempDirectory("decider-metrics");
+        Path json = dir.resolve("metrics.json");
+        Path prom = dir.resolve("metrics.prom");
+        try {
+            DeciderMetrics metrics = getMetrics();
+            metrics.writeJson(json);
+            metrics.writePrometheus(prom);
+
+            String jsonString = new String(Files.readAllBytes(json), StandardCharsets.UTF_8);
+            assertTrue(jsonString.contains("\"decider\" : \"TestDecider\""));
+            assertTrue(jsonString.replaceAll("\\s", "").contains("\"rerunWorkflowRun\":{\"count\":2,\"totalSeconds\":4.0,\"maxSeconds\":3.0}"));
+            assertTrue(jsonString.replaceAll("\\s", "").contains("\"records\":10"));
+
+            String promString = new String(Files.readAllBytes(prom), StandardCharsets.UTF_8);
+            assertTrue(promString.contains("decider_phase_seconds_total{decider=\"TestDecider\",phase=\"rerunWorkflowRun\"} 4.0\n"));
+            assertTrue(promString.contains("decider_phase_max_seconds{decider=\"TestDecider\",phase=\"rerunWorkflowRun\"} 3.0\n"));
+            assertTrue(promString.contains("decider_phase_count_total{decider=\"TestDecider\",phase=\"separateFiles\"} 1\n"));
+            assertTrue(promString.contains("decider_events_total{decider=\"TestDecider\",event=\"records\"} 10\n"));
+        } finally {
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(prom);
+            Files.delete(dir);
+        }
+    }
+
+}
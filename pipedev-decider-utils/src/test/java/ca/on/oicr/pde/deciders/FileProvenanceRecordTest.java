@@ -0,0 +1,131 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.FileMetadata;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class FileProvenanceRecordTest {
+
+    private ReturnValue getReturnValue() {
+        Map<String, String> atts = new HashMap<>();
+        atts.put(Header.FILE_SWA.getTitle(), "12");
+        atts.put(Header.PROCESSING_SWID.getTitle(), "11");
+        atts.put(Header.IUS_SWA.getTitle(), "1;2");
+        atts.put(Header.LANE_SWA.getTitle(), "3");
+        atts.put(Header.STUDY_TITLE.getTitle(), " TEST_STUDY ");
+        atts.put(Header.PARENT_SAMPLE_NAME.getTitle(), "TEST_0001:TEST_0001_Pa_P");
+        atts.put(Header.LANE_NUM.getTitle(), "2");
+        atts.put(Header.WORKFLOW_RUN_STATUS.getTitle(), "completed");
+        atts.put("Skip", "false");
+        atts.put("Status", "OKAY");
+        atts.put(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_tissue_type", "P ");
+        atts.put(Header.PARENT_SAMPLE_TAG_PREFIX.getTitle() + "geo_tissue_type.1", "P");
+        atts.put(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_tissue_type_other", "X");
+
+        FileMetadata fm = new FileMetadata();
+        fm.setFilePath("/tmp/file.bam");
+
+        ReturnValue rv = new ReturnValue();
+        rv.setAttributes(atts);
+        rv.setFiles(new ArrayList<>(Arrays.asList(fm)));
+        return rv;
+    }
+
+    @Test
+    public void parseTest() {
+        FileProvenanceRecord record = FileProvenanceRecord.of(getReturnValue());
+        assertEquals(record.getFileSwid(), 12);
+        assertEquals(record.getProcessingSwid(), 11);
+        assertEquals(record.getWorkflowSwid(), FileProvenanceRecord.NO_SWID);
+        assertEquals(record.getIusSwids(), Sets.newHashSet("1", "2"));
+        assertEquals(record.getLaneSwids(), Sets.newHashSet("3"));
+        assertEquals(record.getStudy(), "TEST_STUDY");
+        assertEquals(record.getDonor(), "TEST_0001_Pa_P");
+        assertEquals(record.getLaneNumber(), "2");
+        assertEquals(record.getWorkflowRunStatus(), "completed");
+        assertEquals(record.getStatus(), "OKAY");
+        assertFalse(record.isSkip());
+        assertNull(record.getSkipAttributeKey());
+        assertEquals(record.getLimsAttributes().get(Lims.TISSUE_TYPE), "P");
+        assertNull(record.getLimsAttributes().get(Lims.TISSUE_ORIGIN));
+    }
+
+    @Test
+    public void adapterTest() {
+        FileProvenanceRecord.ReturnValueAdapter rv = new FileProvenanceRecord.ReturnValueAdapter();
+        ReturnValue source = getReturnValue();
+        rv.setAttributes(source.getAttributes());
+        rv.setFiles(source.getFiles());
+        rv.bind();
+
+        assertSame(FileProvenanceRecord.of(rv), FileProvenanceRecord.of(rv));
+    }
+
+    @Test
+    public void missingFileSwidTest() {
+        ReturnValue rv = getReturnValue();
+        rv.getAttributes().remove(Header.FILE_SWA.getTitle());
+        assertEquals(FileProvenanceRecord.of(rv).getFileSwid(), FileProvenanceRecord.NO_SWID);
+
+        rv.setAttribute(Header.FILE_SWA.getTitle(), "");
+        assertEquals(FileProvenanceRecord.of(rv).getFileSwid(), FileProvenanceRecord.NO_SWID);
+    }
+
+    @Test
+    public void modifiedThroughViewAdapterTest() {
+        FileProvenanceRecord.ReturnValueAdapter rv = new FileProvenanceRecord.ReturnValueAdapter();
+        ReturnValue source = getReturnValue();
+        rv.setAttributes(source.getAttributes());
+        rv.setFiles(source.getFiles());
+        rv.bind();
+        FileProvenanceRecord bound = FileProvenanceRecord.of(rv);
+
+        rv.getAttributes().keySet().remove("Status");
+        FileProvenanceRecord modified = FileProvenanceRecord.of(rv);
+        assertNotSame(modified, bound);
+        assertNull(modified.getStatus());
+    }
+
+    @Test
+    public void modifiedAdapterTest() {
+        FileProvenanceRecord.ReturnValueAdapter rv = new FileProvenanceRecord.ReturnValueAdapter();
+        ReturnValue source = getReturnValue();
+        rv.setAttributes(source.getAttributes());
+        rv.setFiles(source.getFiles());
+        rv.bind();
+        FileProvenanceRecord bound = FileProvenanceRecord.of(rv);
+
+        rv.setAttribute("Status", "STALE");
+        FileProvenanceRecord modified = FileProvenanceRecord.of(rv);
+        assertNotSame(modified, bound);
+        assertEquals(modified.getStatus(), "STALE");
+        assertSame(FileProvenanceRecord.of(rv), modified);
+
+        rv.getAttributes().put(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_tissue_origin", "Pa");
+        assertEquals(FileProvenanceRecord.of(rv).getLimsAttributes().get(Lims.TISSUE_ORIGIN), "Pa");
+
+        Map<String, String> atts = new HashMap<>(rv.getAttributes());
+        atts.put(Header.IUS_SWA.getTitle(), "");
+        rv.setAttributes(atts);
+        assertTrue(FileProvenanceRecord.of(rv).getIusSwids().isEmpty());
+        assertEquals(FileProvenanceRecord.of(rv).getLaneSwids(), Sets.newHashSet("3"));
+    }
+
+    @Test
+    public void fileAttributesTest() {
+        ReturnValue rv = getReturnValue();
+        FileAttributes fa = new FileAttributes(rv, rv.getFiles().get(0));
+        assertEquals(fa.getStudy(), "TEST_STUDY");
+        assertEquals(fa.getDonor(), "TEST_0001_Pa_P");
+        assertEquals(fa.getLane(), Integer.valueOf(2));
+        assertEquals(fa.getLimsValue(Lims.TISSUE_TYPE), "P");
+    }
+
+}
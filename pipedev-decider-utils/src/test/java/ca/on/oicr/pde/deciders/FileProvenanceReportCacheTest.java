@@ -0,0 +1,202 @@
+package ca.on.oicr.pde.deciders;
+
+import ca.on.oicr.gsi.provenance.model.IusLimsKey;
+import ca.on.oicr.gsi.provenance.model.LimsKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FileProvenanceReportCacheTest {
+
+    private Path dir;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("fpr-cache");
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    private static Map<String, String> getRecord(String swid) {
+        Map<String, String> record = new HashMap<>();
+        record.put("File SWID", swid);
+        record.put("Study Title", "TEST_STUDY");
+        record.put("File Path", "/tmp/" + String.join("", Collections.nCopies(200, "x")) + swid);
+        record.put("Skip", null);
+        return record;
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        FileProvenanceReportCache cache = new FileProvenanceReportCache(dir, Duration.ofHours(1));
+        String key = FileProvenanceReportCache.getKey(Arrays.asList("settings"), Collections.emptyMap(), Collections.emptyMap());
+
+        ZonedDateTime lastModified = ZonedDateTime.now();
+        IusLimsKey iusLimsKey = new IusLimsKey() {
+            @Override
+            public Integer getIusSWID() {
+                return 100;
+            }
+
+            @Override
+            public LimsKey getLimsKey() {
+                return new LimsKey() {
+                    @Override
+                    public String getProvider() {
+                        return "pinery";
+                    }
+
+                    @Override
+                    public String getId() {
+                        return "1_1_1";
+                    }
+
+                    @Override
+                    public String getVersion() {
+                        return "v1";
+                    }
+
+                    @Override
+                    public ZonedDateTime getLastModified() {
+                        return lastModified;
+                    }
+                };
+            }
+        };
+
+        assertNull(cache.read(key));
+        try (FileProvenanceReportCache.Writer writer = cache.newWriter(key, 2)) {
+            writer.write(getRecord("1"), Arrays.asList(iusLimsKey));
+            writer.write(getRecord("2"), null);
+        }
+
+        List<FileProvenanceReportCache.Record> records;
+        try (Stream<FileProvenanceReportCache.Record> s = cache.read(key)) {
+            records = s.collect(Collectors.toList());
+        }
+        assertEquals(records.size(), 2);
+        assertEquals(records.get(0).getReportRecord(), getRecord("1"));
+        assertEquals(records.get(1).getReportRecord(), getRecord("2"));
+        LimsKey limsKey = records.get(0).getIusLimsKeys().get(100);
+        assertEquals(limsKey.getProvider(), "pinery");
+        assertEquals(limsKey.getId(), "1_1_1");
+        assertEquals(limsKey.getVersion(), "v1");
+        assertEquals(limsKey.getLastModified(), lastModified);
+        assertTrue(records.get(1).getIusLimsKeys().isEmpty());
+    }
+
+    @Test
+    public void incompleteSnapshotTest() throws IOException {
+        FileProvenanceReportCache cache = new FileProvenanceReportCache(dir, Duration.ofHours(1));
+        String key = FileProvenanceReportCache.getKey(Arrays.asList("settings"), Collections.emptyMap(), Collections.emptyMap());
+        try (FileProvenanceReportCache.Writer writer = cache.newWriter(key, 2)) {
+            writer.write(getRecord("1"), null);
+        }
+        assertNull(cache.read(key));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(files.count(), 0L);
+        }
+    }
+
+    @Test
+    public void expiredSnapshotTest() throws IOException {
+        String key = FileProvenanceReportCache.getKey(Arrays.asList("settings"), Collections.emptyMap(), Collections.emptyMap());
+        new FileProvenanceReportCache(dir, Duration.ZERO).newWriter(key, 0).close();
+        assertNull(new FileProvenanceReportCache(dir, Duration.ofMillis(-1)).read(key));
+        try (Stream<FileProvenanceReportCache.Record> s = new FileProvenanceReportCache(dir, Duration.ofHours(1)).read(key)) {
+            assertNotNull(s);
+            assertEquals(s.count(), 0L);
+        }
+    }
+
+    private static List<Map<String, String>> readThrough(FileProvenanceReportCache cache, String key, List<String> source,
+            AtomicInteger sourceCalls) {
+        try (Stream<FileProvenanceReportCache.Record> s = cache.read(key, () -> {
+            sourceCalls.incrementAndGet();
+            return source;
+        }, FileProvenanceReportCacheTest::getRecord, swid -> null)) {
+            return s.map(FileProvenanceReportCache.Record::getReportRecord).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void readThroughTest() throws IOException {
+        String key = FileProvenanceReportCache.getKey(Arrays.asList("settings"), Collections.emptyMap(), Collections.emptyMap());
+        List<Map<String, String>> expected = Arrays.asList(getRecord("1"), getRecord("2"));
+        AtomicInteger sourceCalls = new AtomicInteger();
+
+        //miss - the source is read and a snapshot is written
+        FileProvenanceReportCache cache = new FileProvenanceReportCache(dir, Duration.ofHours(1));
+        assertEquals(readThrough(cache, key, Arrays.asList("1", "2"), sourceCalls), expected);
+        assertEquals(sourceCalls.get(), 1);
+
+        //hit - the snapshot is read
+        assertEquals(readThrough(cache, key, Arrays.asList("3"), sourceCalls), expected);
+        assertEquals(sourceCalls.get(), 1);
+
+        //expired - the source is read again and replaces the snapshot
+        FileProvenanceReportCache expiredCache = new FileProvenanceReportCache(dir, Duration.ofMillis(-1));
+        assertEquals(readThrough(expiredCache, key, Arrays.asList("3"), sourceCalls), Arrays.asList(getRecord("3")));
+        assertEquals(sourceCalls.get(), 2);
+        assertEquals(readThrough(cache, key, Arrays.asList("4"), sourceCalls), Arrays.asList(getRecord("3")));
+        assertEquals(sourceCalls.get(), 2);
+    }
+
+    @Test
+    public void reportRecordCopyTest() throws IOException {
+        FileProvenanceReportCache cache = new FileProvenanceReportCache(dir, Duration.ofHours(1));
+        String key = FileProvenanceReportCache.getKey(Arrays.asList("settings"), Collections.emptyMap(), Collections.emptyMap());
+        try (Stream<FileProvenanceReportCache.Record> s = cache.read(key, () -> Arrays.asList("1"),
+                FileProvenanceReportCacheTest::getRecord, swid -> null)) {
+            FileProvenanceReportCache.Record record = s.findFirst().get();
+            record.getReportRecord().remove("Study Title");
+            assertEquals(record.getReportRecord(), getRecord("1"));
+        }
+    }
+
+    @Test
+    public void partiallyConsumedReadThroughTest() throws IOException {
+        FileProvenanceReportCache cache = new FileProvenanceReportCache(dir, Duration.ofHours(1));
+        String key = FileProvenanceReportCache.getKey(Arrays.asList("settings"), Collections.emptyMap(), Collections.emptyMap());
+        try (Stream<FileProvenanceReportCache.Record> s = cache.read(key, () -> Arrays.asList("1", "2"),
+                FileProvenanceReportCacheTest::getRecord, swid -> null)) {
+            assertEquals(s.findFirst().get().getReportRecord(), getRecord("1"));
+        }
+        assertNull(cache.read(key));
+    }
+
+    @Test
+    public void keyTest() {
+        List<String> settings = Arrays.asList("settings");
+        assertEquals(
+                FileProvenanceReportCache.getKey(settings, ImmutableMap.of(Lims.GROUP_ID, ImmutableSet.of("a", "b")), Collections.emptyMap()),
+                FileProvenanceReportCache.getKey(settings, ImmutableMap.of(Lims.GROUP_ID, ImmutableSet.of("b", "a")), Collections.emptyMap()));
+        assertNotEquals(
+                FileProvenanceReportCache.getKey(settings, ImmutableMap.of(Lims.GROUP_ID, ImmutableSet.of("a")), Collections.emptyMap()),
+                FileProvenanceReportCache.getKey(settings, Collections.emptyMap(), ImmutableMap.of(Lims.GROUP_ID, ImmutableSet.of("a"))));
+    }
+}
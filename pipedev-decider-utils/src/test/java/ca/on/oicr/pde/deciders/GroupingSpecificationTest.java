@@ -0,0 +1,81 @@
+package ca.on.oicr.pde.deciders;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class GroupingSpecificationTest {
+
+    private static ReturnValue getReturnValue(String sample, String lane, String donor, String tissueType) {
+        Map<String, String> atts = new HashMap<>();
+        atts.put(Header.SAMPLE_NAME.getTitle(), sample);
+        atts.put(Header.LANE_NUM.getTitle(), lane);
+        atts.put(Header.PARENT_SAMPLE_NAME.getTitle(), "ROOT:" + donor);
+        atts.put(Header.SAMPLE_TAG_PREFIX.getTitle() + Lims.TISSUE_TYPE.getAttributeTitle(), tissueType);
+        ReturnValue rv = new ReturnValue();
+        rv.setAttributes(atts);
+        return rv;
+    }
+
+    @Test
+    public void headerGroupingTest() {
+        ReturnValue a1 = getReturnValue("A", "1", "D1", "P");
+        ReturnValue a2 = getReturnValue("A", "2", "D1", "R");
+        ReturnValue b1 = getReturnValue("B", null, "D2", "P");
+        ReturnValue a1Copy = getReturnValue("A", "1", "D1", "P");
+
+        Map<String, List<ReturnValue>> groups = GroupingSpecification.of(Arrays.asList(Header.SAMPLE_NAME, Header.LANE_NUM), s -> s)
+                .group(Arrays.asList(a1, a2, b1, a1Copy));
+        assertEquals(groups, ImmutableMap.of(
+                "[Sample Name=A] [Lane Number=1] ", Arrays.asList(a1, a1Copy),
+                "[Sample Name=A] [Lane Number=2] ", Arrays.asList(a2),
+                "[Sample Name=B] [Lane Number=null] ", Arrays.asList(b1)));
+    }
+
+    @Test
+    public void compositeKeyTest() {
+        //values that concatenate to the same string are separate groups, the later group name has its values appended
+        ReturnValue ab = getReturnValue("A", "B", "D1", "P");
+        ReturnValue a = getReturnValue("AB", "", "D1", "P");
+        ReturnValue abCopy = getReturnValue("A", "B", "D2", "R");
+        Map<String, List<ReturnValue>> groups = GroupingSpecification.builder()
+                .header(Header.SAMPLE_NAME)
+                .header(Header.LANE_NUM)
+                .formatter(values -> String.join("", values))
+                .build()
+                .group(Arrays.asList(ab, a, abCopy));
+        assertEquals(groups, ImmutableMap.of(
+                "AB", Arrays.asList(ab, abCopy),
+                "AB[Sample Name=AB] [Lane Number=]", Arrays.asList(a)));
+
+        assertEquals(GroupingSpecification.builder().header(Header.SAMPLE_NAME).header(Header.LANE_NUM).build()
+                .group(Arrays.asList(ab, a)).size(), 2);
+    }
+
+    @Test
+    public void nestedGroupingTest() {
+        ReturnValue a1 = getReturnValue("A", "1", "D1", "P");
+        ReturnValue a2 = getReturnValue("A", "2", "D1", "R");
+        ReturnValue b1 = getReturnValue("B", "1", "D2", "P");
+        GroupingSpecification spec = GroupingSpecification.builder()
+                .donor()
+                .formatter(values -> values.get(0))
+                .thenBy(GroupingSpecification.builder().lims(Lims.TISSUE_TYPE).formatter(values -> values.get(0)).build(), "_")
+                .build();
+
+        assertEquals(spec.group(Arrays.asList(a1, a2, b1)), ImmutableMap.of(
+                "D1_P", Arrays.asList(a1),
+                "D1_R", Arrays.asList(a2),
+                "D2_P", Arrays.asList(b1)));
+        assertEquals(spec.groupNested(Arrays.asList(a1, a2, b1)), ImmutableMap.of(
+                "D1", ImmutableMap.of("P", Arrays.asList(a1), "R", Arrays.asList(a2)),
+                "D2", ImmutableMap.of("P", Arrays.asList(b1))));
+    }
+
+}
@@ -0,0 +1,169 @@
+package ca.on.oicr.pde.deciders;
+
+import io.seqware.common.model.WorkflowRunStatus;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.model.WorkflowRun;
+import net.sourceforge.seqware.common.model.WorkflowRunAttribute;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class IncrementalDeciderStateTest {
+
+    private Path dir;
+    private Path stateFile;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("incremental-state");
+        stateFile = dir.resolve("state.gz");
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(stateFile);
+        Files.delete(dir);
+    }
+
+    private static ReturnValue getReturnValue(String swid, String lastModified) {
+        Map<String, String> atts = new HashMap<>();
+        atts.put(Header.FILE_SWA.getTitle(), swid);
+        atts.put("Last Modified", lastModified);
+        ReturnValue rv = new ReturnValue();
+        rv.setAttributes(atts);
+        return rv;
+    }
+
+    private static WorkflowRun getWorkflowRun(int swid, WorkflowRunStatus status, String... annotations) {
+        Set<WorkflowRunAttribute> workflowRunAttributes = new HashSet<>();
+        for (String annotation : annotations) {
+            workflowRunAttributes.add(new WorkflowRunAttribute() {
+                @Override
+                public String getTag() {
+                    return annotation;
+                }
+
+                @Override
+                public String getValue() {
+                    return "";
+                }
+            });
+        }
+        return new WorkflowRun() {
+            @Override
+            public Integer getSwAccession() {
+                return swid;
+            }
+
+            @Override
+            public WorkflowRunStatus getStatus() {
+                return status;
+            }
+
+            @Override
+            public Set<Integer> getInputFileAccessions() {
+                return new HashSet<>(Arrays.asList(1, 2));
+            }
+
+            @Override
+            public Set<WorkflowRunAttribute> getAnnotations() {
+                return workflowRunAttributes;
+            }
+        };
+    }
+
+    private static Function<Collection<Integer>, List<WorkflowRun>> workflowRuns(WorkflowRun... workflowRuns) {
+        return fileSwids -> Arrays.asList(workflowRuns);
+    }
+
+    private static final WorkflowRun BLOCKING_RUN = getWorkflowRun(50, WorkflowRunStatus.completed);
+
+    private static IncrementalDeciderState writeState(Path stateFile, String key, List<ReturnValue> files) throws IOException {
+        IncrementalDeciderState state = IncrementalDeciderState.read(stateFile, key);
+        files.forEach(state::observe);
+        //a file outside of the group advances the watermark
+        state.observe(getReturnValue("100", "2018-01-02 10:30:00.000"));
+        state.recordPreviouslyRun("group", files, BLOCKING_RUN);
+        state.recordNotRunnable("not runnable group", files);
+        state.write(stateFile);
+        return state;
+    }
+
+    @Test
+    public void unchangedGroupTest() throws IOException {
+        String key = IncrementalDeciderState.getKey(Arrays.asList("settings"));
+        ReturnValue file1 = getReturnValue("1", "2018-01-01 10:00:00.000");
+        ReturnValue file2 = getReturnValue("2", "2018-01-02 09:00:00.000");
+        writeState(stateFile, key, Arrays.asList(file1, file2));
+
+        IncrementalDeciderState state = IncrementalDeciderState.read(stateFile, key);
+        assertEquals(state.getPreviousDecision("group"), IncrementalDeciderState.Decision.PREVIOUSLY_RUN);
+        assertTrue(state.isUnchanged("group", Arrays.asList(file2, file1), workflowRuns(getWorkflowRun(40, WorkflowRunStatus.failed),
+                getWorkflowRun(50, WorkflowRunStatus.completed))));
+        assertFalse(state.isUnchanged("other group", Arrays.asList(file1, file2), workflowRuns(BLOCKING_RUN)));
+        //the workflow runs are only needed for groups that were blocked by a workflow run
+        assertTrue(state.isUnchanged("not runnable group", Arrays.asList(file1, file2), fileSwids -> {
+            throw new AssertionError("Unexpected workflow run lookup");
+        }));
+
+        //unchanged groups are carried forward to the next state
+        state.write(stateFile);
+        assertTrue(IncrementalDeciderState.read(stateFile, key).isUnchanged("group", Arrays.asList(file1, file2),
+                workflowRuns(BLOCKING_RUN)));
+    }
+
+    @Test
+    public void changedGroupTest() throws IOException {
+        String key = IncrementalDeciderState.getKey(Arrays.asList("settings"));
+        ReturnValue file1 = getReturnValue("1", "2018-01-01 10:00:00.000");
+        ReturnValue file2 = getReturnValue("2", "2018-01-02 09:00:00.000");
+        writeState(stateFile, key, Arrays.asList(file1, file2));
+
+        IncrementalDeciderState state = IncrementalDeciderState.read(stateFile, key);
+        Function<Collection<Integer>, List<WorkflowRun>> workflowRuns = workflowRuns(BLOCKING_RUN);
+        //new member file
+        assertFalse(state.isUnchanged("group", Arrays.asList(file1, file2, getReturnValue("3", "2018-01-01 10:00:00.000")), workflowRuns));
+        //modified after the watermark
+        assertFalse(state.isUnchanged("group", Arrays.asList(file1, getReturnValue("2", "2018-01-03 09:00:00.000")), workflowRuns));
+        //modified within the watermark overlap
+        assertFalse(state.isUnchanged("group", Arrays.asList(file1, getReturnValue("2", "2018-01-02 10:00:00.000")), workflowRuns));
+        //unknown last modified
+        assertFalse(state.isUnchanged("group", Arrays.asList(file1, getReturnValue("2", "")), workflowRuns));
+
+        //different settings discard the previous state
+        IncrementalDeciderState otherSettingsState = IncrementalDeciderState.read(stateFile,
+                IncrementalDeciderState.getKey(Arrays.asList("other")));
+        assertNull(otherSettingsState.getPreviousDecision("group"));
+        assertFalse(otherSettingsState.isUnchanged("group", Arrays.asList(file1, file2), workflowRuns));
+    }
+
+    @Test
+    public void changedBlockingWorkflowRunTest() throws IOException {
+        String key = IncrementalDeciderState.getKey(Arrays.asList("settings"));
+        List<ReturnValue> files = Arrays.asList(getReturnValue("1", "2018-01-01 10:00:00.000"), getReturnValue("2", "2018-01-02 09:00:00.000"));
+        writeState(stateFile, key, files);
+
+        IncrementalDeciderState state = IncrementalDeciderState.read(stateFile, key);
+        //the blocking workflow run is no longer found (e.g. it was filtered out by its annotations)
+        assertFalse(state.isUnchanged("group", files, fileSwids -> Collections.emptyList()));
+        //the blocking workflow run status changed
+        assertFalse(state.isUnchanged("group", files, workflowRuns(getWorkflowRun(50, WorkflowRunStatus.failed))));
+        //the blocking workflow run was annotated
+        assertFalse(state.isUnchanged("group", files, workflowRuns(getWorkflowRun(50, WorkflowRunStatus.completed, "skip"))));
+    }
+
+}
@@ -0,0 +1,33 @@
+package ca.on.oicr.pde.deciders;
+
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class LimsAttributeClassifierTest {
+
+    private static boolean regexMatches(String key, Lims lims) {
+        return key.matches(".*" + lims.getAttributeTitle() + "[^_]*");
+    }
+
+    @Test
+    public void regexEquivalenceTest() {
+        String[] keys = new String[]{
+            "sample.geo_tissue_type", "parent_sample.geo_tissue_type.1", "sample.geo_tissue_type_other", "geo_tissue_type",
+            "sample.geo_tissue_origin", "sample.geo_template_type", "sample.geo_template_type_other", "sample.geo_template_id",
+            "geo_tissue_type.geo_tissue_type_x", "geo_tissue_type_x.geo_tissue_type", "sample.geo_library_source_template_type",
+            "study.skip", "", "geo_tissue_typ"};
+        for (String key : keys) {
+            for (Lims lims : Lims.values()) {
+                assertEquals(LimsAttributeClassifier.matches(key, lims), regexMatches(key, lims), key + " " + lims);
+            }
+        }
+    }
+
+    @Test
+    public void classifyTest() {
+        assertEquals(LimsAttributeClassifier.classify("sample.geo_tissue_type.1"), new Lims[]{Lims.TISSUE_TYPE});
+        assertSame(LimsAttributeClassifier.classify("sample.geo_tissue_type.1"), LimsAttributeClassifier.classify("sample.geo_tissue_type.1"));
+        assertEquals(LimsAttributeClassifier.classify("sample.geo_tissue_type_other").length, 0);
+    }
+
+}
@@ -0,0 +1,112 @@
+package ca.on.oicr.pde.deciders;
+
+import ca.on.oicr.pde.deciders.GroupableFileFactory.GroupableFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.FileMetadata;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import org.apache.logging.log4j.LogManager;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class MergingDeciderTest {
+
+    private final GroupableFileFactory groupableFileFactory = new GroupableFileFactory();
+
+    private static ReturnValue getReturnValue(int fileSwid, String lane, String processingDate, String tissueType, String tissuePrep) {
+        Map<String, String> atts = new HashMap<>();
+        atts.put(Header.FILE_SWA.getTitle(), Integer.toString(fileSwid));
+        atts.put(Header.SAMPLE_NAME.getTitle(), "TEST_0001_Pa_P_PE_300_WG");
+        atts.put(Header.PARENT_SAMPLE_NAME.getTitle(), "TEST_0001");
+        atts.put(Header.SEQUENCER_RUN_NAME.getTitle(), "RUN_0001");
+        atts.put(Header.LANE_NUM.getTitle(), lane);
+        atts.put(Header.IUS_TAG.getTitle(), "NoIndex");
+        atts.put(Header.WORKFLOW_NAME.getTitle(), "BamMergeWorkflow");
+        atts.put(Header.PROCESSING_DATE.getTitle(), processingDate);
+        if (tissueType != null) {
+            atts.put(Header.SAMPLE_TAG_PREFIX.getTitle() + Lims.TISSUE_TYPE.getAttributeTitle(), tissueType);
+        }
+        if (tissuePrep != null) {
+            atts.put(Header.SAMPLE_TAG_PREFIX.getTitle() + Lims.TISSUE_PREP.getAttributeTitle(), tissuePrep);
+        }
+        FileMetadata fm = new FileMetadata();
+        fm.setFilePath("/tmp/" + fileSwid + ".bam");
+        ReturnValue rv = new ReturnValue();
+        rv.setAttributes(atts);
+        rv.setFiles(new ArrayList<>(Arrays.asList(fm)));
+        return rv;
+    }
+
+    private Map<ReturnValue, GroupableFile> getGroupableFiles(ReturnValue... rvs) {
+        Map<ReturnValue, GroupableFile> files = new IdentityHashMap<>();
+        for (ReturnValue rv : rvs) {
+            files.put(rv, groupableFileFactory.getGroupableFile(rv));
+        }
+        return files;
+    }
+
+    @Test
+    public void mostRecentFileTest() {
+        ReturnValue lane1 = getReturnValue(1, "1", "2018-01-01 00:00:00.0", "R", null);
+        ReturnValue lane2 = getReturnValue(2, "2", "2018-01-01 00:00:00.0", "R", null);
+        ReturnValue lane1Newer = getReturnValue(3, "1", "2018-02-01 00:00:00.0", "R", null);
+        ReturnValue lane1Older = getReturnValue(4, "1", "2017-01-01 00:00:00.0", "R", null);
+        Map<ReturnValue, GroupableFile> files = getGroupableFiles(lane1, lane2, lane1Newer, lane1Older);
+
+        List<ReturnValue> mostRecentFiles = new MergingDeciderImpl().getMostRecentFiles(Arrays.asList(
+                files.get(lane1), files.get(lane2), files.get(lane1Newer), files.get(lane1Older)));
+
+        //the newest lane 1 file replaces the first lane 1 file in its position
+        assertEquals(mostRecentFiles.size(), 2);
+        assertSame(mostRecentFiles.get(0), lane1Newer);
+        assertSame(mostRecentFiles.get(1), lane2);
+    }
+
+    @Test
+    public void groupKeyTest() {
+        //a missing tissue type with tissue prep "P" and tissue type "P" with a missing tissue prep have the same legacy group name
+        ReturnValue prep = getReturnValue(1, "1", "2018-01-01 00:00:00.0", null, "P");
+        ReturnValue type = getReturnValue(2, "2", "2018-01-01 00:00:00.0", "P", null);
+        ReturnValue typeLane3 = getReturnValue(3, "3", "2018-01-01 00:00:00.0", "P", null);
+        Map<ReturnValue, GroupableFile> files = getGroupableFiles(prep, type, typeLane3);
+        assertEquals(files.get(prep).getGroupByAttribute(), files.get(type).getGroupByAttribute());
+        assertNotEquals(files.get(prep).getGroupKey(), files.get(type).getGroupKey());
+
+        Map<String, List<ReturnValue>> groups = groupableFileFactory.getGroupingSpecification(files::get)
+                .group(Arrays.asList(prep, type, typeLane3));
+        assertEquals(groups.size(), 2);
+        List<String> groupNames = new ArrayList<>(groups.keySet());
+        assertEquals(groupNames.get(0), files.get(prep).getGroupByAttribute());
+        assertTrue(groupNames.get(1).startsWith(files.get(type).getGroupByAttribute()));
+        assertEquals(groups.get(groupNames.get(0)), Arrays.asList(prep));
+        assertEquals(groups.get(groupNames.get(1)), Arrays.asList(type, typeLane3));
+    }
+
+    private static class MergingDeciderImpl extends MergingDecider {
+
+        MergingDeciderImpl() {
+            super(LogManager.getLogger(MergingDeciderImpl.class));
+        }
+
+        @Override
+        protected boolean checkFilePassesFilterBeforeGrouping(FileAttributes fileAttributes) {
+            return true;
+        }
+
+        @Override
+        protected boolean checkFilePassesFilterAfterGrouping(FileAttributes fileAttributes) {
+            return true;
+        }
+
+        @Override
+        protected ReturnValue customizeWorkflowRun(WorkflowRun run) {
+            return new ReturnValue();
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package ca.on.oicr.pde.deciders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class NestedGroupingDeciderTest {
+
+    private static ReturnValue getFile(String parentSampleName, String templateType, String groupId) {
+        ReturnValue rv = new ReturnValue();
+        rv.setAttribute(Header.PARENT_SAMPLE_NAME.getTitle(), parentSampleName);
+        rv.setAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_library_source_template_type", templateType);
+        if (groupId != null) {
+            rv.setAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_group_id", groupId);
+        }
+        return rv;
+    }
+
+    @Test
+    public void separateFilesTest() {
+        ReturnValue a = getFile("TEST_0001:TEST_0001_Pa_P", "WG", null);
+        ReturnValue b = getFile("TEST_0002:TEST_0001_Pa_P", "WG", null);
+        ReturnValue c = getFile("TEST_0001_Pa_P", "WG", null);
+        ReturnValue d = getFile("TEST_0001:TEST_0001_Pa_P", "EX", null);
+        ReturnValue e = getFile("TEST_0001:TEST_0001_Pa_P", "WG", "g1");
+
+        Map<String, List<ReturnValue>> groups = new NestedGroupingDecider()
+                .separateFiles(Arrays.asList(a, b, c, d, e), Header.PARENT_SAMPLE_NAME.getTitle());
+
+        // parent names that only differ before the last ":" are in the same group, as before the grouping specification was used
+        assertEquals(new ArrayList<>(groups.keySet()), Arrays.asList("TEST_0001_Pa_P:WG", "TEST_0001_Pa_P:EX", "TEST_0001_Pa_P:WG:g1"));
+        assertEquals(groups.get("TEST_0001_Pa_P:WG"), Arrays.asList(a, b, c));
+        assertEquals(groups.get("TEST_0001_Pa_P:EX"), Arrays.asList(d));
+        assertEquals(groups.get("TEST_0001_Pa_P:WG:g1"), Arrays.asList(e));
+    }
+
+}
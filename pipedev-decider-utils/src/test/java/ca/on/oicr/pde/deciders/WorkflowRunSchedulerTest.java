@@ -0,0 +1,195 @@
+package ca.on.oicr.pde.deciders;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sourceforge.seqware.pipeline.runner.PluginRunner;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class WorkflowRunSchedulerTest {
+
+    @Test
+    public void synchronousTest() {
+        List<String> scheduled = new ArrayList<>();
+        List<String> callbacks = new ArrayList<>();
+        DeciderMetrics metrics = new DeciderMetrics("test");
+        try (WorkflowRunScheduler scheduler = new WorkflowRunScheduler(1, 0, Duration.ZERO, () -> new StubPluginRunner(scheduled), metrics)) {
+            scheduler.submit(Arrays.asList("a"), "a", () -> callbacks.add("a"));
+            // the workflow run is scheduled before submit returns
+            assertEquals(callbacks, Arrays.asList("a"));
+            assertEquals(scheduler.getInFlight(), 0);
+            scheduler.submit(Arrays.asList("b"), "b", () -> callbacks.add("b"));
+        }
+        assertEquals(scheduled, Arrays.asList("a", "b"));
+        assertEquals(callbacks, Arrays.asList("a", "b"));
+    }
+
+    @Test(timeOut = 10000)
+    public void concurrencyTest() {
+        // every run waits until all three runs have started, so this only completes if they are scheduled concurrently
+        CountDownLatch started = new CountDownLatch(3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<String> callbacks = new ArrayList<>();
+        try (WorkflowRunScheduler scheduler = new WorkflowRunScheduler(3, 0, Duration.ZERO, () -> new PluginRunner() {
+            @Override
+            public void run(String[] args) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                await(started);
+                running.decrementAndGet();
+            }
+        }, new DeciderMetrics("test"))) {
+            for (String run : Arrays.asList("a", "b", "c", "d", "e", "f")) {
+                scheduler.submit(Arrays.asList(run), run, () -> callbacks.add(run));
+                assertTrue(scheduler.getInFlight() <= 3);
+            }
+        }
+        assertEquals(maxRunning.get(), 3);
+        assertEquals(callbacks, Arrays.asList("a", "b", "c", "d", "e", "f"));
+    }
+
+    @Test(timeOut = 10000)
+    public void orderingTest() {
+        // "a" only completes after "b" and "c" have completed
+        CountDownLatch laterRunsDone = new CountDownLatch(2);
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        List<String> callbacks = new ArrayList<>();
+        try (WorkflowRunScheduler scheduler = new WorkflowRunScheduler(3, 0, Duration.ZERO, () -> new PluginRunner() {
+            @Override
+            public void run(String[] args) {
+                if ("a".equals(args[0])) {
+                    await(laterRunsDone);
+                } else {
+                    laterRunsDone.countDown();
+                }
+                completed.add(args[0]);
+            }
+        }, new DeciderMetrics("test"))) {
+            for (String run : Arrays.asList("a", "b", "c")) {
+                scheduler.submit(Arrays.asList(run), run, () -> callbacks.add(run));
+            }
+            scheduler.awaitScheduled();
+            assertEquals(scheduler.getInFlight(), 0);
+        }
+        assertEquals(completed.get(2), "a");
+        assertEquals(callbacks, Arrays.asList("a", "b", "c"));
+    }
+
+    @Test(timeOut = 10000)
+    public void failureTest() {
+        List<String> callbacks = new ArrayList<>();
+        DeciderMetrics metrics = new DeciderMetrics("test");
+        WorkflowRunScheduler scheduler = new WorkflowRunScheduler(2, 0, Duration.ZERO, () -> new PluginRunner() {
+            @Override
+            public void run(String[] args) {
+                if ("b".equals(args[0]) || "d".equals(args[0])) {
+                    throw new IllegalStateException(args[0]);
+                }
+            }
+        }, metrics);
+        scheduler.submit(Arrays.asList("a"), "a", () -> callbacks.add("a"));
+        scheduler.submit(Arrays.asList("b"), "b", () -> callbacks.add("b"));
+        scheduler.awaitNext();
+        try {
+            scheduler.awaitNext();
+            fail("Expected the failure of \"b\"");
+        } catch (IllegalStateException ex) {
+            assertEquals(ex.getMessage(), "b");
+        }
+        scheduler.submit(Arrays.asList("c"), "c", () -> callbacks.add("c"));
+        scheduler.submit(Arrays.asList("d"), "d", () -> callbacks.add("d"));
+        try {
+            scheduler.close();
+            fail("Expected the failure of \"d\"");
+        } catch (IllegalStateException ex) {
+            assertEquals(ex.getMessage(), "d");
+        }
+        // only the workflow runs that were scheduled are reported
+        assertEquals(callbacks, Arrays.asList("a", "c"));
+        assertEquals(metrics.getCount("schedulingFailures"), 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void retryTest() {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        List<String> callbacks = new ArrayList<>();
+        DeciderMetrics metrics = new DeciderMetrics("test");
+        try (WorkflowRunScheduler scheduler = new WorkflowRunScheduler(2, 2, Duration.ZERO, () -> new PluginRunner() {
+            @Override
+            public void run(String[] args) {
+                // checked exceptions (e.g. from the web service client) are retried as well
+                if (attempts.computeIfAbsent(args[0], k -> new AtomicInteger()).incrementAndGet() < 3) {
+                    WorkflowRunSchedulerTest.<RuntimeException>sneakyThrow(new java.io.IOException(args[0]));
+                }
+            }
+        }, metrics)) {
+            for (String run : Arrays.asList("a", "b")) {
+                scheduler.submit(Arrays.asList(run), run, () -> callbacks.add(run));
+            }
+        }
+        assertEquals(attempts.get("a").get(), 3);
+        assertEquals(attempts.get("b").get(), 3);
+        assertEquals(callbacks, Arrays.asList("a", "b"));
+        assertEquals(metrics.getCount("schedulingRetries"), 4);
+        assertEquals(metrics.getCount("schedulingFailures"), 0);
+    }
+
+    @Test
+    public void retriesExhaustedTest() {
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> callbacks = new ArrayList<>();
+        try (WorkflowRunScheduler scheduler = new WorkflowRunScheduler(1, 1, Duration.ZERO, () -> new PluginRunner() {
+            @Override
+            public void run(String[] args) {
+                attempts.incrementAndGet();
+                WorkflowRunSchedulerTest.<RuntimeException>sneakyThrow(new java.io.IOException(args[0]));
+            }
+        }, new DeciderMetrics("test"))) {
+            scheduler.submit(Arrays.asList("a"), "a", () -> callbacks.add("a"));
+            fail("Expected the failure of \"a\"");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof java.io.IOException);
+        }
+        assertEquals(attempts.get(), 2);
+        assertTrue(callbacks.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out");
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
+    private static class StubPluginRunner extends PluginRunner {
+
+        private final List<String> scheduled;
+
+        private StubPluginRunner(List<String> scheduled) {
+            this.scheduled = scheduled;
+        }
+
+        @Override
+        public void run(String[] args) {
+            scheduled.add(args[0]);
+        }
+    }
+
+}
@@ -1,23 +1,32 @@
 package ca.on.oicr.gsi.fileprovenance;
 
-import ca.on.oicr.gsi.provenance.AnalysisProvenanceProvider;
+import ca.on.oicr.gsi.provenance.ConcurrentProvenanceProviders;
 import ca.on.oicr.gsi.provenance.DefaultProvenanceClient;
-import ca.on.oicr.gsi.provenance.LaneProvenanceProvider;
 import ca.on.oicr.gsi.provenance.MultiThreadedDefaultProvenanceClient;
 import ca.on.oicr.gsi.provenance.ProviderLoader;
-import ca.on.oicr.gsi.provenance.SampleProvenanceProvider;
 import ca.on.oicr.gsi.provenance.model.FileProvenance;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.google.common.collect.Streams;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
@@ -32,9 +41,11 @@ import org.apache.logging.log4j.LogManager;
  *
  * @author mlaszloffy
  */
-public class Client {
+public class Client implements AutoCloseable {
 
     private final DefaultProvenanceClient dpc;
+    private final ConcurrentProvenanceProviders providers;
+    private final CompletableFuture<Void> prefetch;
     private final Logger log = LogManager.getLogger(Client.class);
 
     public Client(String providerSettings) {
@@ -45,16 +56,10 @@ public class Client {
             throw new RuntimeException(ex);
         }
 
+        providers = new ConcurrentProvenanceProviders(providerLoader);
         dpc = new MultiThreadedDefaultProvenanceClient();
-        for (Entry<String, AnalysisProvenanceProvider> e : providerLoader.getAnalysisProvenanceProviders().entrySet()) {
-            dpc.registerAnalysisProvenanceProvider(e.getKey(), e.getValue());
-        }
-        for (Entry<String, LaneProvenanceProvider> e : providerLoader.getLaneProvenanceProviders().entrySet()) {
-            dpc.registerLaneProvenanceProvider(e.getKey(), e.getValue());
-        }
-        for (Entry<String, SampleProvenanceProvider> e : providerLoader.getSampleProvenanceProviders().entrySet()) {
-            dpc.registerSampleProvenanceProvider(e.getKey(), e.getValue());
-        }
+        providers.registerWith(dpc);
+        prefetch = providers.prefetch();
     }
 
     public static Map<FileProvenanceFilter, Set<String>> getDefaultFilters() {
@@ -70,9 +75,75 @@ public class Client {
         log.info("Starting download of file provenance");
         Collection<FileProvenance> fps = dpc.getFileProvenance(filters);
         log.info("Completed download of " + fps.size() + " file provenance records in " + sw.stop());
+        log.info("Provenance provider latencies: " + providers.getLatencySummary());
+        // the file provenance request loaded the provenance again if the prefetch failed
+        try {
+            prefetch.join();
+        } catch (CompletionException ex) {
+            log.warn("Provenance prefetch failed", ex.getCause());
+        }
         return fps;
     }
 
+    /**
+     * Get the file provenance records as a stream that releases each record once it has been consumed.
+     * <p>
+     * The provenance client returns the complete download as a collection, so the records are streamed from that collection rather
+     * than copied, and each record can be garbage collected as soon as it has been written.
+     *
+     * @param filters the file provenance filters
+     *
+     * @return the file provenance records, in the order returned by the provenance client
+     */
+    public Stream<FileProvenance> getFileProvenanceStream(Map<FileProvenanceFilter, Set<String>> filters) {
+        return Streams.stream(releasingIterator(getFileProvenance(filters)));
+    }
+
+    static <T> Iterator<T> releasingIterator(Collection<T> c) {
+        if (c instanceof Queue) {
+            return Iterators.consumingIterator(c.iterator());
+        }
+        if (!(c instanceof List) || !(c instanceof RandomAccess)) {
+            return c.iterator();
+        }
+        List<T> list = (List<T>) c;
+        return new Iterator<T>() {
+            private int index = 0;
+            private boolean releasable = true;
+
+            @Override
+            public boolean hasNext() {
+                return index < list.size();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T t = list.get(index);
+                if (releasable) {
+                    try {
+                        list.set(index, null);
+                    } catch (UnsupportedOperationException ex) {
+                        //read only list, the records are released with the list
+                        releasable = false;
+                    }
+                }
+                index++;
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Shut down the provider request executor.
+     */
+    @Override
+    public void close() {
+        providers.close();
+    }
+
     public static void main(String[] args) throws IOException {
         OptionParser parser = new OptionParser();
         OptionSpec<Void> helpOpt = parser.accepts("help").forHelp();
@@ -81,6 +152,13 @@ public class Client {
         OptionSpec<Void> allOpt = parser.accepts("all",
                 "Get all records rather than only the records that pass the default filters: [processing status = success, workflow run status = completed, skip = false]");
         OptionSpec<Boolean> outputJsonOpt = parser.accepts("json", "Output report as json (default: tsv)").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+        OptionSpec<Void> outputColumnarOpt = parser.accepts("columnar", "Output report as a memory-mappable columnar snapshot that can be read with "
+                + ColumnarFileProvenanceReader.class.getSimpleName() + " (default: tsv)");
+        OptionSpec<Integer> threadsOpt = parser.accepts("threads", "Number of threads used to format the tsv report").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<Void> gzipOpt = parser.accepts("gzip", "Gzip compress the tsv report");
+        OptionSpec<Integer> recordsPerFileOpt = parser.accepts("records-per-file",
+                "Split the tsv report into files of at most this many records, the file number is inserted before the output file extension (default: no split)")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(0);
 
         Map<String, OptionSpec<String>> filterOpts = new HashMap<>();
         for (FileProvenanceFilter fpp : FileProvenanceFilter.values()) {
@@ -107,9 +185,6 @@ public class Client {
         }
 
         Path outputFilePath = Paths.get(options.valueOf(outOpt));
-        if (Files.exists(outputFilePath)) {
-            throw new RuntimeException("Output file [" + outputFilePath.toString() + "] already exists");
-        }
 
         Map<FileProvenanceFilter, Set<String>> filters = new HashMap<>();
         for (Entry<String, OptionSpec<String>> e : filterOpts.entrySet()) {
@@ -122,14 +197,27 @@ public class Client {
         }
 
         ReportBuilder reportBuilder;
-        if (options.has(outputJsonOpt)) {
+        if ((options.has(outputColumnarOpt) || options.has(outputJsonOpt))
+                && (options.has(threadsOpt) || options.has(gzipOpt) || options.has(recordsPerFileOpt))) {
+            throw new RuntimeException("The threads, gzip and records-per-file options are only supported for tsv reports");
+        }
+        if (options.has(outputColumnarOpt)) {
+            reportBuilder = new ColumnarReportBuilder();
+        } else if (options.has(outputJsonOpt)) {
             reportBuilder = new JsonReportBuilder();
         } else {
-            reportBuilder = new TsvReportBuilder();
+            reportBuilder = new TsvReportBuilder(options.valueOf(threadsOpt), options.has(gzipOpt), options.valueOf(recordsPerFileOpt));
+        }
+        try {
+            reportBuilder.checkOutputFilePath(outputFilePath);
+        } catch (FileAlreadyExistsException ex) {
+            throw new RuntimeException("Output file [" + ex.getFile() + "] already exists");
         }
 
-        Client client = new Client(FileUtils.readFileToString(providerSettingFile.toFile()));
-        reportBuilder.writeReport(client.getFileProvenance(filters), outputFilePath);
+        try (Client client = new Client(FileUtils.readFileToString(providerSettingFile.toFile()));
+                Stream<FileProvenance> fps = client.getFileProvenanceStream(filters)) {
+            reportBuilder.writeReport(fps, outputFilePath);
+        }
     }
 
 }
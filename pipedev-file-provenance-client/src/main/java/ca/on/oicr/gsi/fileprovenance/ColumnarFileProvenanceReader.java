@@ -0,0 +1,406 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.FileProvenanceFilter;
+import com.google.common.primitives.Ints;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Read-only, memory-mapped access to a file provenance snapshot written by {@link ColumnarReportBuilder}.
+ * <p>
+ * Opening a snapshot only reads the footer and maps the dictionary and column sections, values are decoded from the mapped
+ * sections when they are accessed. Records can be selected with the same {@link FileProvenanceFilter} map that is used to query
+ * the provenance providers - filter values are resolved to dictionary codes once and then matched against the mapped columns.
+ * <p>
+ * Instances are safe for use by multiple threads. The mapped sections are released when the reader is garbage collected.
+ */
+public class ColumnarFileProvenanceReader {
+
+    private static final Map<FileProvenanceFilter, List<FileProvenanceColumn>> FILTER_COLUMNS = new EnumMap<>(FileProvenanceFilter.class);
+
+    static {
+        FILTER_COLUMNS.put(FileProvenanceFilter.study, Arrays.asList(FileProvenanceColumn.STUDY_TITLES));
+        FILTER_COLUMNS.put(FileProvenanceFilter.sample, Arrays.asList(FileProvenanceColumn.SAMPLE_NAMES, FileProvenanceColumn.LIMS_IDS));
+        FILTER_COLUMNS.put(FileProvenanceFilter.root_sample, Arrays.asList(FileProvenanceColumn.ROOT_SAMPLE_NAMES));
+        FILTER_COLUMNS.put(FileProvenanceFilter.sequencer_run, Arrays.asList(FileProvenanceColumn.SEQUENCER_RUN_NAMES));
+        FILTER_COLUMNS.put(FileProvenanceFilter.lane, Arrays.asList(FileProvenanceColumn.LANE_NUMBERS));
+        FILTER_COLUMNS.put(FileProvenanceFilter.ius, Arrays.asList(FileProvenanceColumn.IUS_SWIDS));
+        FILTER_COLUMNS.put(FileProvenanceFilter.organism, Arrays.asList(FileProvenanceColumn.SAMPLE_ORGANISM_IDS));
+        FILTER_COLUMNS.put(FileProvenanceFilter.processing, Arrays.asList(FileProvenanceColumn.PROCESSING_SWID));
+        FILTER_COLUMNS.put(FileProvenanceFilter.processing_status, Arrays.asList(FileProvenanceColumn.PROCESSING_STATUS));
+        FILTER_COLUMNS.put(FileProvenanceFilter.workflow, Arrays.asList(FileProvenanceColumn.WORKFLOW_SWID));
+        FILTER_COLUMNS.put(FileProvenanceFilter.workflow_run, Arrays.asList(FileProvenanceColumn.WORKFLOW_RUN_SWID));
+        FILTER_COLUMNS.put(FileProvenanceFilter.workflow_run_status, Arrays.asList(FileProvenanceColumn.WORKFLOW_RUN_STATUS));
+        FILTER_COLUMNS.put(FileProvenanceFilter.file, Arrays.asList(FileProvenanceColumn.FILE_SWID));
+        FILTER_COLUMNS.put(FileProvenanceFilter.file_meta_type, Arrays.asList(FileProvenanceColumn.FILE_META_TYPE));
+        FILTER_COLUMNS.put(FileProvenanceFilter.skip, Arrays.asList(FileProvenanceColumn.SKIP));
+    }
+
+    private final int size;
+    private final ByteBuffer dictionary;
+    private final int dictionarySize;
+    private final int dictionaryBytesStart;
+    private final Map<FileProvenanceColumn, ByteBuffer> columns = new EnumMap<>(FileProvenanceColumn.class);
+
+    private ColumnarFileProvenanceReader(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < 2 * Integer.BYTES + ColumnarReportBuilder.TRAILER_LENGTH) {
+            throw new IOException("File is not a columnar file provenance snapshot");
+        }
+        ByteBuffer header = read(channel, 0, 2 * Integer.BYTES);
+        ByteBuffer trailer = read(channel, fileSize - ColumnarReportBuilder.TRAILER_LENGTH, ColumnarReportBuilder.TRAILER_LENGTH);
+        long footerOffset = trailer.getLong();
+        if (header.getInt() != ColumnarReportBuilder.MAGIC || trailer.getInt() != ColumnarReportBuilder.MAGIC) {
+            throw new IOException("File is not a columnar file provenance snapshot");
+        }
+        int version = header.getInt();
+        if (version != ColumnarReportBuilder.VERSION) {
+            throw new IOException("Unsupported columnar file provenance snapshot version [" + version + "]");
+        }
+
+        ByteBuffer footer = read(channel, footerOffset, fileSize - ColumnarReportBuilder.TRAILER_LENGTH - footerOffset);
+        size = footer.getInt();
+        dictionary = map(channel, footer.getLong(), footer.getLong());
+        dictionarySize = dictionary.getInt(0);
+        dictionaryBytesStart = Integer.BYTES * (dictionarySize + 2);
+
+        int columnCount = footer.getInt();
+        for (int i = 0; i < columnCount; i++) {
+            String name = readUTF(footer);
+            int kind = footer.get();
+            long offset = footer.getLong();
+            long length = footer.getLong();
+
+            //columns written by a newer version that are not known to this reader are ignored
+            FileProvenanceColumn column;
+            try {
+                column = FileProvenanceColumn.valueOf(name);
+            } catch (IllegalArgumentException ex) {
+                continue;
+            }
+            if (column.getKind().ordinal() != kind) {
+                throw new IOException("Column [" + name + "] has an unexpected kind");
+            }
+            columns.put(column, map(channel, offset, length));
+        }
+    }
+
+    /**
+     * Open a columnar file provenance snapshot.
+     *
+     * @param path the snapshot written by {@link ColumnarReportBuilder}
+     *
+     * @return the reader
+     *
+     * @throws IOException if the file can not be read or is not a supported snapshot
+     */
+    public static ColumnarFileProvenanceReader open(Path path) throws IOException {
+        //mapped buffers remain valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ColumnarFileProvenanceReader(channel);
+        }
+    }
+
+    /**
+     * @return the number of records in the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the columns available in the snapshot
+     */
+    public Set<FileProvenanceColumn> getColumns() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * @return the filters that are supported by {@link #find(Map)}
+     */
+    public static Set<FileProvenanceFilter> getSupportedFilters() {
+        return Collections.unmodifiableSet(FILTER_COLUMNS.keySet());
+    }
+
+    public Integer getInt(FileProvenanceColumn column, int record) {
+        ByteBuffer b = getColumn(column, FileProvenanceColumn.Kind.INT, record);
+        if (b == null) {
+            return null;
+        }
+        int value = b.getInt(record * Integer.BYTES);
+        return value == ColumnarReportBuilder.NULL_INT ? null : value;
+    }
+
+    public String getString(FileProvenanceColumn column, int record) {
+        ByteBuffer b = getColumn(column, FileProvenanceColumn.Kind.STRING, record);
+        return b == null ? null : decode(b.getInt(record * Integer.BYTES));
+    }
+
+    public List<String> getStrings(FileProvenanceColumn column, int record) {
+        ByteBuffer b = getColumn(column, FileProvenanceColumn.Kind.LIST, record);
+        if (b == null) {
+            return Collections.emptyList();
+        }
+        int start = codesStart(b, record);
+        int end = codesEnd(b, record);
+        List<String> values = new ArrayList<>(end - start);
+        for (int i = start; i < end; i += Integer.BYTES) {
+            values.add(decode(b.getInt(i)));
+        }
+        return values;
+    }
+
+    public SortedMap<String, SortedSet<String>> getAttributes(FileProvenanceColumn column, int record) {
+        ByteBuffer b = getColumn(column, FileProvenanceColumn.Kind.ATTRIBUTES, record);
+        SortedMap<String, SortedSet<String>> attributes = new TreeMap<>();
+        if (b == null) {
+            return attributes;
+        }
+        int end = codesEnd(b, record);
+        for (int i = codesStart(b, record); i < end; i += 2 * Integer.BYTES) {
+            String key = decode(b.getInt(i));
+            String value = decode(b.getInt(i + Integer.BYTES));
+            SortedSet<String> values = attributes.get(key);
+            if (values == null) {
+                values = new TreeSet<>();
+                attributes.put(key, values);
+            }
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @param record the record index
+     *
+     * @return a view of the record that decodes values on access
+     */
+    public Record getRecord(int record) {
+        if (record < 0 || record >= size) {
+            throw new IndexOutOfBoundsException("Record [" + record + "] is not in [0, " + size + ")");
+        }
+        return new Record(record);
+    }
+
+    /**
+     * Find the records that match all filters.
+     * <p>
+     * A record matches a filter if any of the record's values for the filter's columns equals one of the filter's values. Filters
+     * match the same values as the provenance providers: "sample" matches sample names and sample provenance ids, "lane" matches lane
+     * numbers.
+     *
+     * @param filters the filters to apply, an empty map selects all records
+     *
+     * @return the indexes of the matching records, in snapshot order
+     *
+     * @throws IllegalArgumentException if a filter is not supported (see {@link #getSupportedFilters()})
+     */
+    public IntStream find(Map<FileProvenanceFilter, Set<String>> filters) {
+        IntPredicate predicate = r -> true;
+        for (Entry<FileProvenanceFilter, Set<String>> e : filters.entrySet()) {
+            List<FileProvenanceColumn> filterColumns = FILTER_COLUMNS.get(e.getKey());
+            if (filterColumns == null) {
+                throw new IllegalArgumentException("Filter [" + e.getKey() + "] is not supported");
+            }
+            IntPredicate filterPredicate;
+            if (e.getKey() == FileProvenanceFilter.sample) {
+                //as with the sample provenance providers, "sample" matches the sample name or the sample provenance id - LimsKey ids
+                //only identify sample provenance for records that are linked to samples (the others are lane provenance ids)
+                filterPredicate = getPredicate(FileProvenanceColumn.SAMPLE_NAMES, e.getValue())
+                        .or(getPredicate(FileProvenanceColumn.LIMS_IDS, e.getValue()).and(hasValues(FileProvenanceColumn.SAMPLE_NAMES)));
+            } else {
+                filterPredicate = r -> false;
+                for (FileProvenanceColumn column : filterColumns) {
+                    filterPredicate = filterPredicate.or(getPredicate(column, e.getValue()));
+                }
+            }
+            predicate = predicate.and(filterPredicate);
+        }
+        return IntStream.range(0, size).filter(predicate);
+    }
+
+    /**
+     * @param filters the filters to apply, an empty map selects all records
+     *
+     * @return views of the records that match all filters, in snapshot order
+     *
+     * @see #find(Map)
+     */
+    public Stream<Record> getRecords(Map<FileProvenanceFilter, Set<String>> filters) {
+        return find(filters).mapToObj(Record::new);
+    }
+
+    private IntPredicate hasValues(FileProvenanceColumn column) {
+        ByteBuffer b = columns.get(column);
+        if (b == null) {
+            return r -> false;
+        }
+        return r -> codesEnd(b, r) > codesStart(b, r);
+    }
+
+    private IntPredicate getPredicate(FileProvenanceColumn column, Set<String> values) {
+        ByteBuffer b = columns.get(column);
+        if (b == null) {
+            return r -> false;
+        }
+        if (column.getKind() == FileProvenanceColumn.Kind.INT) {
+            int[] ints = values.stream().map(Ints::tryParse).filter(i -> i != null).mapToInt(Integer::intValue).sorted().toArray();
+            return r -> Arrays.binarySearch(ints, b.getInt(r * Integer.BYTES)) >= 0;
+        }
+
+        int[] codes = values.stream().mapToInt(this::lookup).filter(c -> c >= 0).sorted().toArray();
+        if (codes.length == 0) {
+            return r -> false;
+        }
+        if (column.getKind() == FileProvenanceColumn.Kind.STRING) {
+            return r -> Arrays.binarySearch(codes, b.getInt(r * Integer.BYTES)) >= 0;
+        }
+        if (column.getKind() == FileProvenanceColumn.Kind.LIST) {
+            return r -> {
+                int end = codesEnd(b, r);
+                for (int i = codesStart(b, r); i < end; i += Integer.BYTES) {
+                    if (Arrays.binarySearch(codes, b.getInt(i)) >= 0) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+        throw new IllegalArgumentException("Column [" + column + "] can not be filtered");
+    }
+
+    private ByteBuffer getColumn(FileProvenanceColumn column, FileProvenanceColumn.Kind kind, int record) {
+        if (column.getKind() != kind) {
+            throw new IllegalArgumentException("Column [" + column + "] is a " + column.getKind() + " column");
+        }
+        if (record < 0 || record >= size) {
+            throw new IndexOutOfBoundsException("Record [" + record + "] is not in [0, " + size + ")");
+        }
+        return columns.get(column);
+    }
+
+    private int codesStart(ByteBuffer b, int record) {
+        return Integer.BYTES * (size + 1 + b.getInt(record * Integer.BYTES));
+    }
+
+    private int codesEnd(ByteBuffer b, int record) {
+        return Integer.BYTES * (size + 1 + b.getInt((record + 1) * Integer.BYTES));
+    }
+
+    private String decode(int code) {
+        if (code == ColumnarReportBuilder.NULL_CODE) {
+            return null;
+        }
+        int start = dictionary.getInt(Integer.BYTES * (code + 1));
+        int end = dictionary.getInt(Integer.BYTES * (code + 2));
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = dictionary.get(dictionaryBytesStart + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int lookup(String value) {
+        if (value == null) {
+            return ColumnarReportBuilder.NULL_CODE;
+        }
+        int low = 0;
+        int high = dictionarySize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = decode(mid).compareTo(value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ColumnarReportBuilder.NULL_CODE;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+        if (position < 0 || length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("File is not a columnar file provenance snapshot");
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) length);
+        while (b.hasRemaining()) {
+            if (channel.read(b, position + b.position()) < 0) {
+                throw new IOException("Unexpected end of columnar file provenance snapshot");
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        if (position < 0 || length < 0 || length > Integer.MAX_VALUE || position + length > channel.size()) {
+            throw new IOException("Columnar file provenance snapshot section is out of bounds");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    private static String readUTF(ByteBuffer b) {
+        byte[] bytes = new byte[b.getShort() & 0xFFFF];
+        b.get(bytes);
+        //column names are ASCII, so modified UTF-8 and UTF-8 are the same
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A view of one record of the snapshot.
+     */
+    public final class Record {
+
+        private final int index;
+
+        private Record(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Integer getInt(FileProvenanceColumn column) {
+            return ColumnarFileProvenanceReader.this.getInt(column, index);
+        }
+
+        public String getString(FileProvenanceColumn column) {
+            return ColumnarFileProvenanceReader.this.getString(column, index);
+        }
+
+        public List<String> getStrings(FileProvenanceColumn column) {
+            return ColumnarFileProvenanceReader.this.getStrings(column, index);
+        }
+
+        public SortedMap<String, SortedSet<String>> getAttributes(FileProvenanceColumn column) {
+            return ColumnarFileProvenanceReader.this.getAttributes(column, index);
+        }
+
+    }
+
+}
@@ -0,0 +1,315 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Writes file provenance to a columnar file that can be memory-mapped by {@link ColumnarFileProvenanceReader}.
+ * <p>
+ * File layout (all values big-endian):
+ * <pre>
+ * MAGIC (int), VERSION (int)
+ * dictionary section: string count (int), string byte offsets (int[count + 1]), UTF-8 bytes of the sorted distinct strings
+ * column sections, by kind:
+ *   INT:        value (int[rows], {@link #NULL_INT} for null)
+ *   STRING:     dictionary code (int[rows], -1 for null)
+ *   LIST:       record offsets (int[rows + 1]), dictionary codes
+ *   ATTRIBUTES: record offsets (int[rows + 1]), dictionary code pairs (key, value)
+ * footer: rows (int), dictionary offset (long), dictionary length (long), column count (int),
+ *         per column: name (UTF), kind ordinal (byte), offset (long), length (long)
+ * trailer: footer offset (long), MAGIC (int)
+ * </pre>
+ */
+public class ColumnarReportBuilder implements ReportBuilder {
+
+    static final int MAGIC = 0x46504331;
+    static final int VERSION = 1;
+    static final int NULL_INT = Integer.MIN_VALUE;
+    static final int NULL_CODE = -1;
+    static final int TRAILER_LENGTH = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Columns are written one after another, so each record's values are spilled to per-column temporary files (next to the output
+     * file) as the record is read. Strings are spilled as provisional codes that are translated to sorted dictionary codes once all
+     * records have been read, so only the distinct strings are held in memory.
+     */
+    @Override
+    public void writeReport(Iterator<FileProvenance> fps, Path outputFilePath) throws IOException {
+        FileProvenanceColumn[] columns = FileProvenanceColumn.values();
+        Path parent = outputFilePath.toAbsolutePath().getParent();
+        try (CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(outputFilePath, StandardOpenOption.CREATE_NEW), 1 << 16));
+                DataOutputStream out = new DataOutputStream(cos);
+                Spill spill = new Spill(parent, columns)) {
+            int rows = 0;
+            while (fps.hasNext()) {
+                spill.add(fps.next());
+                rows++;
+            }
+            spill.finish();
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            long dictionaryOffset = cos.getCount();
+            writeDictionary(out, spill.dictionary);
+            long dictionaryLength = cos.getCount() - dictionaryOffset;
+
+            long[] offsets = new long[columns.length];
+            long[] lengths = new long[columns.length];
+            for (FileProvenanceColumn column : columns) {
+                offsets[column.ordinal()] = cos.getCount();
+                spill.writeColumn(out, column);
+                lengths[column.ordinal()] = cos.getCount() - offsets[column.ordinal()];
+                if (lengths[column.ordinal()] > Integer.MAX_VALUE) {
+                    throw new IOException("Column [" + column.name() + "] exceeds the maximum section size");
+                }
+            }
+
+            long footerOffset = cos.getCount();
+            out.writeInt(rows);
+            out.writeLong(dictionaryOffset);
+            out.writeLong(dictionaryLength);
+            out.writeInt(columns.length);
+            for (FileProvenanceColumn column : columns) {
+                out.writeUTF(column.name());
+                out.writeByte(column.getKind().ordinal());
+                out.writeLong(offsets[column.ordinal()]);
+                out.writeLong(lengths[column.ordinal()]);
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    private static void writeDictionary(DataOutputStream out, String[] dictionary) throws IOException {
+        out.writeInt(dictionary.length);
+        long offset = 0;
+        out.writeInt(0);
+        for (String s : dictionary) {
+            offset += s.getBytes(StandardCharsets.UTF_8).length;
+            if (offset > Integer.MAX_VALUE - (dictionary.length + 2) * Integer.BYTES) {
+                throw new IOException("Dictionary exceeds the maximum section size");
+            }
+            out.writeInt((int) offset);
+        }
+        for (String s : dictionary) {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Per-column temporary files holding the values of the records that have been read.
+     * <p>
+     * INT columns are spilled as their final values, STRING columns as provisional codes, and LIST/ATTRIBUTES columns as their record
+     * offsets and provisional codes.
+     */
+    private static class Spill implements AutoCloseable {
+
+        private final Path directory;
+        private final Path[] values;
+        private final Path[] recordOffsets;
+        private final DataOutputStream[] valuesOut;
+        private final DataOutputStream[] recordOffsetsOut;
+        private final int[] counts;
+        private final Map<String, Integer> provisionalCodes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private String[] dictionary;
+        private int[] codes;
+
+        private Spill(Path parent, FileProvenanceColumn[] columns) throws IOException {
+            directory = Files.createTempDirectory(parent, ".columnar-report");
+            values = new Path[columns.length];
+            recordOffsets = new Path[columns.length];
+            valuesOut = new DataOutputStream[columns.length];
+            recordOffsetsOut = new DataOutputStream[columns.length];
+            counts = new int[columns.length];
+            try {
+                for (FileProvenanceColumn column : columns) {
+                    int i = column.ordinal();
+                    values[i] = directory.resolve(column.name());
+                    valuesOut[i] = open(values[i]);
+                    if (column.getKind() == FileProvenanceColumn.Kind.LIST || column.getKind() == FileProvenanceColumn.Kind.ATTRIBUTES) {
+                        recordOffsets[i] = directory.resolve(column.name() + ".offsets");
+                        recordOffsetsOut[i] = open(recordOffsets[i]);
+                        recordOffsetsOut[i].writeInt(0);
+                    }
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        private static DataOutputStream open(Path path) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE_NEW), 1 << 15));
+        }
+
+        private void add(FileProvenance fp) throws IOException {
+            for (FileProvenanceColumn column : FileProvenanceColumn.values()) {
+                int i = column.ordinal();
+                Object value = column.extract(fp);
+                switch (column.getKind()) {
+                    case INT:
+                        valuesOut[i].writeInt(value == null ? NULL_INT : (Integer) value);
+                        break;
+                    case STRING:
+                        valuesOut[i].writeInt(provisionalCode((String) value));
+                        break;
+                    case LIST:
+                    case ATTRIBUTES:
+                        counts[i] = Math.addExact(counts[i], writeCodes(valuesOut[i], column, value));
+                        recordOffsetsOut[i].writeInt(counts[i]);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported column kind [" + column.getKind() + "]");
+                }
+            }
+        }
+
+        private int writeCodes(DataOutputStream out, FileProvenanceColumn column, Object value) throws IOException {
+            if (value == null) {
+                return 0;
+            }
+            int count = 0;
+            if (column.getKind() == FileProvenanceColumn.Kind.LIST) {
+                for (Object o : (Collection<?>) value) {
+                    out.writeInt(provisionalCode(Objects.toString(o, null)));
+                    count++;
+                }
+                return count;
+            }
+            for (Map.Entry<String, SortedSet<String>> e : attributes(value).entrySet()) {
+                if (e.getValue() == null) {
+                    continue;
+                }
+                int key = provisionalCode(e.getKey());
+                for (String s : e.getValue()) {
+                    out.writeInt(key);
+                    out.writeInt(provisionalCode(s));
+                    count += 2;
+                }
+            }
+            return count;
+        }
+
+        private int provisionalCode(String value) {
+            if (value == null) {
+                return NULL_CODE;
+            }
+            Integer code = provisionalCodes.get(value);
+            if (code == null) {
+                code = strings.size();
+                provisionalCodes.put(value, code);
+                strings.add(value);
+            }
+            return code;
+        }
+
+        /**
+         * Close the spill files and sort the dictionary.
+         */
+        private void finish() throws IOException {
+            closeStreams();
+            //the dictionary is sorted so that the reader can look up filter values by binary search
+            Integer[] order = new Integer[strings.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> strings.get(a).compareTo(strings.get(b)));
+            dictionary = new String[order.length];
+            codes = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                dictionary[i] = strings.get(order[i]);
+                codes[order[i]] = i;
+            }
+            provisionalCodes.clear();
+            strings.clear();
+        }
+
+        private void writeColumn(DataOutputStream out, FileProvenanceColumn column) throws IOException {
+            int i = column.ordinal();
+            if (recordOffsets[i] != null) {
+                Files.copy(recordOffsets[i], out);
+            }
+            if (column.getKind() == FileProvenanceColumn.Kind.INT) {
+                Files.copy(values[i], out);
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(values[i]), 1 << 16))) {
+                long n = Files.size(values[i]) / Integer.BYTES;
+                for (long j = 0; j < n; j++) {
+                    int code = in.readInt();
+                    out.writeInt(code == NULL_CODE ? NULL_CODE : codes[code]);
+                }
+            }
+        }
+
+        private void closeStreams() throws IOException {
+            IOException error = null;
+            for (DataOutputStream[] streams : Arrays.asList(valuesOut, recordOffsetsOut)) {
+                for (int i = 0; i < streams.length; i++) {
+                    if (streams[i] != null) {
+                        try {
+                            streams[i].close();
+                        } catch (IOException ex) {
+                            if (error == null) {
+                                error = ex;
+                            } else {
+                                error.addSuppressed(ex);
+                            }
+                        }
+                        streams[i] = null;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                closeStreams();
+            } finally {
+                for (Path path : Arrays.asList(values)) {
+                    if (path != null) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                for (Path path : Arrays.asList(recordOffsets)) {
+                    if (path != null) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SortedMap<String, SortedSet<String>> attributes(Object value) {
+        return (SortedMap<String, SortedSet<String>>) value;
+    }
+
+}
@@ -0,0 +1,121 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import ca.on.oicr.gsi.provenance.model.IusLimsKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * The columns of the columnar file provenance format written by {@link ColumnarReportBuilder} and read by
+ * {@link ColumnarFileProvenanceReader}.
+ * <p>
+ * Columns are identified in the file by name, new columns can be appended to this enum without breaking existing snapshots.
+ */
+public enum FileProvenanceColumn {
+
+    LAST_MODIFIED(Kind.STRING, fp -> Objects.toString(fp.getLastModified(), null)),
+    STUDY_TITLES(Kind.LIST, FileProvenance::getStudyTitles),
+    STUDY_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getStudyAttributes),
+    ROOT_SAMPLE_NAMES(Kind.LIST, FileProvenance::getRootSampleNames),
+    PARENT_SAMPLE_NAMES(Kind.LIST, FileProvenance::getParentSampleNames),
+    PARENT_SAMPLE_ORGANISM_IDS(Kind.LIST, FileProvenance::getParentSampleOrganismIDs),
+    PARENT_SAMPLE_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getParentSampleAttributes),
+    SAMPLE_NAMES(Kind.LIST, FileProvenance::getSampleNames),
+    SAMPLE_ORGANISM_IDS(Kind.LIST, FileProvenance::getSampleOrganismIDs),
+    SAMPLE_ORGANISM_CODES(Kind.LIST, FileProvenance::getSampleOrganismCodes),
+    SAMPLE_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getSampleAttributes),
+    SEQUENCER_RUN_NAMES(Kind.LIST, FileProvenance::getSequencerRunNames),
+    SEQUENCER_RUN_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getSequencerRunAttributes),
+    SEQUENCER_RUN_PLATFORM_IDS(Kind.LIST, FileProvenance::getSequencerRunPlatformIDs),
+    SEQUENCER_RUN_PLATFORM_NAMES(Kind.LIST, FileProvenance::getSequencerRunPlatformNames),
+    LANE_NAMES(Kind.LIST, FileProvenance::getLaneNames),
+    LANE_NUMBERS(Kind.LIST, FileProvenance::getLaneNumbers),
+    LANE_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getLaneAttributes),
+    IUS_TAGS(Kind.LIST, FileProvenance::getIusTags),
+    IUS_SWIDS(Kind.LIST, FileProvenance::getIusSWIDs),
+    IUS_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getIusAttributes),
+    WORKFLOW_NAME(Kind.STRING, FileProvenance::getWorkflowName),
+    WORKFLOW_VERSION(Kind.STRING, FileProvenance::getWorkflowVersion),
+    WORKFLOW_SWID(Kind.INT, FileProvenance::getWorkflowSWID),
+    WORKFLOW_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getWorkflowAttributes),
+    WORKFLOW_RUN_NAME(Kind.STRING, FileProvenance::getWorkflowRunName),
+    WORKFLOW_RUN_STATUS(Kind.STRING, FileProvenance::getWorkflowRunStatus),
+    WORKFLOW_RUN_SWID(Kind.INT, FileProvenance::getWorkflowRunSWID),
+    WORKFLOW_RUN_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getWorkflowRunAttributes),
+    WORKFLOW_RUN_INPUT_FILE_SWIDS(Kind.LIST, FileProvenance::getWorkflowRunInputFileSWIDs),
+    PROCESSING_ALGORITHM(Kind.STRING, FileProvenance::getProcessingAlgorithm),
+    PROCESSING_SWID(Kind.INT, FileProvenance::getProcessingSWID),
+    PROCESSING_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getProcessingAttributes),
+    PROCESSING_STATUS(Kind.STRING, FileProvenance::getProcessingStatus),
+    FILE_META_TYPE(Kind.STRING, FileProvenance::getFileMetaType),
+    FILE_SWID(Kind.INT, FileProvenance::getFileSWID),
+    FILE_ATTRIBUTES(Kind.ATTRIBUTES, FileProvenance::getFileAttributes),
+    FILE_PATH(Kind.STRING, FileProvenance::getFilePath),
+    FILE_MD5SUM(Kind.STRING, FileProvenance::getFileMd5sum),
+    FILE_SIZE(Kind.STRING, FileProvenance::getFileSize),
+    FILE_DESCRIPTION(Kind.STRING, FileProvenance::getFileDescription),
+    SKIP(Kind.STRING, FileProvenance::getSkip),
+    STATUS(Kind.STRING, fp -> Objects.toString(fp.getStatus(), null)),
+    STATUS_REASON(Kind.STRING, FileProvenance::getStatusReason),
+    LIMS_IUS_SWIDS(Kind.LIST, fp -> limsKeys(fp, ilk -> ilk.getIusSWID())),
+    LIMS_PROVIDERS(Kind.LIST, fp -> limsKeys(fp, ilk -> ilk.getLimsKey().getProvider())),
+    LIMS_IDS(Kind.LIST, fp -> limsKeys(fp, ilk -> ilk.getLimsKey().getId())),
+    LIMS_VERSIONS(Kind.LIST, fp -> limsKeys(fp, ilk -> ilk.getLimsKey().getVersion())),
+    LIMS_LAST_MODIFIED(Kind.LIST, fp -> limsKeys(fp, ilk -> ilk.getLimsKey().getLastModified()));
+
+    /**
+     * How the values of a column are stored.
+     */
+    public enum Kind {
+        /**
+         * One nullable integer per record (SWIDs).
+         */
+        INT,
+        /**
+         * One nullable dictionary-encoded string per record.
+         */
+        STRING,
+        /**
+         * Zero or more dictionary-encoded strings per record, indexed by record offsets.
+         */
+        LIST,
+        /**
+         * Zero or more dictionary-encoded key/value pairs per record, indexed by record offsets.
+         */
+        ATTRIBUTES
+    }
+
+    private final Kind kind;
+    private final Function<FileProvenance, ?> extractor;
+
+    private FileProvenanceColumn(Kind kind, Function<FileProvenance, ?> extractor) {
+        this.kind = kind;
+        this.extractor = extractor;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    Object extract(FileProvenance fp) {
+        return extractor.apply(fp);
+    }
+
+    private static List<String> limsKeys(FileProvenance fp, Function<IusLimsKey, Object> f) {
+        Collection<IusLimsKey> ilks = fp.getIusLimsKeys();
+        if (ilks == null) {
+            return Collections.emptyList();
+        }
+        //nulls are kept so that the LIMS columns stay aligned
+        List<String> values = new ArrayList<>(ilks.size());
+        for (IusLimsKey ilk : ilks) {
+            values.add(Objects.toString(f.apply(ilk), null));
+        }
+        return values;
+    }
+
+}
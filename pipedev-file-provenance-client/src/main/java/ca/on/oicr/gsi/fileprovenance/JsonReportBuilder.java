@@ -6,8 +6,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.Collection;
+import java.util.Iterator;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
@@ -20,12 +21,20 @@ import ca.on.oicr.gsi.provenance.model.FileProvenance;
 public class JsonReportBuilder implements ReportBuilder {
 
     @Override
-    public void writeReport(Collection<FileProvenance> fps, Path outputFilePath) throws IOException {
+    public void writeReport(Iterator<FileProvenance> fps, Path outputFilePath) throws IOException {
         ObjectMapper om = new ObjectMapper();
         om.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
         om.configure(SerializationFeature.INDENT_OUTPUT, true);
-        try (BufferedWriter fw = Files.newBufferedWriter(outputFilePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW)) {
-            om.writeValue(fw, fps);
+        om.configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+        try (BufferedWriter fw = Files.newBufferedWriter(outputFilePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+                JsonGenerator jg = om.getFactory().createGenerator(fw)) {
+            //records are serialized one at a time into the same array that writeValue(fps) would produce
+            jg.useDefaultPrettyPrinter();
+            jg.writeStartArray();
+            while (fps.hasNext()) {
+                om.writeValue(jg, fps.next());
+            }
+            jg.writeEndArray();
         }
     }
 
@@ -2,8 +2,12 @@ package ca.on.oicr.gsi.fileprovenance;
 
 import ca.on.oicr.gsi.provenance.model.FileProvenance;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 /**
  *
@@ -11,5 +15,35 @@ import java.util.Collection;
  */
 public interface ReportBuilder {
 
-    public void writeReport(Collection<FileProvenance> fps, Path outputFilePath) throws IOException;
+    public default void writeReport(Collection<FileProvenance> fps, Path outputFilePath) throws IOException {
+        writeReport(fps.iterator(), outputFilePath);
+    }
+
+    public default void writeReport(Stream<FileProvenance> fps, Path outputFilePath) throws IOException {
+        writeReport(fps.iterator(), outputFilePath);
+    }
+
+    /**
+     * Check that the report can be written without replacing an existing file.
+     *
+     * @param outputFilePath the report output path
+     *
+     * @throws FileAlreadyExistsException if a file that the report would be written to already exists
+     * @throws IOException                if the output directory can not be read
+     */
+    public default void checkOutputFilePath(Path outputFilePath) throws IOException {
+        if (Files.exists(outputFilePath)) {
+            throw new FileAlreadyExistsException(outputFilePath.toString());
+        }
+    }
+
+    /**
+     * Write the report, consuming the records one at a time.
+     *
+     * @param fps            the file provenance records to write
+     * @param outputFilePath the report output path
+     *
+     * @throws IOException if the report can not be written
+     */
+    public void writeReport(Iterator<FileProvenance> fps, Path outputFilePath) throws IOException;
 }
@@ -1,25 +1,44 @@
 package ca.on.oicr.gsi.fileprovenance;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import ca.on.oicr.gsi.common.transformation.MapStringifier;
 import ca.on.oicr.gsi.common.transformation.StringSanitizerBuilder;
@@ -33,116 +52,366 @@ import ca.on.oicr.gsi.provenance.model.LimsKey;
  */
 public class TsvReportBuilder implements ReportBuilder {
 
+    private static final ZoneId LAST_MODIFIED_ZONE = ZoneId.of("America/Toronto");
+    private static final DateTimeFormatter LAST_MODIFIED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final String NULL_STRING = "";
+    private static final String DELIMITER = ";";
+    private static final int RECORDS_PER_CHUNK = 1000;
+
+    private static final CSVFormat FORMAT = CSVFormat.newFormat('\t')
+            .withNullString(NULL_STRING)
+            .withRecordSeparator('\n')
+            .withHeader("Last Modified",
+                    "Study Title", "Study SWID", "Study Attributes",
+                    "Experiment Name", "Experiment SWID", "Experiment Attributes",
+                    "Root Sample Name", "Root Sample SWID",
+                    "Parent Sample Name", "Parent Sample SWID", "Parent Sample Organism IDs", "Parent Sample Attributes",
+                    "Sample Name", "Sample SWID", "Sample Organism ID", "Sample Organism Code", "Sample Attributes",
+                    "Sequencer Run Name", "Sequencer Run SWID", "Sequencer Run Attributes", "Sequencer Run Platform ID", "Sequencer Run Platform Name",
+                    "Lane Name", "Lane Number", "Lane SWID", "Lane Attributes",
+                    "IUS Tag", "IUS SWID", "IUS Attributes",
+                    "Workflow Name", "Workflow Version", "Workflow SWID", "Workflow Attributes",
+                    "Workflow Run Name", "Workflow Run Status", "Workflow Run SWID", "Workflow Run Attributes",
+                    "Workflow Run Input File SWAs",
+                    "Processing Algorithm", "Processing SWID", "Processing Attributes", "Processing Status",
+                    "File Meta-Type", "File SWID", "File Attributes", "File Path", "File Md5sum", "File Size", "File Description",
+                    "Path Skip", "Skip",
+                    "Status", "Status Reason",
+                    "LIMS IUS SWID", "LIMS Provider", "LIMS ID", "LIMS Version", "LIMS Last Modified"
+            );
+
+    private final int threads;
+    private final boolean gzip;
+    private final int recordsPerFile;
+
+    public TsvReportBuilder() {
+        this(1, false, 0);
+    }
+
+    /**
+     * @param threads        the number of threads used to format records, records are always written in order
+     * @param gzip           gzip compress the report
+     * @param recordsPerFile the maximum number of records per report file, or 0 to write a single file. Report files are named by
+     *                       inserting the file number before the output file name extension (e.g. fpr.tsv.gz to fpr.00001.tsv.gz) and
+     *                       each file has the header.
+     */
+    public TsvReportBuilder(int threads, boolean gzip, int recordsPerFile) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be greater than 0");
+        }
+        if (recordsPerFile < 0) {
+            throw new IllegalArgumentException("Records per file must not be negative");
+        }
+        this.threads = threads;
+        this.gzip = gzip;
+        this.recordsPerFile = recordsPerFile;
+    }
+
+    /**
+     * Check that none of the report files exist. When the report is split, any existing numbered report file is rejected because the
+     * number of report files is not known until the report has been written.
+     */
     @Override
-    public void writeReport(Collection<FileProvenance> fps, Path outputFilePath) throws IOException {
-        StringSanitizerBuilder ssbForFields = new StringSanitizerBuilder();
-        ssbForFields.add("\t", "\u2300");
-        ssbForFields.add(";", "\u2300");
-        ssbForFields.add("=", "\u2300");
-        ssbForFields.add("&", "\u2300");
-        ssbForFields.add(" ", "_");
-        Function<String, String> stringSanitizer = ssbForFields.build()::apply;
-
-        StringSanitizerBuilder ssbForAttributes = new StringSanitizerBuilder();
-        ssbForAttributes.add("\t", " ");
-        ssbForAttributes.add(";", "\u2300");
-        ssbForAttributes.add("=", "\u2300");
-        ssbForAttributes.add("&", "\u2300");
-        Function<String, String> ssForAttributes = ssbForAttributes.build()::apply;
-
-        String nullString = "";
-        String delimiter = ";";
-        
-        Function<Collection<String>, String> join = c -> c.stream().filter(Objects::nonNull).map(ssForAttributes).collect(Collectors.joining(delimiter)); 
-
-        CSVFormat cf = CSVFormat.newFormat('\t')
-                .withNullString(nullString)
-                .withRecordSeparator('\n')
-                .withHeader("Last Modified",
-                        "Study Title", "Study SWID", "Study Attributes",
-                        "Experiment Name", "Experiment SWID", "Experiment Attributes",
-                        "Root Sample Name", "Root Sample SWID",
-                        "Parent Sample Name", "Parent Sample SWID", "Parent Sample Organism IDs", "Parent Sample Attributes",
-                        "Sample Name", "Sample SWID", "Sample Organism ID", "Sample Organism Code", "Sample Attributes",
-                        "Sequencer Run Name", "Sequencer Run SWID", "Sequencer Run Attributes", "Sequencer Run Platform ID", "Sequencer Run Platform Name",
-                        "Lane Name", "Lane Number", "Lane SWID", "Lane Attributes",
-                        "IUS Tag", "IUS SWID", "IUS Attributes",
-                        "Workflow Name", "Workflow Version", "Workflow SWID", "Workflow Attributes",
-                        "Workflow Run Name", "Workflow Run Status", "Workflow Run SWID", "Workflow Run Attributes",
-                        "Workflow Run Input File SWAs",
-                        "Processing Algorithm", "Processing SWID", "Processing Attributes", "Processing Status",
-                        "File Meta-Type", "File SWID", "File Attributes", "File Path", "File Md5sum", "File Size", "File Description",
-                        "Path Skip", "Skip",
-                        "Status", "Status Reason",
-                        "LIMS IUS SWID", "LIMS Provider", "LIMS ID", "LIMS Version", "LIMS Last Modified"
-                );
-
-        try (BufferedWriter fw = Files.newBufferedWriter(outputFilePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW); 
-                CSVPrinter cp = new CSVPrinter(fw, cf)) {
-            Joiner j = Joiner.on(delimiter).skipNulls();
-            for (FileProvenance fp : fps) {
-
-                List<String> cs = new ArrayList<>();
-
-                cs.add(fp.getLastModified().withZoneSameInstant(ZoneId.of("America/Toronto")).format(DateTimeFormatter.ofPattern("YYYY-MM-dd HH:mm:ss.SSS")));
-
-                cs.add(join.apply(fp.getStudyTitles()));
-                cs.add(nullString); //study swids not available
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes, fp.getStudyAttributes()));
-
-                cs.add(nullString);
-                cs.add(nullString); //experiment swids not available
-                cs.add(nullString);
-
-                cs.add(join.apply(fp.getRootSampleNames()));
-                cs.add(nullString); //root sample swids not available
-
-                cs.add(join.apply(fp.getParentSampleNames()));
-                cs.add(nullString); //parent sample swids not available
+    public void checkOutputFilePath(Path outputFilePath) throws IOException {
+        if (recordsPerFile == 0) {
+            ReportBuilder.super.checkOutputFilePath(outputFilePath);
+            return;
+        }
+        String fileName = outputFilePath.getFileName().toString();
+        int extension = fileName.indexOf('.', 1);
+        Pattern reportFileName = extension < 0
+                ? Pattern.compile(Pattern.quote(fileName) + "\\.\\d{5,}")
+                : Pattern.compile(Pattern.quote(fileName.substring(0, extension)) + "\\.\\d{5,}" + Pattern.quote(fileName.substring(extension)));
+        Path dir = outputFilePath.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, p -> reportFileName.matcher(p.getFileName().toString()).matches())) {
+            Iterator<Path> existingFiles = files.iterator();
+            if (existingFiles.hasNext()) {
+                throw new FileAlreadyExistsException(existingFiles.next().toString());
+            }
+        }
+    }
+
+    private static Path getReportFilePath(Path outputFilePath, int fileNumber) {
+        String fileName = outputFilePath.getFileName().toString();
+        int extension = fileName.indexOf('.', 1);
+        String number = String.format("%05d", fileNumber);
+        return outputFilePath.resolveSibling(extension < 0
+                ? fileName + "." + number
+                : fileName.substring(0, extension) + "." + number + fileName.substring(extension));
+    }
+
+    @Override
+    public void writeReport(Iterator<FileProvenance> fps, Path outputFilePath) throws IOException {
+        //fail before writing rather than after some of the report files have been written
+        checkOutputFilePath(outputFilePath);
+        try (ReportWriter writer = new ReportWriter(outputFilePath)) {
+            if (threads == 1) {
+                RowFormatter formatter = new RowFormatter();
+                for (Chunk chunk = writer.nextChunk(fps); chunk != null; chunk = writer.nextChunk(fps)) {
+                    writer.write(chunk, formatter.format(chunk.records));
+                }
+                return;
+            }
+
+            //chunks are formatted concurrently and written in the order they were read, at most threads * 2 chunks are in memory
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tsv-report-%d").build());
+            ThreadLocal<RowFormatter> formatters = ThreadLocal.withInitial(RowFormatter::new);
+            Deque<Chunk> chunks = new ArrayDeque<>();
+            Deque<Future<String>> formattedChunks = new ArrayDeque<>();
+            try {
+                while (true) {
+                    while (formattedChunks.size() < threads * 2) {
+                        Chunk chunk = writer.nextChunk(fps);
+                        if (chunk == null) {
+                            break;
+                        }
+                        chunks.add(chunk);
+                        formattedChunks.add(executor.submit(() -> formatters.get().format(chunk.records)));
+                    }
+                    if (formattedChunks.isEmpty()) {
+                        break;
+                    }
+                    writer.write(chunks.remove(), getFormattedChunk(formattedChunks.remove()));
+                }
+            } finally {
+                for (Future<String> f : formattedChunks) {
+                    f.cancel(true);
+                }
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static String getFormattedChunk(Future<String> formattedChunk) throws IOException {
+        try {
+            return formattedChunk.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            Throwables.throwIfInstanceOf(ex.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private static class Chunk {
+
+        private final List<FileProvenance> records;
+        private final boolean newFile;
+
+        Chunk(List<FileProvenance> records, boolean newFile) {
+            this.records = records;
+            this.newFile = newFile;
+        }
+    }
+
+    /**
+     * Splits the records into chunks and writes formatted chunks to the current report file.
+     */
+    private class ReportWriter implements Closeable {
+
+        private final Path outputFilePath;
+        private final String header;
+        private Writer writer;
+        private int fileNumber = 0;
+        private int chunkedRecordsInFile = 0;
+
+        ReportWriter(Path outputFilePath) throws IOException {
+            this.outputFilePath = outputFilePath;
+            StringBuilder sb = new StringBuilder();
+            new CSVPrinter(sb, FORMAT).flush();
+            header = sb.toString();
+            openNextFile();
+        }
+
+        Chunk nextChunk(Iterator<FileProvenance> fps) {
+            if (!fps.hasNext()) {
+                return null;
+            }
+            boolean newFile = false;
+            int limit = RECORDS_PER_CHUNK;
+            if (recordsPerFile > 0) {
+                if (chunkedRecordsInFile == recordsPerFile) {
+                    newFile = true;
+                    chunkedRecordsInFile = 0;
+                }
+                limit = Math.min(limit, recordsPerFile - chunkedRecordsInFile);
+            }
+            List<FileProvenance> records = new ArrayList<>(limit);
+            while (records.size() < limit && fps.hasNext()) {
+                records.add(fps.next());
+            }
+            chunkedRecordsInFile += records.size();
+            return new Chunk(records, newFile);
+        }
+
+        void write(Chunk chunk, String formattedRecords) throws IOException {
+            if (chunk.newFile) {
+                writer.close();
+                openNextFile();
+            }
+            writer.write(formattedRecords);
+        }
+
+        private void openNextFile() throws IOException {
+            Path path = outputFilePath;
+            if (recordsPerFile > 0) {
+                fileNumber++;
+                path = getReportFilePath(outputFilePath, fileNumber);
+            }
+            OutputStream os = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW);
+            if (gzip) {
+                os = new GZIPOutputStream(os, 1 << 16);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16);
+            writer.write(header);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Formats records into TSV rows. Not thread-safe - each formatting thread has its own formatter.
+     */
+    private static class RowFormatter {
+
+        private final Function<String, String> stringSanitizer;
+        private final Function<Collection<String>, String> join;
+        private final Function<Map<String, SortedSet<String>>, String> attributes;
+        private final Joiner j = Joiner.on(DELIMITER).skipNulls();
+
+        //records that share a sample, lane or workflow run usually arrive together, so the formatted value of the previous record is
+        //reused when the value is unchanged rather than formatting (and allocating) the same string again
+        private final Function<Collection<String>, String> studyTitles;
+        private final Function<Map<String, SortedSet<String>>, String> studyAttributes;
+        private final Function<Collection<String>, String> rootSampleNames;
+        private final Function<Collection<String>, String> parentSampleNames;
+        private final Function<Map<String, SortedSet<String>>, String> parentSampleAttributes;
+        private final Function<Collection<String>, String> sampleNames;
+        private final Function<Map<String, SortedSet<String>>, String> sampleAttributes;
+        private final Function<Map<String, SortedSet<String>>, String> sequencerRunAttributes;
+        private final Function<Map<String, SortedSet<String>>, String> laneAttributes;
+        private final Function<Map<String, SortedSet<String>>, String> iusAttributes;
+        private final Function<Map<String, SortedSet<String>>, String> workflowAttributes;
+        private final Function<Map<String, SortedSet<String>>, String> workflowRunAttributes;
+        private final Function<Map<String, SortedSet<String>>, String> processingAttributes;
+
+        private final List<String> cs = new ArrayList<>(FORMAT.getHeader().length);
+        private final StringBuilder sb = new StringBuilder();
+        private final StringBuilder attributeBuilder = new StringBuilder();
+        private final CSVPrinter cp;
+
+        RowFormatter() {
+            StringSanitizerBuilder ssbForFields = new StringSanitizerBuilder();
+            ssbForFields.add("\t", "\u2300");
+            ssbForFields.add(";", "\u2300");
+            ssbForFields.add("=", "\u2300");
+            ssbForFields.add("&", "\u2300");
+            ssbForFields.add(" ", "_");
+            stringSanitizer = ssbForFields.build()::apply;
+
+            StringSanitizerBuilder ssbForAttributes = new StringSanitizerBuilder();
+            ssbForAttributes.add("\t", " ");
+            ssbForAttributes.add(";", "\u2300");
+            ssbForAttributes.add("=", "\u2300");
+            ssbForAttributes.add("&", "\u2300");
+            Function<String, String> ssForAttributes = ssbForAttributes.build()::apply;
+
+            join = c -> c.stream().filter(Objects::nonNull).map(ssForAttributes).collect(Collectors.joining(DELIMITER));
+            attributes = m -> {
+                attributeBuilder.setLength(0);
+                return MapStringifier.appendTo(attributeBuilder, ssForAttributes, ssForAttributes, m).toString();
+            };
+
+            studyTitles = new LastValueCache<>(join);
+            studyAttributes = new LastValueCache<>(attributes);
+            rootSampleNames = new LastValueCache<>(join);
+            parentSampleNames = new LastValueCache<>(join);
+            parentSampleAttributes = new LastValueCache<>(attributes);
+            sampleNames = new LastValueCache<>(join);
+            sampleAttributes = new LastValueCache<>(attributes);
+            sequencerRunAttributes = new LastValueCache<>(attributes);
+            laneAttributes = new LastValueCache<>(attributes);
+            iusAttributes = new LastValueCache<>(attributes);
+            workflowAttributes = new LastValueCache<>(attributes);
+            workflowRunAttributes = new LastValueCache<>(attributes);
+            processingAttributes = new LastValueCache<>(attributes);
+
+            try {
+                cp = new CSVPrinter(sb, FORMAT.withSkipHeaderRecord());
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        String format(List<FileProvenance> records) throws IOException {
+            sb.setLength(0);
+            for (FileProvenance fp : records) {
+                cs.clear();
+
+                cs.add(fp.getLastModified().withZoneSameInstant(LAST_MODIFIED_ZONE).format(LAST_MODIFIED_FORMAT));
+
+                cs.add(studyTitles.apply(fp.getStudyTitles()));
+                cs.add(NULL_STRING); //study swids not available
+                cs.add(studyAttributes.apply(fp.getStudyAttributes()));
+
+                cs.add(NULL_STRING);
+                cs.add(NULL_STRING); //experiment swids not available
+                cs.add(NULL_STRING);
+
+                cs.add(rootSampleNames.apply(fp.getRootSampleNames()));
+                cs.add(NULL_STRING); //root sample swids not available
+
+                cs.add(parentSampleNames.apply(fp.getParentSampleNames()));
+                cs.add(NULL_STRING); //parent sample swids not available
                 cs.add(j.join(fp.getParentSampleOrganismIDs()));
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getParentSampleAttributes()));
+                cs.add(parentSampleAttributes.apply(fp.getParentSampleAttributes()));
 
-                cs.add(join.apply(fp.getSampleNames()));
-                cs.add(nullString); //sample swids not available
+                cs.add(sampleNames.apply(fp.getSampleNames()));
+                cs.add(NULL_STRING); //sample swids not available
                 cs.add(join.apply(fp.getSampleOrganismIDs()));
                 cs.add(join.apply(fp.getSampleOrganismCodes()));
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getSampleAttributes()));
+                cs.add(sampleAttributes.apply(fp.getSampleAttributes()));
 
                 cs.add(join.apply(fp.getSequencerRunNames()));
-                cs.add(nullString); //sequencer run swids not available
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getSequencerRunAttributes()));
+                cs.add(NULL_STRING); //sequencer run swids not available
+                cs.add(sequencerRunAttributes.apply(fp.getSequencerRunAttributes()));
                 cs.add(join.apply(fp.getSequencerRunPlatformIDs()));
                 cs.add(join.apply(fp.getSequencerRunPlatformNames()));
 
                 cs.add(join.apply(fp.getLaneNames()));
                 cs.add(join.apply(fp.getLaneNumbers()));
-                cs.add(nullString); //lane swids not available
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getLaneAttributes()));
+                cs.add(NULL_STRING); //lane swids not available
+                cs.add(laneAttributes.apply(fp.getLaneAttributes()));
 
                 cs.add(join.apply(fp.getIusTags()));
                 cs.add(join.apply(fp.getIusSWIDs()));
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getIusAttributes()));
+                cs.add(iusAttributes.apply(fp.getIusAttributes()));
 
                 cs.add(stringSanitizer.apply(fp.getWorkflowName()));
                 cs.add(stringSanitizer.apply(fp.getWorkflowVersion()));
                 cs.add(fp.getWorkflowSWID().toString());
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getWorkflowAttributes()));
+                cs.add(workflowAttributes.apply(fp.getWorkflowAttributes()));
 
                 cs.add(stringSanitizer.apply(fp.getWorkflowRunName()));
                 cs.add(stringSanitizer.apply(fp.getWorkflowRunStatus()));
                 cs.add(fp.getWorkflowRunSWID().toString());
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getWorkflowRunAttributes()));
+                cs.add(workflowRunAttributes.apply(fp.getWorkflowRunAttributes()));
 
                 cs.add(j.join(fp.getWorkflowRunInputFileSWIDs()));
 
                 cs.add(stringSanitizer.apply(fp.getProcessingAlgorithm()));
                 cs.add(fp.getProcessingSWID().toString());
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getProcessingAttributes()));
+                cs.add(processingAttributes.apply(fp.getProcessingAttributes()));
                 cs.add(stringSanitizer.apply(fp.getProcessingStatus()));
 
                 cs.add(stringSanitizer.apply(fp.getFileMetaType()));
                 cs.add(fp.getFileSWID().toString());
-                cs.add(MapStringifier.transform(ssForAttributes, ssForAttributes,fp.getFileAttributes()));
+                cs.add(attributes.apply(fp.getFileAttributes()));
                 cs.add(stringSanitizer.apply(fp.getFilePath()));
                 cs.add(stringSanitizer.apply(fp.getFileMd5sum()));
                 cs.add(stringSanitizer.apply(fp.getFileSize()));
@@ -164,7 +433,32 @@ public class TsvReportBuilder implements ReportBuilder {
 
                 cp.printRecord(cs);
             }
-            fw.flush();
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Memoizes the result for the most recent input.
+     */
+    private static class LastValueCache<T> implements Function<T, String> {
+
+        private final Function<T, String> function;
+        private T lastValue;
+        private String lastResult;
+
+        LastValueCache(Function<T, String> function) {
+            this.function = function;
+        }
+
+        @Override
+        public String apply(T value) {
+            // the same instance is reused without comparing it - a different instance is compared, which stops at the first
+            // difference and is cheaper than formatting the value again when the values are equal
+            if (lastResult == null || (lastValue != value && !Objects.equals(lastValue, value))) {
+                lastResult = function.apply(value);
+                lastValue = value;
+            }
+            return lastResult;
         }
     }
 
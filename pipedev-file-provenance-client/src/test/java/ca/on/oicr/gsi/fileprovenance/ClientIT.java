@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -28,6 +29,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import ca.on.oicr.gsi.provenance.DefaultProvenanceClient;
+import ca.on.oicr.gsi.provenance.FileProvenanceFilter;
 import ca.on.oicr.gsi.provenance.ExtendedProvenanceClient;
 import ca.on.oicr.gsi.provenance.ProviderLoader;
 import ca.on.oicr.gsi.provenance.ProviderLoader.Provider;
@@ -171,6 +173,28 @@ public class ClientIT {
         assertEquals(executeClient(Collections.emptyList()).size(), 16);
     }
 
+    @Test
+    public void columnarSnapshotTest() throws IOException {
+        File output = File.createTempFile("fpr", ".fpc", tmpDir);
+        output.deleteOnExit();
+        output.delete();
+
+        Client.main(new String[]{"--settings", providerSettings.getCanonicalPath(), "--out", output.getCanonicalPath(), "--all", "--columnar"});
+
+        ColumnarFileProvenanceReader reader = ColumnarFileProvenanceReader.open(output.toPath());
+        assertEquals(reader.size(), executeClient(Arrays.asList("--all")).size());
+        assertEquals(reader.find(Client.getDefaultFilters()).count(), (long) executeClient(Collections.emptyList()).size());
+
+        Map<FileProvenanceFilter, Set<String>> filters = new HashMap<>();
+        filters.put(FileProvenanceFilter.root_sample, Sets.newHashSet("TEST_0003"));
+        filters.put(FileProvenanceFilter.skip, Sets.newHashSet("false"));
+        assertEquals(reader.find(filters).count(), 2L);
+        reader.getRecords(filters).forEach(r -> {
+            assertEquals(r.getStrings(FileProvenanceColumn.ROOT_SAMPLE_NAMES), Arrays.asList("TEST_0003"));
+            assertNotNull(r.getInt(FileProvenanceColumn.FILE_SWID));
+        });
+    }
+
     private Map<String, CSVRecord> executeClient(List<String> inputArgs) throws IOException {
         File output = File.createTempFile("fpr", ".tsv", tmpDir);
         output.deleteOnExit();
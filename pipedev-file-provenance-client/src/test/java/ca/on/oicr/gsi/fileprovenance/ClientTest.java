@@ -0,0 +1,45 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class ClientTest {
+
+    @Test
+    public void releasingListIteratorTest() {
+        List<String> records = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        Iterator<String> it = Client.releasingIterator(records);
+        assertEquals(it.next(), "a");
+        assertEquals(records, Arrays.asList(null, "b", "c"));
+        assertEquals(it.next(), "b");
+        assertEquals(it.next(), "c");
+        assertFalse(it.hasNext());
+        assertEquals(records, Arrays.asList(null, null, null));
+    }
+
+    @Test
+    public void releasingQueueIteratorTest() {
+        Deque<String> records = new ArrayDeque<>(Arrays.asList("a", "b"));
+        Iterator<String> it = Client.releasingIterator(records);
+        assertEquals(it.next(), "a");
+        assertEquals(records.size(), 1);
+        assertEquals(it.next(), "b");
+        assertTrue(records.isEmpty());
+    }
+
+    @Test
+    public void readOnlyListIteratorTest() {
+        List<String> records = Collections.unmodifiableList(Arrays.asList("a", "b"));
+        List<String> consumed = new ArrayList<>();
+        Client.releasingIterator(records).forEachRemaining(consumed::add);
+        assertEquals(consumed, records);
+    }
+
+}
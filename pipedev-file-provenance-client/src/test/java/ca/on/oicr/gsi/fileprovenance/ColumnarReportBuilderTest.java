@@ -0,0 +1,109 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.FileProvenanceFilter;
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ColumnarReportBuilderTest {
+
+    private Path dir;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("columnar-report");
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private List<FileProvenance> getRecords() {
+        FileProvenance laneRecord = new FileProvenanceTestData()
+                .setList("getSequencerRunNames", "RUN_0001")
+                .setList("getLaneNames", "RUN_0001_lane_2")
+                .setList("getLaneNumbers", "2")
+                .set("getFileSWID", 3)
+                .set("getFilePath", "/tmp/lane.txt")
+                .setLimsKey(20, "pinery", "RUN_0001_lane_2", "v1", null)
+                .build();
+        return Arrays.asList(FileProvenanceTestData.record(1).build(),
+                FileProvenanceTestData.record(2).setList("getSampleNames", "TEST_0002_Pa_P_PE_300_WG").build(),
+                laneRecord);
+    }
+
+    private ColumnarFileProvenanceReader write(List<FileProvenance> records) throws IOException {
+        Path path = dir.resolve("fpr.columnar");
+        new ColumnarReportBuilder().writeReport(records.iterator(), path);
+        return ColumnarFileProvenanceReader.open(path);
+    }
+
+    private List<Integer> find(ColumnarFileProvenanceReader reader, FileProvenanceFilter filter, String... values) {
+        Set<String> valueSet = ImmutableSet.copyOf(values);
+        return reader.find(ImmutableMap.of(filter, valueSet)).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        ColumnarFileProvenanceReader reader = write(getRecords());
+        assertEquals(reader.size(), 3);
+        assertEquals(reader.getInt(FileProvenanceColumn.FILE_SWID, 0), Integer.valueOf(1));
+        assertEquals(reader.getString(FileProvenanceColumn.FILE_PATH, 1), "/tmp/file2.txt");
+        assertEquals(reader.getStrings(FileProvenanceColumn.SAMPLE_NAMES, 1), Arrays.asList("TEST_0002_Pa_P_PE_300_WG"));
+        assertEquals(reader.getStrings(FileProvenanceColumn.SAMPLE_NAMES, 2), Collections.emptyList());
+        assertNull(reader.getInt(FileProvenanceColumn.WORKFLOW_SWID, 2));
+        assertNull(reader.getString(FileProvenanceColumn.WORKFLOW_NAME, 2));
+        assertEquals(reader.getAttributes(FileProvenanceColumn.SAMPLE_ATTRIBUTES, 0).get("geo_tissue_type"), ImmutableSet.of("P"));
+        assertEquals(reader.getStrings(FileProvenanceColumn.LIMS_IDS, 2), Arrays.asList("RUN_0001_lane_2"));
+        assertEquals(reader.find(Collections.emptyMap()).count(), 3L);
+
+        //no temporary files are left next to the output
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(files.count(), 1L);
+        }
+    }
+
+    @Test
+    public void filterTest() throws IOException {
+        ColumnarFileProvenanceReader reader = write(getRecords());
+        assertEquals(find(reader, FileProvenanceFilter.study, "TEST_STUDY"), Arrays.asList(0, 1));
+        assertEquals(find(reader, FileProvenanceFilter.sample, "TEST_0002_Pa_P_PE_300_WG"), Arrays.asList(1));
+        assertEquals(find(reader, FileProvenanceFilter.sample, "1_1_1"), Arrays.asList(0));
+        //the lane record's LimsKey is a lane provenance id, not a sample provenance id
+        assertEquals(find(reader, FileProvenanceFilter.sample, "RUN_0001_lane_2"), Collections.emptyList());
+        assertEquals(find(reader, FileProvenanceFilter.lane, "2"), Arrays.asList(2));
+        assertEquals(find(reader, FileProvenanceFilter.lane, "RUN_0001_lane_2"), Collections.emptyList());
+        assertEquals(find(reader, FileProvenanceFilter.file, "2", "3"), Arrays.asList(1, 2));
+        assertEquals(find(reader, FileProvenanceFilter.sequencer_run, "RUN_0001"), Arrays.asList(0, 1, 2));
+    }
+
+    @Test(expectedExceptions = FileAlreadyExistsException.class)
+    public void existingOutputTest() throws IOException {
+        Path path = Files.createFile(dir.resolve("fpr.columnar"));
+        try {
+            new ColumnarReportBuilder().writeReport(getRecords().iterator(), path);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(files.sorted(Comparator.naturalOrder()).collect(Collectors.toList()), Arrays.asList(path));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import ca.on.oicr.gsi.provenance.model.IusLimsKey;
+import ca.on.oicr.gsi.provenance.model.LimsKey;
+import java.lang.reflect.Proxy;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Builds FileProvenance test records - getters that have not been set return null, or an empty collection or map.
+ */
+class FileProvenanceTestData {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    FileProvenanceTestData set(String getter, Object value) {
+        values.put(getter, value);
+        return this;
+    }
+
+    FileProvenanceTestData setList(String getter, String... value) {
+        return set(getter, Arrays.asList(value));
+    }
+
+    FileProvenanceTestData setAttribute(String getter, String key, String... value) {
+        @SuppressWarnings("unchecked")
+        SortedMap<String, SortedSet<String>> attributes = (SortedMap<String, SortedSet<String>>) values.computeIfAbsent(getter,
+                k -> new TreeMap<>());
+        attributes.put(key, new TreeSet<>(Arrays.asList(value)));
+        return this;
+    }
+
+    FileProvenanceTestData setLimsKey(int iusSwid, String provider, String id, String version, ZonedDateTime lastModified) {
+        LimsKey limsKey = proxy(LimsKey.class, map("getProvider", provider, "getId", id, "getVersion", version, "getLastModified",
+                lastModified));
+        IusLimsKey iusLimsKey = proxy(IusLimsKey.class, map("getIusSWID", iusSwid, "getLimsKey", limsKey));
+        return set("getIusLimsKeys", Collections.singletonList(iusLimsKey));
+    }
+
+    FileProvenance build() {
+        return proxy(FileProvenance.class, new HashMap<>(values));
+    }
+
+    /**
+     * @param fileSwid the file SWID
+     *
+     * @return a file provenance record with the values that are usually set
+     */
+    static FileProvenanceTestData record(int fileSwid) {
+        return new FileProvenanceTestData()
+                .set("getLastModified", ZonedDateTime.parse("2018-01-01T00:00:00Z"))
+                .setList("getStudyTitles", "TEST_STUDY")
+                .setList("getSampleNames", "TEST_0001_Pa_P_PE_300_WG")
+                .setList("getRootSampleNames", "TEST_0001")
+                .setList("getSequencerRunNames", "RUN_0001")
+                .setList("getLaneNames", "RUN_0001_lane_1")
+                .setList("getLaneNumbers", "1")
+                .setList("getIusSWIDs", "10")
+                .setAttribute("getSampleAttributes", "geo_tissue_type", "P")
+                .set("getWorkflowName", "TestWorkflow")
+                .set("getWorkflowSWID", 2)
+                .set("getWorkflowRunStatus", "completed")
+                .set("getWorkflowRunSWID", 3)
+                .set("getProcessingSWID", 4)
+                .set("getProcessingStatus", "success")
+                .set("getFileMetaType", "text/plain")
+                .set("getFileSWID", fileSwid)
+                .set("getFilePath", "/tmp/file" + fileSwid + ".txt")
+                .set("getStatus", FileProvenance.Status.OKAY)
+                .setLimsKey(10, "pinery", "1_1_" + fileSwid, "v1", ZonedDateTime.parse("2018-01-01T00:00:00Z"));
+    }
+
+    private static Map<String, Object> map(Object... keyValues) {
+        Map<String, Object> m = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            m.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return m;
+    }
+
+    private static <T> T proxy(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return type.getSimpleName() + values;
+                default:
+                    break;
+            }
+            if (values.containsKey(method.getName())) {
+                return values.get(method.getName());
+            }
+            if (Collection.class.isAssignableFrom(method.getReturnType())) {
+                return Collections.emptyList();
+            }
+            if (SortedMap.class.isAssignableFrom(method.getReturnType())) {
+                return new TreeMap<>();
+            }
+            return null;
+        }));
+    }
+
+}
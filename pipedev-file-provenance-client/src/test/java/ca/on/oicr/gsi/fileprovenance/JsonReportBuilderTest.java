@@ -0,0 +1,56 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class JsonReportBuilderTest {
+
+    private Path dir;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("json-report");
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void reportTest() throws IOException {
+        List<FileProvenance> records = Arrays.asList(FileProvenanceTestData.record(1).build(), FileProvenanceTestData.record(2).build());
+        Path path = dir.resolve("fpr.json");
+        new JsonReportBuilder().writeReport(records.iterator(), path);
+
+        JsonNode report = new ObjectMapper().readTree(path.toFile());
+        assertTrue(report.isArray());
+        assertEquals(report.size(), 2);
+        assertEquals(report.get(0).get("fileSWID").asInt(), 1);
+        assertEquals(report.get(1).get("fileSWID").asInt(), 2);
+        assertEquals(report.get(1).get("filePath").asText(), "/tmp/file2.txt");
+    }
+
+    @Test
+    public void emptyReportTest() throws IOException {
+        Path path = dir.resolve("fpr.json");
+        new JsonReportBuilder().writeReport(Collections.<FileProvenance>emptyIterator(), path);
+
+        JsonNode report = new ObjectMapper().readTree(path.toFile());
+        assertTrue(report.isArray());
+        assertEquals(report.size(), 0);
+    }
+
+}
@@ -0,0 +1,130 @@
+package ca.on.oicr.gsi.fileprovenance;
+
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TsvReportBuilderTest {
+
+    private Path dir;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tsv-report");
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void reportTest() throws IOException {
+        List<FileProvenance> records = Arrays.asList(FileProvenanceTestData.record(1).build(), FileProvenanceTestData.record(2).build());
+        Path path = dir.resolve("fpr.tsv");
+        new TsvReportBuilder().writeReport(records.iterator(), path);
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertEquals(lines.size(), 3);
+        assertTrue(lines.get(0).startsWith("Last Modified\tStudy Title\t"));
+        assertEquals(lines.get(1).split("\t", -1).length, lines.get(0).split("\t", -1).length);
+        assertTrue(lines.get(1).contains("\t/tmp/file1.txt\t"));
+        assertTrue(lines.get(2).contains("\t/tmp/file2.txt\t"));
+    }
+
+    @Test
+    public void lastModifiedFormatTest() throws IOException {
+        //the week-based year of 2018-12-31 is 2019
+        FileProvenance record = FileProvenanceTestData.record(1)
+                .set("getLastModified", ZonedDateTime.parse("2018-12-31T17:00:00Z"))
+                .build();
+        Path path = dir.resolve("fpr.tsv");
+        new TsvReportBuilder().writeReport(Arrays.asList(record).iterator(), path);
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertTrue(lines.get(1).startsWith("2018-12-31 12:00:00.000\t"), lines.get(1));
+    }
+
+    @Test(expectedExceptions = FileAlreadyExistsException.class)
+    public void existingOutputTest() throws IOException {
+        Path path = Files.createFile(dir.resolve("fpr.tsv"));
+        new TsvReportBuilder().writeReport(Arrays.asList(FileProvenanceTestData.record(1).build()).iterator(), path);
+    }
+
+    @Test
+    public void existingSplitOutputTest() throws IOException {
+        Files.createFile(dir.resolve("fpr.00002.tsv.gz"));
+        Path path = dir.resolve("fpr.tsv.gz");
+        TsvReportBuilder reportBuilder = new TsvReportBuilder(1, true, 1);
+        try {
+            reportBuilder.checkOutputFilePath(path);
+            fail("Expected the existing report file to be rejected");
+        } catch (FileAlreadyExistsException ex) {
+            assertEquals(ex.getFile(), dir.resolve("fpr.00002.tsv.gz").toString());
+        }
+        try {
+            reportBuilder.writeReport(Arrays.asList(FileProvenanceTestData.record(1).build()).iterator(), path);
+            fail("Expected the existing report file to be rejected");
+        } catch (FileAlreadyExistsException ex) {
+            //nothing is written when a report file already exists
+            assertFalse(Files.exists(dir.resolve("fpr.00001.tsv.gz")));
+        }
+
+        //the unsplit output path is not written when the report is split
+        Files.createFile(dir.resolve("other.tsv"));
+        reportBuilder.checkOutputFilePath(dir.resolve("other.tsv"));
+    }
+
+    @Test
+    public void parallelGzipSplitReportTest() throws IOException {
+        //enough records to span several format chunks and report files
+        List<FileProvenance> records = IntStream.range(0, 2500)
+                .mapToObj(i -> FileProvenanceTestData.record(i).setList("getSampleNames", "TEST_" + (i / 7)).build())
+                .collect(Collectors.toList());
+
+        Path serialPath = dir.resolve("serial.tsv");
+        new TsvReportBuilder().writeReport(records.iterator(), serialPath);
+        List<String> expected = Files.readAllLines(serialPath, StandardCharsets.UTF_8);
+
+        Path path = dir.resolve("fpr.tsv.gz");
+        new TsvReportBuilder(3, true, 700).writeReport(records.iterator(), path);
+        assertFalse(Files.exists(path));
+
+        List<String> actual = new ArrayList<>();
+        for (int fileNumber = 1; fileNumber <= 4; fileNumber++) {
+            List<String> lines = readGzipLines(dir.resolve(String.format("fpr.%05d.tsv.gz", fileNumber)));
+            assertEquals(lines.get(0), expected.get(0));
+            assertEquals(lines.size() - 1, fileNumber < 4 ? 700 : 400);
+            if (actual.isEmpty()) {
+                actual.add(lines.get(0));
+            }
+            actual.addAll(lines.subList(1, lines.size()));
+        }
+        assertFalse(Files.exists(dir.resolve("fpr.00005.tsv.gz")));
+        assertEquals(actual, expected);
+    }
+
+    private static List<String> readGzipLines(Path path) throws IOException {
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(path))) {
+            return IOUtils.readLines(is, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,446 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.AnalysisProvenance;
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The providers of a {@link ProviderLoader}, decorated with per-provider timeouts and latency tracking.
+ * <p>
+ * The provenance client still joins the analysis, sample and lane provenance (concurrently, with a multi-threaded provenance client).
+ * Requests to a provider with a "timeoutSeconds" provider setting run on the executor (virtual threads when the JVM supports them), so
+ * the caller fails with an exception when the provider does not respond in time rather than stalling the decider. The request itself is
+ * not cancelled, as its result may be shared with other callers (see {@link PineryClientPool}) and is reused by the provider index.
+ * Requests to other providers run on the calling thread. {@link #prefetch()} starts loading the enabled LIMS provider indexes
+ * (see {@link ProvenanceIndex}) on the executor, so the LIMS downloads overlap with the analysis provenance request of the join.
+ * <p>
+ * Sample and lane provenance filters that a {@link FilterPushdownProvider} does not apply itself are applied to its results (see
+ * {@link ProvenanceFilters}), so the provenance client receives the same records from every provider.
+ */
+public class ConcurrentProvenanceProviders implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Map<String, AnalysisProvenanceProvider> analysisProvenanceProviders = new LinkedHashMap<>();
+    private final Map<String, SampleProvenanceProvider> sampleProvenanceProviders = new LinkedHashMap<>();
+    private final Map<String, LaneProvenanceProvider> laneProvenanceProviders = new LinkedHashMap<>();
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * Decorate the providers with an executor created by {@link #createExecutor()}, which is shut down when this is closed.
+     *
+     * @param providerLoader the providers
+     */
+    public ConcurrentProvenanceProviders(ProviderLoader providerLoader) {
+        this(providerLoader, createExecutor(), true);
+    }
+
+    /**
+     * @param providerLoader the providers
+     * @param executor       the executor that runs the provider requests, which is not shut down when this is closed
+     */
+    public ConcurrentProvenanceProviders(ProviderLoader providerLoader, ExecutorService executor) {
+        this(providerLoader, executor, false);
+    }
+
+    private ConcurrentProvenanceProviders(ProviderLoader providerLoader, ExecutorService executor, boolean ownsExecutor) {
+        this(providerLoader.getAnalysisProvenanceProviders(), providerLoader.getSampleProvenanceProviders(),
+                providerLoader.getLaneProvenanceProviders(), getTimeouts(providerLoader), executor, ownsExecutor);
+    }
+
+    ConcurrentProvenanceProviders(Map<String, AnalysisProvenanceProvider> analysisProvenanceProviders,
+            Map<String, SampleProvenanceProvider> sampleProvenanceProviders, Map<String, LaneProvenanceProvider> laneProvenanceProviders,
+            Map<String, Duration> timeouts, ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        analysisProvenanceProviders.forEach((name, provider) -> this.analysisProvenanceProviders.put(name,
+                new TimedAnalysisProvenanceProvider(new Caller(name, timeouts.get(name)), provider)));
+        sampleProvenanceProviders.forEach((name, provider) -> this.sampleProvenanceProviders.put(name,
+                new TimedSampleProvenanceProvider(new Caller(name, timeouts.get(name)), provider)));
+        laneProvenanceProviders.forEach((name, provider) -> this.laneProvenanceProviders.put(name,
+                new TimedLaneProvenanceProvider(new Caller(name, timeouts.get(name)), provider)));
+    }
+
+    /**
+     * Create an executor for provider requests: a virtual thread per task executor if the JVM supports virtual threads, otherwise a
+     * cached pool of daemon threads.
+     *
+     * @return the executor
+     */
+    public static ExecutorService createExecutor() {
+        try {
+            //virtual threads are available from Java 21, this is built for Java 8
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "provenance-provider-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static Map<String, Duration> getTimeouts(ProviderLoader providerLoader) {
+        Map<String, Duration> timeouts = new HashMap<>();
+        for (ProviderLoader.Provider p : providerLoader.getProviders()) {
+            Duration timeout = getTimeout(p.getProviderSettings());
+            if (timeout != null) {
+                timeouts.put(p.getProvider(), timeout);
+            }
+        }
+        return timeouts;
+    }
+
+    private static Duration getTimeout(Map<String, String> settings) {
+        String timeout = settings == null ? null : settings.get("timeoutSeconds");
+        if (timeout == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(timeout));
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Invalid \"timeoutSeconds\" setting: " + timeout, ex);
+        }
+    }
+
+    public Map<String, AnalysisProvenanceProvider> getAnalysisProvenanceProviders() {
+        return Collections.unmodifiableMap(analysisProvenanceProviders);
+    }
+
+    public Map<String, SampleProvenanceProvider> getSampleProvenanceProviders() {
+        return Collections.unmodifiableMap(sampleProvenanceProviders);
+    }
+
+    public Map<String, LaneProvenanceProvider> getLaneProvenanceProviders() {
+        return Collections.unmodifiableMap(laneProvenanceProviders);
+    }
+
+    /**
+     * Register the decorated providers with a provenance client.
+     *
+     * @param provenanceClient the provenance client
+     */
+    public void registerWith(DefaultProvenanceClient provenanceClient) {
+        analysisProvenanceProviders.forEach(provenanceClient::registerAnalysisProvenanceProvider);
+        sampleProvenanceProviders.forEach(provenanceClient::registerSampleProvenanceProvider);
+        laneProvenanceProviders.forEach(provenanceClient::registerLaneProvenanceProvider);
+    }
+
+    /**
+     * Start loading the sample and lane provenance of the providers that answer filtered requests from an index (see
+     * {@link FilterPushdownProvider#isIndexed()}), the providers with a disabled index are not loaded as every request loads them again.
+     * The requests run in the background, so call this once the provenance is known to be requested.
+     * <p>
+     * A failed load is not cached, so the next request to the provider loads the provenance again (and fails if the provider is still
+     * failing). The returned future reports the prefetch failures, e.g. to be logged once the file provenance has been retrieved.
+     *
+     * @return completes when all loads have completed, exceptionally with the first failure (later failures are suppressed)
+     */
+    public CompletableFuture<Void> prefetch() {
+        List<CompletableFuture<?>> loads = new ArrayList<>();
+        for (SampleProvenanceProvider p : sampleProvenanceProviders.values()) {
+            TimedSampleProvenanceProvider timed = (TimedSampleProvenanceProvider) p;
+            if (isIndexed(timed.delegate)) {
+                loads.add(CompletableFuture.runAsync(() -> timed.delegate.getSampleProvenance(Collections.emptyMap()), executor));
+            }
+        }
+        for (LaneProvenanceProvider p : laneProvenanceProviders.values()) {
+            TimedLaneProvenanceProvider timed = (TimedLaneProvenanceProvider) p;
+            if (isIndexed(timed.delegate)) {
+                loads.add(CompletableFuture.runAsync(() -> timed.delegate.getLaneProvenance(Collections.emptyMap()), executor));
+            }
+        }
+        CompletableFuture<Void> prefetch = new CompletableFuture<>();
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[loads.size()])).whenComplete((result, ex) -> {
+            Throwable failure = null;
+            for (CompletableFuture<?> load : loads) {
+                try {
+                    load.join();
+                } catch (CompletionException | CancellationException loadException) {
+                    Throwable cause = loadException.getCause() == null ? loadException : loadException.getCause();
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            if (failure == null) {
+                prefetch.complete(null);
+            } else {
+                prefetch.completeExceptionally(failure);
+            }
+        });
+        return prefetch;
+    }
+
+    private static boolean isIndexed(Object provider) {
+        return provider instanceof FilterPushdownProvider && ((FilterPushdownProvider) provider).isIndexed();
+    }
+
+    /**
+     * @return the request latencies, by provider name and request (e.g. "pinery getSampleProvenance")
+     */
+    public SortedMap<String, Latency> getLatencies() {
+        return new TreeMap<>(latencies);
+    }
+
+    /**
+     * @return a one line summary of the request latencies
+     */
+    public String getLatencySummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Latency> e : getLatencies().entrySet()) {
+            sb.append('[').append(e.getKey()).append(": ").append(e.getValue()).append("] ");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Shut down the executor if it was created by this, interrupting requests that are still running (e.g. requests that timed out).
+     * The providers are closed by the provenance client.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The latency of the requests to a provider.
+     */
+    public static class Latency {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder failures = new LongAdder();
+
+        private void record(long nanos, boolean failed) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            if (failed) {
+                failures.increment();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public Duration getTotal() {
+            return Duration.ofNanos(totalNanos.sum());
+        }
+
+        public Duration getMax() {
+            return Duration.ofNanos(maxNanos.get());
+        }
+
+        /**
+         * @return the number of requests that failed or timed out
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d total=%.3fs max=%.3fs failures=%d", getCount(), totalNanos.sum() / 1e9, maxNanos.get() / 1e9,
+                    getFailures());
+        }
+    }
+
+    private class Caller {
+
+        private final String provider;
+        private final Duration timeout;
+
+        private Caller(String provider, Duration timeout) {
+            this.provider = provider;
+            this.timeout = timeout;
+        }
+
+        private <T> T call(String request, Callable<T> callable) {
+            String name = provider + " " + request;
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = timeout == null ? callable.call() : callWithTimeout(request, callable);
+                failed = false;
+                return result;
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException("Provider [" + provider + "] " + request + " request failed", ex);
+            } finally {
+                latencies.computeIfAbsent(name, k -> new Latency()).record(System.nanoTime() - start, failed);
+            }
+        }
+
+        private <T> T callWithTimeout(String request, Callable<T> callable) throws Exception {
+            Future<T> future = executor.submit(callable);
+            try {
+                return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                // only this caller stops waiting, the request may be shared with other callers
+                throw new RuntimeException("Provider [" + provider + "] " + request + " request timed out after " + timeout, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Get the filters that a provider does not apply itself and that can be applied to its results. Providers that do not implement
+     * {@link FilterPushdownProvider} apply all filters themselves.
+     *
+     * @param provider   the provider
+     * @param filters    the requested filters
+     * @param applicable the filters that can be applied to the provenance type
+     * @param supported  gets the filters that the provider applies to the provenance type
+     *
+     * @return the filters that must be applied to the provider results
+     */
+    static Map<FileProvenanceFilter, Set<String>> getUnsupportedFilters(Object provider, Map<FileProvenanceFilter, Set<String>> filters,
+            Set<FileProvenanceFilter> applicable, Function<FilterPushdownProvider, Set<FileProvenanceFilter>> supported) {
+        if (!(provider instanceof FilterPushdownProvider) || filters.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<FileProvenanceFilter, Set<String>> unsupported = ProvenanceFilters.getUnsupportedFilters(filters,
+                supported.apply((FilterPushdownProvider) provider));
+        unsupported.keySet().retainAll(applicable);
+        return unsupported;
+    }
+
+    private static class TimedAnalysisProvenanceProvider implements AnalysisProvenanceProvider {
+
+        private final Caller caller;
+        private final AnalysisProvenanceProvider delegate;
+
+        private TimedAnalysisProvenanceProvider(Caller caller, AnalysisProvenanceProvider delegate) {
+            this.caller = caller;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Collection<? extends AnalysisProvenance> getAnalysisProvenance() {
+            return caller.call("getAnalysisProvenance", delegate::getAnalysisProvenance);
+        }
+
+        @Override
+        public Collection<? extends AnalysisProvenance> getAnalysisProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+            return caller.call("getAnalysisProvenance", () -> delegate.getAnalysisProvenance(filters));
+        }
+
+        @Override
+        public void close() throws Exception {
+            delegate.close();
+        }
+    }
+
+    private static class TimedSampleProvenanceProvider implements SampleProvenanceProvider, FilterPushdownProvider {
+
+        private final Caller caller;
+        private final SampleProvenanceProvider delegate;
+
+        private TimedSampleProvenanceProvider(Caller caller, SampleProvenanceProvider delegate) {
+            this.caller = caller;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Collection<? extends SampleProvenance> getSampleProvenance() {
+            return caller.call("getSampleProvenance", delegate::getSampleProvenance);
+        }
+
+        @Override
+        public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+            Map<FileProvenanceFilter, Set<String>> unsupported = getUnsupportedFilters(delegate, filters,
+                    ProvenanceFilters.SAMPLE_PROVENANCE_FILTERS, FilterPushdownProvider::getSupportedSampleProvenanceFilters);
+            Collection<? extends SampleProvenance> sps = caller.call("getSampleProvenance", () -> delegate.getSampleProvenance(filters));
+            return unsupported.isEmpty() ? sps : ProvenanceFilters.filterSampleProvenance(sps, unsupported);
+        }
+
+        @Override
+        public Set<FileProvenanceFilter> getSupportedSampleProvenanceFilters() {
+            return ProvenanceFilters.SAMPLE_PROVENANCE_FILTERS;
+        }
+
+        @Override
+        public void close() throws Exception {
+            delegate.close();
+        }
+    }
+
+    private static class TimedLaneProvenanceProvider implements LaneProvenanceProvider, FilterPushdownProvider {
+
+        private final Caller caller;
+        private final LaneProvenanceProvider delegate;
+
+        private TimedLaneProvenanceProvider(Caller caller, LaneProvenanceProvider delegate) {
+            this.caller = caller;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Collection<? extends LaneProvenance> getLaneProvenance() {
+            return caller.call("getLaneProvenance", delegate::getLaneProvenance);
+        }
+
+        @Override
+        public Collection<? extends LaneProvenance> getLaneProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+            Map<FileProvenanceFilter, Set<String>> unsupported = getUnsupportedFilters(delegate, filters,
+                    ProvenanceFilters.LANE_PROVENANCE_FILTERS, FilterPushdownProvider::getSupportedLaneProvenanceFilters);
+            Collection<? extends LaneProvenance> lps = caller.call("getLaneProvenance", () -> delegate.getLaneProvenance(filters));
+            return unsupported.isEmpty() ? lps : ProvenanceFilters.filterLaneProvenance(lps, unsupported);
+        }
+
+        @Override
+        public Set<FileProvenanceFilter> getSupportedLaneProvenanceFilters() {
+            return ProvenanceFilters.LANE_PROVENANCE_FILTERS;
+        }
+
+        @Override
+        public void close() throws Exception {
+            delegate.close();
+        }
+    }
+
+}
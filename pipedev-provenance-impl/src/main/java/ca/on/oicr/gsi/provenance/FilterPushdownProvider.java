@@ -0,0 +1,38 @@
+package ca.on.oicr.gsi.provenance;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A provenance provider that applies some {@link FileProvenanceFilter} filters itself (server-side or by indexed lookup) rather than
+ * returning all records.
+ * <p>
+ * The filtered get provenance methods of the provider apply the supported filters of the requested provenance type and ignore the
+ * others. {@link ConcurrentProvenanceProviders} applies the remaining filters that can be evaluated on the provenance type (see
+ * {@link ProvenanceFilters#SAMPLE_PROVENANCE_FILTERS} and {@link ProvenanceFilters#LANE_PROVENANCE_FILTERS}) to the provider results.
+ */
+public interface FilterPushdownProvider {
+
+    /**
+     * @return the filters that are applied by the provider to sample provenance requests
+     */
+    default Set<FileProvenanceFilter> getSupportedSampleProvenanceFilters() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return the filters that are applied by the provider to lane provenance requests
+     */
+    default Set<FileProvenanceFilter> getSupportedLaneProvenanceFilters() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return true if the provider loads all records once and answers the filtered requests from an index of them (see
+     *         {@link ProvenanceIndex}), so a request with no filters loads the records for later requests
+     */
+    default boolean isIndexed() {
+        return false;
+    }
+
+}
@@ -0,0 +1,275 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.pinery.client.HttpResponseException;
+import ca.on.oicr.pinery.client.PineryClient;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * A pool of Pinery clients for one Pinery url, shared by the Pinery provenance providers that use the url.
+ * <p>
+ * A PineryClient can only handle one request at a time, so the pool lends each request its own client and limits the number of
+ * concurrent requests to "maxConnections". Clients (and their connections) are created on demand and reused by later requests.
+ * Concurrent requests with the same key are coalesced: the first request downloads the payload and the others wait for and share its
+ * result, so concurrent sample and lane provenance fetches never download the same payload twice.
+ * <p>
+ * The pool is reference counted: each provider calls {@link #retain()} when it starts using the pool and {@link #close()} when it is
+ * closed, the clients are closed when the last provider is closed. Clients that are executing a request at that time are closed when
+ * the request completes.
+ */
+public class PineryClientPool implements AutoCloseable {
+
+    /**
+     * The default maximum number of concurrent requests, the provider settings key "maxConnections" overrides it.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 2;
+
+    /**
+     * A request that is executed with a pooled client.
+     *
+     * @param <T> the response type
+     */
+    @FunctionalInterface
+    public interface Request<T> {
+
+        T execute(PineryClient client) throws HttpResponseException;
+    }
+
+    private final Supplier<PineryClient> clientFactory;
+    private final Semaphore permits;
+    // guarded by this pool, clients that are in use are not in the pool
+    private final Deque<PineryClient> idleClients = new ArrayDeque<>();
+    private final Map<String, CompletableFuture<Object>> inFlightRequests = new ConcurrentHashMap<>();
+    private int maxConnections;
+    private int references = 0;
+    private boolean closed = false;
+
+    /**
+     * @param url            the Pinery url
+     * @param maxConnections the maximum number of concurrent requests
+     */
+    public PineryClientPool(String url, int maxConnections) {
+        this(() -> new PineryClient(url, true), maxConnections);
+    }
+
+    /**
+     * @param clientFactory  creates a client when all clients are in use
+     * @param maxConnections the maximum number of concurrent requests
+     */
+    PineryClientPool(Supplier<PineryClient> clientFactory, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.clientFactory = clientFactory;
+        this.permits = new Semaphore(maxConnections, true);
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Create a pool with a single, existing client.
+     *
+     * @param client the client, which is closed when the pool is closed
+     *
+     * @return the pool
+     */
+    public static PineryClientPool of(PineryClient client) {
+        PineryClientPool pool = new PineryClientPool(() -> {
+            throw new IllegalStateException("Single client pool can not create clients");
+        }, 1);
+        pool.idleClients.add(client);
+        return pool;
+    }
+
+    /**
+     * Get the maximum number of concurrent requests from provider settings.
+     *
+     * @param settings the provider settings
+     *
+     * @return the "maxConnections" setting or {@link #DEFAULT_MAX_CONNECTIONS}
+     */
+    public static int getMaxConnections(Map<String, String> settings) {
+        String maxConnections = settings.get("maxConnections");
+        if (maxConnections == null) {
+            return DEFAULT_MAX_CONNECTIONS;
+        }
+        try {
+            return Integer.parseInt(maxConnections);
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Invalid \"maxConnections\" setting: " + maxConnections, ex);
+        }
+    }
+
+    /**
+     * Raise the maximum number of concurrent requests, for providers that share the pool with different "maxConnections" settings.
+     *
+     * @param maxConnections the maximum number of concurrent requests, the current maximum is kept if it is higher
+     */
+    public synchronized void ensureMaxConnections(int maxConnections) {
+        if (maxConnections > this.maxConnections) {
+            permits.release(maxConnections - this.maxConnections);
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    /**
+     * @return the maximum number of concurrent requests
+     */
+    public synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Add a reference to the pool.
+     *
+     * @return this pool
+     */
+    public synchronized PineryClientPool retain() {
+        if (closed) {
+            throw new IllegalStateException("Pinery client pool is closed");
+        }
+        references++;
+        return this;
+    }
+
+    /**
+     * Execute a request with a pooled client. If a request with the same key is in progress, wait for and return its result instead.
+     *
+     * @param <T>     the response type
+     * @param key     identifies the payload of the request (e.g. the resource and version)
+     * @param request the request
+     *
+     * @return the response, which is shared with coalesced requests and must not be modified
+     *
+     * @throws HttpResponseException if the request failed
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Request<T> request) throws HttpResponseException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlightRequest = inFlightRequests.putIfAbsent(key, future);
+        if (inFlightRequest != null) {
+            return (T) await(inFlightRequest);
+        }
+        try {
+            T response = executeWithClient(request);
+            future.complete(response);
+            return response;
+        } catch (HttpResponseException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightRequests.remove(key, future);
+        }
+    }
+
+    private <T> T executeWithClient(Request<T> request) throws HttpResponseException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        try {
+            PineryClient client = borrowClient();
+            T response;
+            try {
+                response = request.execute(client);
+            } catch (HttpResponseException | RuntimeException ex) {
+                Exception closeException = returnClient(client);
+                if (closeException != null) {
+                    ex.addSuppressed(closeException);
+                }
+                throw ex;
+            }
+            Exception closeException = returnClient(client);
+            if (closeException != null) {
+                throw new RuntimeException("Unable to close Pinery client", closeException);
+            }
+            return response;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private synchronized PineryClient borrowClient() {
+        if (closed) {
+            throw new IllegalStateException("Pinery client pool is closed");
+        }
+        PineryClient client = idleClients.poll();
+        if (client == null) {
+            client = clientFactory.get();
+        }
+        return client;
+    }
+
+    /**
+     * Return a client to the pool, or close it if the pool was closed while the client was in use.
+     *
+     * @return the exception thrown by closing the client, or null
+     */
+    private synchronized Exception returnClient(PineryClient client) {
+        if (!closed) {
+            idleClients.add(client);
+            return null;
+        }
+        try {
+            client.close();
+            return null;
+        } catch (Exception ex) {
+            return ex;
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws HttpResponseException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof HttpResponseException) {
+                throw (HttpResponseException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Release a reference to the pool, the idle clients are closed when the last reference is released. Clients that are in use are
+     * closed when their request completes.
+     *
+     * @throws Exception if a client could not be closed
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        if (closed || --references > 0) {
+            return;
+        }
+        closed = true;
+        Exception closeException = null;
+        for (PineryClient client : idleClients) {
+            try {
+                client.close();
+            } catch (Exception ex) {
+                if (closeException == null) {
+                    closeException = ex;
+                } else {
+                    closeException.addSuppressed(ex);
+                }
+            }
+        }
+        idleClients.clear();
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+
+}
@@ -4,28 +4,29 @@ import ca.on.oicr.gsi.provenance.model.SampleProvenance;
 import ca.on.oicr.gsi.provenance.model.LaneProvenance;
 import ca.on.oicr.pinery.client.HttpResponseException;
 import ca.on.oicr.pinery.client.PineryClient;
-import com.google.common.collect.Sets;
+import java.time.Duration;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
  * @author mlaszloffy
  */
-public class PineryProvenanceProvider implements SampleProvenanceProvider, LaneProvenanceProvider {
+public class PineryProvenanceProvider implements SampleProvenanceProvider, LaneProvenanceProvider, FilterPushdownProvider {
 
     private static final String DEFAULT_VERSION = "v1";
-	private final PineryClient pineryClient;
+	private final PineryClientPool pineryClientPool;
     private final String version;
+    private final ProvenanceIndex<SampleProvenance> sampleProvenanceIndex;
+    private final ProvenanceIndex<LaneProvenance> laneProvenanceIndex;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public PineryProvenanceProvider(Map<String, String> settings) {
-        if (!settings.containsKey("url")) {
-            throw new RuntimeException("PineryProvenanceProvider \"url\" setting is missing");
-        }
-        this.pineryClient = new PineryClient(settings.get("url"), true);
-        version = settings.get("version");
+        this(new PineryClientPool(getUrl(settings), PineryClientPool.getMaxConnections(settings)), settings.get("version"),
+                ProvenanceIndex.getMaxAge(settings));
     }
 
     public PineryProvenanceProvider(String url) {
@@ -37,14 +38,42 @@ public class PineryProvenanceProvider implements SampleProvenanceProvider, LaneP
     }
     
     public PineryProvenanceProvider(PineryClient pineryClient, String version) {
-        this.pineryClient = pineryClient;
+        this(pineryClient, version, ProvenanceIndex.DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param pineryClient  the pinery client
+     * @param version       the pinery provenance version
+     * @param indexMaxAge   how long downloaded provenance is reused to answer filtered requests
+     */
+    public PineryProvenanceProvider(PineryClient pineryClient, String version, Duration indexMaxAge) {
+        this(PineryClientPool.of(pineryClient), version, indexMaxAge);
+    }
+
+    /**
+     * @param pineryClientPool the pinery client pool, which may be shared with other providers
+     * @param version          the pinery provenance version
+     * @param indexMaxAge      how long downloaded provenance is reused to answer filtered requests
+     */
+    public PineryProvenanceProvider(PineryClientPool pineryClientPool, String version, Duration indexMaxAge) {
+        this.pineryClientPool = pineryClientPool.retain();
         this.version = version;
+        this.sampleProvenanceIndex = ProvenanceIndex.forSampleProvenance(this::getSampleProvenance, indexMaxAge);
+        this.laneProvenanceIndex = ProvenanceIndex.forLaneProvenance(this::getLaneProvenance, indexMaxAge);
+    }
+
+    static String getUrl(Map<String, String> settings) {
+        if (!settings.containsKey("url")) {
+            throw new RuntimeException("PineryProvenanceProvider \"url\" setting is missing");
+        }
+        return settings.get("url");
     }
 
     @Override
     public Collection<? extends SampleProvenance> getSampleProvenance() {
         try {
-            return pineryClient.getSampleProvenance().version(version);
+            return Collections.unmodifiableCollection(
+                    pineryClientPool.execute("sample-provenance/" + version, client -> client.getSampleProvenance().version(version)));
         } catch (HttpResponseException hre) {
             throw new RuntimeException(hre);
         }
@@ -52,53 +81,15 @@ public class PineryProvenanceProvider implements SampleProvenanceProvider, LaneP
 
     @Override
     public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
-        Set<SampleProvenance> sps = new HashSet<>();
-        for (SampleProvenance sp : getSampleProvenance()) {
-            if (filters.containsKey(FileProvenanceFilter.sample)) {
-                Set<String> sampleValues = new HashSet<>();
-                if (sp.getSampleProvenanceId() != null) {
-                    sampleValues.add(sp.getSampleProvenanceId());
-                }
-                if (sp.getSampleName() != null) {
-                    sampleValues.add(sp.getSampleName());
-                }
-                if (Sets.intersection(sampleValues, filters.get(FileProvenanceFilter.sample)).isEmpty()) {
-                    continue;
-                }
-            }
-
-            if (filters.containsKey(FileProvenanceFilter.sequencer_run)) {
-                Set<String> sampleValues = new HashSet<>();
-                if (sp.getSequencerRunName() != null) {
-                    sampleValues.add(sp.getSequencerRunName());
-                }
-                if (Sets.intersection(sampleValues, filters.get(FileProvenanceFilter.sequencer_run)).isEmpty()) {
-                    continue;
-                }
-            }
-
-            if (filters.containsKey(FileProvenanceFilter.lane)) {
-                Set<String> sampleValues = new HashSet<>();
-                if (sp.getLaneNumber() != null) {
-                    sampleValues.add(sp.getLaneNumber());
-                }
-//                if (sp.getLaneName() != null) {
-//                    sampleValues.add(sp.getLaneName());
-//                }
-                if (Sets.intersection(sampleValues, filters.get(FileProvenanceFilter.lane)).isEmpty()) {
-                    continue;
-                }
-            }
-
-            sps.add(sp);
-        }
-        return sps;
+        //pinery does not support filtering, the downloaded sample provenance is indexed and reused by filtered requests
+        return sampleProvenanceIndex.get(filters);
     }
 
     @Override
     public Collection<? extends LaneProvenance> getLaneProvenance() {
         try {
-            return pineryClient.getLaneProvenance().version(version);
+            return Collections.unmodifiableCollection(
+                    pineryClientPool.execute("lane-provenance/" + version, client -> client.getLaneProvenance().version(version)));
         } catch (HttpResponseException hre) {
             throw new RuntimeException(hre);
         }
@@ -106,12 +97,37 @@ public class PineryProvenanceProvider implements SampleProvenanceProvider, LaneP
 
     @Override
     public Collection<LaneProvenance> getLaneProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return laneProvenanceIndex.get(filters);
+    }
+
+    /**
+     * Discard the indexed sample and lane provenance, the next filtered request downloads it again.
+     */
+    public void invalidate() {
+        sampleProvenanceIndex.invalidate();
+        laneProvenanceIndex.invalidate();
+    }
+
+    @Override
+    public Set<FileProvenanceFilter> getSupportedSampleProvenanceFilters() {
+        return sampleProvenanceIndex.getIndexedFilters();
+    }
+
+    @Override
+    public Set<FileProvenanceFilter> getSupportedLaneProvenanceFilters() {
+        return laneProvenanceIndex.getIndexedFilters();
+    }
+
+    @Override
+    public boolean isIndexed() {
+        return sampleProvenanceIndex.isEnabled();
     }
 
 	@Override
 	public void close() throws Exception {
-        pineryClient.close();
+        if (!closed.getAndSet(true)) {
+            pineryClientPool.close();
+        }
 	}
 
 }
@@ -0,0 +1,138 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Sample and lane provenance filtering by {@link FileProvenanceFilter} values, for callers that filter provenance records themselves
+ * (e.g. {@link ConcurrentProvenanceProviders} applies the filters that a {@link FilterPushdownProvider} does not support). The LIMS
+ * providers answer filtered requests with a {@link ProvenanceIndex} that matches records the same way.
+ * <p>
+ * The filters are compiled into a single predicate, so each record is checked with hash lookups and without per-record allocation.
+ */
+public final class ProvenanceFilters {
+
+    /**
+     * The filters that can be applied to sample provenance.
+     */
+    public static final Set<FileProvenanceFilter> SAMPLE_PROVENANCE_FILTERS = Collections.unmodifiableSet(EnumSet.of(
+            FileProvenanceFilter.study,
+            FileProvenanceFilter.sample,
+            FileProvenanceFilter.root_sample,
+            FileProvenanceFilter.sequencer_run,
+            FileProvenanceFilter.lane));
+
+    /**
+     * The filters that can be applied to lane provenance.
+     */
+    public static final Set<FileProvenanceFilter> LANE_PROVENANCE_FILTERS = Collections.unmodifiableSet(EnumSet.of(
+            FileProvenanceFilter.sequencer_run,
+            FileProvenanceFilter.lane));
+
+    private ProvenanceFilters() {
+    }
+
+    /**
+     * Get the predicate for sample provenance filters. The "sample" filter matches the sample provenance id or the sample name, filters
+     * other than {@link #SAMPLE_PROVENANCE_FILTERS} are ignored.
+     *
+     * @param filters the filters
+     *
+     * @return the predicate that matches sample provenance that passes all filters
+     */
+    public static Predicate<SampleProvenance> getSampleProvenancePredicate(Map<FileProvenanceFilter, Set<String>> filters) {
+        Predicate<SampleProvenance> predicate = sp -> true;
+        predicate = and(predicate, filters.get(FileProvenanceFilter.study), SampleProvenance::getStudyTitle);
+        Set<String> samples = filters.get(FileProvenanceFilter.sample);
+        if (samples != null) {
+            predicate = predicate.and(sp -> contains(samples, sp.getSampleProvenanceId()) || contains(samples, sp.getSampleName()));
+        }
+        predicate = and(predicate, filters.get(FileProvenanceFilter.root_sample), SampleProvenance::getRootSampleName);
+        predicate = and(predicate, filters.get(FileProvenanceFilter.sequencer_run), SampleProvenance::getSequencerRunName);
+        predicate = and(predicate, filters.get(FileProvenanceFilter.lane), SampleProvenance::getLaneNumber);
+        return predicate;
+    }
+
+    /**
+     * Get the predicate for lane provenance filters. Filters other than {@link #LANE_PROVENANCE_FILTERS} are ignored.
+     *
+     * @param filters the filters
+     *
+     * @return the predicate that matches lane provenance that passes all filters
+     */
+    public static Predicate<LaneProvenance> getLaneProvenancePredicate(Map<FileProvenanceFilter, Set<String>> filters) {
+        Predicate<LaneProvenance> predicate = lp -> true;
+        predicate = and(predicate, filters.get(FileProvenanceFilter.sequencer_run), LaneProvenance::getSequencerRunName);
+        predicate = and(predicate, filters.get(FileProvenanceFilter.lane), LaneProvenance::getLaneNumber);
+        return predicate;
+    }
+
+    /**
+     * Filter sample provenance in a single pass.
+     *
+     * @param sps     the sample provenance
+     * @param filters the filters, see {@link #getSampleProvenancePredicate(java.util.Map)}
+     *
+     * @return the sample provenance that passes all filters, in iteration order
+     */
+    public static List<SampleProvenance> filterSampleProvenance(Collection<? extends SampleProvenance> sps,
+            Map<FileProvenanceFilter, Set<String>> filters) {
+        Predicate<SampleProvenance> predicate = getSampleProvenancePredicate(filters);
+        return sps.stream().filter(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * Filter lane provenance in a single pass.
+     *
+     * @param lps     the lane provenance
+     * @param filters the filters, see {@link #getLaneProvenancePredicate(java.util.Map)}
+     *
+     * @return the lane provenance that passes all filters, in iteration order
+     */
+    public static List<LaneProvenance> filterLaneProvenance(Collection<? extends LaneProvenance> lps,
+            Map<FileProvenanceFilter, Set<String>> filters) {
+        Predicate<LaneProvenance> predicate = getLaneProvenancePredicate(filters);
+        return lps.stream().filter(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * Get the filters that a provider does not apply and that must be applied by the caller.
+     *
+     * @param filters   the requested filters
+     * @param supported the filters that the provider applies
+     *
+     * @return the filters that are not in supported
+     */
+    public static Map<FileProvenanceFilter, Set<String>> getUnsupportedFilters(Map<FileProvenanceFilter, Set<String>> filters,
+            Set<FileProvenanceFilter> supported) {
+        Map<FileProvenanceFilter, Set<String>> unsupported = new EnumMap<>(FileProvenanceFilter.class);
+        for (Map.Entry<FileProvenanceFilter, Set<String>> e : filters.entrySet()) {
+            if (!supported.contains(e.getKey())) {
+                unsupported.put(e.getKey(), e.getValue());
+            }
+        }
+        return unsupported;
+    }
+
+    private static <T> Predicate<T> and(Predicate<T> predicate, Set<String> values, Function<T, String> getter) {
+        if (values == null) {
+            return predicate;
+        }
+        return predicate.and(t -> contains(values, getter.apply(t)));
+    }
+
+    private static boolean contains(Set<String> values, String value) {
+        return value != null && values.contains(value);
+    }
+
+}
@@ -0,0 +1,285 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory copy of provider provenance with hash indexes on the {@link FileProvenanceFilter} values, used by the LIMS providers to
+ * answer filtered requests without scanning all records.
+ * <p>
+ * The index is loaded lazily on the first filtered request and reloaded when it is older than the maximum age or after
+ * {@link #invalidate()}. A maximum age of zero disables caching: every request loads all records and scans them, as building the
+ * indexes for a single request would cost more than the scan. Filtered requests look up the record positions of each filter value
+ * and intersect them, so the cost of a request depends on the number of matching records rather than the number of records. Filters
+ * that are not indexed are ignored (see {@link #getIndexedFilters()}).
+ * <p>
+ * While caching is enabled, the index holds a full copy of the provider's records for as long as the index (and so the provider) is
+ * reachable, not only until it expires - an expired index is replaced on the next request rather than released.
+ *
+ * @param <T> the provenance type
+ */
+public class ProvenanceIndex<T> {
+
+    /**
+     * The default maximum age of an index, the provider settings key "indexMaxAgeSeconds" overrides it. With the default, a provider
+     * keeps a full copy of its LIMS records in memory for as long as it lives - set "indexMaxAgeSeconds" to 0 for long-lived providers
+     * that should not.
+     */
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+
+    private final Supplier<? extends Collection<? extends T>> loader;
+    private final Map<FileProvenanceFilter, List<Function<? super T, String>>> keyFunctions;
+    private final long maxAgeNanos;
+    private volatile Snapshot<T> snapshot;
+
+    /**
+     * @param loader       loads all provenance records
+     * @param keyFunctions the indexed filters and the functions that get the record values matched by each filter
+     * @param maxAge       the maximum age of the index, zero disables caching
+     *
+     * @throws IllegalArgumentException if maxAge is negative
+     */
+    public ProvenanceIndex(Supplier<? extends Collection<? extends T>> loader,
+            Map<FileProvenanceFilter, List<Function<? super T, String>>> keyFunctions, Duration maxAge) {
+        if (maxAge.isNegative()) {
+            throw new IllegalArgumentException("Negative index maximum age: " + maxAge);
+        }
+        this.loader = loader;
+        this.keyFunctions = new EnumMap<>(keyFunctions);
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    /**
+     * Create a sample provenance index on {@link ProvenanceFilters#SAMPLE_PROVENANCE_FILTERS}. The "sample" filter matches the sample
+     * provenance id or the sample name.
+     *
+     * @param loader loads all sample provenance
+     * @param maxAge the maximum age of the index
+     *
+     * @return the sample provenance index
+     */
+    public static ProvenanceIndex<SampleProvenance> forSampleProvenance(Supplier<? extends Collection<? extends SampleProvenance>> loader,
+            Duration maxAge) {
+        Map<FileProvenanceFilter, List<Function<? super SampleProvenance, String>>> keyFunctions = new EnumMap<>(FileProvenanceFilter.class);
+        keyFunctions.put(FileProvenanceFilter.study, Collections.singletonList(SampleProvenance::getStudyTitle));
+        keyFunctions.put(FileProvenanceFilter.sample, Arrays.asList(SampleProvenance::getSampleProvenanceId, SampleProvenance::getSampleName));
+        keyFunctions.put(FileProvenanceFilter.root_sample, Collections.singletonList(SampleProvenance::getRootSampleName));
+        keyFunctions.put(FileProvenanceFilter.sequencer_run, Collections.singletonList(SampleProvenance::getSequencerRunName));
+        keyFunctions.put(FileProvenanceFilter.lane, Collections.singletonList(SampleProvenance::getLaneNumber));
+        return new ProvenanceIndex<>(loader, keyFunctions, maxAge);
+    }
+
+    /**
+     * Create a lane provenance index on {@link ProvenanceFilters#LANE_PROVENANCE_FILTERS}.
+     *
+     * @param loader loads all lane provenance
+     * @param maxAge the maximum age of the index
+     *
+     * @return the lane provenance index
+     */
+    public static ProvenanceIndex<LaneProvenance> forLaneProvenance(Supplier<? extends Collection<? extends LaneProvenance>> loader,
+            Duration maxAge) {
+        Map<FileProvenanceFilter, List<Function<? super LaneProvenance, String>>> keyFunctions = new EnumMap<>(FileProvenanceFilter.class);
+        keyFunctions.put(FileProvenanceFilter.sequencer_run, Collections.singletonList(LaneProvenance::getSequencerRunName));
+        keyFunctions.put(FileProvenanceFilter.lane, Collections.singletonList(LaneProvenance::getLaneNumber));
+        return new ProvenanceIndex<>(loader, keyFunctions, maxAge);
+    }
+
+    /**
+     * Get the maximum index age from provider settings.
+     *
+     * @param settings the provider settings
+     *
+     * @return the "indexMaxAgeSeconds" setting (0 disables caching) or {@link #DEFAULT_MAX_AGE}
+     */
+    public static Duration getMaxAge(Map<String, String> settings) {
+        String maxAge = settings.get("indexMaxAgeSeconds");
+        if (maxAge == null) {
+            return DEFAULT_MAX_AGE;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(maxAge));
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Invalid \"indexMaxAgeSeconds\" setting: " + maxAge, ex);
+        }
+    }
+
+    /**
+     * @return true if the loaded records are kept to answer requests, false if every request loads and scans the records
+     */
+    public boolean isEnabled() {
+        return maxAgeNanos > 0;
+    }
+
+    public Set<FileProvenanceFilter> getIndexedFilters() {
+        return Collections.unmodifiableSet(keyFunctions.keySet());
+    }
+
+    /**
+     * Get the records that match all indexed filters. A record matches a filter if one of its values for the filter is in the filter
+     * values.
+     *
+     * @param filters the filters
+     *
+     * @return the matching records, in load order
+     */
+    public List<T> get(Map<FileProvenanceFilter, Set<String>> filters) {
+        if (maxAgeNanos == 0) {
+            return scan(loader.get(), filters);
+        }
+        Snapshot<T> s = getSnapshot();
+        BitSet matches = null;
+        for (Map.Entry<FileProvenanceFilter, Set<String>> filter : filters.entrySet()) {
+            Map<String, int[]> index = s.indexes.get(filter.getKey());
+            if (index == null) {
+                continue;
+            }
+            BitSet filterMatches = new BitSet(s.records.size());
+            for (String value : filter.getValue()) {
+                int[] positions = index.get(value);
+                if (positions != null) {
+                    for (int position : positions) {
+                        filterMatches.set(position);
+                    }
+                }
+            }
+            if (matches == null) {
+                matches = filterMatches;
+            } else {
+                matches.and(filterMatches);
+            }
+            if (matches.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        if (matches == null) {
+            return s.records;
+        }
+        List<T> results = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            results.add(s.records.get(i));
+        }
+        return results;
+    }
+
+    private List<T> scan(Collection<? extends T> records, Map<FileProvenanceFilter, Set<String>> filters) {
+        List<Map.Entry<Set<String>, List<Function<? super T, String>>>> indexedFilters = new ArrayList<>();
+        for (Map.Entry<FileProvenanceFilter, Set<String>> filter : filters.entrySet()) {
+            List<Function<? super T, String>> functions = keyFunctions.get(filter.getKey());
+            if (functions != null) {
+                indexedFilters.add(new AbstractMap.SimpleImmutableEntry<>(filter.getValue(), functions));
+            }
+        }
+        List<T> results = new ArrayList<>();
+        for (T record : records) {
+            if (matches(record, indexedFilters)) {
+                results.add(record);
+            }
+        }
+        return results;
+    }
+
+    private static <T> boolean matches(T record, List<Map.Entry<Set<String>, List<Function<? super T, String>>>> filters) {
+        for (Map.Entry<Set<String>, List<Function<? super T, String>>> filter : filters) {
+            boolean matches = false;
+            for (Function<? super T, String> keyFunction : filter.getValue()) {
+                String value = keyFunction.apply(record);
+                if (value != null && filter.getKey().contains(value)) {
+                    matches = true;
+                    break;
+                }
+            }
+            if (!matches) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Discard the index, the next request reloads it.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot<T> getSnapshot() {
+        Snapshot<T> s = snapshot;
+        if (s == null || s.isExpired(maxAgeNanos)) {
+            synchronized (this) {
+                s = snapshot;
+                if (s == null || s.isExpired(maxAgeNanos)) {
+                    s = new Snapshot<>(loader.get(), keyFunctions);
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    private static class Snapshot<T> {
+
+        private final long createdNanos = System.nanoTime();
+        private final List<T> records;
+        private final Map<FileProvenanceFilter, Map<String, int[]>> indexes = new EnumMap<>(FileProvenanceFilter.class);
+
+        private Snapshot(Collection<? extends T> records, Map<FileProvenanceFilter, List<Function<? super T, String>>> keyFunctions) {
+            this.records = Collections.unmodifiableList(new ArrayList<>(records));
+            for (Map.Entry<FileProvenanceFilter, List<Function<? super T, String>>> e : keyFunctions.entrySet()) {
+                Map<String, Positions> positionsByValue = new HashMap<>();
+                for (int i = 0; i < this.records.size(); i++) {
+                    T record = this.records.get(i);
+                    for (Function<? super T, String> keyFunction : e.getValue()) {
+                        String value = keyFunction.apply(record);
+                        if (value != null) {
+                            positionsByValue.computeIfAbsent(value, k -> new Positions()).add(i);
+                        }
+                    }
+                }
+                Map<String, int[]> index = new HashMap<>((int) (positionsByValue.size() / 0.75f) + 1);
+                positionsByValue.forEach((value, positions) -> index.put(value, positions.toArray()));
+                indexes.put(e.getKey(), index);
+            }
+        }
+
+        private boolean isExpired(long maxAgeNanos) {
+            return System.nanoTime() - createdNanos >= maxAgeNanos;
+        }
+    }
+
+    private static class Positions {
+
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int position) {
+            //a record can have the same value for several key functions of a filter
+            if (size > 0 && values[size - 1] == position) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+}
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,7 @@ public class ProviderLoader {
     private final Map<String, SampleProvenanceProvider> sampleProvenanceProviders = new HashMap<>();
     private final Map<String, LaneProvenanceProvider> laneProvenanceProviders = new HashMap<>();
     private final List<Provider> providers;
+    private final Map<String, PineryClientPool> pineryClientPools = new HashMap<>();
 
     public ProviderLoader(String providerJson) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
@@ -44,13 +46,19 @@ public class ProviderLoader {
             if (p.getType() == null || p.getProvider() == null) {
                 throw new RuntimeException("Missing provider information: " + ToStringBuilder.reflectionToString(p));
             } else if (PineryProvenanceProvider.class.getCanonicalName().equals(p.getType())) {
-                //two pinery providers are required for concurrency (current PineryClient can only handle one concurrent request)
-                PineryProvenanceProvider pineryProvenanceProvider1 = new PineryProvenanceProvider(p.getProviderSettings());
-                if (sampleProvenanceProviders.put(p.getProvider(), pineryProvenanceProvider1) != null) {
+                //concurrent sample and lane provenance requests are handled by the client pool, which is shared by providers with the same url
+                //and allows the highest "maxConnections" of the providers
+                Map<String, String> settings = p.getProviderSettings();
+                int maxConnections = PineryClientPool.getMaxConnections(settings);
+                PineryClientPool pineryClientPool = pineryClientPools.computeIfAbsent(PineryProvenanceProvider.getUrl(settings),
+                        url -> new PineryClientPool(url, maxConnections));
+                pineryClientPool.ensureMaxConnections(maxConnections);
+                PineryProvenanceProvider pineryProvenanceProvider = new PineryProvenanceProvider(pineryClientPool, settings.get("version"),
+                        ProvenanceIndex.getMaxAge(settings));
+                if (sampleProvenanceProviders.put(p.getProvider(), pineryProvenanceProvider) != null) {
                     throw new RuntimeException("Duplicate provider: " + p.getProvider());
                 }
-                PineryProvenanceProvider pineryProvenanceProvider2 = new PineryProvenanceProvider(p.getProviderSettings());
-                if (laneProvenanceProviders.put(p.getProvider(), pineryProvenanceProvider2) != null) {
+                if (laneProvenanceProviders.put(p.getProvider(), pineryProvenanceProvider) != null) {
                     throw new RuntimeException("Duplicate provider: " + p.getProvider());
                 }
             } else if (SeqwareMetadataLimsMetadataProvenanceProvider.class.getCanonicalName().equals(p.getType())) {
@@ -84,6 +92,10 @@ public class ProviderLoader {
         return laneProvenanceProviders;
     }
 
+    public List<Provider> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
     public String getProvidersAsJson() {
         ObjectMapper mapper = new ObjectMapper();
         mapper.enable(SerializationFeature.INDENT_OUTPUT);
@@ -1,14 +1,12 @@
 package ca.on.oicr.gsi.provenance;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import com.google.common.collect.Sets;
-
 import ca.on.oicr.gsi.provenance.model.LaneProvenance;
 import ca.on.oicr.gsi.provenance.model.SampleProvenance;
 import net.sourceforge.seqware.common.metadata.Metadata;
@@ -18,16 +16,24 @@ import net.sourceforge.seqware.common.metadata.MetadataFactory;
  *
  * @author mlaszloffy
  */
-public class SeqwareMetadataLimsMetadataProvenanceProvider implements SampleProvenanceProvider, LaneProvenanceProvider {
+public class SeqwareMetadataLimsMetadataProvenanceProvider implements SampleProvenanceProvider, LaneProvenanceProvider, FilterPushdownProvider {
 
 	private final Metadata metadata;
+	private final ProvenanceIndex<SampleProvenance> sampleProvenanceIndex;
+	private final ProvenanceIndex<LaneProvenance> laneProvenanceIndex;
 
 	public SeqwareMetadataLimsMetadataProvenanceProvider(Map<String, String> settings) {
-		this.metadata = MetadataFactory.get(settings);
+		this(MetadataFactory.get(settings), ProvenanceIndex.getMaxAge(settings));
 	}
 
 	public SeqwareMetadataLimsMetadataProvenanceProvider(Metadata metadata) {
+		this(metadata, ProvenanceIndex.DEFAULT_MAX_AGE);
+	}
+
+	public SeqwareMetadataLimsMetadataProvenanceProvider(Metadata metadata, Duration indexMaxAge) {
 		this.metadata = metadata;
+		this.sampleProvenanceIndex = ProvenanceIndex.forSampleProvenance(this::getSampleProvenance, indexMaxAge);
+		this.laneProvenanceIndex = ProvenanceIndex.forLaneProvenance(this::getLaneProvenance, indexMaxAge);
 	}
 
 	@Override
@@ -38,48 +44,7 @@ public class SeqwareMetadataLimsMetadataProvenanceProvider implements SampleProv
 
 	@Override
 	public Collection<SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
-		Set<SampleProvenance> sps = new HashSet<>();
-		for (SampleProvenance sp : getSampleProvenance()) {
-			if (filters.containsKey(FileProvenanceFilter.sample)) {
-				Set<String> sampleValues = new HashSet<>();
-				if (sp.getSampleProvenanceId() != null) {
-					sampleValues.add(sp.getSampleProvenanceId());
-				}
-				if (sp.getSampleName() != null) {
-					sampleValues.add(sp.getSampleName());
-				}
-				if (Sets.intersection(sampleValues, filters.get(FileProvenanceFilter.sample)).isEmpty()) {
-					continue;
-				}
-			}
-
-			if (filters.containsKey(FileProvenanceFilter.sequencer_run)) {
-				Set<String> sampleValues = new HashSet<>();
-				if (sp.getSequencerRunName() != null) {
-					sampleValues.add(sp.getSequencerRunName());
-				}
-				if (Sets.intersection(sampleValues, filters.get(FileProvenanceFilter.sequencer_run)).isEmpty()) {
-					continue;
-				}
-			}
-
-			if (filters.containsKey(FileProvenanceFilter.lane)) {
-				Set<String> sampleValues = new HashSet<>();
-				if (sp.getLaneNumber() != null) {
-					sampleValues.add(sp.getLaneNumber());
-				}
-				// if (sp.getLaneName() != null) {
-				// sampleValues.add(sp.getLaneName());
-				// }
-				if (Sets.intersection(sampleValues, filters.get(FileProvenanceFilter.lane)).isEmpty()) {
-					continue;
-				}
-			}
-
-			sps.add(sp);
-		}
-
-		return sps;
+		return sampleProvenanceIndex.get(filters);
 	}
 
 	@Override
@@ -90,7 +55,30 @@ public class SeqwareMetadataLimsMetadataProvenanceProvider implements SampleProv
 
 	@Override
 	public Collection<LaneProvenance> getLaneProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
-		return getLaneProvenance();
+		return laneProvenanceIndex.get(filters);
+	}
+
+	/**
+	 * Discard the indexed sample and lane provenance, the next filtered request loads it again.
+	 */
+	public void invalidate() {
+		sampleProvenanceIndex.invalidate();
+		laneProvenanceIndex.invalidate();
+	}
+
+	@Override
+	public Set<FileProvenanceFilter> getSupportedSampleProvenanceFilters() {
+		return sampleProvenanceIndex.getIndexedFilters();
+	}
+
+	@Override
+	public Set<FileProvenanceFilter> getSupportedLaneProvenanceFilters() {
+		return laneProvenanceIndex.getIndexedFilters();
+	}
+
+	@Override
+	public boolean isIndexed() {
+		return sampleProvenanceIndex.isEnabled();
 	}
 
 	@Override
@@ -0,0 +1,340 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.AnalysisProvenance;
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class ConcurrentProvenanceProvidersTest {
+
+    private final SampleProvenance sp1 = ProvenanceTestData.sampleProvenance("1", "STUDY_1", "SAMPLE_1", "ROOT_1", "RUN_1", "1");
+    private final SampleProvenance sp2 = ProvenanceTestData.sampleProvenance("2", "STUDY_2", "SAMPLE_2", "ROOT_2", "RUN_1", "2");
+    private final LaneProvenance lp1 = ProvenanceTestData.laneProvenance("1", "RUN_1", "1");
+    private final LaneProvenance lp2 = ProvenanceTestData.laneProvenance("2", "RUN_1", "2");
+
+    @Test
+    public void unsupportedFiltersTest() {
+        // applies the study filter only, and no lane provenance filters
+        TestLimsProvider pushdown = new TestLimsProvider(Arrays.asList(sp1, sp2), Arrays.asList(lp1, lp2),
+                EnumSet.of(FileProvenanceFilter.study), Collections.emptySet());
+        // applies all filters itself (returns everything, so filtering by the decorator would be visible)
+        TestSampleProvider plain = new TestSampleProvider(Arrays.asList(sp1, sp2));
+        Map<String, SampleProvenanceProvider> sampleProviders = new HashMap<>();
+        sampleProviders.put("pushdown", pushdown);
+        sampleProviders.put("plain", plain);
+        try (ConcurrentProvenanceProviders providers = create(sampleProviders, Collections.singletonMap("pushdown", pushdown),
+                Collections.emptyMap())) {
+            Map<FileProvenanceFilter, Set<String>> filters = filters(FileProvenanceFilter.lane, "2");
+            filters.put(FileProvenanceFilter.study, new HashSet<>(Arrays.asList("STUDY_1", "STUDY_2")));
+            assertEquals(providers.getSampleProvenanceProviders().get("pushdown").getSampleProvenance(filters), Arrays.asList(sp2));
+            assertEquals(providers.getSampleProvenanceProviders().get("plain").getSampleProvenance(filters), Arrays.asList(sp1, sp2));
+            // the study filter can not be applied to lane provenance
+            assertEquals(providers.getLaneProvenanceProviders().get("pushdown").getLaneProvenance(filters), Arrays.asList(lp2));
+            // unfiltered requests are passed through
+            assertEquals(providers.getSampleProvenanceProviders().get("pushdown").getSampleProvenance(), Arrays.asList(sp1, sp2));
+            assertEquals(pushdown.filters, filters);
+        }
+    }
+
+    @Test
+    public void latencyTest() {
+        TestSampleProvider provider = new TestSampleProvider(Arrays.asList(sp1));
+        try (ConcurrentProvenanceProviders providers = create(Collections.singletonMap("lims", provider), Collections.emptyMap(),
+                Collections.emptyMap())) {
+            SampleProvenanceProvider decorated = providers.getSampleProvenanceProviders().get("lims");
+            decorated.getSampleProvenance();
+            decorated.getSampleProvenance(Collections.emptyMap());
+            provider.failure = new IllegalStateException("failed");
+            try {
+                decorated.getSampleProvenance();
+                fail("Expected the provider failure");
+            } catch (IllegalStateException ex) {
+                assertEquals(ex.getMessage(), "failed");
+            }
+            ConcurrentProvenanceProviders.Latency latency = providers.getLatencies().get("lims getSampleProvenance");
+            assertEquals(latency.getCount(), 3);
+            assertEquals(latency.getFailures(), 1);
+            assertTrue(providers.getLatencySummary().startsWith("[lims getSampleProvenance: count=3 "));
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void timeoutTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        TestSampleProvider provider = new TestSampleProvider(Arrays.asList(sp1)) {
+            @Override
+            public Collection<? extends SampleProvenance> getSampleProvenance() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    interrupted.set(true);
+                }
+                completed.countDown();
+                return super.getSampleProvenance();
+            }
+        };
+        try (ConcurrentProvenanceProviders providers = create(Collections.singletonMap("lims", provider), Collections.emptyMap(),
+                Collections.singletonMap("lims", Duration.ofMillis(50)))) {
+            try {
+                providers.getSampleProvenanceProviders().get("lims").getSampleProvenance();
+                fail("Expected a timeout");
+            } catch (RuntimeException ex) {
+                assertTrue(ex.getMessage().contains("timed out"), ex.getMessage());
+            }
+            assertEquals(providers.getLatencies().get("lims getSampleProvenance").getFailures(), 1);
+
+            // the request may be shared with other callers, so only the caller stops waiting
+            release.countDown();
+            assertTrue(completed.await(5, TimeUnit.SECONDS));
+            assertFalse(interrupted.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void callingThreadTest() {
+        Thread caller = Thread.currentThread();
+        AtomicReference<Thread> requestThread = new AtomicReference<>();
+        TestSampleProvider provider = new TestSampleProvider(Arrays.asList(sp1)) {
+            @Override
+            public Collection<? extends SampleProvenance> getSampleProvenance() {
+                requestThread.set(Thread.currentThread());
+                return super.getSampleProvenance();
+            }
+        };
+        try (ConcurrentProvenanceProviders providers = create(Collections.singletonMap("lims", provider), Collections.emptyMap(),
+                Collections.emptyMap())) {
+            // without a timeout there is nothing to wait for on another thread
+            providers.getSampleProvenanceProviders().get("lims").getSampleProvenance();
+            assertSame(requestThread.get(), caller);
+        }
+        try (ConcurrentProvenanceProviders providers = create(Collections.singletonMap("lims", provider), Collections.emptyMap(),
+                Collections.singletonMap("lims", Duration.ofSeconds(5)))) {
+            providers.getSampleProvenanceProviders().get("lims").getSampleProvenance();
+            assertNotSame(requestThread.get(), caller);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void prefetchTest() {
+        AtomicInteger sampleLoads = new AtomicInteger();
+        TestLimsProvider pushdown = new TestLimsProvider(Arrays.asList(sp1), Arrays.asList(lp1), EnumSet.of(FileProvenanceFilter.study),
+                Collections.emptySet()) {
+            @Override
+            public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+                sampleLoads.incrementAndGet();
+                return super.getSampleProvenance(filters);
+            }
+        };
+        TestSampleProvider plain = new TestSampleProvider(Arrays.asList(sp2));
+        plain.failure = new IllegalStateException("not prefetched");
+        Map<String, SampleProvenanceProvider> sampleProviders = new HashMap<>();
+        sampleProviders.put("pushdown", pushdown);
+        sampleProviders.put("plain", plain);
+        try (ConcurrentProvenanceProviders providers = create(sampleProviders, Collections.singletonMap("pushdown", pushdown),
+                Collections.emptyMap())) {
+            providers.prefetch().join();
+            assertEquals(sampleLoads.get(), 1);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void prefetchUnindexedTest() {
+        AtomicInteger loads = new AtomicInteger();
+        TestLimsProvider pushdown = new TestLimsProvider(Arrays.asList(sp1), Arrays.asList(lp1), EnumSet.of(FileProvenanceFilter.study),
+                Collections.emptySet()) {
+            @Override
+            public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+                loads.incrementAndGet();
+                return super.getSampleProvenance(filters);
+            }
+
+            @Override
+            public Collection<? extends LaneProvenance> getLaneProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+                loads.incrementAndGet();
+                return super.getLaneProvenance(filters);
+            }
+        };
+        pushdown.indexed = false;
+        try (ConcurrentProvenanceProviders providers = create(Collections.singletonMap("pushdown", pushdown),
+                Collections.singletonMap("pushdown", pushdown), Collections.emptyMap())) {
+            providers.prefetch().join();
+            assertEquals(loads.get(), 0);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void prefetchFailureTest() {
+        TestLimsProvider pushdown = new TestLimsProvider(Arrays.asList(sp1), Arrays.asList(lp1), EnumSet.of(FileProvenanceFilter.study),
+                Collections.emptySet()) {
+            @Override
+            public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+                throw new IllegalStateException("sample provenance");
+            }
+
+            @Override
+            public Collection<? extends LaneProvenance> getLaneProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+                throw new IllegalStateException("lane provenance");
+            }
+        };
+        try (ConcurrentProvenanceProviders providers = create(Collections.singletonMap("pushdown", pushdown),
+                Collections.singletonMap("pushdown", pushdown), Collections.emptyMap())) {
+            try {
+                providers.prefetch().join();
+                fail("Expected the prefetch to fail");
+            } catch (CompletionException ex) {
+                assertEquals(ex.getCause().getMessage(), "sample provenance");
+                assertEquals(ex.getCause().getSuppressed().length, 1);
+                assertEquals(ex.getCause().getSuppressed()[0].getMessage(), "lane provenance");
+            }
+        }
+    }
+
+    @Test
+    public void closeTest() {
+        ExecutorService executor = ConcurrentProvenanceProviders.createExecutor();
+        new ConcurrentProvenanceProviders(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+                executor, false).close();
+        assertFalse(executor.isShutdown());
+        new ConcurrentProvenanceProviders(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+                executor, true).close();
+        assertTrue(executor.isShutdown());
+    }
+
+    @Test
+    public void providerLoaderTest() throws Exception {
+        ProviderLoader providerLoader = new ProviderLoader("[{\"type\":\"" + PineryProvenanceProvider.class.getCanonicalName()
+                + "\",\"provider\":\"pinery\",\"providerSettings\":{\"url\":\"http://localhost:1\",\"timeoutSeconds\":\"5\"}}]");
+        try (ConcurrentProvenanceProviders providers = new ConcurrentProvenanceProviders(providerLoader)) {
+            assertEquals(providers.getSampleProvenanceProviders().keySet(), Collections.singleton("pinery"));
+            assertEquals(providers.getLaneProvenanceProviders().keySet(), Collections.singleton("pinery"));
+            assertTrue(providers.getAnalysisProvenanceProviders().isEmpty());
+        } finally {
+            providerLoader.getSampleProvenanceProviders().get("pinery").close();
+        }
+    }
+
+    static ConcurrentProvenanceProviders create(Map<String, ? extends SampleProvenanceProvider> sampleProviders,
+            Map<String, ? extends LaneProvenanceProvider> laneProviders, Map<String, Duration> timeouts) {
+        return new ConcurrentProvenanceProviders(Collections.<String, AnalysisProvenanceProvider>emptyMap(), new HashMap<>(sampleProviders),
+                new HashMap<>(laneProviders), timeouts, ConcurrentProvenanceProviders.createExecutor(), true);
+    }
+
+    static Map<FileProvenanceFilter, Set<String>> filters(FileProvenanceFilter filter, String... values) {
+        Map<FileProvenanceFilter, Set<String>> filters = new EnumMap<>(FileProvenanceFilter.class);
+        filters.put(filter, new HashSet<>(Arrays.asList(values)));
+        return filters;
+    }
+
+    static class TestSampleProvider implements SampleProvenanceProvider {
+
+        private final List<SampleProvenance> sps;
+        volatile RuntimeException failure;
+
+        TestSampleProvider(List<SampleProvenance> sps) {
+            this.sps = sps;
+        }
+
+        @Override
+        public Collection<? extends SampleProvenance> getSampleProvenance() {
+            if (failure != null) {
+                throw failure;
+            }
+            return sps;
+        }
+
+        @Override
+        public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+            return getSampleProvenance();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Ignores all filters that it does not declare as supported, and does not apply the supported filters either.
+     */
+    static class TestLimsProvider implements SampleProvenanceProvider, LaneProvenanceProvider, FilterPushdownProvider {
+
+        private final List<SampleProvenance> sps;
+        private final List<LaneProvenance> lps;
+        private final Set<FileProvenanceFilter> sampleFilters;
+        private final Set<FileProvenanceFilter> laneFilters;
+        volatile Map<FileProvenanceFilter, Set<String>> filters;
+        boolean indexed = true;
+
+        TestLimsProvider(List<SampleProvenance> sps, List<LaneProvenance> lps, Set<FileProvenanceFilter> sampleFilters,
+                Set<FileProvenanceFilter> laneFilters) {
+            this.sps = sps;
+            this.lps = lps;
+            this.sampleFilters = sampleFilters;
+            this.laneFilters = laneFilters;
+        }
+
+        @Override
+        public Collection<? extends SampleProvenance> getSampleProvenance() {
+            return sps;
+        }
+
+        @Override
+        public Collection<? extends SampleProvenance> getSampleProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+            this.filters = filters;
+            return sps;
+        }
+
+        @Override
+        public Collection<? extends LaneProvenance> getLaneProvenance() {
+            return lps;
+        }
+
+        @Override
+        public Collection<? extends LaneProvenance> getLaneProvenance(Map<FileProvenanceFilter, Set<String>> filters) {
+            this.filters = filters;
+            return lps;
+        }
+
+        @Override
+        public Set<FileProvenanceFilter> getSupportedSampleProvenanceFilters() {
+            return sampleFilters;
+        }
+
+        @Override
+        public Set<FileProvenanceFilter> getSupportedLaneProvenanceFilters() {
+            return laneFilters;
+        }
+
+        @Override
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
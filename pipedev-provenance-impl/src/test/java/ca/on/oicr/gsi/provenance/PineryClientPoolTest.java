@@ -0,0 +1,242 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.pinery.client.PineryClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PineryClientPoolTest {
+
+    private final List<TestClient> createdClients = Collections.synchronizedList(new ArrayList<>());
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup() {
+        createdClients.clear();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeOut = 10000)
+    public void coalescingTest() throws Exception {
+        PineryClientPool pool = createPool(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger requests = new AtomicInteger();
+        Object payload = new Object();
+        PineryClientPool.Request<Object> request = client -> {
+            requests.incrementAndGet();
+            started.countDown();
+            await(release);
+            return payload;
+        };
+        Future<Object> first = executor.submit(() -> pool.execute("sample-provenance/v1", request));
+        await(started);
+        Thread[] secondThread = new Thread[1];
+        Future<Object> second = executor.submit(() -> {
+            secondThread[0] = Thread.currentThread();
+            return pool.execute("sample-provenance/v1", request);
+        });
+        // wait until the second request is waiting for the result of the first
+        while (secondThread[0] == null || secondThread[0].getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        assertSame(first.get(), payload);
+        assertSame(second.get(), payload);
+        assertEquals(requests.get(), 1);
+        assertEquals(createdClients.size(), 1);
+
+        // completed requests are not coalesced
+        assertSame(pool.execute("sample-provenance/v1", request), payload);
+        assertEquals(requests.get(), 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void permitLimitTest() throws Exception {
+        PineryClientPool pool = createPool(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String key = "request-" + i;
+            results.add(executor.submit(() -> pool.execute(key, client -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                await(new CountDownLatch(1), 50);
+                running.decrementAndGet();
+                return key;
+            })));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals(results.get(i).get(), "request-" + i);
+        }
+        assertEquals(maxRunning.get(), 2);
+        // clients are reused rather than created per request
+        assertEquals(createdClients.size(), 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void ensureMaxConnectionsTest() throws Exception {
+        PineryClientPool pool = createPool(1);
+        pool.ensureMaxConnections(3);
+        pool.ensureMaxConnections(2);
+        assertEquals(pool.getMaxConnections(), 3);
+        // three requests only complete if they run concurrently
+        CountDownLatch running = new CountDownLatch(3);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int value = i;
+            results.add(executor.submit(() -> pool.execute("request-" + value, client -> {
+                running.countDown();
+                await(running);
+                return value;
+            })));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(results.get(i).get().intValue(), i);
+        }
+    }
+
+    @Test
+    public void referenceCountedCloseTest() throws Exception {
+        PineryClientPool pool = createPool(2);
+        pool.retain();
+        pool.retain();
+        pool.execute("a", client -> "a");
+        assertEquals(createdClients.size(), 1);
+
+        pool.close();
+        assertFalse(createdClients.get(0).closed);
+        assertEquals(pool.execute("b", client -> "b"), "b");
+
+        pool.close();
+        assertTrue(createdClients.get(0).closed);
+        try {
+            pool.execute("c", client -> "c");
+            fail("Expected the pool to be closed");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        try {
+            pool.retain();
+            fail("Expected the pool to be closed");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        // closing again has no effect
+        pool.close();
+        assertEquals(createdClients.size(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void closeInUseClientTest() throws Exception {
+        PineryClientPool pool = createPool(2).retain();
+        pool.execute("idle", client -> "idle");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> inUse = executor.submit(() -> pool.execute("in-use", client -> {
+            started.countDown();
+            await(release);
+            assertFalse(((TestClient) client).closed);
+            return "in-use";
+        }));
+        await(started);
+        pool.close();
+        // the idle client was reused, so it is in use and is closed once its request completes
+        assertEquals(createdClients.size(), 1);
+        assertFalse(createdClients.get(0).closed);
+        release.countDown();
+        assertEquals(inUse.get(), "in-use");
+        assertTrue(createdClients.get(0).closed);
+    }
+
+    @Test(timeOut = 10000)
+    public void closeWhileBorrowedTest() throws Exception {
+        PineryClientPool pool = createPool(2).retain();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (String key : new String[]{"a", "b"}) {
+            results.add(executor.submit(() -> pool.execute(key, client -> {
+                started.countDown();
+                await(release);
+                return key;
+            })));
+        }
+        await(started);
+        pool.close();
+        assertEquals(createdClients.size(), 2);
+        assertFalse(createdClients.get(0).closed);
+        assertFalse(createdClients.get(1).closed);
+        release.countDown();
+        assertEquals(results.get(0).get(), "a");
+        assertEquals(results.get(1).get(), "b");
+        assertTrue(createdClients.get(0).closed);
+        assertTrue(createdClients.get(1).closed);
+    }
+
+    @Test
+    public void singleClientPoolTest() throws Exception {
+        TestClient client = new TestClient();
+        PineryClientPool pool = PineryClientPool.of(client).retain();
+        assertSame(pool.execute("a", c -> c), client);
+        pool.close();
+        assertTrue(client.closed);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidMaxConnectionsTest() {
+        createPool(0);
+    }
+
+    private PineryClientPool createPool(int maxConnections) {
+        return new PineryClientPool(() -> {
+            TestClient client = new TestClient();
+            createdClients.add(client);
+            return client;
+        }, maxConnections);
+    }
+
+    private static void await(CountDownLatch latch) {
+        if (!await(latch, 5000)) {
+            throw new IllegalStateException("Timed out");
+        }
+    }
+
+    private static boolean await(CountDownLatch latch, long millis) {
+        try {
+            return latch.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static class TestClient extends PineryClient {
+
+        private volatile boolean closed = false;
+
+        private TestClient() {
+            super("http://localhost", true);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class ProvenanceFiltersTest {
+
+    private final SampleProvenance sp1 = ProvenanceTestData.sampleProvenance("1", "STUDY_1", "SAMPLE_1", "ROOT_1", "RUN_1", "1");
+    private final SampleProvenance sp2 = ProvenanceTestData.sampleProvenance("2", "STUDY_1", "SAMPLE_2", "ROOT_1", "RUN_2", null);
+    private final SampleProvenance sp3 = ProvenanceTestData.sampleProvenance("3", null, "1", "ROOT_2", "RUN_1", "2");
+    private final List<SampleProvenance> sps = Arrays.asList(sp1, sp2, sp3);
+
+    @Test
+    public void sampleFilterTest() {
+        // matches the sample provenance id or the sample name
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters(FileProvenanceFilter.sample, "1")), Arrays.asList(sp1, sp3));
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters(FileProvenanceFilter.sample, "SAMPLE_2")),
+                Arrays.asList(sp2));
+    }
+
+    @Test
+    public void combinedFiltersTest() {
+        Map<FileProvenanceFilter, Set<String>> filters = filters(FileProvenanceFilter.root_sample, "ROOT_1");
+        filters.put(FileProvenanceFilter.sequencer_run, new HashSet<>(Arrays.asList("RUN_1", "RUN_2")));
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters), Arrays.asList(sp1, sp2));
+        filters.put(FileProvenanceFilter.lane, Collections.singleton("1"));
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters), Arrays.asList(sp1));
+    }
+
+    @Test
+    public void missingValueTest() {
+        // records without a value never match a filter on the value
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters(FileProvenanceFilter.study, "STUDY_1")), Arrays.asList(sp1, sp2));
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters(FileProvenanceFilter.lane, "1", "2")), Arrays.asList(sp1, sp3));
+    }
+
+    @Test
+    public void ignoredFiltersTest() {
+        assertEquals(ProvenanceFilters.filterSampleProvenance(sps, filters(FileProvenanceFilter.workflow, "WORKFLOW")), sps);
+
+        LaneProvenance lp1 = ProvenanceTestData.laneProvenance("1", "RUN_1", "1");
+        LaneProvenance lp2 = ProvenanceTestData.laneProvenance("2", "RUN_2", "1");
+        Map<FileProvenanceFilter, Set<String>> filters = filters(FileProvenanceFilter.study, "STUDY_1");
+        assertEquals(ProvenanceFilters.filterLaneProvenance(Arrays.asList(lp1, lp2), filters), Arrays.asList(lp1, lp2));
+        filters.put(FileProvenanceFilter.sequencer_run, Collections.singleton("RUN_2"));
+        assertEquals(ProvenanceFilters.filterLaneProvenance(Arrays.asList(lp1, lp2), filters), Arrays.asList(lp2));
+    }
+
+    @Test
+    public void unsupportedFiltersTest() {
+        Map<FileProvenanceFilter, Set<String>> filters = filters(FileProvenanceFilter.study, "STUDY_1");
+        filters.put(FileProvenanceFilter.lane, Collections.singleton("1"));
+        filters.put(FileProvenanceFilter.workflow, Collections.singleton("WORKFLOW"));
+        Map<FileProvenanceFilter, Set<String>> unsupported = ProvenanceFilters.getUnsupportedFilters(filters,
+                ProvenanceFilters.LANE_PROVENANCE_FILTERS);
+        assertEquals(unsupported.keySet(), EnumSet.of(FileProvenanceFilter.study, FileProvenanceFilter.workflow));
+        assertEquals(unsupported.get(FileProvenanceFilter.study), Collections.singleton("STUDY_1"));
+    }
+
+    private static Map<FileProvenanceFilter, Set<String>> filters(FileProvenanceFilter filter, String... values) {
+        Map<FileProvenanceFilter, Set<String>> filters = new EnumMap<>(FileProvenanceFilter.class);
+        filters.put(filter, new HashSet<>(Arrays.asList(values)));
+        return filters;
+    }
+
+}
@@ -0,0 +1,161 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class ProvenanceIndexTest {
+
+    @Test
+    public void sampleProvenanceEquivalenceTest() {
+        Random random = new Random(1);
+        List<SampleProvenance> sps = ProvenanceTestData.randomSampleProvenance(random, 2000);
+        ProvenanceIndex<SampleProvenance> indexed = ProvenanceIndex.forSampleProvenance(() -> sps, Duration.ofMinutes(10));
+        ProvenanceIndex<SampleProvenance> unindexed = ProvenanceIndex.forSampleProvenance(() -> sps, Duration.ZERO);
+        Map<FileProvenanceFilter, Function<Random, String>> values = new EnumMap<>(FileProvenanceFilter.class);
+        values.put(FileProvenanceFilter.study, r -> "STUDY_" + r.nextInt(6));
+        values.put(FileProvenanceFilter.sample, r -> r.nextBoolean() ? Integer.toString(r.nextInt(2000)) : "ROOT_" + r.nextInt(20) + "_" + r.nextInt(10));
+        values.put(FileProvenanceFilter.root_sample, r -> "ROOT_" + r.nextInt(22));
+        values.put(FileProvenanceFilter.sequencer_run, r -> "RUN_" + r.nextInt(11));
+        values.put(FileProvenanceFilter.lane, r -> Integer.toString(1 + r.nextInt(9)));
+        // not indexed, ignored by the index and by the predicate
+        values.put(FileProvenanceFilter.workflow, r -> "WORKFLOW_" + r.nextInt(3));
+        int nonEmptyResults = 0;
+        for (int i = 0; i < 500; i++) {
+            Map<FileProvenanceFilter, Set<String>> filters = randomFilters(random, values);
+            List<SampleProvenance> expected = ProvenanceFilters.filterSampleProvenance(sps, filters);
+            assertEquals(indexed.get(filters), expected, filters.toString());
+            assertEquals(unindexed.get(filters), expected, filters.toString());
+            if (!expected.isEmpty() && expected.size() < sps.size()) {
+                nonEmptyResults++;
+            }
+        }
+        assertTrue(nonEmptyResults > 50, "Too few selective filters: " + nonEmptyResults);
+    }
+
+    @Test
+    public void laneProvenanceEquivalenceTest() {
+        Random random = new Random(2);
+        List<LaneProvenance> lps = ProvenanceTestData.randomLaneProvenance(random, 500);
+        ProvenanceIndex<LaneProvenance> indexed = ProvenanceIndex.forLaneProvenance(() -> lps, Duration.ofMinutes(10));
+        ProvenanceIndex<LaneProvenance> unindexed = ProvenanceIndex.forLaneProvenance(() -> lps, Duration.ZERO);
+        Map<FileProvenanceFilter, Function<Random, String>> values = new EnumMap<>(FileProvenanceFilter.class);
+        values.put(FileProvenanceFilter.sequencer_run, r -> "RUN_" + r.nextInt(11));
+        values.put(FileProvenanceFilter.lane, r -> Integer.toString(1 + r.nextInt(9)));
+        // sample provenance filters are ignored by lane provenance
+        values.put(FileProvenanceFilter.study, r -> "STUDY_" + r.nextInt(6));
+        for (int i = 0; i < 200; i++) {
+            Map<FileProvenanceFilter, Set<String>> filters = randomFilters(random, values);
+            List<LaneProvenance> expected = ProvenanceFilters.filterLaneProvenance(lps, filters);
+            assertEquals(indexed.get(filters), expected, filters.toString());
+            assertEquals(unindexed.get(filters), expected, filters.toString());
+        }
+    }
+
+    @Test
+    public void emptyFilterValuesTest() {
+        List<SampleProvenance> sps = ProvenanceTestData.randomSampleProvenance(new Random(3), 10);
+        Map<FileProvenanceFilter, Set<String>> filters = new EnumMap<>(FileProvenanceFilter.class);
+        assertEquals(ProvenanceIndex.forSampleProvenance(() -> sps, Duration.ofMinutes(1)).get(filters), sps);
+        filters.put(FileProvenanceFilter.study, Collections.emptySet());
+        assertTrue(ProvenanceIndex.forSampleProvenance(() -> sps, Duration.ofMinutes(1)).get(filters).isEmpty());
+        assertTrue(ProvenanceIndex.forSampleProvenance(() -> sps, Duration.ZERO).get(filters).isEmpty());
+    }
+
+    @Test
+    public void cachingTest() {
+        AtomicInteger loads = new AtomicInteger();
+        List<SampleProvenance> sps = ProvenanceTestData.randomSampleProvenance(new Random(4), 10);
+        ProvenanceIndex<SampleProvenance> index = ProvenanceIndex.forSampleProvenance(() -> {
+            loads.incrementAndGet();
+            return sps;
+        }, Duration.ofMinutes(10));
+        assertEquals(loads.get(), 0);
+        index.get(Collections.emptyMap());
+        index.get(filters(FileProvenanceFilter.lane, "1"));
+        assertEquals(loads.get(), 1);
+        index.invalidate();
+        index.get(Collections.emptyMap());
+        assertEquals(loads.get(), 2);
+    }
+
+    @Test
+    public void expiryTest() {
+        AtomicInteger loads = new AtomicInteger();
+        ProvenanceIndex<LaneProvenance> index = ProvenanceIndex.forLaneProvenance(() -> {
+            loads.incrementAndGet();
+            return Collections.emptyList();
+        }, Duration.ofNanos(1));
+        index.get(Collections.emptyMap());
+        index.get(Collections.emptyMap());
+        assertEquals(loads.get(), 2);
+    }
+
+    @Test
+    public void noCachingTest() {
+        AtomicInteger loads = new AtomicInteger();
+        List<LaneProvenance> lps = new ArrayList<>(Arrays.asList(ProvenanceTestData.laneProvenance("1", "RUN_1", "1")));
+        ProvenanceIndex<LaneProvenance> index = ProvenanceIndex.forLaneProvenance(() -> {
+            loads.incrementAndGet();
+            return lps;
+        }, Duration.ZERO);
+        assertEquals(index.get(filters(FileProvenanceFilter.sequencer_run, "RUN_2")).size(), 0);
+        // every request sees the current records
+        lps.add(ProvenanceTestData.laneProvenance("2", "RUN_2", "1"));
+        assertEquals(index.get(filters(FileProvenanceFilter.sequencer_run, "RUN_2")).size(), 1);
+        assertEquals(loads.get(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void negativeMaxAgeTest() {
+        ProvenanceIndex.forLaneProvenance(Collections::emptyList, Duration.ofSeconds(-1));
+    }
+
+    @Test
+    public void getMaxAgeTest() {
+        assertEquals(ProvenanceIndex.getMaxAge(Collections.emptyMap()), ProvenanceIndex.DEFAULT_MAX_AGE);
+        assertEquals(ProvenanceIndex.getMaxAge(Collections.singletonMap("indexMaxAgeSeconds", "0")), Duration.ZERO);
+        assertEquals(ProvenanceIndex.getMaxAge(Collections.singletonMap("indexMaxAgeSeconds", "60")), Duration.ofMinutes(1));
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void invalidMaxAgeTest() {
+        ProvenanceIndex.getMaxAge(Collections.singletonMap("indexMaxAgeSeconds", "ten"));
+    }
+
+    private static Map<FileProvenanceFilter, Set<String>> filters(FileProvenanceFilter filter, String... values) {
+        Map<FileProvenanceFilter, Set<String>> filters = new EnumMap<>(FileProvenanceFilter.class);
+        filters.put(filter, new HashSet<>(Arrays.asList(values)));
+        return filters;
+    }
+
+    private static Map<FileProvenanceFilter, Set<String>> randomFilters(Random random,
+            Map<FileProvenanceFilter, Function<Random, String>> values) {
+        Map<FileProvenanceFilter, Set<String>> filters = new HashMap<>();
+        for (Map.Entry<FileProvenanceFilter, Function<Random, String>> e : values.entrySet()) {
+            if (random.nextInt(3) == 0) {
+                Set<String> filterValues = new HashSet<>();
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    filterValues.add(e.getValue().apply(random));
+                }
+                filters.put(e.getKey(), filterValues);
+            }
+        }
+        return filters;
+    }
+
+}
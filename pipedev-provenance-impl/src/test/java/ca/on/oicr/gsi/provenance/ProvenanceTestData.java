@@ -0,0 +1,73 @@
+package ca.on.oicr.gsi.provenance;
+
+import ca.on.oicr.gsi.provenance.model.LaneProvenance;
+import ca.on.oicr.gsi.provenance.model.SampleProvenance;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Mocked sample and lane provenance records for the index and filter tests. The mocks are stub-only, as the index tests call their
+ * getters too often to record the invocations.
+ */
+class ProvenanceTestData {
+
+    private ProvenanceTestData() {
+    }
+
+    static SampleProvenance sampleProvenance(String id, String study, String sample, String rootSample, String run, String lane) {
+        SampleProvenance sp = mock(SampleProvenance.class, withSettings().stubOnly());
+        when(sp.getSampleProvenanceId()).thenReturn(id);
+        when(sp.getProvenanceId()).thenReturn(id);
+        when(sp.getStudyTitle()).thenReturn(study);
+        when(sp.getSampleName()).thenReturn(sample);
+        when(sp.getRootSampleName()).thenReturn(rootSample);
+        when(sp.getSequencerRunName()).thenReturn(run);
+        when(sp.getLaneNumber()).thenReturn(lane);
+        return sp;
+    }
+
+    static LaneProvenance laneProvenance(String id, String run, String lane) {
+        LaneProvenance lp = mock(LaneProvenance.class, withSettings().stubOnly());
+        when(lp.getLaneProvenanceId()).thenReturn(id);
+        when(lp.getProvenanceId()).thenReturn(id);
+        when(lp.getSequencerRunName()).thenReturn(run);
+        when(lp.getLaneNumber()).thenReturn(lane);
+        return lp;
+    }
+
+    /**
+     * Generate sample provenance with overlapping values, including records without a study or lane.
+     *
+     * @param random the random number generator
+     * @param count  the number of records
+     *
+     * @return the sample provenance
+     */
+    static List<SampleProvenance> randomSampleProvenance(Random random, int count) {
+        List<SampleProvenance> sps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String rootSample = "ROOT_" + random.nextInt(20);
+            sps.add(sampleProvenance(Integer.toString(i),
+                    random.nextInt(10) == 0 ? null : "STUDY_" + random.nextInt(5),
+                    // some sample names are also sample provenance ids, so the "sample" filter matches by either
+                    random.nextInt(10) == 0 ? Integer.toString(random.nextInt(count)) : rootSample + "_" + random.nextInt(10),
+                    rootSample,
+                    "RUN_" + random.nextInt(10),
+                    random.nextInt(10) == 0 ? null : Integer.toString(1 + random.nextInt(8))));
+        }
+        return sps;
+    }
+
+    static List<LaneProvenance> randomLaneProvenance(Random random, int count) {
+        List<LaneProvenance> lps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lps.add(laneProvenance(Integer.toString(i), "RUN_" + random.nextInt(10), Integer.toString(1 + random.nextInt(8))));
+        }
+        return lps;
+    }
+
+}
@@ -11,8 +11,11 @@ import com.google.common.collect.Multimaps;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -23,6 +26,10 @@ import java.util.Set;
  * Currently the service makes use of the Seqware
  * <a href="http://seqware.github.io/docs/webservice-api/metadata/report/fileprovenance_get/">file provenance repoort</a> and the
  * <a href="http://seqware.github.io/docs/webservice-api/metadata/report/workflowrun_get/">workflow run report</a>.
+ * <p>
+ * Records are looked up by file, processing, workflow and workflow run SWID through a sorted int index of SWID to record offsets,
+ * which is built on the first lookup. The values returned by the name queries (study, sample, lane, etc.) are read once per record
+ * into a column of value ids when the query is first used, so queries do not call the record getters again.
  */
 public class FileProvenanceClient {
 
@@ -33,10 +40,9 @@ public class FileProvenanceClient {
      */
     protected List<FileProvenance> fileProvenanceReportRecords;
 
-    /**
-     * The lookup map of file provenance report key(s) to file provenance report record object.
-     */
-    protected final Multimap<Integer, FileProvenance> accessionToFileProvenanceReportRecords;
+    private SwidIndex swidIndex;
+
+    private final Map<Column, Projection> projections = new HashMap<>();
 
 //    /**
 //     * The lookup map for Workflow object to workflow run report record objects.
@@ -51,8 +57,19 @@ public class FileProvenanceClient {
      */
     public FileProvenanceClient(List<FileProvenance> fileProvenanceReportRecords) {
         this.fileProvenanceReportRecords = fileProvenanceReportRecords;
-        accessionToFileProvenanceReportRecords = LinkedListMultimap.create();
+    }
 
+    /**
+     * The lookup map of file provenance report key(s) to file provenance report record object, which replaces the removed
+     * accessionToFileProvenanceReportRecords field. The map is built on each call and is not used by the lookups of this client.
+     *
+     * @return an unmodifiable map of file, processing, workflow and workflow run SWID to the file provenance records, in record order
+     *
+     * @deprecated use {@link #getFileRecords(java.lang.Integer)}
+     */
+    @Deprecated
+    protected Multimap<Integer, FileProvenance> getAccessionToFileProvenanceReportRecords() {
+        Multimap<Integer, FileProvenance> accessionToFileProvenanceReportRecords = LinkedListMultimap.create();
         for (FileProvenance f : fileProvenanceReportRecords) {
             List<Integer> swids = Arrays.asList(f.getFileSWID(), f.getProcessingSWID(), f.getWorkflowSWID(), f.getWorkflowRunSWID());
             for (Integer swid : swids) {
@@ -61,6 +78,7 @@ public class FileProvenanceClient {
                 }
             }
         }
+        return Multimaps.unmodifiableMultimap(accessionToFileProvenanceReportRecords);
     }
 
     /**
@@ -96,9 +114,13 @@ public class FileProvenanceClient {
      */
     public List<ReducedFileProvenanceReportRecord> getFiles(List<Integer> swids) {
 
+        SwidIndex index = getSwidIndex();
         List<FileProvenance> filesToBeProcessed = new ArrayList<>();
         for (Integer swid : swids) {
-            filesToBeProcessed.addAll(accessionToFileProvenanceReportRecords.get(swid));
+            int key = index.find(swid);
+            for (int i = index.start(key); i < index.end(key); i++) {
+                filesToBeProcessed.add(index.records[index.offsets[i]]);
+            }
         }
 
         return convert(filesToBeProcessed);
@@ -109,7 +131,27 @@ public class FileProvenanceClient {
     }
 
     public Collection<FileProvenance> getFileRecords(Integer accession) {
-        return accessionToFileProvenanceReportRecords.get(accession);
+        SwidIndex index = getSwidIndex();
+        int key = index.find(accession);
+        List<FileProvenance> records = new ArrayList<>(index.end(key) - index.start(key));
+        for (int i = index.start(key); i < index.end(key); i++) {
+            records.add(index.records[index.offsets[i]]);
+        }
+        return records;
+    }
+
+    /**
+     * Get the number of records related to an accession, without building the collection returned by
+     * {@link #getFileRecords(java.lang.Integer)}.
+     *
+     * @param accession seqware accession
+     *
+     * @return the number of file provenance records
+     */
+    public int getFileRecordCount(Integer accession) {
+        SwidIndex index = getSwidIndex();
+        int key = index.find(accession);
+        return index.end(key) - index.start(key);
     }
 
     private List<ReducedFileProvenanceReportRecord> convert(List<FileProvenance> records) {
@@ -140,15 +182,7 @@ public class FileProvenanceClient {
      * @return A set of study names
      */
     public Set<String> getStudy(List<Integer> swids) {
-        Set<String> studies = new HashSet<>();
-        for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getStudyTitles() != null) {
-                    studies.addAll(fpr.getStudyTitles());
-                }
-            }
-        }
-        return studies;
+        return collect(Column.STUDY_TITLES, swids);
     }
 
     /**
@@ -159,15 +193,7 @@ public class FileProvenanceClient {
      * @return A set of sequencer run names
      */
     public Set<String> getSequencerRuns(List<Integer> swids) {
-        Set<String> sequencerRuns = new HashSet<>();
-        for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getSequencerRunNames() != null) {
-                    sequencerRuns.addAll(fpr.getSequencerRunNames());
-                }
-            }
-        }
-        return sequencerRuns;
+        return collect(Column.SEQUENCER_RUN_NAMES, swids);
     }
 
     /**
@@ -178,15 +204,7 @@ public class FileProvenanceClient {
      * @return A set of lanes names
      */
     public Set<String> getLanes(List<Integer> swids) {
-        Set<String> lanes = new HashSet<>();
-        for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getLaneNames() != null) {
-                    lanes.addAll(fpr.getLaneNames());
-                }
-            }
-        }
-        return lanes;
+        return collect(Column.LANE_NAMES, swids);
     }
 
     /**
@@ -197,15 +215,7 @@ public class FileProvenanceClient {
      * @return A set of sample names
      */
     public Set<String> getSamples(List<Integer> swids) {
-        Set<String> samples = new HashSet<>();
-        for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getSampleNames() != null) {
-                    samples.addAll(fpr.getSampleNames());
-                }
-            }
-        }
-        return samples;
+        return collect(Column.SAMPLE_NAMES, swids);
     }
 
     /**
@@ -216,15 +226,7 @@ public class FileProvenanceClient {
      * @return A set of processing algorithm names
      */
     public Set<String> getProcessingAlgorithms(List<Integer> swids) {
-        Set<String> processingAlgorithms = new HashSet<>();
-        for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getProcessingAlgorithm() != null) {
-                    processingAlgorithms.add(fpr.getProcessingAlgorithm());
-                }
-            }
-        }
-        return processingAlgorithms;
+        return collect(Column.PROCESSING_ALGORITHM, swids);
     }
 
     /**
@@ -235,15 +237,7 @@ public class FileProvenanceClient {
      * @return A list of file metatype names
      */
     public Set<String> getFileMetaTypes(List<Integer> swids) {
-        Set<String> fileTypes = new HashSet<>();
-        for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getFileMetaType() != null) {
-                    fileTypes.add(fpr.getFileMetaType());
-                }
-            }
-        }
-        return fileTypes;
+        return collect(Column.FILE_META_TYPE, swids);
     }
 
     /**
@@ -254,15 +248,204 @@ public class FileProvenanceClient {
      * @return A set of workflow names
      */
     public Set<String> getWorkflows(List<Integer> swids) {
-        Set<String> workflows = new HashSet<>();
+        return collect(Column.WORKFLOW_NAME, swids);
+    }
+
+    private Set<String> collect(Column column, List<Integer> swids) {
+        SwidIndex index = getSwidIndex();
+        Projection projection = getProjection(column);
+        Set<String> values = new HashSet<>();
         for (Integer swid : swids) {
-            for (FileProvenance fpr : accessionToFileProvenanceReportRecords.get(swid)) {
-                if (fpr.getWorkflowName() != null) {
-                    workflows.add(fpr.getWorkflowName());
+            int key = index.find(swid);
+            for (int i = index.start(key); i < index.end(key); i++) {
+                projection.addValues(index.offsets[i], values);
+            }
+        }
+        return values;
+    }
+
+    private synchronized SwidIndex getSwidIndex() {
+        if (swidIndex == null) {
+            swidIndex = new SwidIndex(fileProvenanceReportRecords);
+        }
+        return swidIndex;
+    }
+
+    private synchronized Projection getProjection(Column column) {
+        Projection projection = projections.get(column);
+        if (projection == null) {
+            projection = new Projection(getSwidIndex().records, column);
+            projections.put(column, projection);
+        }
+        return projection;
+    }
+
+    /**
+     * The values of a record returned by a name query.
+     */
+    private enum Column {
+
+        STUDY_TITLES {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getStudyTitles();
+            }
+        },
+        SEQUENCER_RUN_NAMES {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getSequencerRunNames();
+            }
+        },
+        LANE_NAMES {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getLaneNames();
+            }
+        },
+        SAMPLE_NAMES {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getSampleNames();
+            }
+        },
+        PROCESSING_ALGORITHM {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getProcessingAlgorithm() == null ? null : Collections.singleton(f.getProcessingAlgorithm());
+            }
+        },
+        FILE_META_TYPE {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getFileMetaType() == null ? null : Collections.singleton(f.getFileMetaType());
+            }
+        },
+        WORKFLOW_NAME {
+            @Override
+            Collection<String> get(FileProvenance f) {
+                return f.getWorkflowName() == null ? null : Collections.singleton(f.getWorkflowName());
+            }
+        };
+
+        abstract Collection<String> get(FileProvenance f);
+    }
+
+    /**
+     * The file, processing, workflow and workflow run SWIDs of the records, sorted, with the offsets of the records that have each
+     * SWID. The offsets of a SWID are in record order, and an offset is repeated if the record has the SWID more than once.
+     */
+    private static final class SwidIndex {
+
+        private final FileProvenance[] records;
+        private final int[] swids;
+        private final int[] starts;
+        private final int[] offsets;
+
+        SwidIndex(List<FileProvenance> fileProvenanceRecords) {
+            records = fileProvenanceRecords.toArray(new FileProvenance[fileProvenanceRecords.size()]);
+
+            //each entry is a SWID in the high bits and a record offset in the low bits, so sorting groups them by SWID in record order
+            long[] entries = new long[records.length * 4];
+            int size = 0;
+            for (int i = 0; i < records.length; i++) {
+                FileProvenance f = records[i];
+                size = add(entries, size, f.getFileSWID(), i);
+                size = add(entries, size, f.getProcessingSWID(), i);
+                size = add(entries, size, f.getWorkflowSWID(), i);
+                size = add(entries, size, f.getWorkflowRunSWID(), i);
+            }
+            Arrays.sort(entries, 0, size);
+
+            int[] keys = new int[size];
+            int[] keyStarts = new int[size + 1];
+            offsets = new int[size];
+            int keyCount = 0;
+            for (int i = 0; i < size; i++) {
+                int swid = (int) (entries[i] >> 32);
+                if (keyCount == 0 || keys[keyCount - 1] != swid) {
+                    keys[keyCount] = swid;
+                    keyStarts[keyCount] = i;
+                    keyCount++;
                 }
+                offsets[i] = (int) entries[i];
+            }
+            keyStarts[keyCount] = size;
+            swids = Arrays.copyOf(keys, keyCount);
+            starts = Arrays.copyOf(keyStarts, keyCount + 1);
+        }
+
+        private static int add(long[] entries, int size, Integer swid, int offset) {
+            if (swid == null) {
+                return size;
+            }
+            entries[size] = ((long) swid << 32) | offset;
+            return size + 1;
+        }
+
+        /**
+         * @return the position of the SWID, or -1 if no record has it
+         */
+        int find(Integer swid) {
+            if (swid == null) {
+                return -1;
+            }
+            int key = Arrays.binarySearch(swids, swid);
+            return key < 0 ? -1 : key;
+        }
+
+        int start(int key) {
+            return key < 0 ? 0 : starts[key];
+        }
+
+        int end(int key) {
+            return key < 0 ? 0 : starts[key + 1];
+        }
+    }
+
+    /**
+     * The values of a column for every record, stored as ids into a table of the distinct values. The ids of record i are
+     * valueIds[starts[i]] to valueIds[starts[i + 1] - 1].
+     */
+    private static final class Projection {
+
+        private final String[] values;
+        private final int[] starts;
+        private final int[] valueIds;
+
+        Projection(FileProvenance[] records, Column column) {
+            Map<String, Integer> dictionary = new HashMap<>();
+            List<String> distinctValues = new ArrayList<>();
+            int[] ids = new int[records.length];
+            int size = 0;
+            starts = new int[records.length + 1];
+            for (int i = 0; i < records.length; i++) {
+                Collection<String> recordValues = column.get(records[i]);
+                if (recordValues != null) {
+                    for (String value : recordValues) {
+                        Integer id = dictionary.get(value);
+                        if (id == null) {
+                            id = distinctValues.size();
+                            dictionary.put(value, id);
+                            distinctValues.add(value);
+                        }
+                        if (size == ids.length) {
+                            ids = Arrays.copyOf(ids, Math.max(16, size * 2));
+                        }
+                        ids[size++] = id;
+                    }
+                }
+                starts[i + 1] = size;
+            }
+            values = distinctValues.toArray(new String[distinctValues.size()]);
+            valueIds = Arrays.copyOf(ids, size);
+        }
+
+        void addValues(int record, Set<String> set) {
+            for (int i = starts[record]; i < starts[record + 1]; i++) {
+                set.add(values[valueIds[i]]);
             }
         }
-        return workflows;
     }
 
 }
@@ -348,10 +348,11 @@ public class WorkflowReport {
             //Get the workflow run's input file(s) (file accession(s))
             List<Integer> inputFileAccessions = seqwareClient.getWorkflowRunInputFiles(workflowRun);
 
-            workflowReport.addStudies(fpc.getStudy(Arrays.asList(workflowRunSwid)));
-            workflowReport.addSamples(fpc.getSamples(Arrays.asList(workflowRunSwid)));
-            workflowReport.addSequencerRuns(fpc.getSequencerRuns(Arrays.asList(workflowRunSwid)));
-            workflowReport.addLanes(fpc.getLanes(Arrays.asList(workflowRunSwid)));
+            List<Integer> workflowRunSwids = Arrays.asList(workflowRunSwid);
+            workflowReport.addStudies(fpc.getStudy(workflowRunSwids));
+            workflowReport.addSamples(fpc.getSamples(workflowRunSwids));
+            workflowReport.addSequencerRuns(fpc.getSequencerRuns(workflowRunSwids));
+            workflowReport.addLanes(fpc.getLanes(workflowRunSwids));
             workflowReport.addWorkflows(fpc.getWorkflows(inputFileAccessions));
             workflowReport.addProcessingAlgorithms(fpc.getProcessingAlgorithms(inputFileAccessions));
             workflowReport.addFileMetaTypes(fpc.getFileMetaTypes(inputFileAccessions));
@@ -373,7 +374,7 @@ public class WorkflowReport {
             WorkflowRunReport workflowRunReport = new WorkflowRunReport();
             workflowRunReport.setWorkflowIni(ini);
             workflowRunReport.setFiles(files);
-            workflowRunReport.setOutputFileProvenanceRecords(fpc.getFileRecords(workflowRunSwid).size());
+            workflowRunReport.setOutputFileProvenanceRecords(fpc.getFileRecordCount(workflowRunSwid));
 
             //update WorkflowReport fileProvenanceCount
             if (workflowRunReport.getOutputFileProvenanceRecords() > workflowReport.getMaxOutputFileProvenanceRecords()) {
@@ -0,0 +1,145 @@
+package ca.on.oicr.pde.dao.reader;
+
+import ca.on.oicr.gsi.provenance.model.FileProvenance;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class FileProvenanceClientTest {
+
+    private List<FileProvenance> records;
+    private ListMultimap<Integer, FileProvenance> expected;
+    private FileProvenanceClient client;
+
+    @BeforeClass
+    public void setup() {
+        Random random = new Random(42);
+        records = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            FileProvenance f = mock(FileProvenance.class, withSettings().stubOnly());
+            when(f.getFileSWID()).thenReturn(100000 + random.nextInt(1500));
+            when(f.getProcessingSWID()).thenReturn(200000 + random.nextInt(1500));
+            when(f.getWorkflowSWID()).thenReturn(random.nextInt(10) == 0 ? null : 300000 + random.nextInt(5));
+            when(f.getWorkflowRunSWID()).thenReturn(400000 + random.nextInt(300));
+            when(f.getStudyTitles()).thenReturn(Arrays.asList("study" + random.nextInt(3)));
+            when(f.getSampleNames()).thenReturn(random.nextInt(10) == 0 ? null : Arrays.asList("sample" + random.nextInt(50), "sample" + random.nextInt(50)));
+            when(f.getSequencerRunNames()).thenReturn(Arrays.asList("run" + random.nextInt(20)));
+            when(f.getLaneNames()).thenReturn(Arrays.asList("run" + random.nextInt(20) + "_lane" + random.nextInt(8)));
+            when(f.getProcessingAlgorithm()).thenReturn(random.nextInt(10) == 0 ? null : "algorithm" + random.nextInt(4));
+            when(f.getFileMetaType()).thenReturn("type" + random.nextInt(4));
+            when(f.getWorkflowName()).thenReturn("workflow" + random.nextInt(5));
+            records.add(f);
+        }
+        //a record with the same SWID in two fields is found twice
+        FileProvenance shared = mock(FileProvenance.class, withSettings().stubOnly());
+        when(shared.getFileSWID()).thenReturn(500000);
+        when(shared.getProcessingSWID()).thenReturn(500000);
+        when(shared.getWorkflowSWID()).thenReturn(null);
+        when(shared.getWorkflowRunSWID()).thenReturn(400000);
+        when(shared.getStudyTitles()).thenReturn(Collections.singletonList("study3"));
+        records.add(shared);
+
+        expected = LinkedListMultimap.create();
+        for (FileProvenance f : records) {
+            for (Integer swid : Arrays.asList(f.getFileSWID(), f.getProcessingSWID(), f.getWorkflowSWID(), f.getWorkflowRunSWID())) {
+                if (swid != null) {
+                    expected.put(swid, f);
+                }
+            }
+        }
+        client = new FileProvenanceClient(records);
+    }
+
+    @Test
+    public void getFileRecords() {
+        for (Integer swid : expected.keySet()) {
+            assertEquals(new ArrayList<>(client.getFileRecords(swid)), expected.get(swid));
+            assertEquals(client.getFileRecordCount(swid), expected.get(swid).size());
+        }
+        assertEquals(client.getFileRecordCount(500000), 2);
+        assertTrue(client.getFileRecords(1).isEmpty());
+        assertEquals(client.getFileRecordCount(null), 0);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void getAccessionToFileProvenanceReportRecords() {
+        assertEquals(client.getAccessionToFileProvenanceReportRecords(), expected);
+    }
+
+    @Test
+    public void getNames() {
+        for (Integer swid : expected.keySet()) {
+            List<Integer> swids = Arrays.asList(swid, 1, swid + 1);
+            List<FileProvenance> related = new ArrayList<>();
+            for (Integer s : swids) {
+                related.addAll(expected.get(s));
+            }
+            Set<String> studies = new HashSet<>();
+            Set<String> samples = new HashSet<>();
+            Set<String> sequencerRuns = new HashSet<>();
+            Set<String> lanes = new HashSet<>();
+            Set<String> processingAlgorithms = new HashSet<>();
+            Set<String> fileMetaTypes = new HashSet<>();
+            Set<String> workflows = new HashSet<>();
+            for (FileProvenance f : related) {
+                addAll(studies, f.getStudyTitles());
+                addAll(samples, f.getSampleNames());
+                addAll(sequencerRuns, f.getSequencerRunNames());
+                addAll(lanes, f.getLaneNames());
+                add(processingAlgorithms, f.getProcessingAlgorithm());
+                add(fileMetaTypes, f.getFileMetaType());
+                add(workflows, f.getWorkflowName());
+            }
+            assertEquals(client.getStudy(swids), studies);
+            assertEquals(client.getSamples(swids), samples);
+            assertEquals(client.getSequencerRuns(swids), sequencerRuns);
+            assertEquals(client.getLanes(swids), lanes);
+            assertEquals(client.getProcessingAlgorithms(swids), processingAlgorithms);
+            assertEquals(client.getFileMetaTypes(swids), fileMetaTypes);
+            assertEquals(client.getWorkflows(swids), workflows);
+        }
+    }
+
+    @Test
+    public void getFiles() {
+        List<Integer> swids = Arrays.asList(400000, 400001, 100000);
+        Set<Integer> fileSwids = new HashSet<>();
+        for (Integer swid : swids) {
+            for (FileProvenance f : expected.get(swid)) {
+                fileSwids.add(f.getFileSWID());
+            }
+        }
+        assertEquals(client.getFiles(swids).size(), fileSwids.size());
+        Set<Integer> allFileSwids = new HashSet<>();
+        for (FileProvenance f : records) {
+            allFileSwids.add(f.getFileSWID());
+        }
+        assertEquals(client.getAllFiles().size(), allFileSwids.size());
+    }
+
+    private static void addAll(Set<String> set, Collection<String> values) {
+        if (values != null) {
+            set.addAll(values);
+        }
+    }
+
+    private static void add(Set<String> set, String value) {
+        if (value != null) {
+            set.add(value);
+        }
+    }
+}
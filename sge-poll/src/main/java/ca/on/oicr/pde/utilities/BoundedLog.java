@@ -0,0 +1,93 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import java.util.ArrayDeque;
+
+/**
+ * <p>Keeps the last lines of a log in memory. Once the log is full, the oldest
+ * line is dropped for every line appended, and lines longer than the maximum
+ * length are truncated, so a poller that runs for days does not grow without
+ * bounds.</p>
+ */
+public class BoundedLog {
+
+    private final int maxLines;
+    private final int maxLineLength;
+    private final ArrayDeque<String> lines;
+    private long droppedLines = 0;
+
+    /**
+     * @param maxLines the number of lines to keep
+     * @param maxLineLength the number of characters to keep of each line
+     */
+    public BoundedLog(int maxLines, int maxLineLength) {
+        this.maxLines = maxLines;
+        this.maxLineLength = maxLineLength;
+        this.lines = new ArrayDeque<>(maxLines);
+    }
+
+    /**
+     * Appends a line to the log.
+     *
+     * @param line the line, without a trailing newline
+     */
+    public synchronized void append(String line) {
+        if (lines.size() == maxLines) {
+            lines.removeFirst();
+            droppedLines++;
+        }
+        if (line.length() > maxLineLength) {
+            line = line.substring(0, maxLineLength) + "... [" + (line.length() - maxLineLength) + " characters truncated]";
+        }
+        lines.addLast(line);
+    }
+
+    /**
+     * @return the number of lines dropped to keep the log within its size
+     */
+    public synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+
+    /**
+     * @return the lines in the log, each followed by a newline, preceded by a
+     * note if earlier lines were dropped
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder();
+        if (droppedLines > 0) {
+            out.append("[").append(droppedLines).append(" earlier lines dropped]\n");
+        }
+        for (String line : lines) {
+            out.append(line).append("\n");
+        }
+        return out.toString();
+    }
+}
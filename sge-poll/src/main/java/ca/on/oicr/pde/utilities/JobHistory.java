@@ -0,0 +1,193 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Writes the state transitions of the polled jobs as newline-delimited
+ * JSON, one object per line, flushed as soon as it is written. Each object has
+ * the "event" ("submitted", "started" or "finished"), the "time" it was seen
+ * (in seconds since the epoch), and the "job_number" and "job_name". The other
+ * fields are included when SGE reports them:</p>
+ *
+ * <ul>
+ * <li>submitted: "submission_time"</li>
+ * <li>started: "start_time"</li>
+ * <li>finished: "status", and either "state" (the qstat state of a job that
+ * failed in the queue) or "failed", "exit_status", "hostname",
+ * "submission_time", "start_time", "end_time", "wallclock" (in seconds) and
+ * "maxvmem" (in bytes) from the accounting record</li>
+ * </ul>
+ *
+ * <p>Times are in seconds since the epoch. A job that is first seen after it
+ * started or finished gets all of its missing events at once.</p>
+ */
+public class JobHistory implements Closeable {
+
+    private final PrintWriter writer;
+    private final Set<String> submittedJobs = new HashSet<>();
+    private final Set<String> startedJobs = new HashSet<>();
+
+    /**
+     * Opens the history file, appending to it if it exists.
+     *
+     * @param file the history file
+     * @throws FileNotFoundException if the file can not be opened
+     */
+    public JobHistory(File file) throws FileNotFoundException {
+        this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)));
+    }
+
+    public JobHistory(Writer writer) {
+        this.writer = new PrintWriter(writer);
+    }
+
+    /**
+     * Writes the events of a job that happened since the last update.
+     *
+     * @param jobId the job number
+     * @param jobName the job name
+     * @param status the job status
+     * @param queuedJob the job in qstat, or null
+     * @param finishedJob the accounting record of the job, or null
+     */
+    public void update(String jobId, String jobName, JobStatus status, QstatXml.Job queuedJob, SgeAccounting.Record finishedJob) {
+        boolean finished = status != JobStatus.RUNNING && status != JobStatus.LOST;
+        if (submittedJobs.add(jobId)) {
+            long submissionTime = queuedJob != null ? queuedJob.getSubmissionTime() : finishedJob != null ? finishedJob.getSubmissionTime() : 0;
+            write(event("submitted", jobId, jobName).time("submission_time", submissionTime));
+        }
+        if (!startedJobs.contains(jobId)) {
+            if (queuedJob != null && queuedJob.isRunning()) {
+                write(event("started", jobId, jobName).time("start_time", queuedJob.getStartTime()));
+                startedJobs.add(jobId);
+            } else if (finished && finishedJob != null && finishedJob.getStartTime() != 0) {
+                write(event("started", jobId, jobName).time("start_time", finishedJob.getStartTime()));
+                startedJobs.add(jobId);
+            }
+        }
+        if (finished) {
+            Event event = event("finished", jobId, jobName).string("status", status.name());
+            if (finishedJob != null) {
+                event.number("failed", finishedJob.getFailed()).number("exit_status", finishedJob.getExitStatus())
+                        .string("hostname", finishedJob.getHostname()).time("submission_time", finishedJob.getSubmissionTime())
+                        .time("start_time", finishedJob.getStartTime()).time("end_time", finishedJob.getEndTime())
+                        .number("wallclock", finishedJob.getWallclock()).number("maxvmem", finishedJob.getMaxvmem());
+            } else if (queuedJob != null) {
+                event.string("state", queuedJob.getState());
+            }
+            write(event);
+            //the job is no longer polled
+            submittedJobs.remove(jobId);
+            startedJobs.remove(jobId);
+        }
+    }
+
+    /**
+     * @return true if writing to the history file failed
+     */
+    public boolean checkError() {
+        return writer.checkError();
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    private Event event(String event, String jobId, String jobName) {
+        return new Event().string("event", event).number("time", System.currentTimeMillis() / 1000)
+                .string("job_number", jobId).string("job_name", jobName);
+    }
+
+    private void write(Event event) {
+        writer.println(event.json.append("}"));
+        writer.flush();
+    }
+
+    /**
+     * A JSON object, built one field at a time.
+     */
+    private static class Event {
+
+        private final StringBuilder json = new StringBuilder("{");
+
+        Event string(String key, String value) {
+            if (value != null) {
+                key(key).append('"');
+                for (char c : value.toCharArray()) {
+                    if (c == '"' || c == '\\') {
+                        json.append('\\').append(c);
+                    } else if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+                json.append('"');
+            }
+            return this;
+        }
+
+        Event number(String key, long value) {
+            key(key).append(value);
+            return this;
+        }
+
+        Event number(String key, double value) {
+            key(key).append(value);
+            return this;
+        }
+
+        /**
+         * Adds a time, unless it is not known (0).
+         */
+        Event time(String key, long value) {
+            return value == 0 ? this : number(key, value);
+        }
+
+        private StringBuilder key(String key) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            return json.append('"').append(key).append("\":");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.util.Map;
+
+/**
+ * <p>The state of the SGE jobs, as seen in the last refresh. Implemented by
+ * {@link SgeJobStateCache}, which queries SGE, and by
+ * {@link SpoolDirectoryClient}, which reads the state published by an
+ * {@link SgePollDaemon}.</p>
+ */
+public interface JobStateSource {
+
+    /**
+     * Retrieves the current state of the jobs.
+     *
+     * @throws SgePollException if the state can not be retrieved
+     */
+    void refresh() throws SgePollException;
+
+    /**
+     * @return true if the state has been retrieved at least once
+     */
+    boolean isRefreshed();
+
+    /**
+     * Gets the pending and running jobs named with the given string.
+     *
+     * @param jobString the unique job string
+     * @return the job names keyed by job number
+     */
+    Map<String, String> getQueuedJobs(String jobString);
+
+    /**
+     * Gets the finished jobs named with the given string.
+     *
+     * @param jobString the unique job string
+     * @return the job names keyed by job number
+     */
+    Map<String, String> getFinishedJobs(String jobString);
+
+    /**
+     * Gets a pending or running job.
+     *
+     * @param jobId the job number
+     * @return the job, or null if it is not pending or running
+     */
+    QstatXml.Job getQueuedJob(String jobId);
+
+    /**
+     * Gets the accounting record of a finished job. The tasks of an array job
+     * are merged into one record (see {@link SgeAccounting.Record#merge}).
+     *
+     * @param jobId the job number
+     * @return the record, or null if the job is not known to be finished
+     */
+    SgeAccounting.Record getFinishedJob(String jobId);
+
+    /**
+     * Gets the status of a job: its qstat state if it is pending or running,
+     * its accounting status if it is finished, or LOST if it is neither (which
+     * is expected while it moves from qstat to the accounting records).
+     *
+     * @param jobId the job number
+     * @return the job status
+     */
+    JobStatus getStatus(String jobId);
+}
@@ -0,0 +1,204 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Parses the output of "qstat -xml", which lists every pending and running
+ * job of the user (one job_list element per job or array job task) with its
+ * full job name and state, so that the state of all tracked jobs is retrieved
+ * with one qstat call.</p>
+ */
+public class QstatXml {
+
+    private QstatXml() {
+    }
+
+    /**
+     * Parses qstat -xml output. Array job tasks are merged into one job per job
+     * number; the job is in an error state if any of its tasks is.
+     *
+     * @param xml the qstat -xml output, an empty string means there are no jobs
+     * @return the jobs keyed by job number, in output order
+     * @throws SgePollException if the output is not valid XML
+     */
+    public static Map<String, Job> parse(String xml) throws SgePollException {
+        Map<String, Job> jobs = new LinkedHashMap<>();
+        if (xml.trim().isEmpty()) {
+            return jobs;
+        }
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new SgePollException("Unable to parse qstat output", e);
+        }
+        NodeList jobLists = document.getElementsByTagName("job_list");
+        for (int i = 0; i < jobLists.getLength(); i++) {
+            Element jobList = (Element) jobLists.item(i);
+            String number = getChildText(jobList, "JB_job_number");
+            if (number == null) {
+                continue;
+            }
+            Job job = new Job(number, getChildText(jobList, "JB_name"), getChildText(jobList, "state"),
+                    parseTime(getChildText(jobList, "JB_submission_time")), parseTime(getChildText(jobList, "JAT_start_time")));
+            Job previous = jobs.get(number);
+            if (previous == null) {
+                jobs.put(number, job);
+            } else {
+                //qstat lists the start time of running tasks and the submission time of pending ones
+                Job state = job.isError() && !previous.isError() ? job : previous;
+                jobs.put(number, new Job(number, state.getName(), state.getState(),
+                        previous.getSubmissionTime() != 0 ? previous.getSubmissionTime() : job.getSubmissionTime(),
+                        previous.getStartTime() != 0 ? previous.getStartTime() : job.getStartTime()));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Parses a qstat time such as "2013-06-11T18:03:50" (local time), ignoring
+     * fractional seconds.
+     *
+     * @return the time in seconds since the epoch, or 0 if it is not set
+     */
+    private static long parseTime(String value) {
+        if (value == null || value.length() < 19) {
+            return 0;
+        }
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").parse(value.substring(0, 19)).getTime() / 1000;
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static String getChildText(Element element, String name) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                return child.getTextContent().trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A pending or running job. Times are in seconds since the epoch, and are 0
+     * if they are not known.
+     */
+    public static class Job {
+
+        private final String number;
+        private final String name;
+        private final String state;
+        private final long submissionTime;
+        private final long startTime;
+
+        public Job(String number, String name, String state) {
+            this(number, name, state, 0, 0);
+        }
+
+        public Job(String number, String name, String state, long submissionTime, long startTime) {
+            this.number = number;
+            this.name = name == null ? "" : name;
+            this.state = state == null ? "" : state;
+            this.submissionTime = submissionTime;
+            this.startTime = startTime;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the SGE state code, e.g. "qw", "r" or "Eqw"
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * @return the submission time, which qstat only lists for pending
+         * jobs
+         */
+        public long getSubmissionTime() {
+            return submissionTime;
+        }
+
+        /**
+         * @return the start time, which qstat only lists for running jobs
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return true if the job (or one of its tasks) is running or being
+         * transferred to its execution host
+         */
+        public boolean isRunning() {
+            return !isError() && (state.contains("r") || state.contains("t"));
+        }
+
+        /**
+         * @return true if the job is in the error state ("E"), which it does
+         * not leave without manual intervention
+         */
+        public boolean isError() {
+            return state.contains("E");
+        }
+
+        /**
+         * @return FAILED if the job is in the error state, RUNNING otherwise
+         */
+        public JobStatus getStatus() {
+            return isError() ? JobStatus.FAILED : JobStatus.RUNNING;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>Reads finished job records from the SGE accounting file
+ * ($SGE_ROOT/$SGE_CELL/common/accounting), the file that qacct reads.</p>
+ *
+ * <p>The file is tailed: each call to {@link #readNewRecords()} only reads the
+ * complete lines appended since the previous call, so finding the jobs that
+ * finished during a polling round costs one read of the new lines instead of a
+ * qacct call (which scans the whole file) per job. If the file shrinks (it was
+ * rotated or truncated), it is read again from the start.</p>
+ */
+public class SgeAccounting {
+
+    private static final int HOSTNAME = 1;
+    private static final int JOB_NAME = 4;
+    private static final int JOB_NUMBER = 5;
+    private static final int SUBMISSION_TIME = 8;
+    private static final int START_TIME = 9;
+    private static final int END_TIME = 10;
+    private static final int FAILED = 11;
+    private static final int EXIT_STATUS = 12;
+    private static final int WALLCLOCK = 13;
+    private static final int MAXVMEM = 42;
+
+    private final File file;
+    private long position = 0;
+
+    /**
+     * Creates a reader for the given accounting file, starting at the beginning
+     * of the file.
+     *
+     * @param file the SGE accounting file
+     */
+    public SgeAccounting(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the accounting file for the SGE installation in the environment
+     * ($SGE_ROOT/$SGE_CELL/common/accounting).
+     *
+     * @return the accounting file, or null if SGE_ROOT is not set or the file
+     * can not be read
+     */
+    public static File getDefaultFile() {
+        String sgeRoot = System.getenv("SGE_ROOT");
+        if (sgeRoot == null) {
+            return null;
+        }
+        String sgeCell = System.getenv("SGE_CELL");
+        File file = new File(sgeRoot, (sgeCell == null ? "default" : sgeCell) + "/common/accounting");
+        return file.canRead() ? file : null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Skips the records that are currently in the file, so that only jobs
+     * finishing from now on are read.
+     */
+    public void skipToEnd() {
+        position = file.length();
+    }
+
+    /**
+     * Reads the records that were appended to the file since the last call. A
+     * partially written last line is left for the next call.
+     *
+     * @return the new records, in file order
+     * @throws IOException if the file can not be read
+     */
+    public List<Record> readNewRecords() throws IOException {
+        long length = file.length();
+        if (length < position) {
+            position = 0;
+        }
+        if (length == position) {
+            return Collections.emptyList();
+        }
+        List<Record> records = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(position);
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long lineStart = position;
+            long offset = position;
+            int read;
+            while (offset < length && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length - offset))) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        Record record = parseLine(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                        if (record != null) {
+                            records.add(record);
+                        }
+                        line.reset();
+                        lineStart = offset + i + 1;
+                    } else {
+                        line.write(buffer[i]);
+                    }
+                }
+                offset += read;
+            }
+            position = lineStart;
+        }
+        return records;
+    }
+
+    /**
+     * Parses an accounting file line.
+     *
+     * @param line the colon-separated accounting record
+     * @return the record, or null if the line is a comment or is not an
+     * accounting record
+     */
+    public static Record parseLine(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+        String[] fields = line.split(":", -1);
+        if (fields.length <= EXIT_STATUS) {
+            return null;
+        }
+        try {
+            return new Record(fields[JOB_NUMBER], fields[JOB_NAME], parseLeadingInt(fields[FAILED]), parseLeadingInt(fields[EXIT_STATUS]),
+                    fields[HOSTNAME], Long.parseLong(fields[SUBMISSION_TIME]), Long.parseLong(fields[START_TIME]), Long.parseLong(fields[END_TIME]),
+                    Double.parseDouble(fields[WALLCLOCK]), fields.length > MAXVMEM ? (long) Double.parseDouble(fields[MAXVMEM]) : 0);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the output of qacct -j, which has a block of "key value" lines per
+     * finished job (or array job task).
+     *
+     * @param output the qacct output
+     * @return the records, in output order
+     */
+    public static List<Record> parseQacct(String output) {
+        List<Record> records = new ArrayList<>();
+        String jobNumber = null;
+        String jobName = null;
+        String failed = null;
+        String exitStatus = null;
+        String hostname = null;
+        String submissionTime = null;
+        String startTime = null;
+        String endTime = null;
+        String wallclock = null;
+        String maxvmem = null;
+        for (String line : (output + "\n====").split("\n")) {
+            if (line.startsWith("====")) {
+                if (jobNumber != null) {
+                    try {
+                        records.add(new Record(jobNumber, jobName, failed == null ? 0 : parseLeadingInt(failed),
+                                exitStatus == null ? 0 : parseLeadingInt(exitStatus), hostname, parseQacctTime(submissionTime),
+                                parseQacctTime(startTime), parseQacctTime(endTime), parseQacctSeconds(wallclock), parseQacctBytes(maxvmem)));
+                    } catch (NumberFormatException e) {
+                        //skip the malformed block
+                    }
+                }
+                jobNumber = jobName = failed = exitStatus = null;
+                hostname = submissionTime = startTime = endTime = wallclock = maxvmem = null;
+                continue;
+            }
+            String[] keyValue = line.trim().split("\\s+", 2);
+            String value = keyValue.length > 1 ? keyValue[1].trim() : "";
+            switch (keyValue[0]) {
+                case "jobnumber":
+                    jobNumber = value;
+                    break;
+                case "jobname":
+                    jobName = value;
+                    break;
+                case "failed":
+                    failed = value;
+                    break;
+                case "exit_status":
+                    exitStatus = value;
+                    break;
+                case "hostname":
+                    hostname = value;
+                    break;
+                case "qsub_time":
+                    submissionTime = value;
+                    break;
+                case "start_time":
+                    startTime = value;
+                    break;
+                case "end_time":
+                    endTime = value;
+                    break;
+                case "ru_wallclock":
+                    wallclock = value;
+                    break;
+                case "maxvmem":
+                    maxvmem = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Parses a qacct time such as "Fri Jun  7 18:08:16 2013".
+     *
+     * @return the time in seconds since the epoch, or 0 if it is not set
+     */
+    private static long parseQacctTime(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.US).parse(value.replaceAll("\\s+", " ")).getTime() / 1000;
+        } catch (ParseException e) {
+            //"-/-" for jobs that never started
+            return 0;
+        }
+    }
+
+    /**
+     * Parses a qacct duration such as "30" or "30.120s".
+     */
+    private static double parseQacctSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return Double.parseDouble(value.endsWith("s") ? value.substring(0, value.length() - 1) : value);
+    }
+
+    /**
+     * Parses a qacct memory size such as "0.000" or "13.031M", where the
+     * suffixes are powers of 1024.
+     */
+    private static long parseQacctBytes(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        int power = "KMGT".indexOf(Character.toUpperCase(value.charAt(value.length() - 1))) + 1;
+        String number = power > 0 ? value.substring(0, value.length() - 1) : value;
+        return (long) (Double.parseDouble(number) * Math.pow(1024, power));
+    }
+
+    /**
+     * Parses the integer at the start of a value such as
+     * "100 : assumedly after job".
+     */
+    private static int parseLeadingInt(String value) {
+        String trimmed = value.trim();
+        int end = 0;
+        while (end < trimmed.length() && (Character.isDigit(trimmed.charAt(end)) || (end == 0 && trimmed.charAt(end) == '-'))) {
+            end++;
+        }
+        return Integer.parseInt(trimmed.substring(0, end));
+    }
+
+    /**
+     * A finished job (or array job task). Times are in seconds since the
+     * epoch, and are 0 if they are not known.
+     */
+    public static class Record {
+
+        private final String jobNumber;
+        private final String jobName;
+        private final int failed;
+        private final int exitStatus;
+        private final String hostname;
+        private final long submissionTime;
+        private final long startTime;
+        private final long endTime;
+        private final double wallclock;
+        private final long maxvmem;
+
+        public Record(String jobNumber, String jobName, int failed, int exitStatus) {
+            this(jobNumber, jobName, failed, exitStatus, null, 0, 0, 0, 0, 0);
+        }
+
+        public Record(String jobNumber, String jobName, int failed, int exitStatus, String hostname, long submissionTime, long startTime,
+                long endTime, double wallclock, long maxvmem) {
+            this.jobNumber = jobNumber;
+            this.jobName = jobName;
+            this.failed = failed;
+            this.exitStatus = exitStatus;
+            this.hostname = hostname;
+            this.submissionTime = submissionTime;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.wallclock = wallclock;
+            this.maxvmem = maxvmem;
+        }
+
+        public String getJobNumber() {
+            return jobNumber;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        /**
+         * @return the execution host, or null if it is not known
+         */
+        public String getHostname() {
+            return hostname;
+        }
+
+        public long getSubmissionTime() {
+            return submissionTime;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        /**
+         * @return the wallclock time in seconds
+         */
+        public double getWallclock() {
+            return wallclock;
+        }
+
+        /**
+         * @return the maximum virtual memory size in bytes
+         */
+        public long getMaxvmem() {
+            return maxvmem;
+        }
+
+        /**
+         * Gets the job status: FAILED if SGE failed the job, EXIT_ERROR if the
+         * job script exited with a non-zero status, SUCCESSFUL otherwise.
+         *
+         * @return the job status
+         */
+        public JobStatus getStatus() {
+            if (failed != 0) {
+                return JobStatus.FAILED;
+            } else if (exitStatus != 0) {
+                return JobStatus.EXIT_ERROR;
+            } else {
+                return JobStatus.SUCCESSFUL;
+            }
+        }
+
+        /**
+         * Merges the record of another task of the same array job into this
+         * one. The array job keeps the status of the first task that did not
+         * succeed, and spans the times and the largest wallclock and memory
+         * use of its tasks.
+         *
+         * @param task the record of another task
+         * @return the merged record
+         */
+        public Record merge(Record task) {
+            Record status = getStatus() == JobStatus.SUCCESSFUL ? task : this;
+            return new Record(jobNumber, jobName, status.failed, status.exitStatus, hostname == null ? task.hostname : hostname,
+                    minTime(submissionTime, task.submissionTime), minTime(startTime, task.startTime), Math.max(endTime, task.endTime),
+                    Math.max(wallclock, task.wallclock), Math.max(maxvmem, task.maxvmem));
+        }
+
+        private static long minTime(long a, long b) {
+            return a == 0 || b == 0 ? Math.max(a, b) : Math.min(a, b);
+        }
+    }
+}
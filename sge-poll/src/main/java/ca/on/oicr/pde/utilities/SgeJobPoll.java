@@ -32,15 +32,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import org.apache.commons.exec.CommandLine;
 import io.seqware.oozie.action.sge.Invoker;
 import io.seqware.oozie.action.sge.JobStatus;
-import io.seqware.oozie.action.sge.StatusChecker;
 
 /**
  * <p>Monitors the status of jobs submitted to the SGE cluster. Searches in both
@@ -48,6 +45,24 @@ import io.seqware.oozie.action.sge.StatusChecker;
  * line. It then monitors those jobs, polling every few seconds until they
  * complete.</p>
  *
+ * <p>Each round of polling retrieves the state of all jobs with one "qstat
+ * -xml" call and reads the jobs that finished since the previous round from
+ * the end of the SGE accounting file (see {@link SgeAccounting}). Without an
+ * accounting file, one bulk qacct call is made in the rounds where a tracked
+ * job has left qstat. The polling interval doubles (up to the maximum interval)
+ * after every round in which no job changed state, and is reset when one
+ * does.</p>
+ *
+ * <p>The submission, start and end of every job, with its exit status,
+ * wallclock time and maximum memory use, can be written to a history file as
+ * they are seen (see {@link JobHistory}). The logs printed at the end only
+ * keep their last lines (see {@link BoundedLog}).</p>
+ *
+ * <p>With a spool directory, the job state is read from the status file
+ * written by an {@link SgePollDaemon} instead, so that the poller does not run
+ * any SGE commands. If the daemon does not update the status file within the
+ * daemon timeout, the poller falls back to polling SGE itself.</p>
+ *
  * <p>In any particular round of polling, if the job is running, it is ignored.
  * If the job is successful, log its changed status and remove it from the pool
  * of polled jobs. If the job is completed in any other way, log its status,
@@ -61,8 +76,10 @@ import io.seqware.oozie.action.sge.StatusChecker;
  */
 public class SgeJobPoll {
 
-    private StringBuilder stderr = new StringBuilder();
-    private StringBuilder stdout = new StringBuilder();
+    private static final int MAX_LOG_LINES = 1000;
+    private static final int MAX_LOG_LINE_LENGTH = 4096;
+    private BoundedLog stderr = new BoundedLog(MAX_LOG_LINES, MAX_LOG_LINE_LENGTH);
+    private BoundedLog stdout = new BoundedLog(MAX_LOG_LINES, MAX_LOG_LINE_LENGTH);
     private OptionSet options;
 //    private String[] parameters;
     private Collection<String> jobIds;
@@ -70,6 +87,13 @@ public class SgeJobPoll {
     private Boolean isSuccessful = null;
     private boolean done = false;
     private int pollInterval = 5000;
+    private int maxPollInterval = 60000;
+    private String qstatCommand = "qstat";
+    private String qacctCommand = "qacct";
+    private SgeJobStateCache cache;
+    private SpoolDirectoryClient client;
+    private JobStateSource source;
+    private JobHistory history;
 
     /**
      * Get the polling interval in milliseconds.
@@ -89,6 +113,25 @@ public class SgeJobPoll {
         this.pollInterval = pollInterval;
     }
 
+    /**
+     * Get the maximum polling interval in milliseconds, which the polling
+     * interval backs off to while no job changes state.
+     *
+     * @return the maximum polling interval. Default is 60000.
+     */
+    public int getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    /**
+     * Set the maximum polling interval in milliseconds.
+     *
+     * @param maxPollInterval new maximum polling interval
+     */
+    protected void setMaxPollInterval(int maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
     /**
      * Returns if the polling is completed.
      *
@@ -161,10 +204,38 @@ public class SgeJobPoll {
             OptionParser parser = getOptionParser();
             options = parser.parse(args);
         } catch (OptionException e) {
-            stderr.append(e.getMessage()).append("\n");
-            stderr.append(get_syntax()).append("\n");
+            stderr.append(e.getMessage());
+            stderr.append(get_syntax());
             throw e;
         }
+        if (options.has("qstat")) {
+            qstatCommand = (String) options.valueOf("qstat");
+        }
+        if (options.has("qacct")) {
+            qacctCommand = (String) options.valueOf("qacct");
+        }
+        if (options.has("poll-interval")) {
+            pollInterval = (Integer) options.valueOf("poll-interval") * 1000;
+        }
+        if (options.has("max-poll-interval")) {
+            maxPollInterval = (Integer) options.valueOf("max-poll-interval") * 1000;
+        }
+        File accountingFile = options.has("accounting-file")
+                ? new File((String) options.valueOf("accounting-file")) : SgeAccounting.getDefaultFile();
+        cache = new SgeJobStateCache(new SgeJobStateCache.CommandRunner() {
+
+            @Override
+            public String run(String command) throws SgePollException {
+                return runACommand(command);
+            }
+        }, qstatCommand, qacctCommand, accountingFile == null ? null : new SgeAccounting(accountingFile));
+        source = cache;
+        if (options.has("spool-dir")) {
+            long daemonTimeout = options.has("daemon-timeout") ? (Integer) options.valueOf("daemon-timeout") * 1000L : 300000L;
+            client = new SpoolDirectoryClient(new File((String) options.valueOf("spool-dir")), (String) options.valueOf("unique-job-string"),
+                    options.has("b") ? (String) options.valueOf("b") : null, daemonTimeout);
+            source = client;
+        }
     }
 
     /**
@@ -192,6 +263,12 @@ public class SgeJobPoll {
         //System.out.println("Finding jobs");
         String string = (String) options.valueOf("unique-job-string");
         outPrintln("Starting polling on jobs with extension ", string);
+        cache.addJobString(string);
+        //jobs that already finished are found with qacct, the accounting file is only read for jobs finishing from now on
+        cache.skipAccountingToEnd();
+        if (client != null) {
+            waitForDaemon();
+        }
 	Map<Integer, String> jobs = findRunningJobs(string);
         outPrintln("Number of running jobs:" + jobs.keySet().size());
         jobs.putAll(findFinishedJobs(string));
@@ -207,16 +284,65 @@ public class SgeJobPoll {
         }
     }
 
-    private void addRunningJobs() throws SgePollException {
-	//System.out.println("Finding running jobs");
+    private boolean addRunningJobs() throws SgePollException {
 	String string = (String) options.valueOf("unique-job-string");
 	Map<Integer, String> jobs = findRunningJobs(string);
-        //outPrintln("Number of still running jobs:" + jobs.keySet().size());
+        boolean added = false;
 	for (Integer i : jobs.keySet()) {
-            String id = String.valueOf(i);
-	    this.jobIds.add(id);
-	    this.mappedJobs.put(id, new String[]{jobs.get(i), ""});
+            added |= addJob(String.valueOf(i), jobs.get(i));
+        }
+        //jobs that were submitted and finished between two rounds are only in the accounting records
+        for (Map.Entry<String, String> job : source.getFinishedJobs(string).entrySet()) {
+            added |= addJob(job.getKey(), job.getValue());
         }
+        return added;
+    }
+
+    /**
+     * Subscribes to the daemon and waits for its first status file, or falls
+     * back to polling SGE if it does not write one within the daemon timeout.
+     */
+    private void waitForDaemon() throws SgePollException {
+        client.subscribe();
+        outPrintln("Waiting for the polling daemon");
+        while (!client.isRefreshed() && !client.isStale()) {
+            try {
+                client.refresh();
+            } catch (SgePollException e) {
+                errPrintln(new Date().toString(), ": Unable to read job status, retrying: ", e.getMessage());
+            }
+            if (!client.isRefreshed()) {
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException e) {
+                    throw new SgePollException("Interrupted while waiting for the polling daemon", e);
+                }
+            }
+        }
+        if (!client.isRefreshed()) {
+            fallBackToSge();
+        }
+    }
+
+    /**
+     * Stops using the daemon, which did not update the status file within the
+     * daemon timeout, and polls SGE directly from now on.
+     */
+    private void fallBackToSge() {
+        errPrintln(new Date().toString(), ": The polling daemon did not respond, falling back to polling SGE");
+        client.unsubscribe();
+        client = null;
+        source = cache;
+        cache.skipAccountingToEnd();
+    }
+
+    private boolean addJob(String id, String name) {
+        if (mappedJobs.containsKey(id)) {
+            return false;
+        }
+        this.jobIds.add(id);
+        this.mappedJobs.put(id, new String[]{name, ""});
+        return true;
     }
 
     /**
@@ -231,11 +357,19 @@ public class SgeJobPoll {
     public void runMe() throws Exception {
         try {
             verifyParameters();
+            if (options.has("history-file")) {
+                history = new JobHistory(new File((String) options.valueOf("history-file")));
+            }
             verifyInput();
+            System.out.println(new java.util.Date().toString() + ": Running");
+            int interval = pollInterval;
             while (!done) {
                 try {
-                    this.run();
-                    Thread.sleep(pollInterval);
+                    boolean changed = this.run();
+                    interval = changed ? pollInterval : Math.max(pollInterval, Math.min(interval * 2, maxPollInterval));
+                    if (!done) {
+                        Thread.sleep(interval);
+                    }
                 } catch (Exception e) {
                     e.printStackTrace();
                     done = true;
@@ -244,6 +378,15 @@ public class SgeJobPoll {
         } catch (Exception e) {
             throw e;
         } finally {
+            if (client != null) {
+                client.unsubscribe();
+            }
+            if (history != null) {
+                history.close();
+                if (history.checkError()) {
+                    errPrintln("Unable to write the history file ", (String) options.valueOf("history-file"));
+                }
+            }
             finish();
         }
     }
@@ -275,7 +418,9 @@ public class SgeJobPoll {
     /**
      * Prints the logs to standard out, prints to the log file, and exits the
      * poller with an exit status if any jobs failed. Exits with 15 if any jobs
-     * failed, with 1 if the success was not determined, and 0 otherwise.
+     * failed, with 1 if the success was not determined, and 0 otherwise. Called
+     * by {@link #runMe()} once the daemon subscription and the history file
+     * are closed.
      */
     protected void finish() {
         printLogsToStd();
@@ -284,14 +429,24 @@ public class SgeJobPoll {
             System.err.println("SGE jobs failed or are in an inconsistent "
                     + "state. See the extended log for details.");
 	    System.err.println(printJobs());
-            System.exit(15);
+            exit(15);
         } else if (isSuccessful == null) {
             System.err.println("Polling was not completed or isSuccessful was "
                     + "not set");
             System.err.println(printJobs());
-	    System.exit(1);
+	    exit(1);
+        } else {
+            exit(0);
         }
-        System.exit(0);
+    }
+
+    /**
+     * Exits the poller with the given exit status.
+     *
+     * @param status the exit status
+     */
+    protected void exit(int status) {
+        System.exit(status);
     }
 
     private OptionParser getOptionParser() {
@@ -299,6 +454,14 @@ public class SgeJobPoll {
         parser.accepts("unique-job-string", "A unique string that is attached to all jobs of interest.").withRequiredArg().isRequired();
         parser.acceptsAll(Arrays.asList("output-file", "o"), "A location for an output file describing the finished jobs").withRequiredArg();
         parser.acceptsAll(Arrays.asList("begin-time", "b"), "The earliest start time for jobs to be summarized, in the format [[CC]YY]MMDDhhmm[.SS]").withRequiredArg();
+        parser.accepts("accounting-file", "The SGE accounting file to read finished jobs from. Default: $SGE_ROOT/$SGE_CELL/common/accounting if readable, otherwise qacct is used").withRequiredArg();
+        parser.accepts("poll-interval", "The polling interval in seconds (default: 5)").withRequiredArg().ofType(Integer.class);
+        parser.accepts("max-poll-interval", "The maximum polling interval in seconds, used while no job changes state (default: 60)").withRequiredArg().ofType(Integer.class);
+        parser.accepts("qstat", "The qstat command (default: qstat)").withRequiredArg();
+        parser.accepts("qacct", "The qacct command (default: qacct)").withRequiredArg();
+        parser.accepts("history-file", "A location for a file to append the job state transitions (submitted, started, finished) to while polling, as newline-delimited JSON").withRequiredArg();
+        parser.accepts("spool-dir", "The spool directory of a polling daemon (SgePollDaemon) to read the job statuses from, instead of polling SGE").withRequiredArg();
+        parser.accepts("daemon-timeout", "The time in seconds without status updates from the polling daemon after which SGE is polled directly (default: 300)").withRequiredArg().ofType(Integer.class);
         return (parser);
     }
 
@@ -317,77 +480,86 @@ public class SgeJobPoll {
     /**
      * Finds the jobs running as the current user named with the given string.
      *
-     * There is a command line string in this method that is used to identify
-     * those jobs. Qstat (at OICR at least) seems to have a bug where if you run
-     * it with -j, it does not respect the -u flag. To avoid pulling back jobs
-     * from other users, we follow this series:
-     *
-     * <ol><li>Find the job ids with qstat</li>
-     *
-     * <li>Query that job id with -j and grep out the job name</li>
-     *
-     * <li>Grep this output for the given identifier</li></ol>
+     * The jobs are taken from the "qstat -xml" output of the current polling
+     * round (or of a new qstat call, before polling starts), which lists the
+     * full name of every job, so no per-job qstat calls are needed. With a
+     * polling daemon, they are taken from its last status file.
      *
      * @param jobString
      * @return
      */
     protected Map<Integer, String> findRunningJobs(String jobString) throws SgePollException {
-        Pattern pat = Pattern.compile(".*job_number:(.*)");
-        Pattern pat2 = Pattern.compile(".*job_name:(.*)");
-        return findJobs(jobString, "qstat ", pat, pat2);
+        if (!source.isRefreshed()) {
+            try {
+                source.refresh();
+            } catch (SgePollException e) {
+                errPrintln("Unable to find running jobs: ", e.getMessage());
+                return new HashMap<Integer, String>();
+            }
+        }
+        return toJobNumbers(source.getQueuedJobs(jobString));
     }
 
     /**
-     * Finds the jobs finished recently with the given string.
+     * Finds the jobs finished recently with the given string, with one qacct
+     * call. The statuses of the jobs are kept for {@link #checkStatus(String)}.
+     * With a polling daemon, they are taken from its last status file.
      *
      *
      * @param jobString
      * @return
      */
     protected Map<Integer, String> findFinishedJobs(String jobString) throws SgePollException {
-
-        Pattern pat = Pattern.compile(".*jobnumber(.*)");
-        Pattern pat2 = Pattern.compile(".*jobname(.*)");
-
-        StringBuilder st = new StringBuilder();
-        st.append("qacct ");
-        if (options.has("b")) {
-            st.append(" -b ").append(options.valueOf("b")).append(" ");
+        if (source != cache) {
+            return toJobNumbers(source.getFinishedJobs(jobString));
         }
-
-        return findJobs(jobString, st.toString(), pat, pat2);
-    }
-
-    private Map<Integer, String> findJobs(String jobString, String jobFinder, Pattern jobIdPattern, Pattern jobNamePattern) {
-        Map<Integer, String> jobToName = new HashMap<Integer, String>();
-        String listOfJobs;
         try {
-            listOfJobs = runACommand(jobFinder + " -j *" + jobString+"*");
-	    //System.out.println(listOfJobs);
+            return toJobNumbers(cache.findFinishedJobs(jobString, options.has("b") ? (String) options.valueOf("b") : null));
         } catch (SgePollException e) {
-            return jobToName;
+            return new HashMap<Integer, String>();
         }
+    }
 
-        Matcher mat = jobIdPattern.matcher(listOfJobs);
+    private Map<Integer, String> toJobNumbers(Map<String, String> jobs) {
+        Map<Integer, String> jobToName = new HashMap<Integer, String>();
+        for (Map.Entry<String, String> job : jobs.entrySet()) {
+            try {
+                jobToName.put(Integer.parseInt(job.getKey()), job.getValue());
+            } catch (NumberFormatException e) {
+                outPrintln("No match found in ", job.getKey());
+            }
+        }
+        return jobToName;
+    }
 
-        while (mat.find()) {
-            String id = mat.group(1).trim();
+    /**
+     * Retrieves the state of all jobs for a polling round: runs one "qstat
+     * -xml" call and reads the accounting records added since the previous
+     * round (see {@link SgeJobStateCache}), or reads the status file of the
+     * polling daemon. Without an accounting file, one qacct call is made if a
+     * tracked job has left qstat and is not known to be finished. If the
+     * daemon stopped updating the status file, SGE is polled from now on.
+     *
+     * @throws SgePollException if qstat fails or the accounting file or status
+     * file can not be read
+     */
+    protected void refreshStatus() throws SgePollException {
+        if (client != null) {
             try {
-                String jobInfo = runACommand(jobFinder + " -j " + id);
-                Matcher mat2 = jobNamePattern.matcher(jobInfo);
-                if (mat2.find() == true) {
-                    String name = mat2.group(1).trim();
-                    jobToName.put(Integer.parseInt(id), name);
-                } else {
-                    outPrintln("No match found in ", id);
-                }
+                client.refresh();
             } catch (SgePollException e) {
-                continue;
+                if (!client.isStale()) {
+                    throw e;
+                }
             }
-
+            if (!client.isStale()) {
+                return;
+            }
+            fallBackToSge();
+            //jobs that finished while the daemon was gone are not in the accounting file lines read from now on
+            findFinishedJobs((String) options.valueOf("unique-job-string"));
         }
-	//System.out.println("New jobs: "+jobToName.keySet().size());
-        return jobToName;
+        cache.refresh();
     }
 
     /**
@@ -412,23 +584,36 @@ public class SgeJobPoll {
 
     }
 
-    private void run() throws SgePollException {
-        System.out.println(new java.util.Date().toString() + ": Running");
-	
-        while (!jobIds.isEmpty()) {
-	    monitorCurrentJobs();
-	    addRunningJobs();
+    /**
+     * Runs one round of polling.
+     *
+     * @return true if a job changed state or new jobs were found
+     */
+    private boolean run() throws SgePollException {
+        try {
+            refreshStatus();
+        } catch (SgePollException e) {
+            errPrintln(new Date().toString(), ": Unable to retrieve job status, retrying: ", e.getMessage());
+            return false;
         }
-	outPrintln("No more jobs!");
-        cancel();
-        finish();
-
+        boolean changed = monitorCurrentJobs();
+        changed |= addRunningJobs();
+        if (jobIds.isEmpty()) {
+            outPrintln("No more jobs!");
+            //runMe() unsubscribes, closes the history file and finishes
+            cancel();
+        }
+        return changed;
     }
 
-    private void monitorCurrentJobs() {
+    private boolean monitorCurrentJobs() {
+        boolean changed = false;
         Collection<String> tempJobIds = new HashSet<String>(jobIds);
         for (String jobId : tempJobIds) {
             JobStatus status = checkStatus(jobId);
+            if (history != null) {
+                history.update(jobId, mappedJobs.get(jobId)[0], status, source.getQueuedJob(jobId), source.getFinishedJob(jobId));
+            }
             if (status == JobStatus.RUNNING) {
                 continue;
             } else if (status == JobStatus.LOST) {
@@ -440,7 +625,9 @@ public class SgeJobPoll {
             }
             outPrintln(new Date().toString(), ": Job ", jobId, " status ", status.name());
             jobIds.remove(jobId);
-        }  
+            changed = true;
+        }
+        return changed;
     }
 
     private void cancel() {
@@ -451,15 +638,18 @@ public class SgeJobPoll {
     }
 
     /**
-     * Check the JobStatus of the particular job ID.
+     * Check the JobStatus of the particular job ID, using the state retrieved
+     * by {@link #refreshStatus()}. A job that is neither in qstat nor in the
+     * accounting records is LOST, which is expected while it moves from qstat
+     * to the accounting file.
      *
      * @param jobId the job number
      * @return the Job Status
      */
     protected JobStatus checkStatus(String jobId) {
-        StatusChecker.Result result = StatusChecker.check(jobId);
-        mappedJobs.get(jobId)[1] = result.status.name();
-        return result.status;
+        JobStatus status = source.getStatus(jobId);
+        mappedJobs.get(jobId)[1] = status.name();
+        return status;
     }
 
     private String printJobs() {
@@ -473,21 +663,29 @@ public class SgeJobPoll {
 
     /**
      * Append a line with the given arguments to the standard error log. This will only be printed when
-     * execution is completed.
+     * execution is completed, and only the last lines are kept.
      *
      * @param details Strings to append in a single line to the stderr log.
      */
     protected void errPrintln(String... details) {
-        println(stderr, details);
+        stderr.append(join(details));
     }
     /**
      * Append a line with the given arguments to the standard out log. This will only be printed when
-     * execution is completed.
+     * execution is completed, and only the last lines are kept.
      *
      * @param details Strings to append in a single line to the stdout log.
      */
     protected void outPrintln(String... details) {
-        println(stdout, details);
+        stdout.append(join(details));
+    }
+
+    private String join(String... details) {
+        StringBuilder line = new StringBuilder();
+        for (String detail : details) {
+            line.append(detail);
+        }
+        return line.toString();
     }
 
     private void println(StringBuilder builder, String... details) {
@@ -0,0 +1,254 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Caches the state of the SGE jobs named with one or more unique job
+ * strings.</p>
+ *
+ * <p>A refresh makes one "qstat -xml" call for all jobs and reads the jobs that
+ * finished since the previous refresh from the accounting file (see
+ * {@link SgeAccounting}). Without an accounting file, one bulk qacct call is
+ * made per job string that has jobs which left qstat and are not known to be
+ * finished yet. Only the accounting records of jobs named with one of the job
+ * strings are kept.</p>
+ */
+public class SgeJobStateCache implements JobStateSource {
+
+    /**
+     * Runs an SGE command and returns its output.
+     */
+    public interface CommandRunner {
+
+        String run(String command) throws SgePollException;
+    }
+
+    private final CommandRunner runner;
+    private final String qstatCommand;
+    private final String qacctCommand;
+    private final SgeAccounting accounting;
+    private final Set<String> jobStrings = new LinkedHashSet<String>();
+    private Map<String, QstatXml.Job> queuedJobs;
+    private final Map<String, SgeAccounting.Record> finishedJobs = new HashMap<String, SgeAccounting.Record>();
+    private final Map<String, String> missingJobs = new HashMap<String, String>();
+
+    /**
+     * @param runner the command runner
+     * @param qstatCommand the qstat command
+     * @param qacctCommand the qacct command
+     * @param accounting the accounting file, or null to use qacct
+     */
+    public SgeJobStateCache(CommandRunner runner, String qstatCommand, String qacctCommand, SgeAccounting accounting) {
+        this.runner = runner;
+        this.qstatCommand = qstatCommand;
+        this.qacctCommand = qacctCommand;
+        this.accounting = accounting;
+    }
+
+    /**
+     * Starts caching the finished jobs named with the given string.
+     *
+     * @param jobString the unique job string
+     */
+    public synchronized void addJobString(String jobString) {
+        jobStrings.add(jobString);
+    }
+
+    /**
+     * Stops caching the jobs named with the given string, and drops the
+     * finished jobs that are not named with another job string.
+     *
+     * @param jobString the unique job string
+     */
+    public synchronized void removeJobString(String jobString) {
+        jobStrings.remove(jobString);
+        for (Iterator<SgeAccounting.Record> it = finishedJobs.values().iterator(); it.hasNext();) {
+            if (!matches(it.next().getJobName())) {
+                it.remove();
+            }
+        }
+        for (Iterator<String> it = missingJobs.values().iterator(); it.hasNext();) {
+            if (!matches(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Skips the jobs that are currently in the accounting file, so that only
+     * jobs finishing from now on are read from it.
+     */
+    public void skipAccountingToEnd() {
+        if (accounting != null) {
+            accounting.skipToEnd();
+        }
+    }
+
+    @Override
+    public synchronized void refresh() throws SgePollException {
+        Map<String, QstatXml.Job> previousJobs = queuedJobs;
+        queuedJobs = QstatXml.parse(runner.run(qstatCommand + " -xml"));
+        if (previousJobs != null) {
+            for (QstatXml.Job job : previousJobs.values()) {
+                if (!queuedJobs.containsKey(job.getNumber()) && matches(job.getName())) {
+                    missingJobs.put(job.getNumber(), job.getName());
+                }
+            }
+        }
+        if (accounting != null) {
+            try {
+                for (SgeAccounting.Record record : accounting.readNewRecords()) {
+                    if (matches(record.getJobName())) {
+                        addFinishedJob(record);
+                    }
+                }
+            } catch (IOException e) {
+                throw new SgePollException("Unable to read accounting file " + accounting.getFile(), e);
+            }
+        } else if (!missingJobs.isEmpty()) {
+            Set<String> jobStringsWithMissingJobs = new LinkedHashSet<String>();
+            for (String name : missingJobs.values()) {
+                for (String jobString : jobStrings) {
+                    if (name.contains(jobString)) {
+                        jobStringsWithMissingJobs.add(jobString);
+                    }
+                }
+            }
+            for (String jobString : jobStringsWithMissingJobs) {
+                findFinishedJobs(jobString, null);
+            }
+        }
+        missingJobs.keySet().removeAll(finishedJobs.keySet());
+    }
+
+    @Override
+    public synchronized boolean isRefreshed() {
+        return queuedJobs != null;
+    }
+
+    /**
+     * Finds the finished jobs named with the given string with one qacct call,
+     * and caches their statuses.
+     *
+     * @param jobString the unique job string
+     * @param beginTime the earliest start time of the jobs, in the format
+     * [[CC]YY]MMDDhhmm[.SS], or null
+     * @return the finished jobs, in qacct output order
+     * @throws SgePollException if qacct fails
+     */
+    public synchronized Map<String, String> findFinishedJobs(String jobString, String beginTime) throws SgePollException {
+        StringBuilder st = new StringBuilder();
+        st.append(qacctCommand).append(" ");
+        if (beginTime != null) {
+            st.append(" -b ").append(beginTime).append(" ");
+        }
+        String listOfJobs = runner.run(st + " -j *" + jobString + "*");
+        Map<String, String> jobToName = new LinkedHashMap<String, String>();
+        for (SgeAccounting.Record record : SgeAccounting.parseQacct(listOfJobs)) {
+            jobToName.put(record.getJobNumber(), record.getJobName());
+            addFinishedJob(record);
+        }
+        missingJobs.keySet().removeAll(finishedJobs.keySet());
+        return jobToName;
+    }
+
+    @Override
+    public synchronized Map<String, String> getQueuedJobs(String jobString) {
+        if (queuedJobs == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> jobs = new LinkedHashMap<String, String>();
+        for (QstatXml.Job job : queuedJobs.values()) {
+            if (job.getName().contains(jobString)) {
+                jobs.put(job.getNumber(), job.getName());
+            }
+        }
+        return jobs;
+    }
+
+    @Override
+    public synchronized Map<String, String> getFinishedJobs(String jobString) {
+        Map<String, String> jobs = new LinkedHashMap<String, String>();
+        for (SgeAccounting.Record job : finishedJobs.values()) {
+            if (job.getJobName() != null && job.getJobName().contains(jobString)) {
+                jobs.put(job.getJobNumber(), job.getJobName());
+            }
+        }
+        return jobs;
+    }
+
+    @Override
+    public synchronized JobStatus getStatus(String jobId) {
+        QstatXml.Job queuedJob = queuedJobs == null ? null : queuedJobs.get(jobId);
+        if (queuedJob != null) {
+            return queuedJob.getStatus();
+        } else if (finishedJobs.containsKey(jobId)) {
+            return finishedJobs.get(jobId).getStatus();
+        } else {
+            return JobStatus.LOST;
+        }
+    }
+
+    @Override
+    public synchronized QstatXml.Job getQueuedJob(String jobId) {
+        return queuedJobs == null ? null : queuedJobs.get(jobId);
+    }
+
+    @Override
+    public synchronized SgeAccounting.Record getFinishedJob(String jobId) {
+        return finishedJobs.get(jobId);
+    }
+
+    private void addFinishedJob(SgeAccounting.Record record) {
+        //an array job is finished successfully only if all of its tasks are
+        SgeAccounting.Record previous = finishedJobs.get(record.getJobNumber());
+        finishedJobs.put(record.getJobNumber(), previous == null ? record : previous.merge(record));
+    }
+
+    private boolean matches(String jobName) {
+        if (jobName == null) {
+            return false;
+        }
+        for (String jobString : jobStrings) {
+            if (jobName.contains(jobString)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.Invoker;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.commons.exec.CommandLine;
+
+/**
+ * <p>Polls SGE on behalf of many {@link SgeJobPoll} clients, one per unique job
+ * string, so that a head node running many workflows makes one qstat call per
+ * polling interval instead of one per workflow.</p>
+ *
+ * <p>Clients subscribe through a spool directory (see {@link SgePollSpool}).
+ * Every round, the daemon picks up new and removed request files, drops the
+ * requests whose lease expired, refreshes its {@link SgeJobStateCache} with one
+ * "qstat -xml" call and the new lines of the accounting file, and writes the
+ * status file of every job string with at least one request. A new request is
+ * answered with one bulk qacct call for its jobs that finished before it was
+ * made. Job strings are reference counted, so a job string stays subscribed
+ * until the last of its clients unsubscribes.</p>
+ */
+public class SgePollDaemon {
+
+    private final File spoolDir;
+    private int pollInterval = 5000;
+    private long lease = 600000;
+    private final SgeJobStateCache cache;
+    private final Map<String, String> subscriptions = new HashMap<>();
+    private final Map<String, Integer> references = new HashMap<>();
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a new SgePollDaemon and runs it until it is killed.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        try {
+            new SgePollDaemon(args).run();
+        } catch (Exception e) {
+            System.err.println("Erred out with status: " + e.getMessage());
+            System.exit(15);
+        }
+    }
+
+    /**
+     * Constructor for SgePollDaemon. Parses the command line arguments.
+     *
+     * @param args the command line arguments
+     */
+    public SgePollDaemon(String[] args) {
+        OptionParser parser = getOptionParser();
+        OptionSet options;
+        try {
+            options = parser.parse(args);
+        } catch (OptionException e) {
+            System.err.println(e.getMessage());
+            System.err.println(getSyntax(parser));
+            throw e;
+        }
+        spoolDir = new File((String) options.valueOf("spool-dir"));
+        if (options.has("poll-interval")) {
+            pollInterval = (Integer) options.valueOf("poll-interval") * 1000;
+        }
+        if (options.has("lease")) {
+            lease = (Integer) options.valueOf("lease") * 1000L;
+        }
+        File accountingFile = options.has("accounting-file")
+                ? new File((String) options.valueOf("accounting-file")) : SgeAccounting.getDefaultFile();
+        cache = new SgeJobStateCache(new SgeJobStateCache.CommandRunner() {
+
+            @Override
+            public String run(String command) throws SgePollException {
+                return runACommand(command);
+            }
+        }, options.has("qstat") ? (String) options.valueOf("qstat") : "qstat",
+                options.has("qacct") ? (String) options.valueOf("qacct") : "qacct",
+                accountingFile == null ? null : new SgeAccounting(accountingFile));
+    }
+
+    /**
+     * Get the polling interval in milliseconds.
+     *
+     * @return the polling interval. Default is 5000.
+     */
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Get the time in milliseconds after which the request of a client that
+     * stopped touching its request file is dropped.
+     *
+     * @return the lease. Default is 600000.
+     */
+    public long getLease() {
+        return lease;
+    }
+
+    public File getSpoolDir() {
+        return spoolDir;
+    }
+
+    /**
+     * Polls until {@link #stop()} is called.
+     *
+     * @throws SgePollException if the spool directory can not be created
+     */
+    public void run() throws SgePollException {
+        if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+            throw new SgePollException("Unable to create spool directory " + spoolDir);
+        }
+        System.out.println(new Date().toString() + ": Polling for clients in " + spoolDir);
+        cache.skipAccountingToEnd();
+        while (!stopped) {
+            runOnce();
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops {@link #run()} after the current round.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Runs one round: updates the subscriptions, refreshes the job state and
+     * writes the status files. The job state is not refreshed while there are
+     * no subscriptions.
+     */
+    public void runOnce() {
+        updateSubscriptions();
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        long refreshTime = System.currentTimeMillis();
+        try {
+            cache.refresh();
+        } catch (SgePollException e) {
+            //clients keep their last status and fall back to polling SGE if this persists
+            System.err.println(new Date().toString() + ": Unable to retrieve job status, retrying: " + e.getMessage());
+            return;
+        }
+        for (String jobString : references.keySet()) {
+            try {
+                writeStatus(jobString, refreshTime);
+            } catch (IOException e) {
+                System.err.println(new Date().toString() + ": Unable to write status of " + jobString + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void updateSubscriptions() {
+        Map<String, String> requests = new HashMap<>();
+        File[] files = spoolDir.listFiles();
+        long now = System.currentTimeMillis();
+        for (File file : files == null ? new File[0] : files) {
+            String fileName = file.getName();
+            if (!fileName.endsWith(SgePollSpool.REQUEST_SUFFIX) || fileName.startsWith(".")) {
+                continue;
+            }
+            long lastModified = file.lastModified();
+            if (lastModified != 0 && now - lastModified > lease) {
+                //the client was killed without unsubscribing, or stopped renewing its lease
+                if (file.delete()) {
+                    System.out.println(new Date().toString() + ": Dropped expired request " + fileName);
+                }
+                continue;
+            }
+            if (subscriptions.containsKey(fileName)) {
+                requests.put(fileName, subscriptions.get(fileName));
+                continue;
+            }
+            List<String> request;
+            try {
+                request = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                //removed since it was listed
+                continue;
+            }
+            if (request.isEmpty() || request.get(0).trim().isEmpty()) {
+                continue;
+            }
+            String jobString = request.get(0).trim();
+            String beginTime = request.size() > 1 && !request.get(1).trim().isEmpty() ? request.get(1).trim() : null;
+            Integer count = references.get(jobString);
+            if (count == null) {
+                cache.addJobString(jobString);
+                System.out.println(new Date().toString() + ": Subscribed " + jobString);
+            }
+            references.put(jobString, count == null ? 1 : count + 1);
+            //the begin time may differ between the clients of a job string
+            try {
+                cache.findFinishedJobs(jobString, beginTime);
+            } catch (SgePollException e) {
+                System.err.println(new Date().toString() + ": Unable to find finished jobs of " + jobString + ": " + e.getMessage());
+            }
+            requests.put(fileName, jobString);
+        }
+        for (Iterator<Map.Entry<String, String>> it = subscriptions.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, String> subscription = it.next();
+            if (!requests.containsKey(subscription.getKey())) {
+                String jobString = subscription.getValue();
+                int count = references.get(jobString) - 1;
+                if (count == 0) {
+                    references.remove(jobString);
+                    cache.removeJobString(jobString);
+                    SgePollSpool.getStatusFile(spoolDir, jobString).delete();
+                    System.out.println(new Date().toString() + ": Unsubscribed " + jobString);
+                } else {
+                    references.put(jobString, count);
+                }
+                it.remove();
+            }
+        }
+        subscriptions.putAll(requests);
+    }
+
+    private void writeStatus(String jobString, long refreshTime) throws IOException {
+        List<QstatXml.Job> queuedJobs = new ArrayList<>();
+        for (String jobId : cache.getQueuedJobs(jobString).keySet()) {
+            queuedJobs.add(cache.getQueuedJob(jobId));
+        }
+        List<SgeAccounting.Record> finishedJobs = new ArrayList<>();
+        for (String jobId : cache.getFinishedJobs(jobString).keySet()) {
+            if (cache.getQueuedJob(jobId) == null) {
+                finishedJobs.add(cache.getFinishedJob(jobId));
+            }
+        }
+        SgePollSpool.writeStatus(SgePollSpool.getStatusFile(spoolDir, jobString), refreshTime, queuedJobs, finishedJobs);
+    }
+
+    /**
+     * Runs a command on the command line. Ignores exit code 1 as an acceptable
+     * error.
+     *
+     * @param st the command to run
+     * @return the text result from the executed command, or empty string if it
+     * exited with a 1.
+     * @throws SgePollException if the command execution returns an exit code
+     * other than 0 or 1.
+     */
+    protected String runACommand(String st) throws SgePollException {
+        Invoker.Result result = Invoker.invoke(CommandLine.parse(st));
+        if (result.exit == 1) {
+            return "";
+        } else if (result.exit != 0) {
+            throw new SgePollException("Command failed with exit value " + result.exit + ": " + st);
+        }
+        return result.output;
+    }
+
+    private static OptionParser getOptionParser() {
+        OptionParser parser = new OptionParser();
+        parser.accepts("spool-dir", "The directory where clients subscribe and job statuses are written").withRequiredArg().isRequired();
+        parser.accepts("accounting-file", "The SGE accounting file to read finished jobs from. Default: $SGE_ROOT/$SGE_CELL/common/accounting if readable, otherwise qacct is used").withRequiredArg();
+        parser.accepts("poll-interval", "The polling interval in seconds (default: 5)").withRequiredArg().ofType(Integer.class);
+        parser.accepts("lease", "The time in seconds after which the request of a client that stopped renewing it is dropped. Must be longer than the maximum polling interval of the clients (default: 600)").withRequiredArg().ofType(Integer.class);
+        parser.accepts("qstat", "The qstat command (default: qstat)").withRequiredArg();
+        parser.accepts("qacct", "The qacct command (default: qacct)").withRequiredArg();
+        return parser;
+    }
+
+    private static String getSyntax(OptionParser parser) {
+        StringWriter output = new StringWriter();
+        try {
+            parser.printHelpOn(output);
+            return output.toString();
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The layout of the spool directory shared by an {@link SgePollDaemon} and
+ * its clients.</p>
+ *
+ * <p>A client subscribes to a unique job string by writing
+ * "&lt;job string&gt;.&lt;client id&gt;.request", which contains the job
+ * string and optionally the begin time for qacct on the second line, and
+ * unsubscribes by deleting it. While subscribed, the client renews its lease
+ * by touching the request file; the daemon deletes request files that were not
+ * touched for longer than the lease, so the requests of killed clients do not
+ * stay around. After every refresh, the daemon writes "&lt;job
+ * string&gt;.status" for each job string with at least one request. A status
+ * file starts with a "# sge-poll-daemon &lt;time&gt;"
+ * line, where the time is the refresh time in milliseconds, followed by one
+ * tab-separated line per job: "&lt;job number&gt; queued &lt;status&gt;
+ * &lt;job name&gt; &lt;state&gt; &lt;submission time&gt; &lt;start time&gt;"
+ * for pending and running jobs, and "&lt;job number&gt; finished
+ * &lt;status&gt; &lt;job name&gt; &lt;failed&gt; &lt;exit status&gt;
+ * &lt;hostname&gt; &lt;submission time&gt; &lt;start time&gt; &lt;end
+ * time&gt; &lt;wallclock&gt; &lt;maxvmem&gt;" for finished jobs. Files are
+ * written to a temporary file and renamed, so readers never see a partially
+ * written file.</p>
+ */
+public class SgePollSpool {
+
+    public static final String REQUEST_SUFFIX = ".request";
+    public static final String STATUS_SUFFIX = ".status";
+    private static final String HEADER = "# sge-poll-daemon ";
+    private static final String QUEUED = "queued";
+    private static final String FINISHED = "finished";
+
+    private SgePollSpool() {
+    }
+
+    /**
+     * Gets the file name prefix for a job string: the job string with every
+     * character other than letters, digits, '.', '_' and '-' replaced by '_'.
+     *
+     * @param jobString the unique job string
+     * @return the file name prefix
+     */
+    public static String getBaseName(String jobString) {
+        return jobString.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Gets the request file of a client. Every client has its own request file,
+     * so clients polling the same job string do not remove each other's
+     * subscription.
+     *
+     * @param spoolDir the spool directory
+     * @param jobString the unique job string
+     * @param clientId the unique id of the client
+     * @return the request file
+     */
+    public static File getRequestFile(File spoolDir, String jobString, String clientId) {
+        return new File(spoolDir, getBaseName(jobString) + "." + getBaseName(clientId) + REQUEST_SUFFIX);
+    }
+
+    public static File getStatusFile(File spoolDir, String jobString) {
+        return new File(spoolDir, getBaseName(jobString) + STATUS_SUFFIX);
+    }
+
+    /**
+     * Writes the status file of a job string.
+     *
+     * @param file the status file
+     * @param refreshTime the time of the refresh, in milliseconds
+     * @param queuedJobs the pending and running jobs
+     * @param finishedJobs the finished jobs
+     * @throws IOException if the file can not be written
+     */
+    public static void writeStatus(File file, long refreshTime, Collection<QstatXml.Job> queuedJobs, Collection<SgeAccounting.Record> finishedJobs)
+            throws IOException {
+        StringBuilder content = new StringBuilder(HEADER).append(refreshTime).append("\n");
+        for (QstatXml.Job job : queuedJobs) {
+            content.append(job.getNumber()).append("\t").append(QUEUED).append("\t").append(job.getStatus().name())
+                    .append("\t").append(job.getName()).append("\t").append(job.getState())
+                    .append("\t").append(job.getSubmissionTime()).append("\t").append(job.getStartTime()).append("\n");
+        }
+        for (SgeAccounting.Record job : finishedJobs) {
+            content.append(job.getJobNumber()).append("\t").append(FINISHED).append("\t").append(job.getStatus().name())
+                    .append("\t").append(job.getJobName()).append("\t").append(job.getFailed()).append("\t").append(job.getExitStatus())
+                    .append("\t").append(job.getHostname() == null ? "" : job.getHostname())
+                    .append("\t").append(job.getSubmissionTime()).append("\t").append(job.getStartTime()).append("\t").append(job.getEndTime())
+                    .append("\t").append(job.getWallclock()).append("\t").append(job.getMaxvmem()).append("\n");
+        }
+        write(file, content.toString());
+    }
+
+    /**
+     * Reads a status file.
+     *
+     * @param file the status file
+     * @return the status, or null if the file does not exist
+     * @throws IOException if the file can not be read or is not a status file
+     */
+    public static Status readStatus(File file) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (lines.isEmpty() || !lines.get(0).startsWith(HEADER)) {
+            throw new IOException("Not a status file: " + file);
+        }
+        Status status;
+        try {
+            status = new Status(Long.parseLong(lines.get(0).substring(HEADER.length()).trim()));
+            for (String line : lines.subList(1, lines.size())) {
+                String[] f = line.split("\t", -1);
+                if (f.length == 7 && QUEUED.equals(f[1])) {
+                    status.queuedJobs.put(f[0], new QstatXml.Job(f[0], f[3], f[4], Long.parseLong(f[5]), Long.parseLong(f[6])));
+                } else if (f.length == 12 && FINISHED.equals(f[1])) {
+                    status.finishedJobs.put(f[0], new SgeAccounting.Record(f[0], f[3], Integer.parseInt(f[4]), Integer.parseInt(f[5]),
+                            f[6].isEmpty() ? null : f[6], Long.parseLong(f[7]), Long.parseLong(f[8]), Long.parseLong(f[9]),
+                            Double.parseDouble(f[10]), Long.parseLong(f[11])));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status file: " + file, e);
+        }
+        return status;
+    }
+
+    /**
+     * Writes a file in the spool directory by writing a temporary file and
+     * renaming it.
+     *
+     * @param file the file
+     * @param content the file content
+     * @throws IOException if the file can not be written
+     */
+    public static void write(File file, String content) throws IOException {
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), ".", ".tmp");
+        try {
+            Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The jobs of a job string, as of a daemon refresh.
+     */
+    public static class Status {
+
+        private final long refreshTime;
+        private final Map<String, QstatXml.Job> queuedJobs = new LinkedHashMap<>();
+        private final Map<String, SgeAccounting.Record> finishedJobs = new LinkedHashMap<>();
+
+        public Status(long refreshTime) {
+            this.refreshTime = refreshTime;
+        }
+
+        public long getRefreshTime() {
+            return refreshTime;
+        }
+
+        /**
+         * @return the pending and running jobs keyed by job number
+         */
+        public Map<String, QstatXml.Job> getQueuedJobs() {
+            return queuedJobs;
+        }
+
+        /**
+         * @return the finished jobs keyed by job number
+         */
+        public Map<String, SgeAccounting.Record> getFinishedJobs() {
+            return finishedJobs;
+        }
+    }
+}
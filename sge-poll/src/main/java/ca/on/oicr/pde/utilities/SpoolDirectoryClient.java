@@ -0,0 +1,189 @@
+/**
+ *  Copyright (C) 2015  Ontario Institute of Cancer Research
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact us:
+ *
+ *  Ontario Institute for Cancer Research
+ *  MaRS Centre, West Tower
+ *  661 University Avenue, Suite 510
+ *  Toronto, Ontario, Canada M5G 0A3
+ *  Phone: 416-977-7599
+ *  Toll-free: 1-866-678-6427
+ *  www.oicr.on.ca
+**/
+
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * <p>Reads the state of the jobs of one unique job string from the spool
+ * directory of an {@link SgePollDaemon} (see {@link SgePollSpool}), so that
+ * the client does not run any SGE commands.</p>
+ *
+ * <p>Every refresh renews the lease of the subscription by touching the
+ * request file, and subscribes again if the daemon dropped it. The daemon is
+ * considered gone if the status file is not updated for longer than the
+ * timeout, in which case {@link #isStale()} returns true and the client should
+ * poll SGE itself.</p>
+ */
+public class SpoolDirectoryClient implements JobStateSource {
+
+    private final File spoolDir;
+    private final String jobString;
+    private final String beginTime;
+    private final long timeout;
+    private final File requestFile;
+    private long lastUpdate;
+    private SgePollSpool.Status status;
+
+    /**
+     * @param spoolDir the spool directory of the daemon
+     * @param jobString the unique job string
+     * @param beginTime the earliest start time of the jobs for qacct, in the
+     * format [[CC]YY]MMDDhhmm[.SS], or null
+     * @param timeout the time in milliseconds without status updates after
+     * which the daemon is considered gone
+     */
+    public SpoolDirectoryClient(File spoolDir, String jobString, String beginTime, long timeout) {
+        this.spoolDir = spoolDir;
+        this.jobString = jobString;
+        this.beginTime = beginTime;
+        this.timeout = timeout;
+        this.requestFile = SgePollSpool.getRequestFile(spoolDir, jobString, UUID.randomUUID().toString());
+    }
+
+    public File getRequestFile() {
+        return requestFile;
+    }
+
+    /**
+     * Asks the daemon to track the jobs by writing the request file.
+     *
+     * @throws SgePollException if the request file can not be written
+     */
+    public void subscribe() throws SgePollException {
+        String request = jobString + "\n" + (beginTime == null ? "" : beginTime + "\n");
+        try {
+            SgePollSpool.write(requestFile, request);
+        } catch (IOException e) {
+            throw new SgePollException("Unable to subscribe in " + spoolDir, e);
+        }
+        lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * Tells the daemon to stop tracking the jobs by deleting the request file.
+     */
+    public void unsubscribe() {
+        try {
+            Files.deleteIfExists(requestFile.toPath());
+        } catch (IOException e) {
+            //the daemon will keep writing the status file, which is harmless
+        }
+    }
+
+    /**
+     * Renews the lease of the subscription and reads the status file.
+     *
+     * @throws SgePollException if the request file can not be written or the
+     * status file can not be read
+     */
+    @Override
+    public void refresh() throws SgePollException {
+        if (!requestFile.setLastModified(System.currentTimeMillis())) {
+            //the daemon dropped the request after the lease expired
+            long update = lastUpdate;
+            subscribe();
+            lastUpdate = update;
+        }
+        SgePollSpool.Status newStatus;
+        try {
+            newStatus = SgePollSpool.readStatus(SgePollSpool.getStatusFile(spoolDir, jobString));
+        } catch (IOException e) {
+            throw new SgePollException("Unable to read job status from " + spoolDir, e);
+        }
+        if (newStatus != null && (status == null || newStatus.getRefreshTime() > status.getRefreshTime())) {
+            status = newStatus;
+            lastUpdate = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return true if the status file was not updated for longer than the
+     * timeout
+     */
+    public boolean isStale() {
+        return System.currentTimeMillis() - lastUpdate > timeout;
+    }
+
+    @Override
+    public boolean isRefreshed() {
+        return status != null;
+    }
+
+    @Override
+    public Map<String, String> getQueuedJobs(String jobString) {
+        Map<String, String> jobs = new LinkedHashMap<>();
+        if (status != null) {
+            for (QstatXml.Job job : status.getQueuedJobs().values()) {
+                if (job.getName().contains(jobString)) {
+                    jobs.put(job.getNumber(), job.getName());
+                }
+            }
+        }
+        return jobs;
+    }
+
+    @Override
+    public Map<String, String> getFinishedJobs(String jobString) {
+        Map<String, String> jobs = new LinkedHashMap<>();
+        if (status != null) {
+            for (SgeAccounting.Record job : status.getFinishedJobs().values()) {
+                if (job.getJobName().contains(jobString)) {
+                    jobs.put(job.getJobNumber(), job.getJobName());
+                }
+            }
+        }
+        return jobs;
+    }
+
+    @Override
+    public QstatXml.Job getQueuedJob(String jobId) {
+        return status == null ? null : status.getQueuedJobs().get(jobId);
+    }
+
+    @Override
+    public SgeAccounting.Record getFinishedJob(String jobId) {
+        return status == null ? null : status.getFinishedJobs().get(jobId);
+    }
+
+    @Override
+    public JobStatus getStatus(String jobId) {
+        QstatXml.Job queuedJob = getQueuedJob(jobId);
+        if (queuedJob != null) {
+            return queuedJob.getStatus();
+        }
+        SgeAccounting.Record finishedJob = getFinishedJob(jobId);
+        return finishedJob == null ? JobStatus.LOST : finishedJob.getStatus();
+    }
+}
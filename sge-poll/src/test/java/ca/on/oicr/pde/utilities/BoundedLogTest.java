@@ -0,0 +1,27 @@
+package ca.on.oicr.pde.utilities;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class BoundedLogTest extends TestCase {
+
+    public BoundedLogTest(String testName) {
+        super(testName);
+    }
+
+    public void testKeepsLastLines() {
+        BoundedLog log = new BoundedLog(2, 100);
+        log.append("one");
+        Assert.assertEquals("one\n", log.toString());
+        log.append("two");
+        log.append("three");
+        Assert.assertEquals(1, log.getDroppedLines());
+        Assert.assertEquals("[1 earlier lines dropped]\ntwo\nthree\n", log.toString());
+    }
+
+    public void testTruncatesLongLines() {
+        BoundedLog log = new BoundedLog(2, 5);
+        log.append("0123456789");
+        Assert.assertEquals("01234... [5 characters truncated]\n", log.toString());
+    }
+}
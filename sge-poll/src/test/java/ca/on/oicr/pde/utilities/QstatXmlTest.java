@@ -0,0 +1,54 @@
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class QstatXmlTest extends TestCase {
+
+    public QstatXmlTest(String testName) {
+        super(testName);
+    }
+
+    public void testParse() throws Exception {
+        String xml = new String(Files.readAllBytes(new File(this.getClass().getResource("qstat.xml").getPath()).toPath()),
+                StandardCharsets.UTF_8);
+        Map<String, QstatXml.Job> jobs = QstatXml.parse(xml);
+        Assert.assertEquals("Array job tasks should be merged", 3, jobs.size());
+        Assert.assertEquals("Job1-1234", jobs.get("9608118").getName());
+        Assert.assertEquals(JobStatus.RUNNING, jobs.get("9608118").getStatus());
+        Assert.assertEquals(JobStatus.RUNNING, jobs.get("9791754").getStatus());
+        Assert.assertEquals("Eqw", jobs.get("9791760").getState());
+        Assert.assertEquals(JobStatus.FAILED, jobs.get("9791760").getStatus());
+    }
+
+    public void testParseTimes() throws Exception {
+        String xml = new String(Files.readAllBytes(new File(this.getClass().getResource("qstat.xml").getPath()).toPath()),
+                StandardCharsets.UTF_8);
+        Map<String, QstatXml.Job> jobs = QstatXml.parse(xml);
+        Assert.assertTrue("Running job has no start time", jobs.get("9608118").getStartTime() != 0);
+        Assert.assertEquals("Running job has a submission time", 0, jobs.get("9608118").getSubmissionTime());
+        Assert.assertTrue(jobs.get("9608118").isRunning());
+        //the array job has running and pending tasks
+        Assert.assertEquals(15, jobs.get("9791754").getStartTime() - jobs.get("9608118").getStartTime());
+        Assert.assertEquals(70, jobs.get("9791760").getSubmissionTime() - jobs.get("9791754").getSubmissionTime());
+        Assert.assertFalse("Job in error state is running", jobs.get("9791760").isRunning());
+    }
+
+    public void testParseNoJobs() throws Exception {
+        Assert.assertTrue(QstatXml.parse("").isEmpty());
+        Assert.assertTrue(QstatXml.parse("<?xml version='1.0'?>\n<job_info>\n  <queue_info>\n  </queue_info>\n  <job_info>\n  </job_info>\n</job_info>").isEmpty());
+    }
+
+    public void testParseInvalidXml() {
+        try {
+            QstatXml.parse("error: failed receiving gdi request");
+            Assert.fail("Invalid qstat output was parsed");
+        } catch (SgePollException expected) {
+        }
+    }
+}
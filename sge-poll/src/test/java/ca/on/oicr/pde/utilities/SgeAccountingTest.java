@@ -0,0 +1,114 @@
+package ca.on.oicr.pde.utilities;
+
+import io.seqware.oozie.action.sge.JobStatus;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class SgeAccountingTest extends TestCase {
+
+    private static final String LINE_1 = "default:cn8-51.hpc.oicr.on.ca:users:mtaschuk:Job1-12345:9616062:sge:0:1370643521:1370643524:1370643554:0:0:30:"
+            + "0.052000:0.008000:1912.000000:0:0:0:0:12940:9:0:504.000000:24:0:0:0:382:48:NONE:defaultdepartment:NONE:1:0:0.060000:"
+            + "0.000000:0.000000:-U users:0.000000:NONE:13664256.000000\n";
+    private static final String LINE_2 = "default:cn8-52.hpc.oicr.on.ca:users:mtaschuk:Job2-12345:9616063:sge:0:1370643521:1370643524:1370643554:0:1:30:"
+            + "0.052000:0.008000:1912.000000:0:0:0:0:12940:9:0:504.000000:24:0:0:0:382:48:NONE:defaultdepartment:NONE:1:0:0.060000:"
+            + "0.000000:0.000000:-U users:0.000000:NONE:13664256.000000\n";
+    private static final String LINE_3 = "default:cn8-53.hpc.oicr.on.ca:users:mtaschuk:Job3-12345:9616064:sge:0:1370643521:1370643524:1370643554:"
+            + "100:137:30:0.052000:0.008000:1912.000000:0:0:0:0:12940:9:0:504.000000:24:0:0:0:382:48:NONE:"
+            + "defaultdepartment:NONE:1:0:0.060000:0.000000:0.000000:-U users:0.000000:NONE:13664256.000000\n";
+
+    public SgeAccountingTest(String testName) {
+        super(testName);
+    }
+
+    public void testParseLine() {
+        SgeAccounting.Record record = SgeAccounting.parseLine(LINE_1.trim());
+        Assert.assertEquals("9616062", record.getJobNumber());
+        Assert.assertEquals("Job1-12345", record.getJobName());
+        Assert.assertEquals(JobStatus.SUCCESSFUL, record.getStatus());
+        Assert.assertEquals(JobStatus.EXIT_ERROR, SgeAccounting.parseLine(LINE_2.trim()).getStatus());
+        Assert.assertEquals(JobStatus.FAILED, SgeAccounting.parseLine(LINE_3.trim()).getStatus());
+        Assert.assertNull("Comment was parsed", SgeAccounting.parseLine("# Version: 6.2u5"));
+    }
+
+    public void testParseLineUsage() {
+        SgeAccounting.Record record = SgeAccounting.parseLine(LINE_1.trim());
+        Assert.assertEquals("cn8-51.hpc.oicr.on.ca", record.getHostname());
+        Assert.assertEquals(1370643521, record.getSubmissionTime());
+        Assert.assertEquals(1370643524, record.getStartTime());
+        Assert.assertEquals(1370643554, record.getEndTime());
+        Assert.assertEquals(30.0, record.getWallclock(), 0.001);
+        Assert.assertEquals(13664256, record.getMaxvmem());
+    }
+
+    public void testMerge() {
+        SgeAccounting.Record task1 = SgeAccounting.parseLine(LINE_1.trim());
+        SgeAccounting.Record task2 = new SgeAccounting.Record("9616062", "Job1-12345", 0, 1, "cn8-52.hpc.oicr.on.ca", 1370643521, 1370643600,
+                1370643700, 100, 1000);
+        SgeAccounting.Record task3 = new SgeAccounting.Record("9616062", "Job1-12345", 100, 0);
+        SgeAccounting.Record merged = task1.merge(task2).merge(task3);
+        Assert.assertEquals("First failed task should set the status", JobStatus.EXIT_ERROR, merged.getStatus());
+        Assert.assertEquals(1370643524, merged.getStartTime());
+        Assert.assertEquals(1370643700, merged.getEndTime());
+        Assert.assertEquals(100.0, merged.getWallclock(), 0.001);
+        Assert.assertEquals(13664256, merged.getMaxvmem());
+    }
+
+    public void testReadNewRecords() throws IOException {
+        File file = File.createTempFile("accounting", "");
+        file.deleteOnExit();
+        Files.write(file.toPath(), LINE_1.getBytes(StandardCharsets.UTF_8));
+        SgeAccounting accounting = new SgeAccounting(file);
+        accounting.skipToEnd();
+        Assert.assertTrue("Existing records were read", accounting.readNewRecords().isEmpty());
+
+        //a partially written line is only read once it is complete
+        String partial = LINE_2.substring(0, 40);
+        append(file, LINE_2.substring(0, 40));
+        Assert.assertTrue("Partial record was read", accounting.readNewRecords().isEmpty());
+        append(file, LINE_2.substring(partial.length()) + LINE_3);
+        List<SgeAccounting.Record> records = accounting.readNewRecords();
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals("9616063", records.get(0).getJobNumber());
+        Assert.assertEquals("9616064", records.get(1).getJobNumber());
+        Assert.assertTrue("Records were read twice", accounting.readNewRecords().isEmpty());
+
+        //the file was rotated
+        Files.write(file.toPath(), LINE_1.getBytes(StandardCharsets.UTF_8));
+        records = accounting.readNewRecords();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("9616062", records.get(0).getJobNumber());
+    }
+
+    public void testParseQacct() throws IOException {
+        StringBuilder qacct = new StringBuilder();
+        for (String resource : new String[]{"qacct9615552", "qacct9616062", "qacct76949030"}) {
+            qacct.append(new String(Files.readAllBytes(new File(this.getClass().getResource(resource).getPath()).toPath()),
+                    StandardCharsets.UTF_8));
+        }
+        List<SgeAccounting.Record> records = SgeAccounting.parseQacct(qacct.toString());
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals("9615552", records.get(0).getJobNumber());
+        Assert.assertEquals("9616062", records.get(1).getJobNumber());
+        Assert.assertEquals("Job1-12345", records.get(1).getJobName());
+        Assert.assertEquals(JobStatus.SUCCESSFUL, records.get(1).getStatus());
+        Assert.assertEquals("76949030", records.get(2).getJobNumber());
+        Assert.assertEquals("cn8-51.hpc.oicr.on.ca", records.get(1).getHostname());
+        Assert.assertEquals(3, records.get(1).getStartTime() - records.get(1).getSubmissionTime());
+        Assert.assertEquals(30, records.get(1).getEndTime() - records.get(1).getStartTime());
+        Assert.assertEquals(30.0, records.get(1).getWallclock(), 0.001);
+        Assert.assertEquals((long) (13.031 * 1024 * 1024), records.get(1).getMaxvmem());
+        Assert.assertEquals(0, records.get(2).getMaxvmem());
+    }
+
+    private static void append(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package ca.on.oicr.pde.utilities;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import junit.framework.Assert;
@@ -54,26 +59,19 @@ public class SgeJobPollTest extends TestCase {
     public void testParseQstatJobs() throws Exception {
         System.out.println("testParseQstatJobs");
 
-        String[] qstatFiles = {"qstat9608118", "qstat9791754"};
-        final StringBuilder[] qstat = new StringBuilder[qstatFiles.length];
-        Arrays.fill(qstat, new StringBuilder());
-
+        final StringBuilder qstat = new StringBuilder();
         try {
-            int i = 0;
-            for (String st : qstatFiles) {
-                BufferedReader reader = new BufferedReader(new FileReader(this.getClass().getResource(st).getPath()));
-                String line = reader.readLine();
-                while (line != null) {
-                    //ugh this makes me cringe but it is only done once (twice!)
-                    qstat[i].append(line).append("\n");
-                    line = reader.readLine();
-                }
-                i++;
-                reader.close();
+            BufferedReader reader = new BufferedReader(new FileReader(this.getClass().getResource("qstat.xml").getPath()));
+            String line = reader.readLine();
+            while (line != null) {
+                qstat.append(line).append("\n");
+                line = reader.readLine();
             }
+            reader.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        final int[] qstatCalls = new int[1];
         SgeJobPoll errorPoller = new SgeJobPoll(new String[]{"--unique-job-string", "1234", "--output-file", "/tmp/log.txt"}) {
 
             @Override
@@ -84,12 +82,9 @@ public class SgeJobPollTest extends TestCase {
 
             @Override
             protected String runACommand(String st) throws SgePollException {
-                if (st.contains("*")) {
-                    return qstat[0].toString() + qstat[1].toString();
-                } else if (st.contains("9608118")) {
-                    return qstat[0].toString();
-                } else if (st.contains("9791754")) {
-                    return qstat[1].toString();
+                if (st.equals("qstat -xml")) {
+                    qstatCalls[0]++;
+                    return qstat.toString();
                 } else {
                     Assert.fail("");
                     throw new SgePollException("No idea what you're asking for!");
@@ -101,6 +96,7 @@ public class SgeJobPollTest extends TestCase {
         Assert.assertEquals("Wrong number of jobs!", 2, jobs.size());
         Assert.assertNotNull("Job doesn't exist", jobs.get(9608118));
         Assert.assertNotNull("Job doesn't exist", jobs.get(9791754));
+        Assert.assertEquals("Jobs should be found with one qstat call", 1, qstatCalls[0]);
     }
 
     public void testParseQacctJobs() throws Exception {
@@ -350,5 +346,212 @@ public class SgeJobPollTest extends TestCase {
         Assert.assertTrue("Poller did not treat lost job properly", poller.isSuccessful());
     }
 
+    public void testBulkPollingWithAccountingFile() throws Exception {
+        System.out.println("testBulkPollingWithAccountingFile");
+        File dir = createFakeSge();
+        //finished before polling started, must not be tracked
+        writeFile(dir, "accounting", accountingLine("Job0-1234", 100, 0, 1));
+        writeFile(dir, "qstat.1.xml", qstatXml("101:r:Job1-1234", "102:qw:Job2-1234", "103:r:Job3-1234", "200:r:Other"));
+        writeFile(dir, "qstat.2.xml", qstatXml("102:r:Job2-1234", "103:r:Job3-1234", "200:r:Other"));
+        writeFile(dir, "accounting.2", accountingLine("Job1-1234", 101, 0, 0));
+        writeFile(dir, "qstat.3.xml", qstatXml("103:r:Job3-1234"));
+        //job 104 was submitted and finished between two rounds
+        writeFile(dir, "accounting.3", accountingLine("Job2-1234", 102, 0, 0) + accountingLine("Job4-1234", 104, 0, 0));
+        writeFile(dir, "accounting.4", accountingLine("Job3-1234", 103, 0, 0));
+
+        StringBuilder log = new StringBuilder();
+        SgeJobPoll poller = createFakeSgePoller(dir, log, true);
+        poller.runMe();
+
+        Assert.assertTrue("One of the jobs failed when they should have succeeded", poller.isSuccessful());
+        Assert.assertEquals("qstat should be called once per round", "4", readFile(dir, "qstat.count"));
+        Assert.assertEquals("qacct should only be called before polling", "1", readFile(dir, "qacct.count"));
+        Assert.assertTrue("Job finished between rounds was not tracked", log.indexOf("Job 104 status SUCCESSFUL") >= 0);
+        Assert.assertTrue("Job finished before polling was tracked", log.indexOf("Job 100 ") < 0);
+        Assert.assertTrue("Job with other name was tracked", log.indexOf("Job 200 ") < 0);
+    }
+
+    public void testFailedJobInAccountingFile() throws Exception {
+        System.out.println("testFailedJobInAccountingFile");
+        File dir = createFakeSge();
+        writeFile(dir, "accounting", "");
+        writeFile(dir, "qstat.1.xml", qstatXml("101:r:Job1-1234", "102:r:Job2-1234"));
+        writeFile(dir, "qstat.2.xml", qstatXml("102:r:Job2-1234"));
+        writeFile(dir, "accounting.2", accountingLine("Job1-1234", 101, 0, 1));
+        writeFile(dir, "accounting.3", accountingLine("Job2-1234", 102, 0, 0));
+
+        StringBuilder log = new StringBuilder();
+        SgeJobPoll poller = createFakeSgePoller(dir, log, true);
+        poller.runMe();
+
+        Assert.assertFalse("Poller did not find failed job", poller.isSuccessful());
+        Assert.assertTrue("Wrong job status", log.indexOf("Job 101 status EXIT_ERROR") >= 0);
+    }
+
+    public void testErrorStateJob() throws Exception {
+        System.out.println("testErrorStateJob");
+        File dir = createFakeSge();
+        writeFile(dir, "accounting", "");
+        writeFile(dir, "qstat.1.xml", qstatXml("101:r:Job1-1234", "102:Eqw:Job2-1234"));
+        writeFile(dir, "qstat.2.xml", qstatXml("102:Eqw:Job2-1234"));
+        writeFile(dir, "accounting.2", accountingLine("Job1-1234", 101, 0, 0));
+
+        SgeJobPoll poller = createFakeSgePoller(dir, new StringBuilder(), true);
+        poller.runMe();
+
+        Assert.assertFalse("Poller did not find job in error state", poller.isSuccessful());
+        Assert.assertEquals("Job in error state should not be polled again", "2", readFile(dir, "qstat.count"));
+    }
+
+    public void testBulkPollingWithQacct() throws Exception {
+        System.out.println("testBulkPollingWithQacct");
+        File dir = createFakeSge();
+        writeFile(dir, "qstat.1.xml", qstatXml("101:r:Job1-1234", "102:r:Job2-1234"));
+        writeFile(dir, "qstat.2.xml", qstatXml("102:r:Job2-1234"));
+        writeFile(dir, "qacct.2", qacctBlock("Job1-1234", 101, 0, 0));
+        writeFile(dir, "qacct.3", qacctBlock("Job1-1234", 101, 0, 0) + qacctBlock("Job2-1234", 102, 0, 0));
+
+        SgeJobPoll poller = createFakeSgePoller(dir, new StringBuilder(), false);
+        poller.runMe();
+
+        Assert.assertTrue("One of the jobs failed when they should have succeeded", poller.isSuccessful());
+        Assert.assertEquals("qstat should be called once per round", "3", readFile(dir, "qstat.count"));
+        Assert.assertEquals("qacct should be called once per round with finished jobs", "3", readFile(dir, "qacct.count"));
+    }
+
+    public void testHistoryFile() throws Exception {
+        System.out.println("testHistoryFile");
+        File dir = createFakeSge();
+        writeFile(dir, "accounting", "");
+        writeFile(dir, "qstat.1.xml", qstatXml("101:qw:Job1-1234", "102:r:Job2-1234"));
+        writeFile(dir, "qstat.2.xml", qstatXml("101:r:Job1-1234", "102:r:Job2-1234"));
+        writeFile(dir, "qstat.3.xml", qstatXml("101:r:Job1-1234"));
+        writeFile(dir, "accounting.3", accountingLine("Job2-1234", 102, 0, 0));
+        writeFile(dir, "accounting.4", accountingLine("Job1-1234", 101, 0, 1));
+
+        SgeJobPoll poller = createFakeSgePoller(dir, new StringBuilder(), true, "--history-file", new File(dir, "history.json").getPath());
+        poller.runMe();
+
+        Assert.assertFalse("Poller did not find failed job", poller.isSuccessful());
+        List<String> job101 = new ArrayList<String>();
+        List<String> job102 = new ArrayList<String>();
+        for (String line : readFile(dir, "history.json").split("\n")) {
+            Assert.assertTrue("Not a JSON object: " + line, line.startsWith("{\"event\":\"") && line.endsWith("}"));
+            if (line.contains("\"job_number\":\"101\"")) {
+                job101.add(line);
+            } else if (line.contains("\"job_number\":\"102\"")) {
+                job102.add(line);
+            } else {
+                Assert.fail("Unexpected event: " + line);
+            }
+        }
+        Assert.assertEquals("Wrong events: " + job101, 3, job101.size());
+        Assert.assertTrue(job101.get(0).contains("\"event\":\"submitted\""));
+        Assert.assertTrue(job101.get(1).contains("\"event\":\"started\""));
+        Assert.assertTrue(job101.get(2).contains("\"event\":\"finished\""));
+        Assert.assertTrue(job101.get(2).contains("\"status\":\"EXIT_ERROR\""));
+        Assert.assertTrue(job101.get(2).contains("\"exit_status\":1"));
+        Assert.assertTrue(job101.get(2).contains("\"start_time\":1370643524"));
+        Assert.assertTrue(job101.get(2).contains("\"end_time\":1370643554"));
+        Assert.assertTrue(job101.get(2).contains("\"wallclock\":30.0"));
+        Assert.assertTrue(job101.get(2).contains("\"maxvmem\":13664256"));
+        Assert.assertEquals("Wrong events: " + job102, 3, job102.size());
+        Assert.assertTrue(job102.get(2).contains("\"status\":\"SUCCESSFUL\""));
+    }
+
+    /**
+     * Creates a directory with fake qstat and qacct scripts. The scripts count
+     * their calls in "qstat.count" and "qacct.count". Call n of qstat appends
+     * "accounting.n" (if present) to "accounting" and prints "qstat.n.xml" (or
+     * no jobs); call n of qacct prints "qacct.n" (or nothing).
+     */
+    static File createFakeSge() throws IOException {
+        File dir = Files.createTempDirectory("sge-poll").toFile();
+        writeScript(dir, "qstat", "#!/bin/sh\n"
+                + "dir=$(dirname \"$0\")\n"
+                + "n=$(cat \"$dir/qstat.count\" 2>/dev/null || echo 0)\n"
+                + "n=$((n+1))\n"
+                + "printf $n > \"$dir/qstat.count\"\n"
+                + "if [ -f \"$dir/accounting.$n\" ]; then cat \"$dir/accounting.$n\" >> \"$dir/accounting\"; fi\n"
+                + "if [ -f \"$dir/qstat.$n.xml\" ]; then cat \"$dir/qstat.$n.xml\"; else echo '<job_info><queue_info/><job_info/></job_info>'; fi\n");
+        writeScript(dir, "qacct", "#!/bin/sh\n"
+                + "dir=$(dirname \"$0\")\n"
+                + "n=$(cat \"$dir/qacct.count\" 2>/dev/null || echo 0)\n"
+                + "n=$((n+1))\n"
+                + "printf $n > \"$dir/qacct.count\"\n"
+                + "if [ -f \"$dir/qacct.$n\" ]; then cat \"$dir/qacct.$n\"; fi\n");
+        return dir;
+    }
+
+    private SgeJobPoll createFakeSgePoller(File dir, final StringBuilder log, boolean useAccountingFile, String... extraArgs) {
+        List<String> args = new ArrayList<String>(Arrays.asList("--unique-job-string", "1234", "--output-file", new File(dir, "log.txt").getPath(),
+                "--qstat", new File(dir, "qstat").getPath(), "--qacct", new File(dir, "qacct").getPath()));
+        if (useAccountingFile) {
+            args.addAll(Arrays.asList("--accounting-file", new File(dir, "accounting").getPath()));
+        }
+        args.addAll(Arrays.asList(extraArgs));
+        SgeJobPoll poller = new SgeJobPoll(args.toArray(new String[args.size()])) {
+
+            @Override
+            protected void finish() {
+                printLogsToStd();
+                setDone(true);
+            }
+
+            @Override
+            protected void outPrintln(String... details) {
+                super.outPrintln(details);
+                for (String detail : details) {
+                    log.append(detail);
+                }
+                log.append("\n");
+            }
+        };
+        poller.setPollInterval(10);
+        poller.setMaxPollInterval(40);
+        return poller;
+    }
+
+    static String qstatXml(String... jobs) {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0'?>\n<job_info>\n  <queue_info>\n");
+        for (String job : jobs) {
+            String[] numberStateName = job.split(":");
+            xml.append("    <job_list state=\"running\">\n")
+                    .append("      <JB_job_number>").append(numberStateName[0]).append("</JB_job_number>\n")
+                    .append("      <JB_name>").append(numberStateName[2]).append("</JB_name>\n")
+                    .append("      <state>").append(numberStateName[1]).append("</state>\n")
+                    .append("    </job_list>\n");
+        }
+        return xml.append("  </queue_info>\n  <job_info>\n  </job_info>\n</job_info>\n").toString();
+    }
+
+    static String accountingLine(String name, int number, int failed, int exitStatus) {
+        return "production:cn8-51.hpc.oicr.on.ca:users:mtaschuk:" + name + ":" + number + ":sge:0:1370643521:1370643524:1370643554:"
+                + failed + ":" + exitStatus + ":30:0.052000:0.008000:1912.000000:0:0:0:0:12940:9:0:504.000000:24:0:0:0:382:48:NONE:"
+                + "defaultdepartment:NONE:1:0:0.060000:0.000000:0.000000:-U users:0.000000:NONE:13664256.000000\n";
+    }
+
+    static String qacctBlock(String name, int number, int failed, int exitStatus) {
+        return "==============================================================\n"
+                + "qname        production\n"
+                + "jobname      " + name + "\n"
+                + "jobnumber    " + number + "\n"
+                + "taskid       undefined\n"
+                + "failed       " + failed + "\n"
+                + "exit_status  " + exitStatus + "\n";
+    }
+
+    private static void writeScript(File dir, String name, String content) throws IOException {
+        writeFile(dir, name, content);
+        new File(dir, name).setExecutable(true);
+    }
+
+    static void writeFile(File dir, String name, String content) throws IOException {
+        Files.write(new File(dir, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readFile(File dir, String name) throws IOException {
+        return new String(Files.readAllBytes(new File(dir, name).toPath()), StandardCharsets.UTF_8);
+    }
 
 }
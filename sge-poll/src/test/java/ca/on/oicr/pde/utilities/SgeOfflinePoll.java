@@ -77,6 +77,11 @@ public class SgeOfflinePoll extends SgeJobPoll {
         this.jobs = jobs;
     }
 
+    @Override
+    protected void refreshStatus() {
+        //statuses come from the status queues
+    }
+
     @Override
     public JobStatus checkStatus(String jobId) {
         return status.get(jobId).poll();
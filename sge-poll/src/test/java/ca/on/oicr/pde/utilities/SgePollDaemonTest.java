@@ -0,0 +1,208 @@
+package ca.on.oicr.pde.utilities;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import static ca.on.oicr.pde.utilities.SgeJobPollTest.accountingLine;
+import static ca.on.oicr.pde.utilities.SgeJobPollTest.createFakeSge;
+import static ca.on.oicr.pde.utilities.SgeJobPollTest.qstatXml;
+import static ca.on.oicr.pde.utilities.SgeJobPollTest.readFile;
+import static ca.on.oicr.pde.utilities.SgeJobPollTest.writeFile;
+
+public class SgePollDaemonTest extends TestCase {
+
+    public SgePollDaemonTest(String testName) {
+        super(testName);
+    }
+
+    public void testDaemonWithTwoClients() throws Exception {
+        System.out.println("testDaemonWithTwoClients");
+        File dir = createFakeSge();
+        File spoolDir = new File(dir, "spool");
+        spoolDir.mkdir();
+        writeFile(dir, "accounting", "");
+        writeFile(dir, "qstat.1.xml", qstatXml("101:r:Job1-aaaa", "102:r:Job2-bbbb", "200:r:Other"));
+        writeFile(dir, "qstat.2.xml", qstatXml("102:r:Job2-bbbb", "200:r:Other"));
+        writeFile(dir, "accounting.2", accountingLine("Job1-aaaa", 101, 0, 0));
+        writeFile(dir, "qstat.3.xml", qstatXml("200:r:Other"));
+        writeFile(dir, "accounting.3", accountingLine("Job2-bbbb", 102, 0, 1));
+
+        SgePollDaemon daemon = new SgePollDaemon(new String[]{"--spool-dir", spoolDir.getPath(), "--accounting-file", new File(dir, "accounting").getPath(),
+            "--qstat", new File(dir, "qstat").getPath(), "--qacct", new File(dir, "qacct").getPath()});
+        PollerThread first = new PollerThread(createClient(dir, spoolDir, "aaaa", 60, "--history-file", new File(dir, "aaaa.ndjson").getPath()));
+        PollerThread second = new PollerThread(createClient(dir, spoolDir, "bbbb", 60));
+        first.start();
+        second.start();
+        waitForRequests(spoolDir, 2);
+
+        int rounds = 0;
+        while ((first.isAlive() || second.isAlive()) && rounds < 500) {
+            daemon.runOnce();
+            rounds++;
+            Thread.sleep(20);
+        }
+        daemon.runOnce();
+
+        Assert.assertNull("Client failed", first.error);
+        Assert.assertNull("Client failed", second.error);
+        Assert.assertTrue("Job of first client did not succeed", first.poller.isSuccessful());
+        Assert.assertFalse("Job of second client did not fail", second.poller.isSuccessful());
+        Assert.assertEquals("Wrong exit status of first client", Integer.valueOf(0), first.poller.exitStatus);
+        Assert.assertEquals("Wrong exit status of second client", Integer.valueOf(15), second.poller.exitStatus);
+        Assert.assertTrue("History file was not closed before exiting", readFile(dir, "aaaa.ndjson").contains("\"event\":\"finished\""));
+        Assert.assertTrue("Output file was not written", new File(dir, "aaaa.txt").exists());
+        Assert.assertEquals("qacct should only be called once per subscription", "2", readFile(dir, "qacct.count"));
+        Assert.assertTrue("qstat should be called at most once per daemon round", Integer.parseInt(readFile(dir, "qstat.count")) <= rounds);
+        Assert.assertEquals("Request files were not removed", 0, getRequestFiles(spoolDir).size());
+        Assert.assertFalse("Status file was not removed", SgePollSpool.getStatusFile(spoolDir, "aaaa").exists());
+        Assert.assertFalse("Status file was not removed", SgePollSpool.getStatusFile(spoolDir, "bbbb").exists());
+    }
+
+    public void testFallBackWithoutDaemon() throws Exception {
+        System.out.println("testFallBackWithoutDaemon");
+        File dir = createFakeSge();
+        File spoolDir = new File(dir, "spool");
+        spoolDir.mkdir();
+        writeFile(dir, "accounting", "");
+        writeFile(dir, "qstat.1.xml", qstatXml("101:r:Job1-aaaa"));
+        writeFile(dir, "accounting.2", accountingLine("Job1-aaaa", 101, 0, 0));
+
+        TestPoller poller = createClient(dir, spoolDir, "aaaa", 1);
+        poller.runMe();
+
+        Assert.assertTrue("Job did not succeed after falling back to polling SGE", poller.isSuccessful());
+        Assert.assertEquals("Wrong exit status", Integer.valueOf(0), poller.exitStatus);
+        Assert.assertEquals("qstat should be called once per round", "2", readFile(dir, "qstat.count"));
+        Assert.assertEquals("Request file was not removed", 0, getRequestFiles(spoolDir).size());
+    }
+
+    public void testSharedJobString() throws Exception {
+        System.out.println("testSharedJobString");
+        File dir = createFakeSge();
+        File spoolDir = new File(dir, "spool");
+        spoolDir.mkdir();
+        writeFile(dir, "accounting", "");
+        SgePollDaemon daemon = new SgePollDaemon(new String[]{"--spool-dir", spoolDir.getPath(), "--accounting-file", new File(dir, "accounting").getPath(),
+            "--qstat", new File(dir, "qstat").getPath(), "--qacct", new File(dir, "qacct").getPath()});
+        SpoolDirectoryClient first = new SpoolDirectoryClient(spoolDir, "aaaa", null, 60000);
+        SpoolDirectoryClient second = new SpoolDirectoryClient(spoolDir, "aaaa", null, 60000);
+        File statusFile = SgePollSpool.getStatusFile(spoolDir, "aaaa");
+
+        first.subscribe();
+        second.subscribe();
+        Assert.assertFalse("Clients share a request file", first.getRequestFile().equals(second.getRequestFile()));
+        daemon.runOnce();
+        Assert.assertTrue("Status file was not written", statusFile.exists());
+
+        first.unsubscribe();
+        daemon.runOnce();
+        Assert.assertTrue("Status file was removed while a client is subscribed", statusFile.exists());
+        second.refresh();
+        Assert.assertTrue("Status was not read", second.isRefreshed());
+
+        second.unsubscribe();
+        daemon.runOnce();
+        Assert.assertFalse("Status file was not removed", statusFile.exists());
+    }
+
+    public void testExpiredLease() throws Exception {
+        System.out.println("testExpiredLease");
+        File dir = createFakeSge();
+        File spoolDir = new File(dir, "spool");
+        spoolDir.mkdir();
+        writeFile(dir, "accounting", "");
+        SgePollDaemon daemon = new SgePollDaemon(new String[]{"--spool-dir", spoolDir.getPath(), "--accounting-file", new File(dir, "accounting").getPath(),
+            "--qstat", new File(dir, "qstat").getPath(), "--qacct", new File(dir, "qacct").getPath(), "--lease", "60"});
+        SpoolDirectoryClient killed = new SpoolDirectoryClient(spoolDir, "aaaa", null, 60000);
+        SpoolDirectoryClient alive = new SpoolDirectoryClient(spoolDir, "bbbb", null, 60000);
+        killed.subscribe();
+        alive.subscribe();
+        daemon.runOnce();
+        Assert.assertTrue("Status file was not written", SgePollSpool.getStatusFile(spoolDir, "aaaa").exists());
+
+        //the killed client stops renewing its lease
+        long expired = System.currentTimeMillis() - daemon.getLease() - 1000;
+        killed.getRequestFile().setLastModified(expired);
+        alive.getRequestFile().setLastModified(expired);
+        alive.refresh();
+        daemon.runOnce();
+        Assert.assertFalse("Expired request was not removed", killed.getRequestFile().exists());
+        Assert.assertFalse("Status file of expired request was not removed", SgePollSpool.getStatusFile(spoolDir, "aaaa").exists());
+        Assert.assertTrue("Renewed request was removed", alive.getRequestFile().exists());
+        Assert.assertTrue("Status file of renewed request was removed", SgePollSpool.getStatusFile(spoolDir, "bbbb").exists());
+
+        //a client that was suspended past its lease subscribes again
+        killed.refresh();
+        Assert.assertTrue("Request was not renewed", killed.getRequestFile().exists());
+        daemon.runOnce();
+        Assert.assertTrue("Status file was not written", SgePollSpool.getStatusFile(spoolDir, "aaaa").exists());
+    }
+
+    private static TestPoller createClient(File dir, File spoolDir, String jobString, int daemonTimeout, String... extraArgs) {
+        List<String> args = new ArrayList<String>(Arrays.asList("--unique-job-string", jobString, "--output-file", new File(dir, jobString + ".txt").getPath(),
+                "--spool-dir", spoolDir.getPath(), "--daemon-timeout", String.valueOf(daemonTimeout), "--accounting-file", new File(dir, "accounting").getPath(),
+                "--qstat", new File(dir, "qstat").getPath(), "--qacct", new File(dir, "qacct").getPath()));
+        args.addAll(Arrays.asList(extraArgs));
+        TestPoller poller = new TestPoller(args.toArray(new String[args.size()]));
+        poller.setPollInterval(10);
+        poller.setMaxPollInterval(40);
+        return poller;
+    }
+
+    private static List<File> getRequestFiles(File spoolDir) {
+        List<File> requests = new ArrayList<File>();
+        for (File file : spoolDir.listFiles()) {
+            if (file.getName().endsWith(SgePollSpool.REQUEST_SUFFIX)) {
+                requests.add(file);
+            }
+        }
+        return requests;
+    }
+
+    private static void waitForRequests(File spoolDir, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && getRequestFiles(spoolDir).size() < count; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("Request files were not created", count, getRequestFiles(spoolDir).size());
+    }
+
+    /**
+     * Runs the real finish, but records the exit status instead of exiting.
+     */
+    private static class TestPoller extends SgeJobPoll {
+
+        private Integer exitStatus;
+
+        TestPoller(String[] args) {
+            super(args);
+        }
+
+        @Override
+        protected void exit(int status) {
+            exitStatus = status;
+        }
+    }
+
+    private static class PollerThread extends Thread {
+
+        private final TestPoller poller;
+        private Exception error;
+
+        PollerThread(TestPoller poller) {
+            this.poller = poller;
+        }
+
+        @Override
+        public void run() {
+            try {
+                poller.runMe();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+}